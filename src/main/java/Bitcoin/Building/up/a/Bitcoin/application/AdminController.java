@@ -6,11 +6,15 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +35,15 @@ public class AdminController {
     private final LotteryDrawRepository lotteryDrawRepository;
     private final LotteryPrizeRepository lotteryPrizeRepository;
     private final CoinTransactionRepository coinTransactionRepository;
+    private final ReconciliationService reconciliationService;
+    private final ReconciliationRunRepository reconciliationRunRepository;
+    private final ReconciliationDiscrepancyRepository reconciliationDiscrepancyRepository;
+    private final TransactionExportService transactionExportService;
+    private final CoinEconomyRollupService coinEconomyRollupService;
+    private final CoinTransactionArchiveService coinTransactionArchiveService;
+    private final EscrowExpirySweeper escrowExpirySweeper;
+    private final WalletShardService walletShardService;
+    private final LedgerEngine ledgerEngine;
 
     // ---------------------------------------------------------------------
     // Dashboard stats
@@ -114,6 +127,223 @@ public class AdminController {
         return ResponseEntity.ok(draws);
     }
 
+    // ---------------------------------------------------------------------
+    // Ledger reconciliation: wallets vs. coin transactions
+    // ---------------------------------------------------------------------
+    @PostMapping("/reconciliation/runs")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Start a reconciliation run", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<?> startReconciliation() {
+        try {
+            ReconciliationRun run = reconciliationService.startManualRun();
+            return ResponseEntity.accepted().body(Map.of(
+                    "success", true,
+                    "run", run
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    @GetMapping("/reconciliation/runs")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "List recent reconciliation runs", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<List<ReconciliationRun>> listReconciliationRuns() {
+        return ResponseEntity.ok(reconciliationRunRepository.findTop20ByOrderByStartedAtDesc());
+    }
+
+    @GetMapping("/reconciliation/runs/{runId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Get a reconciliation run and its discrepancies", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<Map<String, Object>> getReconciliationRun(@PathVariable Long runId,
+                                                                    @RequestParam(defaultValue = "0") int page,
+                                                                    @RequestParam(defaultValue = "100") int size) {
+        ReconciliationRun run = reconciliationRunRepository.findById(runId)
+                .orElseThrow(() -> new RuntimeException("Reconciliation run not found"));
+        Page<ReconciliationDiscrepancy> discrepancies = reconciliationDiscrepancyRepository
+                .findByRunIdOrderByWalletIdAscIdAsc(runId, PageRequest.of(Math.max(page, 0), Math.max(1, Math.min(size, 1000))));
+
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("run", run);
+        resp.put("discrepancies", discrepancies.getContent());
+        resp.put("totalDiscrepancies", discrepancies.getTotalElements());
+        resp.put("page", discrepancies.getNumber());
+        return ResponseEntity.ok(resp);
+    }
+
+    // ---------------------------------------------------------------------
+    // Escrow expiry sweeper
+    // ---------------------------------------------------------------------
+    @GetMapping("/escrow/sweeps")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Recent escrow expiry sweeps", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<List<EscrowExpirySweeper.SweepRun>> listEscrowSweeps() {
+        return ResponseEntity.ok(escrowExpirySweeper.getRecentRuns());
+    }
+
+    @PostMapping("/escrow/sweeps")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Refund expired escrow holds now", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<?> runEscrowSweep() {
+        EscrowExpirySweeper.SweepRun run = escrowExpirySweeper.sweep();
+        if (run == null) {
+            return ResponseEntity.status(409).body(Map.of(
+                    "success", false,
+                    "message", "An escrow sweep is already running"
+            ));
+        }
+        return ResponseEntity.ok(Map.of(
+                "success", true,
+                "run", run
+        ));
+    }
+
+    // ---------------------------------------------------------------------
+    // Hot wallets (sharded balances)
+    // ---------------------------------------------------------------------
+    @GetMapping("/wallets/shards")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Wallets with sharded balances", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<List<Map<String, Object>>> listShardedWallets() {
+        return ResponseEntity.ok(walletShardService.getShardedWallets());
+    }
+
+    @PutMapping("/wallets/{userId}/shards")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Set the balance shard count of a user's wallet (0 turns sharding off)",
+            security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<?> setWalletShards(@PathVariable Long userId, @RequestParam int count) {
+        try {
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "wallet", walletShardService.configure(userId, count)
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // In-memory ledger engine
+    // ---------------------------------------------------------------------
+    @GetMapping("/ledger-engine")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Ledger engine throughput and flush progress", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<Map<String, Object>> getLedgerEngineStats() {
+        return ResponseEntity.ok(ledgerEngine.getStats());
+    }
+
+    // ---------------------------------------------------------------------
+    // Coin economy analytics (served from the hourly / daily rollups)
+    // ---------------------------------------------------------------------
+    @GetMapping("/economy/summary")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Coin circulation, minting and spending totals", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<Map<String, Object>> getEconomySummary() {
+        return ResponseEntity.ok(coinEconomyRollupService.getSummary());
+    }
+
+    @GetMapping("/economy/trends")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Coin circulation, minting and spending per hour or day", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<?> getEconomyTrends(
+            @RequestParam(defaultValue = "day") String granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            LocalDateTime end = to != null ? to : LocalDateTime.now();
+            LocalDateTime start = from != null ? from : end.minusDays(30);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "granularity", granularity.toLowerCase(),
+                    "buckets", coinEconomyRollupService.getTrend(
+                            CoinEconomyRollupService.Granularity.parse(granularity), start, end)
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Transaction export (all users), streamed as CSV / NDJSON
+    // ---------------------------------------------------------------------
+    @GetMapping("/transactions/export")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Export all coin transactions", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<?> exportTransactions(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "true") boolean gzip,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            TransactionExportService.Format exportFormat = TransactionExportService.Format.parse(format);
+            return TransactionExportService.attachment(
+                    transactionExportService.exportAll(exportFormat, gzip, from, to),
+                    exportFormat, gzip, "transactions-all");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Archived transactions (detached monthly partitions) - slow path
+    // ---------------------------------------------------------------------
+    @GetMapping("/transactions/archives")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "List archived transaction partitions", security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<List<CoinTransactionArchive>> listTransactionArchives() {
+        return ResponseEntity.ok(coinTransactionArchiveService.listArchives());
+    }
+
+    @GetMapping("/transactions/archives/search")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Search archived transactions (scans archive files, slow)",
+            security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<?> searchTransactionArchives(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<Map<String, Object>> transactions = coinTransactionArchiveService.search(from, to, userId, limit);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "transactions", transactions,
+                    "count", transactions.size()
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/transactions/archives/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Create upcoming partitions and archive expired ones now",
+            security = @SecurityRequirement(name = "bearerAuth"))
+    public ResponseEntity<Map<String, Object>> runTransactionArchival() {
+        coinTransactionArchiveService.ensurePartitions();
+        int archived = coinTransactionArchiveService.archiveExpiredPartitions();
+        return ResponseEntity.ok(Map.of(
+                "success", true,
+                "archived", archived
+        ));
+    }
+
     // ---------------------------------------------------------------------
     // Upload placeholder for admin
     // ---------------------------------------------------------------------
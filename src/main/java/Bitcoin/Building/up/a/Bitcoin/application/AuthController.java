@@ -33,6 +33,7 @@ public class AuthController {
     private final AuthenticationManager authenticationManager;
     private final UserDetailsService userDetailsService;
     private final NotificationService notificationService;
+    private final WalletService walletService;
 
     @PostMapping("/register")
     @Operation(summary = "Register new user", description = "Register a new user account with email verification")
@@ -76,6 +77,14 @@ public class AuthController {
 
             User savedUser = userRepository.save(user);
 
+            // Provision the wallet now so the first wallet request does not have to
+            try {
+                walletService.createWallet(savedUser);
+            } catch (Exception e) {
+                log.error("Failed to create wallet for user {}", savedUser.getId(), e);
+                // Created lazily on first wallet access instead
+            }
+
             // Send verification email
             try {
                 emailService.sendVerificationEmail(savedUser.getEmail(), savedUser.getName(), verificationToken);
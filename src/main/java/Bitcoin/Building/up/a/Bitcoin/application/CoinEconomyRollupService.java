@@ -0,0 +1,271 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Coin economy analytics from the hourly / daily rollups (V17).
+ *
+ * Every committed insert or status change on coin_transactions appends a
+ * signed delta (by trigger, in the writer's transaction); {@link #fold()}
+ * moves deltas into the rollup tables. Reads combine the rollups with the
+ * few deltas not folded yet, so results are exact as of the last commit
+ * and cost the same whatever the size of the transaction table.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CoinEconomyRollupService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletRepository walletRepository;
+
+    @Value("${rollup.fold.batch-size:5000}")
+    private int foldBatchSize;
+
+    @Value("${rollup.fold.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    @Value("${rollup.trend.max-buckets:5000}")
+    private int maxBuckets;
+
+    // Claim a batch of deltas and add it to both rollups in one statement;
+    // the delete and the upserts commit together, so nothing is counted twice
+    private static final String FOLD_SQL =
+            "WITH moved AS (" +
+            "DELETE FROM coin_tx_rollup_deltas WHERE id IN (" +
+            "SELECT id FROM coin_tx_rollup_deltas ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING bucket_hour, type, category, status, tx_count, amount_sum), " +
+            "hourly AS (" +
+            "INSERT INTO coin_tx_rollups_hourly AS r (bucket_start, type, category, status, tx_count, amount_sum) " +
+            "SELECT bucket_hour, type, category, status, SUM(tx_count), SUM(amount_sum) FROM moved " +
+            "GROUP BY bucket_hour, type, category, status " +
+            "ON CONFLICT (bucket_start, type, category, status) DO UPDATE SET " +
+            "tx_count = r.tx_count + EXCLUDED.tx_count, amount_sum = r.amount_sum + EXCLUDED.amount_sum " +
+            "RETURNING 1), " +
+            "daily AS (" +
+            "INSERT INTO coin_tx_rollups_daily AS r (bucket_start, type, category, status, tx_count, amount_sum) " +
+            "SELECT date_trunc('day', bucket_hour), type, category, status, SUM(tx_count), SUM(amount_sum) FROM moved " +
+            "GROUP BY date_trunc('day', bucket_hour), type, category, status " +
+            "ON CONFLICT (bucket_start, type, category, status) DO UPDATE SET " +
+            "tx_count = r.tx_count + EXCLUDED.tx_count, amount_sum = r.amount_sum + EXCLUDED.amount_sum " +
+            "RETURNING 1) " +
+            "SELECT COUNT(*) FROM moved";
+
+    private static final String TOTALS_SQL =
+            "SELECT type, category, status, SUM(tx_count) AS tx_count, SUM(amount_sum) AS amount_sum FROM (" +
+            "SELECT type, category, status, tx_count, amount_sum FROM coin_tx_rollups_daily " +
+            "UNION ALL " +
+            "SELECT type, category, status, tx_count, amount_sum FROM coin_tx_rollup_deltas" +
+            ") r GROUP BY type, category, status";
+
+    // Everything strictly before the first bucket, to seed the running circulation
+    private static final String OPENING_SQL =
+            "SELECT type, SUM(amount_sum) AS amount_sum FROM (" +
+            "SELECT type, status, amount_sum FROM coin_tx_rollups_daily WHERE bucket_start < date_trunc('day', ?::timestamp) " +
+            "UNION ALL " +
+            "SELECT type, status, amount_sum FROM coin_tx_rollups_hourly " +
+            "WHERE bucket_start >= date_trunc('day', ?::timestamp) AND bucket_start < ? " +
+            "UNION ALL " +
+            "SELECT type, status, amount_sum FROM coin_tx_rollup_deltas WHERE bucket_hour < ?" +
+            ") r WHERE status <> 'FAILED' GROUP BY type";
+
+    private static final String WALLET_COUNT_ESTIMATE_SQL =
+            "SELECT reltuples::bigint FROM pg_class WHERE oid = 'wallets'::regclass";
+
+    public enum Granularity {
+        HOUR("coin_tx_rollups_hourly", ChronoUnit.HOURS),
+        DAY("coin_tx_rollups_daily", ChronoUnit.DAYS);
+
+        private final String table;
+        private final ChronoUnit unit;
+
+        Granularity(String table, ChronoUnit unit) {
+            this.table = table;
+            this.unit = unit;
+        }
+
+        public static Granularity parse(String value) {
+            try {
+                return Granularity.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported granularity: " + value);
+            }
+        }
+    }
+
+    /**
+     * Fold journalled deltas into the hourly and daily rollups
+     */
+    @Scheduled(fixedDelayString = "${rollup.fold.interval-ms:5000}")
+    public void fold() {
+        try {
+            long folded = 0;
+            for (int round = 0; round < maxBatchesPerRun; round++) {
+                Integer moved = jdbcTemplate.queryForObject(FOLD_SQL, Integer.class, foldBatchSize);
+                folded += moved == null ? 0 : moved;
+                if (moved == null || moved < foldBatchSize) {
+                    break;
+                }
+            }
+            if (folded > 0) {
+                log.debug("Folded {} coin transaction deltas into rollups", folded);
+            }
+        } catch (Exception e) {
+            log.error("Coin economy rollup fold failed", e);
+        }
+    }
+
+    /**
+     * All-time totals: circulation, minting, spending and counts per type, category and status
+     */
+    public Map<String, Object> getSummary() {
+        Map<String, Long> countByType = new TreeMap<>();
+        Map<String, Long> byCategory = new TreeMap<>();
+        Map<String, Long> byStatus = new TreeMap<>();
+        Map<String, BigDecimal> settledByType = new TreeMap<>();
+
+        jdbcTemplate.query(TOTALS_SQL, rs -> {
+            String type = rs.getString("type");
+            String status = rs.getString("status");
+            long count = rs.getLong("tx_count");
+
+            countByType.merge(type, count, Long::sum);
+            byCategory.merge(rs.getString("category"), count, Long::sum);
+            byStatus.merge(status, count, Long::sum);
+            if (!"FAILED".equals(status)) {
+                settledByType.merge(type, rs.getBigDecimal("amount_sum"), BigDecimal::add);
+            }
+        });
+
+        Map<String, Object> byType = new TreeMap<>();
+        countByType.forEach((type, count) -> byType.put(type, Map.of(
+                "count", count,
+                "amount", amount(settledByType, type)
+        )));
+
+        BigDecimal circulation = circulationChange(settledByType);
+        BigDecimal inEscrow = amount(settledByType, "ESCROW_HOLD")
+                .subtract(amount(settledByType, "ESCROW_RELEASE"))
+                .subtract(amount(settledByType, "REFUND"));
+        long wallets = estimateWalletCount();
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("circulation", circulation);
+        summary.put("inEscrow", inEscrow);
+        summary.put("minted", amount(settledByType, "EARN").add(amount(settledByType, "TOP_UP")));
+        summary.put("spent", amount(settledByType, "SPEND"));
+        summary.put("transferred", amount(settledByType, "TRANSFER"));
+        summary.put("wallets", wallets);
+        summary.put("averageWalletBalance", wallets > 0
+                ? circulation.divide(BigDecimal.valueOf(wallets), Coins.SCALE, RoundingMode.HALF_UP)
+                : BigDecimal.ZERO);
+        summary.put("byType", byType);
+        summary.put("byCategory", byCategory);
+        summary.put("byStatus", byStatus);
+        return summary;
+    }
+
+    /**
+     * Per-bucket minting, spending and running circulation for buckets
+     * starting in [from, to); from is rounded down to the bucket boundary
+     */
+    public List<Map<String, Object>> getTrend(Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = from.truncatedTo(granularity.unit);
+        if (!to.isAfter(start)) {
+            throw new IllegalArgumentException("'to' must be after 'from'");
+        }
+        long buckets = Duration.between(start, to).toHours() / (granularity == Granularity.DAY ? 24 : 1);
+        if (buckets > maxBuckets) {
+            throw new IllegalArgumentException("Range too large for " + granularity.name().toLowerCase()
+                    + " buckets (max " + maxBuckets + ")");
+        }
+
+        Timestamp startTs = Timestamp.valueOf(start);
+        Timestamp endTs = Timestamp.valueOf(to);
+
+        Map<String, BigDecimal> opening = new TreeMap<>();
+        jdbcTemplate.query(OPENING_SQL, rs -> {
+            opening.put(rs.getString("type"), rs.getBigDecimal("amount_sum"));
+        }, startTs, startTs, startTs, startTs);
+
+        String unit = granularity == Granularity.DAY ? "day" : "hour";
+        String trendSql = "SELECT date_trunc('" + unit + "', bucket) AS bucket_start, type, " +
+                "SUM(tx_count) AS tx_count, SUM(amount_sum) AS amount_sum FROM (" +
+                "SELECT bucket_start AS bucket, type, status, tx_count, amount_sum FROM " + granularity.table + " " +
+                "WHERE bucket_start >= ? AND bucket_start < ? " +
+                "UNION ALL " +
+                "SELECT bucket_hour, type, status, tx_count, amount_sum FROM coin_tx_rollup_deltas " +
+                "WHERE bucket_hour >= ? AND bucket_hour < ?" +
+                ") r WHERE status <> 'FAILED' GROUP BY 1, 2 ORDER BY 1";
+
+        Map<LocalDateTime, Map<String, BigDecimal>> amounts = new TreeMap<>();
+        Map<LocalDateTime, Long> counts = new TreeMap<>();
+        jdbcTemplate.query(trendSql, rs -> {
+            LocalDateTime bucket = rs.getTimestamp("bucket_start").toLocalDateTime();
+            amounts.computeIfAbsent(bucket, b -> new TreeMap<>()).put(rs.getString("type"), rs.getBigDecimal("amount_sum"));
+            counts.merge(bucket, rs.getLong("tx_count"), Long::sum);
+        }, startTs, endTs, startTs, endTs);
+
+        BigDecimal circulation = circulationChange(opening);
+        List<Map<String, Object>> trend = new ArrayList<>();
+        for (Map.Entry<LocalDateTime, Map<String, BigDecimal>> entry : amounts.entrySet()) {
+            Map<String, BigDecimal> byType = entry.getValue();
+            BigDecimal change = circulationChange(byType);
+            circulation = circulation.add(change);
+
+            Map<String, Object> point = new LinkedHashMap<>();
+            point.put("bucketStart", entry.getKey());
+            point.put("transactions", counts.get(entry.getKey()));
+            point.put("minted", amount(byType, "EARN").add(amount(byType, "TOP_UP")));
+            point.put("spent", amount(byType, "SPEND"));
+            point.put("transferred", amount(byType, "TRANSFER"));
+            point.put("escrowHeld", amount(byType, "ESCROW_HOLD"));
+            point.put("circulationChange", change);
+            point.put("circulation", circulation);
+            trend.add(point);
+        }
+        return trend;
+    }
+
+    // Wallet balance (excluding escrow) moved by each transaction type, same
+    // rules as WalletService: minting adds, spending removes, holds park coins
+    // in pending until released or refunded, transfers net to zero
+    private static BigDecimal circulationChange(Map<String, BigDecimal> amountByType) {
+        BigDecimal change = BigDecimal.ZERO;
+        for (Map.Entry<String, BigDecimal> entry : amountByType.entrySet()) {
+            change = switch (entry.getKey()) {
+                case "EARN", "TOP_UP", "ESCROW_RELEASE", "REFUND" -> change.add(entry.getValue());
+                case "SPEND", "ESCROW_HOLD" -> change.subtract(entry.getValue());
+                default -> change;
+            };
+        }
+        return change;
+    }
+
+    private static BigDecimal amount(Map<String, BigDecimal> amountByType, String type) {
+        return amountByType.getOrDefault(type, BigDecimal.ZERO);
+    }
+
+    // Planner statistics instead of COUNT(*) over wallets; exact only for never-analyzed tables
+    private long estimateWalletCount() {
+        Long estimate = jdbcTemplate.queryForObject(WALLET_COUNT_ESTIMATE_SQL, Long.class);
+        return estimate != null && estimate > 0 ? estimate : walletRepository.count();
+    }
+}
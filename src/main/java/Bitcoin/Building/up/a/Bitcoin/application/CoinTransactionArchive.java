@@ -0,0 +1,72 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * A monthly coin_transactions partition that was detached from the live
+ * table and written to a gzip'd CSV file (local disk or S3)
+ */
+@Entity
+@Table(name = "coin_transaction_archives")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CoinTransactionArchive {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "partition_name", nullable = false, unique = true, length = 63)
+    private String partitionName;
+
+    /** Inclusive start of the partition's created_at range */
+    @Column(name = "range_start", nullable = false)
+    private LocalDateTime rangeStart;
+
+    /** Exclusive end of the partition's created_at range */
+    @Column(name = "range_end", nullable = false)
+    private LocalDateTime rangeEnd;
+
+    @Column(nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    @Column(nullable = false, length = 10)
+    @Enumerated(EnumType.STRING)
+    private Storage storage;
+
+    /** File path for LOCAL, object key for S3 */
+    @Column(length = 1000)
+    private String location;
+
+    @Column(name = "row_count")
+    private Long rowCount;
+
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
+
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(name = "detached_at", nullable = false)
+    @Builder.Default
+    private LocalDateTime detachedAt = LocalDateTime.now();
+
+    @Column(name = "archived_at")
+    private LocalDateTime archivedAt;
+
+    public enum Status {
+        DETACHING,  // claimed, partition may still be attached
+        DETACHED,   // out of the live table, file not written yet
+        ARCHIVED    // file written, partition dropped
+    }
+
+    public enum Storage {
+        LOCAL,
+        S3
+    }
+}
@@ -0,0 +1,24 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface CoinTransactionArchiveRepository extends JpaRepository<CoinTransactionArchive, Long> {
+
+    List<CoinTransactionArchive> findAllByOrderByRangeStartDesc();
+
+    List<CoinTransactionArchive> findByStatusOrderByRangeStartAsc(CoinTransactionArchive.Status status);
+
+    // Archives whose [rangeStart, rangeEnd) overlaps [from, to)
+    @Query("SELECT a FROM CoinTransactionArchive a WHERE a.status = :status " +
+            "AND a.rangeStart < :to AND a.rangeEnd > :from ORDER BY a.rangeStart")
+    List<CoinTransactionArchive> findOverlapping(@Param("status") CoinTransactionArchive.Status status,
+                                                 @Param("from") LocalDateTime from,
+                                                 @Param("to") LocalDateTime to);
+}
@@ -0,0 +1,487 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Partition upkeep and archival for the monthly coin_transactions partitions (V18).
+ *
+ * The nightly run creates partitions a few months ahead and archives months
+ * older than the retention window in two steps:
+ * <ol>
+ *   <li>detach: the archive is recorded as DETACHING, the partition is
+ *       detached with DETACH PARTITION ... CONCURRENTLY (outside any
+ *       transaction, so writers to the live table are not blocked), then one
+ *       transaction marks it DETACHED and folds its per-wallet legs into
+ *       coin_transaction_archived_legs, so reconciliation keeps balancing;</li>
+ *   <li>export: the detached table is streamed to a gzip'd CSV (local disk or
+ *       S3), then dropped in the same transaction that marks it ARCHIVED.</li>
+ * </ol>
+ * A crash between the steps leaves a DETACHING or DETACHED record that the
+ * next run finishes, including an interrupted concurrent detach (FINALIZE). Archived rows stay readable through {@link #search}, which
+ * scans the files and is deliberately a slow path.
+ */
+@Slf4j
+@Service
+public class CoinTransactionArchiveService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CoinTransactionArchiveRepository archiveRepository;
+    private final S3Service s3Service;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate outsideTransaction;
+
+    @Value("${transactions.partition.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${transactions.archive.retention-months:24}")
+    private int retentionMonths;
+
+    @Value("${transactions.archive.storage:LOCAL}")
+    private CoinTransactionArchive.Storage storage;
+
+    @Value("${transactions.archive.dir:./archive/coin-transactions}")
+    private String archiveDir;
+
+    @Value("${transactions.archive.fetch-size:5000}")
+    private int fetchSize;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_SEARCH_RESULTS = 1000;
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("coin_transactions_(\\d{4})_(\\d{2})");
+
+    private static final String[] COLUMNS = {
+            "id", "from_user_id", "to_user_id", "from_wallet_id", "to_wallet_id", "amount",
+            "type", "category", "description", "reference_id", "status", "created_at"
+    };
+
+    private static final String ENSURE_PARTITION_SQL = "SELECT ensure_coin_transactions_partition(?)";
+
+    private static final String LIST_PARTITIONS_SQL =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = 'coin_transactions'::regclass ORDER BY c.relname";
+
+    private static final String CLAIM_ARCHIVE_SQL =
+            "INSERT INTO coin_transaction_archives (partition_name, range_start, range_end, status, storage, detached_at) " +
+            "VALUES (?, ?, ?, 'DETACHING', ?, NOW()) ON CONFLICT (partition_name) DO NOTHING RETURNING id";
+
+    // No row: already detached. inhdetachpending: a concurrent detach was interrupted
+    private static final String DETACH_PENDING_SQL =
+            "SELECT i.inhdetachpending FROM pg_inherits i " +
+            "WHERE i.inhrelid = to_regclass(?) AND i.inhparent = 'coin_transactions'::regclass";
+
+    private static final String MARK_DETACHED_SQL =
+            "UPDATE coin_transaction_archives SET status = 'DETACHED', detached_at = NOW() " +
+            "WHERE id = ? AND status = 'DETACHING'";
+
+    // Same legs as ReconciliationService reads from the live table
+    private static final String FOLD_LEGS_SQL =
+            "INSERT INTO coin_transaction_archived_legs AS a (wallet_id, side, type, amount, tx_count) " +
+            "SELECT wallet_id, side, type, SUM(amount), COUNT(*) FROM (" +
+            "SELECT from_wallet_id AS wallet_id, 'FROM' AS side, type, amount FROM %1$s " +
+            "WHERE from_wallet_id IS NOT NULL AND status <> 'FAILED' " +
+            "UNION ALL " +
+            "SELECT to_wallet_id AS wallet_id, 'TO' AS side, type, amount FROM %1$s " +
+            "WHERE to_wallet_id IS NOT NULL AND status <> 'FAILED'" +
+            ") legs GROUP BY wallet_id, side, type " +
+            "ON CONFLICT (wallet_id, side, type) DO UPDATE SET " +
+            "amount = a.amount + EXCLUDED.amount, tx_count = a.tx_count + EXCLUDED.tx_count";
+
+    private static final String LOCK_DETACHED_SQL =
+            "SELECT id FROM coin_transaction_archives WHERE id = ? AND status = 'DETACHED' FOR UPDATE SKIP LOCKED";
+
+    private static final String MARK_ARCHIVED_SQL =
+            "UPDATE coin_transaction_archives SET status = 'ARCHIVED', storage = ?, location = ?, row_count = ?, " +
+            "size_bytes = ?, sha256 = ?, archived_at = NOW() WHERE id = ?";
+
+    public CoinTransactionArchiveService(JdbcTemplate jdbcTemplate,
+                                         CoinTransactionArchiveRepository archiveRepository,
+                                         S3Service s3Service,
+                                         PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.archiveRepository = archiveRepository;
+        this.s3Service = s3Service;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Suspends a caller's transaction: DETACH ... CONCURRENTLY refuses to run in one
+        this.outsideTransaction = new TransactionTemplate(transactionManager);
+        this.outsideTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+    }
+
+    /**
+     * Nightly partition upkeep: create upcoming months, archive expired ones
+     */
+    @Scheduled(cron = "${transactions.archive.cron:0 15 2 * * *}")
+    public void maintain() {
+        try {
+            ensurePartitions();
+        } catch (Exception e) {
+            log.error("Failed to create upcoming coin_transactions partitions", e);
+        }
+        try {
+            archiveExpiredPartitions();
+        } catch (Exception e) {
+            log.error("Coin transaction archival failed", e);
+        }
+    }
+
+    public void ensurePartitions() {
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            jdbcTemplate.queryForObject(ENSURE_PARTITION_SQL, String.class,
+                    Date.valueOf(current.plusMonths(i).atDay(1)));
+        }
+    }
+
+    /**
+     * Detach and export every partition older than the retention window
+     *
+     * @return number of partitions archived by this call
+     */
+    public int archiveExpiredPartitions() {
+        // Detaches a previous run did not get to finish
+        for (CoinTransactionArchive archive
+                : archiveRepository.findByStatusOrderByRangeStartAsc(CoinTransactionArchive.Status.DETACHING)) {
+            finishDetach(archive.getId(), archive.getPartitionName());
+        }
+
+        YearMonth cutoff = YearMonth.now().minusMonths(retentionMonths);
+        for (String partition : jdbcTemplate.queryForList(LIST_PARTITIONS_SQL, String.class)) {
+            YearMonth month = parseMonth(partition);
+            if (month != null && month.isBefore(cutoff)) {
+                detach(partition, month);
+            }
+        }
+
+        int archived = 0;
+        for (CoinTransactionArchive archive
+                : archiveRepository.findByStatusOrderByRangeStartAsc(CoinTransactionArchive.Status.DETACHED)) {
+            if (export(archive)) {
+                archived++;
+            }
+        }
+        return archived;
+    }
+
+    public List<CoinTransactionArchive> listArchives() {
+        return archiveRepository.findAllByOrderByRangeStartDesc();
+    }
+
+    /**
+     * Slow path: scan the archive files overlapping [from, to) for
+     * transactions involving userId (any user when null)
+     */
+    public List<Map<String, Object>> search(LocalDateTime from, LocalDateTime to, Long userId, int limit) {
+        if (!to.isAfter(from)) {
+            throw new IllegalArgumentException("'to' must be after 'from'");
+        }
+        int maxResults = Math.max(1, Math.min(limit, MAX_SEARCH_RESULTS));
+        List<Map<String, Object>> results = new ArrayList<>();
+
+        for (CoinTransactionArchive archive
+                : archiveRepository.findOverlapping(CoinTransactionArchive.Status.ARCHIVED, from, to)) {
+            try (InputStream in = open(archive);
+                 Reader reader = new BufferedReader(new InputStreamReader(
+                         new GZIPInputStream(in, BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                Map<String, Integer> header = indexHeader(readRecord(reader));
+                List<String> record;
+                while ((record = readRecord(reader)) != null) {
+                    LocalDateTime createdAt = LocalDateTime.parse(record.get(header.get("created_at")));
+                    if (createdAt.isBefore(from) || !createdAt.isBefore(to)) {
+                        continue;
+                    }
+                    if (userId != null && !userId.toString().equals(record.get(header.get("from_user_id")))
+                            && !userId.toString().equals(record.get(header.get("to_user_id")))) {
+                        continue;
+                    }
+                    results.add(toResponse(record, header));
+                    if (results.size() >= maxResults) {
+                        return results;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read archive " + archive.getPartitionName(), e);
+            }
+        }
+        return results;
+    }
+
+    private void detach(String partition, YearMonth month) {
+        Long archiveId = transactionTemplate.execute(status -> {
+            // A hold still waiting for release or refund must stay in the live table
+            Long escrowed = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM " + partition + " WHERE status = 'ESCROWED'", Long.class);
+            if (escrowed != null && escrowed > 0) {
+                log.warn("Not archiving {}: {} escrow holds are still open", partition, escrowed);
+                return null;
+            }
+
+            // The unique partition name makes concurrent nodes detach it only once
+            List<Long> claimed = jdbcTemplate.queryForList(CLAIM_ARCHIVE_SQL, Long.class, partition,
+                    month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay(), storage.name());
+            return claimed.isEmpty() ? null : claimed.get(0);
+        });
+        if (archiveId != null) {
+            finishDetach(archiveId, partition);
+        }
+    }
+
+    // Detach without holding an ACCESS EXCLUSIVE lock on coin_transactions,
+    // then fold the legs; safe to repeat after a failure at any point
+    private void finishDetach(Long archiveId, String partition) {
+        try {
+            outsideTransaction.executeWithoutResult(status -> {
+                List<Boolean> pending = jdbcTemplate.queryForList(DETACH_PENDING_SQL, Boolean.class, partition);
+                if (pending.isEmpty()) {
+                    return;
+                }
+                jdbcTemplate.execute("ALTER TABLE coin_transactions DETACH PARTITION " + partition
+                        + (Boolean.TRUE.equals(pending.get(0)) ? " FINALIZE" : " CONCURRENTLY"));
+            });
+        } catch (Exception e) {
+            log.error("Failed to detach partition {}, will retry on the next run", partition, e);
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (jdbcTemplate.update(MARK_DETACHED_SQL, archiveId) == 1) {
+                jdbcTemplate.update(String.format(FOLD_LEGS_SQL, partition));
+                log.info("Detached coin_transactions partition {}", partition);
+            }
+        });
+    }
+
+    private boolean export(CoinTransactionArchive archive) {
+        String partition = archive.getPartitionName();
+        try {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                if (jdbcTemplate.queryForList(LOCK_DETACHED_SQL, Long.class, archive.getId()).isEmpty()) {
+                    return false; // finished or being exported elsewhere
+                }
+
+                Path target = Path.of(archiveDir).resolve(partition + ".csv.gz");
+                Path temp = target.resolveSibling(partition + ".csv.gz.tmp");
+                long rows;
+                String sha256;
+                try {
+                    Files.createDirectories(target.getParent());
+                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                    try (OutputStream file = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                        rows = writeCsv(partition, file);
+                    }
+                    sha256 = HexFormat.of().formatHex(digest.digest());
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                long size;
+                String location;
+                try {
+                    size = Files.size(target);
+                    if (storage == CoinTransactionArchive.Storage.S3) {
+                        location = "archives/coin-transactions/" + target.getFileName();
+                        s3Service.uploadArchive(location, target);
+                        Files.delete(target);
+                    } else {
+                        location = target.toAbsolutePath().toString();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                jdbcTemplate.update(MARK_ARCHIVED_SQL, storage.name(), location, rows, size, sha256, archive.getId());
+                jdbcTemplate.execute("DROP TABLE " + partition);
+                log.info("Archived {} ({} rows, {} bytes) to {} {}", partition, rows, size, storage, location);
+                return true;
+            }));
+        } catch (Exception e) {
+            log.error("Failed to export detached partition {}, will retry on the next run", partition, e);
+            return false;
+        }
+    }
+
+    // Runs inside the export transaction, so the cursor streams with fetchSize
+    private long writeCsv(String partition, OutputStream file) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(file, BUFFER_SIZE);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(String.join(",", COLUMNS));
+        writer.write('\n');
+
+        String sql = "SELECT " + String.join(", ", COLUMNS) + " FROM " + partition + " ORDER BY created_at, id";
+        Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) con -> {
+            try (Statement statement = con.createStatement()) {
+                statement.setFetchSize(fetchSize);
+                long count = 0;
+                try (ResultSet rs = statement.executeQuery(sql)) {
+                    while (rs.next()) {
+                        for (int i = 0; i < COLUMNS.length; i++) {
+                            if (i > 0) {
+                                writer.write(',');
+                            }
+                            writeField(writer, rs, i + 1);
+                        }
+                        writer.write('\n');
+                        count++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count;
+            }
+        });
+        writer.flush();
+        gzip.finish();
+        return rows == null ? 0 : rows;
+    }
+
+    // NULL is an empty unquoted field; text is always quoted, so '' survives
+    private static void writeField(Writer writer, ResultSet rs, int column) throws SQLException, IOException {
+        String value = column == COLUMNS.length
+                ? (rs.getTimestamp(column) == null ? null : rs.getTimestamp(column).toLocalDateTime().toString())
+                : rs.getString(column);
+        if (value == null) {
+            return;
+        }
+        if (column <= 6 || column == COLUMNS.length) {
+            writer.write(value); // ids, amount and timestamp never need quoting
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    // One CSV record (quoted fields may span lines); null at end of file
+    private static List<String> readRecord(Reader reader) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        boolean quoted = false;
+        while (true) {
+            int c = reader.read();
+            if (c == -1) {
+                if (fields.isEmpty() && field.length() == 0 && !quoted) {
+                    return null;
+                }
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                return fields;
+            }
+            if (inQuotes) {
+                if (c != '"') {
+                    field.append((char) c);
+                    continue;
+                }
+                reader.mark(1);
+                if (reader.read() == '"') {
+                    field.append('"');
+                } else {
+                    reader.reset();
+                    inQuotes = false;
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',' || c == '\n') {
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                field.setLength(0);
+                quoted = false;
+                if (c == '\n') {
+                    return fields;
+                }
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    private static Map<String, Integer> indexHeader(List<String> header) throws IOException {
+        if (header == null) {
+            throw new IOException("Archive is empty");
+        }
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            index.put(header.get(i), i);
+        }
+        return index;
+    }
+
+    private static Map<String, Object> toResponse(List<String> record, Map<String, Integer> header) {
+        Map<String, Object> transaction = new LinkedHashMap<>();
+        transaction.put("id", Long.valueOf(record.get(header.get("id"))));
+        transaction.put("type", record.get(header.get("type")));
+        transaction.put("category", record.get(header.get("category")));
+        transaction.put("amount", new BigDecimal(record.get(header.get("amount"))));
+        transaction.put("description", record.get(header.get("description")));
+        transaction.put("referenceId", record.get(header.get("reference_id")));
+        transaction.put("status", record.get(header.get("status")));
+        transaction.put("createdAt", record.get(header.get("created_at")));
+        transaction.put("fromUserId", parseLong(record.get(header.get("from_user_id"))));
+        transaction.put("toUserId", parseLong(record.get(header.get("to_user_id"))));
+        transaction.put("fromWalletId", parseLong(record.get(header.get("from_wallet_id"))));
+        transaction.put("toWalletId", parseLong(record.get(header.get("to_wallet_id"))));
+        return transaction;
+    }
+
+    private static Long parseLong(String value) {
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    private InputStream open(CoinTransactionArchive archive) throws IOException {
+        return archive.getStorage() == CoinTransactionArchive.Storage.S3
+                ? s3Service.openArchive(archive.getLocation())
+                : Files.newInputStream(Path.of(archive.getLocation()));
+    }
+
+    private static YearMonth parseMonth(String partition) {
+        Matcher matcher = PARTITION_NAME.matcher(partition);
+        if (!matcher.matches()) {
+            return null; // the default partition
+        }
+        return YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+}
@@ -1,6 +1,8 @@
 package Bitcoin.Building.up.a.Bitcoin.application;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -19,6 +21,41 @@ public interface CoinTransactionRepository extends JpaRepository<CoinTransaction
     @Query(value = "SELECT * FROM coin_transactions WHERE from_user_id = :userId OR to_user_id = :userId ORDER BY created_at DESC LIMIT :limit OFFSET :offset", nativeQuery = true)
     List<CoinTransaction> findUserTransactionsWithPagination(@Param("userId") Long userId, @Param("offset") int offset, @Param("limit") int limit);
 
+    // Keyset page of a user's history strictly after (createdAt, id), newest first.
+    // Two indexed branches instead of an OR; the second skips rows the first already returned.
+    @Query(value = "SELECT * FROM (" +
+            "(SELECT * FROM coin_transactions WHERE from_user_id = :userId " +
+            "AND (created_at, id) < (:createdAt, :id) ORDER BY created_at DESC, id DESC LIMIT :limit) " +
+            "UNION ALL " +
+            "(SELECT * FROM coin_transactions WHERE to_user_id = :userId AND from_user_id IS DISTINCT FROM :userId " +
+            "AND (created_at, id) < (:createdAt, :id) ORDER BY created_at DESC, id DESC LIMIT :limit)" +
+            ") t ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<CoinTransaction> findUserTransactionsBefore(@Param("userId") Long userId,
+                                                     @Param("createdAt") java.time.LocalDateTime createdAt,
+                                                     @Param("id") Long id,
+                                                     @Param("limit") int limit);
+
+    // Same keyset page restricted to [from, to) and optionally one category;
+    // the created_at bounds keep the scan to the partitions in range
+    @Query(value = "SELECT * FROM (" +
+            "(SELECT * FROM coin_transactions WHERE from_user_id = :userId " +
+            "AND created_at >= :from AND created_at < :to " +
+            "AND (CAST(:category AS VARCHAR) IS NULL OR category = CAST(:category AS VARCHAR)) " +
+            "AND (created_at, id) < (:createdAt, :id) ORDER BY created_at DESC, id DESC LIMIT :limit) " +
+            "UNION ALL " +
+            "(SELECT * FROM coin_transactions WHERE to_user_id = :userId AND from_user_id IS DISTINCT FROM :userId " +
+            "AND created_at >= :from AND created_at < :to " +
+            "AND (CAST(:category AS VARCHAR) IS NULL OR category = CAST(:category AS VARCHAR)) " +
+            "AND (created_at, id) < (:createdAt, :id) ORDER BY created_at DESC, id DESC LIMIT :limit)" +
+            ") t ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<CoinTransaction> findUserTransactionsInRangeBefore(@Param("userId") Long userId,
+                                                            @Param("from") java.time.LocalDateTime from,
+                                                            @Param("to") java.time.LocalDateTime to,
+                                                            @Param("category") String category,
+                                                            @Param("createdAt") java.time.LocalDateTime createdAt,
+                                                            @Param("id") Long id,
+                                                            @Param("limit") int limit);
+
     // ENHANCED: Find by reference ID and type
     List<CoinTransaction> findByReferenceIdAndType(String referenceId, CoinTransaction.TransactionType type);
 
@@ -55,25 +92,27 @@ public interface CoinTransactionRepository extends JpaRepository<CoinTransaction
     @Query("SELECT COUNT(t) FROM CoinTransaction t WHERE t.fromUser.id = :userId OR t.toUser.id = :userId")
     Long countUserTransactions(@Param("userId") Long userId);
 
-    // Sum earnings by user
+    // Sum earnings by user (full history scan - prefer LedgerService.getBalanceForUser)
     @Query("SELECT COALESCE(SUM(t.amount), 0) FROM CoinTransaction t WHERE t.toUser.id = :userId AND t.type = 'EARN'")
     java.math.BigDecimal sumEarningsByUserId(@Param("userId") Long userId);
 
-    // Sum spending by user
+    // Sum spending by user (full history scan - prefer LedgerService.getBalanceForUser)
     @Query("SELECT COALESCE(SUM(t.amount), 0) FROM CoinTransaction t WHERE t.fromUser.id = :userId AND t.type = 'SPEND'")
     java.math.BigDecimal sumSpendingByUserId(@Param("userId") Long userId);
 
-    // Find recent transactions
-    @Query("SELECT t FROM CoinTransaction t ORDER BY t.createdAt DESC")
-    List<CoinTransaction> findRecentTransactions();
+    // Find recent transactions (the lower bound lets Postgres skip older monthly partitions)
+    @Query("SELECT t FROM CoinTransaction t WHERE t.createdAt >= :since ORDER BY t.createdAt DESC")
+    List<CoinTransaction> findRecentTransactions(@Param("since") java.time.LocalDateTime since, Pageable pageable);
 
     // Find pending escrow transactions
     List<CoinTransaction> findByTypeAndStatus(CoinTransaction.TransactionType type, CoinTransaction.TransactionStatus status);
 
-    // Find transactions by date range
+    // Find transactions by date range (scans only the partitions in range; archived months
+    // are served by CoinTransactionArchiveService.search)
     @Query("SELECT t FROM CoinTransaction t WHERE t.createdAt >= :startDate AND t.createdAt <= :endDate ORDER BY t.createdAt DESC")
     List<CoinTransaction> findTransactionsInDateRange(@Param("startDate") java.time.LocalDateTime startDate,
-                                                      @Param("endDate") java.time.LocalDateTime endDate);
+                                                      @Param("endDate") java.time.LocalDateTime endDate,
+                                                      Pageable pageable);
 
     // ENHANCED: Find photo-related transactions
     @Query("SELECT t FROM CoinTransaction t WHERE t.referenceId LIKE 'PHOTO-%' ORDER BY t.createdAt DESC")
@@ -87,7 +126,7 @@ public interface CoinTransactionRepository extends JpaRepository<CoinTransaction
     @Query("SELECT t FROM CoinTransaction t WHERE t.category IN ('LOTTERY_WIN', 'LOTTERY_PARTICIPATION') ORDER BY t.createdAt DESC")
     List<CoinTransaction> findLotteryRelatedTransactions();
 
-    // Statistics queries
+    // Statistics queries (full table scans - prefer CoinEconomyRollupService)
     @Query("SELECT COUNT(t) FROM CoinTransaction t WHERE t.type = :type")
     Long countByType(@Param("type") CoinTransaction.TransactionType type);
 
@@ -100,4 +139,11 @@ public interface CoinTransactionRepository extends JpaRepository<CoinTransaction
     // ENHANCED: Find reversible transactions (for photo deletion)
     @Query("SELECT t FROM CoinTransaction t WHERE t.referenceId = :referenceId AND t.type = 'EARN' AND t.status = 'COMPLETED'")
     List<CoinTransaction> findReversibleTransactionsByReference(@Param("referenceId") String referenceId);
-}
\ No newline at end of file
+
+    // Atomically move a transaction from one status to another (0 if it was already moved)
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE CoinTransaction t SET t.status = :to WHERE t.id = :id AND t.status = :from")
+    int transitionStatus(@Param("id") Long id,
+                         @Param("from") CoinTransaction.TransactionStatus from,
+                         @Param("to") CoinTransaction.TransactionStatus to);
+}
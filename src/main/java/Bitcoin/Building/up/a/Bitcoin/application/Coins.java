@@ -0,0 +1,128 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Coin amount as a count of minor units (1/100 coin) in a long.
+ *
+ * Matches the DECIMAL(15,2) wallet columns exactly, so it converts to and
+ * from BigDecimal without rounding (see {@link CoinsConverter}). Arithmetic
+ * is overflow-checked and throws ArithmeticException instead of wrapping.
+ * Whole-coin amounts up to {@link #CACHED_COINS} are shared instances, so the
+ * usual rewards and prices do not allocate. Serializes to JSON as a plain
+ * number, same as the BigDecimal it replaces.
+ */
+public final class Coins implements Comparable<Coins>, Serializable {
+
+    public static final int SCALE = 2;
+    public static final long MINOR_PER_COIN = 100;
+
+    private static final int CACHED_COINS = 1024;
+    private static final Coins[] WHOLE_COINS = new Coins[CACHED_COINS + 1];
+
+    static {
+        for (int i = 0; i <= CACHED_COINS; i++) {
+            WHOLE_COINS[i] = new Coins(i * MINOR_PER_COIN);
+        }
+    }
+
+    public static final Coins ZERO = WHOLE_COINS[0];
+
+    private final long minorUnits;
+
+    private Coins(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Coins ofMinor(long minorUnits) {
+        if (minorUnits >= 0 && minorUnits % MINOR_PER_COIN == 0 && minorUnits / MINOR_PER_COIN <= CACHED_COINS) {
+            return WHOLE_COINS[(int) (minorUnits / MINOR_PER_COIN)];
+        }
+        return new Coins(minorUnits);
+    }
+
+    public static Coins ofCoins(long coins) {
+        return ofMinor(Math.multiplyExact(coins, MINOR_PER_COIN));
+    }
+
+    /**
+     * Exact conversion; amounts with more than two decimals are rejected, not rounded
+     */
+    @JsonCreator
+    public static Coins of(BigDecimal amount) {
+        if (amount == null) {
+            return null;
+        }
+        try {
+            return ofMinor(amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Not a valid coin amount: " + amount.toPlainString());
+        }
+    }
+
+    public long minorUnits() {
+        return minorUnits;
+    }
+
+    public Coins plus(Coins other) {
+        return other.minorUnits == 0 ? this : ofMinor(Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    public Coins minus(Coins other) {
+        return other.minorUnits == 0 ? this : ofMinor(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    public Coins negate() {
+        return minorUnits == 0 ? this : ofMinor(Math.negateExact(minorUnits));
+    }
+
+    public Coins abs() {
+        return minorUnits >= 0 ? this : negate();
+    }
+
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    public boolean isNegative() {
+        return minorUnits < 0;
+    }
+
+    public boolean isAtLeast(Coins other) {
+        return minorUnits >= other.minorUnits;
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    @Override
+    public int compareTo(Coins other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Coins other && minorUnits == other.minorUnits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
@@ -0,0 +1,23 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.math.BigDecimal;
+
+/**
+ * Maps {@link Coins} onto the existing DECIMAL(15,2) amount columns
+ */
+@Converter
+public class CoinsConverter implements AttributeConverter<Coins, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Coins coins) {
+        return coins != null ? coins.toBigDecimal() : null;
+    }
+
+    @Override
+    public Coins convertToEntityAttribute(BigDecimal value) {
+        return Coins.of(value);
+    }
+}
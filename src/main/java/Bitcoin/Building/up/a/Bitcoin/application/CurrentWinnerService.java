@@ -0,0 +1,123 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The current (most recent) lottery winner, held in a single-entry cache.
+ *
+ * The entry is a future: the first request after it expires starts the
+ * lookup (one indexed read, see V26) and every concurrent request waits on
+ * that same future, so a miss under load costs exactly one query. Draws
+ * call {@link #refreshOnCommit}; the new winner is read after the commit
+ * and swapped in as an already completed entry, so readers never see a gap.
+ * The entry also expires after lottery.current-winner.ttl-ms, which picks
+ * up draws made on other nodes.
+ */
+@Slf4j
+@Service
+public class CurrentWinnerService {
+
+    private final PhotoRepository photoRepository;
+    private final long ttlMillis;
+
+    private final AtomicReference<CompletableFuture<Entry>> cache = new AtomicReference<>();
+
+    public CurrentWinnerService(PhotoRepository photoRepository,
+                                @Value("${lottery.current-winner.ttl-ms:30000}") long ttlMillis) {
+        this.photoRepository = photoRepository;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * The winning photo as the public endpoints render it, or null if nobody has won yet
+     */
+    public Map<String, Object> getCurrentWinner() {
+        while (true) {
+            CompletableFuture<Entry> cached = cache.get();
+            if (cached != null) {
+                if (!cached.isDone()) {
+                    return await(cached).winner();
+                }
+                Entry entry = cached.getNow(null);
+                if (entry != null && System.currentTimeMillis() - entry.loadedAt() < ttlMillis) {
+                    return entry.winner();
+                }
+            }
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            if (cache.compareAndSet(cached, mine)) {
+                return load(mine).winner();
+            }
+            // Another request started a lookup first; wait on that one
+        }
+    }
+
+    /**
+     * Re-read the winner once the current transaction commits (right away if there is none)
+     */
+    public void refreshOnCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                refresh();
+            }
+        });
+    }
+
+    private void refresh() {
+        try {
+            CompletableFuture<Entry> fresh = new CompletableFuture<>();
+            load(fresh);
+            cache.set(fresh);
+        } catch (Exception e) {
+            // Drop the entry; the next request looks the winner up again
+            log.warn("Failed to refresh the current winner: {}", e.getMessage());
+            cache.set(null);
+        }
+    }
+
+    private Entry load(CompletableFuture<Entry> future) {
+        try {
+            List<Photo> latest = photoRepository.findLatestWinnersWithUser(PageRequest.of(0, 1));
+            Map<String, Object> winner = latest.isEmpty()
+                    ? null : Collections.unmodifiableMap(PhotoUploadController.photoToMap(latest.get(0)));
+            Entry entry = new Entry(winner, System.currentTimeMillis());
+            future.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            // Waiters get the error; the failed entry is not kept
+            cache.compareAndSet(future, null);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record Entry(Map<String, Object> winner, long loadedAt) {
+    }
+}
@@ -0,0 +1,131 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refunds escrow holds of abandoned orders, so buyers get their pending
+ * coins back.
+ *
+ * Holds older than escrow.hold.ttl-hours whose order was cancelled or never
+ * shipped are refunded in batches, each in its own transaction via
+ * {@link WalletService#refundExpiredEscrowHolds}, which also marks an open
+ * order EXPIRED. Orders that shipped keep their hold until they complete. A
+ * connection is only held for one batch at a time. Batches claim holds with
+ * SKIP LOCKED, so several nodes can sweep at once. The last runs' metrics
+ * are kept in memory for the admin API.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EscrowExpirySweeper {
+
+    private final WalletService walletService;
+
+    @Value("${escrow.hold.ttl-hours:336}")
+    private long holdTtlHours;
+
+    @Value("${escrow.sweeper.batch-size:500}")
+    private int batchSize;
+
+    @Value("${escrow.sweeper.max-batches-per-run:200}")
+    private int maxBatchesPerRun;
+
+    private static final int RUN_HISTORY = 20;
+    private static final String REFUND_REASON = "Escrow hold expired";
+
+    private final Deque<SweepRun> recentRuns = new ConcurrentLinkedDeque<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Scheduled(fixedDelayString = "${escrow.sweeper.interval-ms:300000}")
+    public void scheduledSweep() {
+        sweep();
+    }
+
+    /**
+     * Refund expired holds until none are left or the per-run cap is hit
+     *
+     * @return metrics of this run, or null if a sweep is already running here
+     */
+    public SweepRun sweep() {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        SweepRun run = new SweepRun();
+        run.setStartedAt(LocalDateTime.now());
+        run.setCutoff(run.getStartedAt().minusHours(holdTtlHours));
+        long started = System.currentTimeMillis();
+        try {
+            for (int round = 0; round < maxBatchesPerRun; round++) {
+                WalletService.ExpiredHoldRefunds batch;
+                try {
+                    batch = walletService.refundExpiredEscrowHolds(run.getCutoff(), batchSize, REFUND_REASON);
+                } catch (Exception e) {
+                    run.setFailedBatches(run.getFailedBatches() + 1);
+                    log.error("Escrow expiry batch failed", e);
+                    break;
+                }
+                if (batch.getRefunded() == 0) {
+                    break;
+                }
+                run.setBatches(run.getBatches() + 1);
+                run.setRefunded(run.getRefunded() + batch.getRefunded());
+                run.setWalletUpdates(run.getWalletUpdates() + batch.getWallets());
+                run.setAmount(run.getAmount().plus(batch.getAmount()));
+                if (batch.getRefunded() < batchSize) {
+                    break;
+                }
+            }
+        } finally {
+            run.setFinishedAt(LocalDateTime.now());
+            run.setDurationMs(System.currentTimeMillis() - started);
+            record(run);
+            running.set(false);
+        }
+
+        if (run.getRefunded() > 0 || run.getFailedBatches() > 0) {
+            log.info("Escrow sweep refunded {} expired holds ({} coins, {} wallet updates) in {} batches, {} failed, {} ms",
+                    run.getRefunded(), run.getAmount(), run.getWalletUpdates(), run.getBatches(),
+                    run.getFailedBatches(), run.getDurationMs());
+        }
+        return run;
+    }
+
+    public List<SweepRun> getRecentRuns() {
+        return new ArrayList<>(recentRuns);
+    }
+
+    private void record(SweepRun run) {
+        recentRuns.addFirst(run);
+        while (recentRuns.size() > RUN_HISTORY) {
+            recentRuns.pollLast();
+        }
+    }
+
+    /**
+     * Metrics of one sweep
+     */
+    @Data
+    public static class SweepRun {
+        private LocalDateTime startedAt;
+        private LocalDateTime finishedAt;
+        private LocalDateTime cutoff;
+        private long durationMs;
+        private int batches;
+        private int failedBatches;
+        private long refunded;
+        private long walletUpdates; // per batch, so a wallet refunded in two batches counts twice
+        private Coins amount = Coins.ZERO;
+    }
+}
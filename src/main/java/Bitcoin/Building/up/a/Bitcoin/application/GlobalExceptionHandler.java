@@ -76,6 +76,16 @@ public class GlobalExceptionHandler {
         ));
     }
 
+    @ExceptionHandler(LedgerEngine.UnavailableException.class)
+    public ResponseEntity<?> handleLedgerEngineUnavailable(LedgerEngine.UnavailableException ex) {
+        log.warn("Ledger engine unavailable: {}", ex.getMessage());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of(
+                "success", false,
+                "message", ex.getMessage()
+        ));
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<?> handleRuntimeException(RuntimeException ex, WebRequest request) {
         log.error("Runtime exception on path {}: {}", request.getDescription(false), ex.getMessage(), ex);
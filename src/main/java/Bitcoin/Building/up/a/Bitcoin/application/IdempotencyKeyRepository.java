@@ -0,0 +1,13 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, Long> {
+
+    Optional<IdempotencyKey> findByScopeAndUserIdAndIdempotencyKey(IdempotencyKey.Scope scope, Long userId,
+                                                                  String idempotencyKey);
+}
@@ -0,0 +1,317 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs wallet operations at most once per idempotency key.
+ *
+ * The key is claimed with INSERT ... ON CONFLICT DO NOTHING in the same
+ * transaction as the operation itself, so the unique index does the
+ * cross-node work: a duplicate on another node blocks on the claim until the
+ * first transaction ends, then either sees the stored result or (after a
+ * rollback) claims the key itself. Within one node duplicates wait on the
+ * in-flight future instead of taking a connection, and completed keys are
+ * answered from a small LRU. A replay only reads the stored coin transaction;
+ * wallet rows are never touched. With the {@link LedgerEngine} on, a stored
+ * transaction may not be flushed yet, so a replay that misses it waits for
+ * the flush and reads again.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    private final CoinTransactionRepository coinTransactionRepository;
+    private final LedgerEngine ledgerEngine;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long waitMs;
+    private final int cacheSize;
+    private final Map<String, Stored> completed;
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private static final String CLAIM_SQL =
+            "INSERT INTO idempotency_keys (scope, user_id, idempotency_key, request_hash, created_at) " +
+            "VALUES (?, ?, ?, ?, NOW()) ON CONFLICT (scope, user_id, idempotency_key) DO NOTHING";
+
+    private static final String COMPLETE_SQL =
+            "UPDATE idempotency_keys SET transaction_id = ? WHERE scope = ? AND user_id = ? AND idempotency_key = ?";
+
+    private static final String CLAIM_BULK_SQL =
+            "INSERT INTO idempotency_keys (scope, user_id, idempotency_key, request_hash, transaction_id, created_at) " +
+            "SELECT ?, k.user_id, k.idempotency_key, k.request_hash, k.transaction_id, NOW() " +
+            "FROM unnest(?::bigint[], ?::text[], ?::text[], ?::bigint[]) AS k(user_id, idempotency_key, request_hash, transaction_id) " +
+            "ON CONFLICT (scope, user_id, idempotency_key) DO NOTHING RETURNING transaction_id";
+
+    private static final String RELEASE_BULK_SQL =
+            "DELETE FROM idempotency_keys k USING unnest(?::bigint[], ?::text[]) AS r(user_id, idempotency_key) " +
+            "WHERE k.scope = ? AND k.user_id = r.user_id AND k.idempotency_key = r.idempotency_key";
+
+    private static final String SELECT_STORED_SQL =
+            "SELECT request_hash, transaction_id FROM idempotency_keys WHERE scope = ? AND user_id = ? AND idempotency_key = ?";
+
+    public IdempotencyService(CoinTransactionRepository coinTransactionRepository,
+                              LedgerEngine ledgerEngine,
+                              JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${wallet.idempotency.wait-ms:10000}") long waitMs,
+                              @Value("${wallet.idempotency.cache-size:10000}") int cacheSize) {
+        this.coinTransactionRepository = coinTransactionRepository;
+        this.ledgerEngine = ledgerEngine;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.waitMs = waitMs;
+        this.cacheSize = cacheSize;
+        this.completed = new LinkedHashMap<>(Math.min(cacheSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stored> eldest) {
+                return size() > IdempotencyService.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Run the operation once for this key, or return the transaction it produced before.
+     *
+     * @param fingerprint canonical request parameters; reusing a key for a different request is rejected
+     */
+    public Outcome execute(IdempotencyKey.Scope scope, Long userId, String key, String fingerprint,
+                           Supplier<CoinTransaction> operation) {
+        if (key == null || key.isBlank()) {
+            return new Outcome(operation.get(), false);
+        }
+        if (key.length() > 255) {
+            throw new IllegalArgumentException("Idempotency key is too long");
+        }
+
+        String cacheKey = scope + ":" + userId + ":" + key;
+        String requestHash = sha256(fingerprint);
+
+        while (true) {
+            Stored stored = getCompleted(cacheKey);
+            if (stored != null) {
+                return replay(stored, requestHash);
+            }
+
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> running = inFlight.putIfAbsent(cacheKey, mine);
+            if (running == null) {
+                return claimAndRun(scope, userId, key, cacheKey, requestHash, mine, operation);
+            }
+            awaitInFlight(running);
+        }
+    }
+
+    /**
+     * Claim keys for a batch of already numbered transactions in one statement.
+     * Must run inside the caller's transaction.
+     *
+     * @return ids of the transactions whose key was free; the rest are duplicates to skip
+     */
+    public Set<Long> claimBulk(IdempotencyKey.Scope scope, List<BulkClaim> claims) {
+        Set<Long> claimed = new HashSet<>();
+        if (claims.isEmpty()) {
+            return claimed;
+        }
+
+        Long[] userIds = claims.stream().map(BulkClaim::getUserId).toArray(Long[]::new);
+        String[] keys = claims.stream().map(BulkClaim::getKey).toArray(String[]::new);
+        String[] hashes = claims.stream().map(c -> sha256(c.getFingerprint())).toArray(String[]::new);
+        Long[] transactionIds = claims.stream().map(BulkClaim::getTransactionId).toArray(Long[]::new);
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(CLAIM_BULK_SQL);
+            ps.setString(1, scope.name());
+            ps.setArray(2, con.createArrayOf("bigint", userIds));
+            ps.setArray(3, con.createArrayOf("text", keys));
+            ps.setArray(4, con.createArrayOf("text", hashes));
+            ps.setArray(5, con.createArrayOf("bigint", transactionIds));
+            return ps;
+        }, rs -> {
+            claimed.add(rs.getLong("transaction_id"));
+        });
+
+        if (claimed.size() < claims.size()) {
+            log.info("Skipped {} duplicate {} keys in bulk claim", claims.size() - claimed.size(), scope);
+        }
+        return claimed;
+    }
+
+    /**
+     * The transaction id stored for a key that {@link #claimBulk} found taken
+     *
+     * @throws IllegalArgumentException if the key was used for a different request
+     */
+    public Long findStored(IdempotencyKey.Scope scope, Long userId, String key, String fingerprint) {
+        Stored stored = jdbcTemplate.queryForObject(SELECT_STORED_SQL,
+                (rs, rowNum) -> new Stored(rs.getString("request_hash"), rs.getLong("transaction_id")),
+                scope.name(), userId, key);
+        if (stored.getRequestHash() != null && !stored.getRequestHash().equals(sha256(fingerprint))) {
+            throw new IllegalArgumentException("Idempotency key was already used for a different request");
+        }
+        return stored.getTransactionId();
+    }
+
+    /**
+     * Give back keys from {@link #claimBulk} whose transactions were not made
+     * after all (the ledger engine rejected them). Must run inside the
+     * caller's transaction.
+     */
+    public void releaseBulk(IdempotencyKey.Scope scope, List<BulkClaim> claims) {
+        if (claims.isEmpty()) {
+            return;
+        }
+        Long[] userIds = claims.stream().map(BulkClaim::getUserId).toArray(Long[]::new);
+        String[] keys = claims.stream().map(BulkClaim::getKey).toArray(String[]::new);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(RELEASE_BULK_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", userIds));
+            ps.setArray(2, con.createArrayOf("text", keys));
+            ps.setString(3, scope.name());
+            return ps;
+        });
+    }
+
+    private Outcome claimAndRun(IdempotencyKey.Scope scope, Long userId, String key, String cacheKey,
+                                String requestHash, CompletableFuture<Void> mine,
+                                Supplier<CoinTransaction> operation) {
+        boolean[] released = {false};
+        try {
+            return transactionTemplate.execute(status -> {
+                // Waiters are woken only once the claim is visible (or gone)
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int completionStatus) {
+                        inFlight.remove(cacheKey, mine);
+                        mine.complete(null);
+                    }
+                });
+                released[0] = true;
+
+                int claimed = jdbcTemplate.update(CLAIM_SQL, scope.name(), userId, key, requestHash);
+                if (claimed == 0) {
+                    Stored stored = jdbcTemplate.queryForObject(SELECT_STORED_SQL,
+                            (rs, rowNum) -> new Stored(rs.getString("request_hash"), rs.getLong("transaction_id")),
+                            scope.name(), userId, key);
+                    putCompletedOnCommit(cacheKey, stored);
+                    return replay(stored, requestHash);
+                }
+
+                CoinTransaction transaction = operation.get();
+                jdbcTemplate.update(COMPLETE_SQL, transaction.getId(), scope.name(), userId, key);
+                putCompletedOnCommit(cacheKey, new Stored(requestHash, transaction.getId()));
+                return new Outcome(transaction, false);
+            });
+        } finally {
+            if (!released[0]) {
+                inFlight.remove(cacheKey, mine);
+                mine.complete(null);
+            }
+        }
+    }
+
+    private Outcome replay(Stored stored, String requestHash) {
+        if (stored.getRequestHash() != null && !stored.getRequestHash().equals(requestHash)) {
+            throw new IllegalArgumentException("Idempotency key was already used for a different request");
+        }
+        Optional<CoinTransaction> transaction = coinTransactionRepository.findById(stored.getTransactionId());
+        if (transaction.isEmpty() && ledgerEngine.isEnabled()) {
+            // Accepted by the engine but not flushed yet
+            ledgerEngine.awaitFlushed();
+            transaction = coinTransactionRepository.findById(stored.getTransactionId());
+        }
+        return new Outcome(transaction.orElseThrow(() ->
+                new RuntimeException("Stored transaction not found: " + stored.getTransactionId())), true);
+    }
+
+    private void awaitInFlight(CompletableFuture<Void> running) {
+        try {
+            running.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("A request with this idempotency key is still in progress, please retry");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for duplicate request", e);
+        } catch (ExecutionException e) {
+            // Not reached: in-flight futures only ever complete normally
+        }
+    }
+
+    private Stored getCompleted(String cacheKey) {
+        synchronized (completed) {
+            return completed.get(cacheKey);
+        }
+    }
+
+    private void putCompletedOnCommit(String cacheKey, Stored stored) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                synchronized (completed) {
+                    completed.put(cacheKey, stored);
+                }
+            }
+        });
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class Stored {
+        private String requestHash;
+        private Long transactionId;
+    }
+
+    /**
+     * Result of an idempotent call; replayed is true when a stored result was returned
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Outcome {
+        private CoinTransaction transaction;
+        private boolean replayed;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BulkClaim {
+        private Long userId;
+        private String key;
+        private String fingerprint;
+        private Long transactionId;
+    }
+}
@@ -0,0 +1,313 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Wallet leaderboards (total earned and current balance) held in memory as
+ * {@link RankedIndex}es, so top-N pages and "my rank" are O(log n) instead
+ * of sorting the wallets table.
+ *
+ * The indexes are rebuilt from the database at startup and every
+ * leaderboard.rebuild-interval-ms. In between, {@link WalletService} marks
+ * the users it changed once their transaction commits; a single updater
+ * thread re-reads those wallets and moves them in the ranking. Because all
+ * reads and rebuilds run on that one thread, a later read can never be
+ * overwritten by an older one. Changes made on other nodes show up at the
+ * next rebuild.
+ */
+@Slf4j
+@Service
+public class LeaderboardService {
+
+    public enum Board {
+        EARNED, BALANCE;
+
+        public static Board parse(String value) {
+            try {
+                return Board.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new IllegalArgumentException("Unknown leaderboard: " + value + " (use earned or balance)");
+            }
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final UserRepository userRepository;
+    private final TransactionTemplate readTemplate;
+    private final ExecutorService updater;
+
+    @Value("${leaderboard.fetch-size:5000}")
+    private int fetchSize;
+
+    private static final String ALL_WALLETS_SQL =
+            "SELECT user_id, (total_earned * 100)::bigint AS earned, (balance * 100)::bigint AS balance " +
+            "FROM wallet_balances WHERE user_id IS NOT NULL";
+
+    private static final String WALLETS_BY_USER_SQL =
+            "SELECT user_id, (total_earned * 100)::bigint AS earned, (balance * 100)::bigint AS balance " +
+            "FROM wallet_balances WHERE user_id = ANY(?)";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private RankedIndex earned = new RankedIndex();
+    private RankedIndex balance = new RankedIndex();
+    private Map<Long, long[]> scores = new HashMap<>(); // userId -> {earned, balance} in minor units
+    private volatile boolean ready;
+
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    public LeaderboardService(JdbcTemplate jdbcTemplate,
+                              UserRepository userRepository,
+                              PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.userRepository = userRepository;
+        this.readTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate.setReadOnly(true);
+        this.updater = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "leaderboard-updater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updater.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        updater.execute(this::rebuild);
+    }
+
+    @Scheduled(initialDelayString = "${leaderboard.rebuild-interval-ms:600000}",
+            fixedDelayString = "${leaderboard.rebuild-interval-ms:600000}")
+    public void scheduledRebuild() {
+        updater.execute(this::rebuild);
+    }
+
+    /**
+     * Re-rank these users once the current transaction commits (right away
+     * if there is none)
+     */
+    public void refreshOnCommit(Collection<Long> userIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            markDirty(userIds);
+            return;
+        }
+        List<Long> ids = List.copyOf(userIds);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                markDirty(ids);
+            }
+        });
+    }
+
+    /**
+     * One page of the leaderboard. Users with equal scores share a rank.
+     *
+     * @throws IllegalStateException while the initial load is still running
+     */
+    public LeaderboardPage getPage(Board board, int page, int size) {
+        checkReady();
+        List<Entry> entries = new ArrayList<>(size);
+        int total;
+        lock.readLock().lock();
+        try {
+            RankedIndex index = index(board);
+            total = index.size();
+            long first = (long) page * size;
+            for (long position = first; position < Math.min(first + size, total); position++) {
+                RankedIndex.Node node = index.get((int) position);
+                entries.add(new Entry(index.countHigher(node.score) + 1, node.id, null, Coins.ofMinor(node.score)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!entries.isEmpty()) {
+            Map<Long, String> names = new HashMap<>();
+            userRepository.findAllById(entries.stream().map(Entry::getUserId).toList())
+                    .forEach(user -> names.put(user.getId(), user.getFullName()));
+            entries.forEach(entry -> entry.setFullName(names.get(entry.getUserId())));
+        }
+        return new LeaderboardPage(board, page, size, total, entries);
+    }
+
+    /**
+     * Rank of one user, or null if they have no wallet
+     *
+     * @throws IllegalStateException while the initial load is still running
+     */
+    public Entry getRank(Board board, Long userId) {
+        checkReady();
+        lock.readLock().lock();
+        try {
+            long[] userScores = scores.get(userId);
+            if (userScores == null) {
+                return null;
+            }
+            long score = userScores[board.ordinal()];
+            return new Entry(index(board).countHigher(score) + 1, userId, null, Coins.ofMinor(score));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return scores.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void checkReady() {
+        if (!ready) {
+            throw new IllegalStateException("Leaderboard is still loading");
+        }
+    }
+
+    private RankedIndex index(Board board) {
+        return board == Board.EARNED ? earned : balance;
+    }
+
+    private void markDirty(Collection<Long> userIds) {
+        dirty.addAll(userIds);
+        if (drainScheduled.compareAndSet(false, true)) {
+            updater.execute(this::drain);
+        }
+    }
+
+    // Runs on the updater thread only
+    private void rebuild() {
+        long started = System.currentTimeMillis();
+        try {
+            RankedIndex newEarned = new RankedIndex();
+            RankedIndex newBalance = new RankedIndex();
+            Map<Long, long[]> newScores = new HashMap<>();
+            // Anything marked before this read is covered by it
+            dirty.clear();
+            readTemplate.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(ALL_WALLETS_SQL);
+                ps.setFetchSize(fetchSize);
+                return ps;
+            }, rs -> {
+                long userId = rs.getLong("user_id");
+                long userEarned = rs.getLong("earned");
+                long userBalance = rs.getLong("balance");
+                newEarned.insert(userEarned, userId);
+                newBalance.insert(userBalance, userId);
+                newScores.put(userId, new long[]{userEarned, userBalance});
+            }));
+
+            lock.writeLock().lock();
+            try {
+                earned = newEarned;
+                balance = newBalance;
+                scores = newScores;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            ready = true;
+            log.info("Leaderboard rebuilt with {} wallets in {} ms", newScores.size(), System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.error("Leaderboard rebuild failed", e);
+        }
+    }
+
+    // Runs on the updater thread only
+    private void drain() {
+        drainScheduled.set(false);
+        Long[] userIds = dirty.toArray(new Long[0]);
+        if (userIds.length == 0) {
+            return;
+        }
+        dirty.removeAll(List.of(userIds));
+
+        Map<Long, long[]> fresh = new HashMap<>(userIds.length * 2);
+        try {
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(WALLETS_BY_USER_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", userIds));
+                return ps;
+            }, rs -> {
+                fresh.put(rs.getLong("user_id"), new long[]{rs.getLong("earned"), rs.getLong("balance")});
+            });
+        } catch (Exception e) {
+            // The next rebuild picks these up
+            log.warn("Failed to refresh {} leaderboard entries", userIds.length, e);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Long userId : userIds) {
+                long[] previous = scores.remove(userId);
+                if (previous != null) {
+                    earned.remove(previous[0], userId);
+                    balance.remove(previous[1], userId);
+                }
+                long[] current = fresh.get(userId);
+                if (current != null) {
+                    earned.insert(current[0], userId);
+                    balance.insert(current[1], userId);
+                    scores.put(userId, current);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Entry {
+        private int rank;
+        private Long userId;
+        private String fullName;
+        private Coins score;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class LeaderboardPage {
+        private Board board;
+        private int page;
+        private int size;
+        private int total;
+        private List<Entry> entries;
+    }
+}
@@ -0,0 +1,1003 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional single-writer ledger engine for peak events (wallet.engine.enabled).
+ *
+ * {@link WalletService} hands every wallet write (awards, spends, transfers,
+ * top-ups, bulk credits, escrow holds, releases and refunds) to a bounded
+ * ring buffer. One writer thread applies them to
+ * in-memory balances, with no row locks and no database round trip per
+ * command. Accepted commands are appended to the {@link LedgerJournal} and
+ * acknowledged after one fsync per group. A flusher thread then writes them
+ * to coin_transactions, ledger_postings and wallets in large batches. It
+ * moves the engine checkpoint in the same transaction, so a restart replays
+ * exactly the journal records that never reached the database.
+ *
+ * The writer also tracks the escrow holds it has seen, so a hold that is
+ * still unflushed can be settled, and a release and a refund of the same
+ * hold cannot both be accepted. The flush then marks the hold row settled.
+ *
+ * What the mode trades away:
+ * - A command is durable once journaled. It does not roll back with the
+ *   caller's database transaction.
+ * - Wallet rows and transaction history lag by up to one flush; callers
+ *   that must read an acknowledged transaction back use {@link #awaitFlushed}.
+ * - Balances live in this process, so only one node may run the engine.
+ * - Batch transfers debit in SQL and are refused while the engine runs.
+ */
+@Slf4j
+@Component
+public class LedgerEngine {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LedgerService ledgerService;
+    private final OutboxService outboxService;
+    private final WalletBalanceCache walletBalanceCache;
+    private final LeaderboardService leaderboardService;
+
+    @Value("${wallet.engine.enabled:false}")
+    private boolean enabled;
+
+    @Value("${wallet.engine.id:default}")
+    private String engineId;
+
+    @Value("${wallet.engine.journal-dir:./data/ledger-journal}")
+    private String journalDir;
+
+    @Value("${wallet.engine.segment-bytes:67108864}")
+    private long segmentBytes;
+
+    @Value("${wallet.engine.ring-size:65536}")
+    private int ringSize;
+
+    @Value("${wallet.engine.group-size:1024}")
+    private int groupSize;
+
+    @Value("${wallet.engine.flush-batch-size:5000}")
+    private int flushBatchSize;
+
+    @Value("${wallet.engine.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${wallet.engine.command-timeout-ms:5000}")
+    private long commandTimeoutMs;
+
+    @Value("${wallet.engine.id-block-size:1000}")
+    private int idBlockSize;
+
+    @Value("${wallet.bulk.batch-size:1000}")
+    private int batchSize;
+
+    private static final String NEXT_TRANSACTION_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('coin_transactions', 'id')) FROM generate_series(1, ?)";
+
+    // Balances and the flushed checkpoint from one snapshot: the row contains
+    // exactly the engine commands up to that checkpoint
+    private static final String SNAPSHOT_SQL =
+            "SELECT id, user_id, (balance * 100)::bigint AS balance, (pending_balance * 100)::bigint AS pending, " +
+            "(total_earned * 100)::bigint AS earned, (total_spent * 100)::bigint AS spent, " +
+            "COALESCE((SELECT last_sequence FROM ledger_engine_checkpoints WHERE engine_id = ?), 0) AS checkpoint " +
+            "FROM wallet_balances WHERE id = ANY(?)";
+
+    // A hold's status and the flushed checkpoint from one snapshot
+    private static final String HOLD_SNAPSHOT_SQL =
+            "SELECT status = 'ESCROWED' AS escrowed, " +
+            "COALESCE((SELECT last_sequence FROM ledger_engine_checkpoints WHERE engine_id = ?), 0) AS checkpoint " +
+            "FROM coin_transactions WHERE id = ? AND type = 'ESCROW_HOLD'";
+
+    private static final String SETTLE_HOLD_SQL =
+            "UPDATE coin_transactions SET status = ? WHERE id = ? AND status = 'ESCROWED'";
+
+    private static final String SELECT_CHECKPOINT_SQL =
+            "SELECT last_sequence FROM ledger_engine_checkpoints WHERE engine_id = ?";
+
+    private static final String SAVE_CHECKPOINT_SQL =
+            "INSERT INTO ledger_engine_checkpoints (engine_id, last_sequence, updated_at) VALUES (?, ?, NOW()) " +
+            "ON CONFLICT (engine_id) DO UPDATE SET last_sequence = EXCLUDED.last_sequence, updated_at = NOW()";
+
+    private static final String INSERT_TRANSACTION_SQL =
+            "INSERT INTO coin_transactions (id, from_user_id, to_user_id, from_wallet_id, to_wallet_id, amount, type, " +
+            "category, description, reference_id, status, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String LOCK_WALLETS_BY_ID_SQL =
+            "SELECT id FROM wallets WHERE id = ANY(?) ORDER BY id FOR UPDATE";
+
+    private static final String APPLY_DELTAS_SQL =
+            "UPDATE wallets w SET balance = w.balance + d.balance, pending_balance = w.pending_balance + d.pending, " +
+            "total_earned = w.total_earned + d.earned, total_spent = w.total_spent + d.spent, updated_at = NOW() " +
+            "FROM unnest(?::bigint[], ?::numeric[], ?::numeric[], ?::numeric[], ?::numeric[]) " +
+            "AS d(wallet_id, balance, pending, earned, spent) WHERE w.id = d.wallet_id";
+
+    // Holds tracked before the oldest flushed ones are forgotten
+    private static final int MAX_TRACKED_HOLDS = 10_000;
+    private static final int SETTLE_ATTEMPTS = 3;
+
+    // Writer thread only
+    private final Map<Long, Account> accounts = new HashMap<>();
+    // Escrow hold transaction id -> hold. Holds whose last command is
+    // flushed are pruned: the database row is exact for them then.
+    private final Map<Long, Hold> holds = new HashMap<>();
+    private long holdsPrunedThrough;
+    private LedgerJournal journal;
+    private long sequence;
+    private long released;
+
+    private final Set<Long> loaded = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<Command> flushQueue = new LinkedBlockingQueue<>();
+    private final ArrayDeque<Long> transactionIds = new ArrayDeque<>();
+    private ArrayBlockingQueue<Command> ring;
+    private Thread writer;
+    private Thread flusher;
+    private volatile boolean running;
+    private volatile boolean failed;
+    private volatile long flushedSequence;
+    private volatile long acceptedSequence;
+    private final Object flushMonitor = new Object();
+    private volatile long startedAtMillis;
+
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedCommands = new AtomicLong();
+
+    public LedgerEngine(JdbcTemplate jdbcTemplate,
+                        PlatformTransactionManager transactionManager,
+                        LedgerService ledgerService,
+                        OutboxService outboxService,
+                        WalletBalanceCache walletBalanceCache,
+                        LeaderboardService leaderboardService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ledgerService = ledgerService;
+        this.outboxService = outboxService;
+        this.walletBalanceCache = walletBalanceCache;
+        this.leaderboardService = leaderboardService;
+    }
+
+    /**
+     * Replay journal records above the checkpoint, then start the writer and flusher
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = new LedgerJournal(Path.of(journalDir), segmentBytes);
+        long checkpoint = jdbcTemplate.query(SELECT_CHECKPOINT_SQL,
+                rs -> rs.next() ? rs.getLong(1) : 0L, engineId);
+        sequence = checkpoint;
+        flushedSequence = checkpoint;
+
+        List<Command> replay = new ArrayList<>();
+        journal.replay(checkpoint, replay::add);
+        if (!replay.isEmpty()) {
+            Set<Long> walletIds = new HashSet<>();
+            replay.forEach(command -> walletIds.addAll(walletIdsOf(command)));
+            for (AccountSnapshot snapshot : readSnapshots(walletIds)) {
+                accounts.put(snapshot.getWalletId(), new Account(snapshot));
+                loaded.add(snapshot.getWalletId());
+            }
+            // Already accepted once; no balance checks on replay
+            for (Command command : replay) {
+                apply(command, command.getSequence(), false);
+                sequence = command.getSequence();
+                flushQueue.add(command);
+            }
+            log.info("Ledger engine {} replaying {} journal records after checkpoint {}",
+                    engineId, replay.size(), checkpoint);
+        }
+        acceptedSequence = sequence;
+
+        ring = new ArrayBlockingQueue<>(ringSize);
+        running = true;
+        startedAtMillis = System.currentTimeMillis();
+        writer = new Thread(this::runWriter, "ledger-engine-writer");
+        flusher = new Thread(this::runFlusher, "ledger-engine-flusher");
+        writer.start();
+        flusher.start();
+        log.info("Ledger engine {} started at sequence {} (journal {})", engineId, sequence, journalDir);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        writer.join(commandTimeoutMs);
+        // The flusher drains what the writer acknowledged; anything left is replayed on start
+        flusher.join(30_000);
+        journal.close();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Apply a wallet command through the engine. The transaction is built by
+     * the caller but not saved; on return it has its id and creation time and
+     * is journaled, and it reaches the database with the next flush.
+     *
+     * @param notificationType notification for the recipient, sent with the flush; null for none
+     * @throws UnavailableException if the engine is unavailable
+     * @throws RuntimeException if the balance does not cover a debit
+     */
+    public CoinTransaction execute(CoinTransaction transaction, Notification.NotificationType notificationType,
+                                   String notificationTitle, String notificationMessage) {
+        requireRunning();
+        Command command = toCommand(transaction, notificationType, notificationTitle, notificationMessage);
+        run(command);
+        return completed(transaction, command);
+    }
+
+    /**
+     * Release or refund an escrow hold. The settlement (an ESCROW_RELEASE from
+     * the buyer to the seller, or a REFUND to the buyer) is built by the
+     * caller but not saved. The engine checks the hold against the holds it
+     * accepted and, for older ones, the database row, so each hold settles
+     * once; the flush marks it COMPLETED or CANCELLED.
+     *
+     * @throws UnavailableException if the engine is unavailable
+     * @throws RuntimeException if the hold is already settled
+     */
+    public CoinTransaction settle(long holdTransactionId, CoinTransaction settlement,
+                                  Notification.NotificationType notificationType,
+                                  String notificationTitle, String notificationMessage) {
+        requireRunning();
+        Command command = toCommand(settlement, notificationType, notificationTitle, notificationMessage);
+        command.setHoldTransactionId(holdTransactionId);
+        for (int attempt = 1; ; attempt++) {
+            command.setHold(readHold(holdTransactionId));
+            try {
+                run(command);
+                return completed(settlement, command);
+            } catch (StaleHoldException e) {
+                // The hold was pruned after the row was read; read it again
+                if (attempt == SETTLE_ATTEMPTS) {
+                    throw new UnavailableException("Ledger engine is busy, please retry");
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply many credits at once (bulk awards and top-ups). They cannot be
+     * rejected for balance, so all are offered before any is awaited, and
+     * each keeps the transaction id the caller allocated. A credit in the
+     * ring is always answered, so this waits for every offered one.
+     *
+     * @return whether each credit was accepted, in order
+     */
+    public boolean[] creditAll(List<Command> credits) {
+        requireRunning();
+        boolean[] accepted = new boolean[credits.size()];
+        List<Long> missing = credits.stream().map(Command::getToWalletId).distinct()
+                .filter(id -> !loaded.contains(id)).toList();
+        if (!missing.isEmpty()) {
+            load(missing, false);
+        }
+
+        long now = System.currentTimeMillis();
+        int offered = 0;
+        try {
+            for (Command credit : credits) {
+                credit.setCreatedAtMillis(now);
+                credit.setDone(new CompletableFuture<>());
+                if (!ring.offer(credit, commandTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    log.warn("Ledger engine is busy: {} of {} bulk credits not offered",
+                            credits.size() - offered, credits.size());
+                    break;
+                }
+                offered++;
+            }
+            for (int i = 0; i < offered; i++) {
+                try {
+                    credits.get(i).getDone().get();
+                    accepted[i] = true;
+                } catch (ExecutionException e) {
+                    log.warn("Ledger engine rejected bulk credit {}: {}",
+                            credits.get(i).getTransactionId(), e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the ledger engine", e);
+        }
+        return accepted;
+    }
+
+    /**
+     * Build a bulk credit for {@link #creditAll}
+     */
+    public static Command credit(long transactionId, CoinTransaction.TransactionType type, long walletId, long userId,
+                                 BigDecimal amount, CoinTransaction.TransactionCategory category,
+                                 String description, String referenceId) {
+        Command command = new Command();
+        command.setTransactionId(transactionId);
+        command.setType(type);
+        command.setStatus(CoinTransaction.TransactionStatus.COMPLETED);
+        command.setCategory(category);
+        command.setDescription(description);
+        command.setReferenceId(referenceId);
+        command.setAmount(Coins.of(amount).minorUnits());
+        command.setToWalletId(walletId);
+        command.setToUserId(userId);
+        return command;
+    }
+
+    /**
+     * Wait until every command accepted so far is in the database, for
+     * callers that read back a transaction the engine acknowledged (an
+     * idempotent replay, a hold about to be settled). Returns at once when
+     * the engine is not running.
+     */
+    public void awaitFlushed() {
+        if (!running) {
+            return;
+        }
+        long target = acceptedSequence;
+        long deadline = System.currentTimeMillis() + commandTimeoutMs;
+        synchronized (flushMonitor) {
+            while (flushedSequence < target) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new UnavailableException("Ledger engine did not flush in time, please retry");
+                }
+                try {
+                    flushMonitor.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the ledger engine", e);
+                }
+            }
+        }
+    }
+
+    private void requireRunning() {
+        if (!running || failed) {
+            throw new UnavailableException("Ledger engine is not running");
+        }
+    }
+
+    private static Command toCommand(CoinTransaction transaction, Notification.NotificationType notificationType,
+                                     String notificationTitle, String notificationMessage) {
+        Command command = new Command();
+        command.setType(transaction.getType());
+        command.setStatus(transaction.getStatus());
+        command.setCategory(transaction.getCategory());
+        command.setDescription(transaction.getDescription());
+        command.setReferenceId(transaction.getReferenceId());
+        command.setAmount(Coins.of(transaction.getAmount()).minorUnits());
+        if (transaction.getFromWallet() != null) {
+            command.setFromWalletId(transaction.getFromWallet().getId());
+            command.setFromUserId(transaction.getFromWallet().getUser().getId());
+        }
+        if (transaction.getToWallet() != null) {
+            command.setToWalletId(transaction.getToWallet().getId());
+            command.setToUserId(transaction.getToWallet().getUser().getId());
+        }
+        command.setNotificationType(notificationType);
+        command.setNotificationTitle(notificationTitle);
+        command.setNotificationMessage(notificationMessage);
+        return command;
+    }
+
+    private void run(Command command) {
+        List<Long> missing = walletIdsOf(command).stream().filter(id -> !loaded.contains(id)).toList();
+        if (!missing.isEmpty()) {
+            load(missing, false);
+        }
+        if (command.getTransactionId() == 0) {
+            command.setTransactionId(nextTransactionId());
+        }
+        command.setCreatedAtMillis(System.currentTimeMillis());
+
+        try {
+            submit(command);
+        } catch (InsufficientBalanceException e) {
+            // Credits made before the engine started may be missing from memory: reload
+            // the wallet (only taken if no engine command on it is unflushed) and retry once
+            load(List.of(command.getFromWalletId()), true);
+            submit(command);
+        }
+    }
+
+    private static CoinTransaction completed(CoinTransaction transaction, Command command) {
+        transaction.setId(command.getTransactionId());
+        transaction.setCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(command.getCreatedAtMillis()),
+                ZoneId.systemDefault()));
+        return transaction;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("running", running);
+        stats.put("failed", failed);
+        stats.put("engineId", engineId);
+        stats.put("flushedSequence", flushedSequence);
+        stats.put("applied", applied.get());
+        stats.put("rejected", rejected.get());
+        stats.put("groupCommits", groups.get());
+        stats.put("flushes", flushes.get());
+        stats.put("flushedCommands", flushedCommands.get());
+        stats.put("queued", ring != null ? ring.size() : 0);
+        stats.put("unflushed", flushQueue.size());
+        stats.put("accounts", loaded.size());
+        long elapsed = System.currentTimeMillis() - startedAtMillis;
+        stats.put("commandsPerSecond", running && elapsed > 0 ? applied.get() * 1000.0 / elapsed : 0.0);
+        return stats;
+    }
+
+    private void submit(Command command) {
+        command.setDone(new CompletableFuture<>());
+        try {
+            if (!ring.offer(command, commandTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new UnavailableException("Ledger engine is busy, please retry");
+            }
+            command.getDone().get(commandTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("Ledger engine command failed", e.getCause());
+        } catch (TimeoutException e) {
+            // The command may still be applied; idempotency keys make retries safe
+            throw new UnavailableException("Ledger engine did not answer in time, please retry");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the ledger engine", e);
+        }
+    }
+
+    private void load(Collection<Long> walletIds, boolean refresh) {
+        Command control = new Command();
+        control.setSnapshots(readSnapshots(walletIds));
+        control.setRefresh(refresh);
+        submit(control);
+    }
+
+    private List<AccountSnapshot> readSnapshots(Collection<Long> walletIds) {
+        Long[] ids = walletIds.toArray(new Long[0]);
+        return jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SNAPSHOT_SQL);
+            ps.setString(1, engineId);
+            ps.setArray(2, con.createArrayOf("bigint", ids));
+            return ps;
+        }, (rs, rowNum) -> new AccountSnapshot(rs.getLong("id"), rs.getLong("user_id"), rs.getLong("balance"),
+                rs.getLong("pending"), rs.getLong("earned"), rs.getLong("spent"), rs.getLong("checkpoint")));
+    }
+
+    private HoldSnapshot readHold(long holdTransactionId) {
+        List<HoldSnapshot> rows = jdbcTemplate.query(HOLD_SNAPSHOT_SQL, (rs, rowNum) ->
+                new HoldSnapshot(rs.getBoolean("escrowed"), rs.getLong("checkpoint")), engineId, holdTransactionId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private long nextTransactionId() {
+        synchronized (transactionIds) {
+            if (transactionIds.isEmpty()) {
+                transactionIds.addAll(jdbcTemplate.queryForList(NEXT_TRANSACTION_IDS_SQL, Long.class, idBlockSize));
+            }
+            return transactionIds.poll();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Writer thread
+    // ---------------------------------------------------------------------
+
+    private void runWriter() {
+        List<Command> group = new ArrayList<>(groupSize);
+        List<Command> accepted = new ArrayList<>(groupSize);
+        while (running) {
+            try {
+                Command first = ring.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    ring.drainTo(group, groupSize - 1);
+                    for (Command command : group) {
+                        if (command.getSnapshots() != null) {
+                            loadAccounts(command);
+                            command.getDone().complete(null);
+                            continue;
+                        }
+                        RuntimeException rejection = apply(command, sequence + 1, true);
+                        if (rejection != null) {
+                            rejected.incrementAndGet();
+                            command.getDone().completeExceptionally(rejection);
+                            continue;
+                        }
+                        command.setSequence(++sequence);
+                        journal.append(command);
+                        accepted.add(command);
+                    }
+                    // Group commit: one fsync acknowledges the whole group
+                    journal.sync();
+                    acceptedSequence = sequence;
+                    groups.incrementAndGet();
+                    applied.addAndGet(accepted.size());
+                    for (Command command : accepted) {
+                        flushQueue.add(command);
+                        command.getDone().complete(null);
+                    }
+                }
+                releaseJournal();
+                if (holds.size() > MAX_TRACKED_HOLDS) {
+                    pruneHolds();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // Memory may now be ahead of the journal; stop and let a restart recover
+                log.error("Ledger engine journal write failed, stopping the engine", e);
+                failed = true;
+                running = false;
+                group.forEach(command -> command.getDone().completeExceptionally(
+                        new UnavailableException("Ledger engine is not running")));
+            } finally {
+                group.clear();
+                accepted.clear();
+            }
+        }
+
+        List<Command> abandoned = new ArrayList<>();
+        ring.drainTo(abandoned);
+        abandoned.forEach(command -> command.getDone().completeExceptionally(
+                new UnavailableException("Ledger engine is not running")));
+    }
+
+    /**
+     * @return null if applied, otherwise why the command was rejected
+     */
+    private RuntimeException apply(Command command, long commandSequence, boolean checkBalance) {
+        Account from = command.getFromWalletId() != 0 ? accounts.get(command.getFromWalletId()) : null;
+        Account to = command.getToWalletId() != 0 ? accounts.get(command.getToWalletId()) : null;
+        if ((command.getFromWalletId() != 0 && from == null) || (command.getToWalletId() != 0 && to == null)) {
+            return new RuntimeException("Wallet not loaded in the ledger engine");
+        }
+        long amount = command.getAmount();
+
+        switch (command.getType()) {
+            case EARN, TOP_UP -> {
+                to.balance += amount;
+                to.earned += amount;
+            }
+            case SPEND, TRANSFER, ESCROW_HOLD -> {
+                if (checkBalance && from.available() < amount) {
+                    return new InsufficientBalanceException(insufficientBalanceMessage(command, from));
+                }
+                from.balance -= amount;
+                from.spent += amount;
+                if (command.getType() == CoinTransaction.TransactionType.ESCROW_HOLD) {
+                    from.pending += amount;
+                    holds.put(command.getTransactionId(), new Hold(commandSequence));
+                }
+                if (command.getType() == CoinTransaction.TransactionType.TRANSFER) {
+                    to.balance += amount;
+                    to.earned += amount;
+                }
+            }
+            case ESCROW_RELEASE -> {
+                RuntimeException rejection = settleHold(command, commandSequence, checkBalance);
+                if (rejection != null) {
+                    return rejection;
+                }
+                from.pending -= amount;
+                to.balance += amount;
+                to.earned += amount;
+            }
+            case REFUND -> {
+                RuntimeException rejection = settleHold(command, commandSequence, checkBalance);
+                if (rejection != null) {
+                    return rejection;
+                }
+                to.pending -= amount;
+                to.balance += amount;
+            }
+            default -> {
+                return new RuntimeException("Not supported by the ledger engine: " + command.getType());
+            }
+        }
+
+        if (from != null) {
+            from.lastSequence = commandSequence;
+        }
+        if (to != null) {
+            to.lastSequence = commandSequence;
+        }
+        return null;
+    }
+
+    // A hold the writer does not know was flushed before it was tracked, or
+    // pruned since; the database row decides then, unless it was read before
+    // the prune. On replay the settlement was accepted once, so it stands.
+    private RuntimeException settleHold(Command command, long commandSequence, boolean strict) {
+        Hold hold = holds.get(command.getHoldTransactionId());
+        if (hold == null && strict) {
+            HoldSnapshot snapshot = command.getHold();
+            if (snapshot == null) {
+                return new RuntimeException("Escrow transaction not found: " + command.getReferenceId());
+            }
+            if (snapshot.getCheckpoint() < holdsPrunedThrough) {
+                return new StaleHoldException();
+            }
+            if (!snapshot.isEscrowed()) {
+                return new RuntimeException("Escrow transaction already settled: " + command.getReferenceId());
+            }
+        } else if (hold != null && hold.settled) {
+            return new RuntimeException("Escrow transaction already settled: " + command.getReferenceId());
+        }
+        if (hold == null) {
+            hold = new Hold(commandSequence);
+            holds.put(command.getHoldTransactionId(), hold);
+        }
+        hold.settled = true;
+        hold.lastSequence = commandSequence;
+        return null;
+    }
+
+    private void pruneHolds() {
+        long flushed = flushedSequence;
+        holds.values().removeIf(hold -> hold.lastSequence <= flushed);
+        holdsPrunedThrough = flushed;
+    }
+
+    // Same messages as the database path
+    private static String insufficientBalanceMessage(Command command, Account from) {
+        return switch (command.getType()) {
+            case TRANSFER -> "Insufficient balance for transfer";
+            case ESCROW_HOLD -> "Insufficient balance for escrow";
+            default -> "Insufficient balance. Available: " + Coins.ofMinor(from.available())
+                    + ", Required: " + Coins.ofMinor(command.getAmount());
+        };
+    }
+
+    private void loadAccounts(Command control) {
+        for (AccountSnapshot snapshot : control.getSnapshots()) {
+            Account account = accounts.get(snapshot.getWalletId());
+            if (account == null) {
+                accounts.put(snapshot.getWalletId(), new Account(snapshot));
+                loaded.add(snapshot.getWalletId());
+            } else if (control.isRefresh() && account.lastSequence <= snapshot.getCheckpoint()) {
+                // Every engine command on this wallet is in the snapshot, so it is exact
+                account.reset(snapshot);
+            }
+        }
+    }
+
+    private void releaseJournal() {
+        long flushed = flushedSequence;
+        if (flushed <= released) {
+            return;
+        }
+        try {
+            journal.releaseThrough(flushed);
+            released = flushed;
+        } catch (IOException e) {
+            log.warn("Failed to delete flushed ledger journal segments", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Flusher thread
+    // ---------------------------------------------------------------------
+
+    private void runFlusher() {
+        List<Command> pending = new ArrayList<>();
+        while (running || !flushQueue.isEmpty() || !pending.isEmpty()) {
+            try {
+                if (pending.isEmpty()) {
+                    Command first = flushQueue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    pending.add(first);
+                }
+                flushQueue.drainTo(pending, flushBatchSize - pending.size());
+                flush(pending);
+                pending.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Ledger engine flush of {} commands failed, retrying", pending.size(), e);
+                if (!running) {
+                    // Left in the journal for the next start
+                    break;
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void flush(List<Command> commands) {
+        long lastSequence = commands.get(commands.size() - 1).getSequence();
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Command> rows = new ArrayList<>(commands);
+            List<LedgerPosting> postings = new ArrayList<>(commands.size() * 2);
+            // walletId -> {balance, pending, earned, spent} deltas in minor units
+            TreeMap<Long, long[]> deltas = new TreeMap<>();
+            List<OutboxService.NotificationEvent> notifications = new ArrayList<>();
+            Set<Long> userIds = new HashSet<>();
+            // {status, hold transaction id} of the holds settled in this batch
+            List<Object[]> settledHolds = new ArrayList<>();
+
+            for (Command command : commands) {
+                Long fromWalletId = command.getFromWalletId() != 0 ? command.getFromWalletId() : null;
+                Long toWalletId = command.getToWalletId() != 0 ? command.getToWalletId() : null;
+                postings.addAll(LedgerService.postingsFor(command.getTransactionId(), command.getType(),
+                        fromWalletId, toWalletId, Coins.ofMinor(command.getAmount()).toBigDecimal(),
+                        new Timestamp(command.getCreatedAtMillis()).toLocalDateTime()));
+
+                long amount = command.getAmount();
+                if (fromWalletId != null) {
+                    long[] delta = deltas.computeIfAbsent(fromWalletId, id -> new long[4]);
+                    if (command.getType() == CoinTransaction.TransactionType.ESCROW_RELEASE) {
+                        delta[1] -= amount;
+                    } else {
+                        delta[0] -= amount;
+                        delta[3] += amount;
+                        if (command.getType() == CoinTransaction.TransactionType.ESCROW_HOLD) {
+                            delta[1] += amount;
+                        }
+                    }
+                    userIds.add(command.getFromUserId());
+                }
+                if (toWalletId != null) {
+                    long[] delta = deltas.computeIfAbsent(toWalletId, id -> new long[4]);
+                    delta[0] += amount;
+                    if (command.getType() == CoinTransaction.TransactionType.REFUND) {
+                        delta[1] -= amount;
+                    } else {
+                        delta[2] += amount;
+                    }
+                    userIds.add(command.getToUserId());
+                }
+                if (command.getHoldTransactionId() != 0) {
+                    settledHolds.add(new Object[]{command.getType() == CoinTransaction.TransactionType.REFUND
+                            ? CoinTransaction.TransactionStatus.CANCELLED.name()
+                            : CoinTransaction.TransactionStatus.COMPLETED.name(), command.getHoldTransactionId()});
+                }
+                if (command.getNotificationType() != null && command.getToUserId() != 0) {
+                    notifications.add(new OutboxService.NotificationEvent(
+                            "TX-" + command.getTransactionId() + "-" + command.getToUserId(),
+                            command.getToUserId(), command.getNotificationType(),
+                            command.getNotificationTitle(), command.getNotificationMessage()));
+                }
+            }
+
+            jdbcTemplate.batchUpdate(INSERT_TRANSACTION_SQL, rows, batchSize, (ps, command) -> {
+                ps.setLong(1, command.getTransactionId());
+                ps.setObject(2, command.getFromUserId() != 0 ? command.getFromUserId() : null, Types.BIGINT);
+                ps.setObject(3, command.getToUserId() != 0 ? command.getToUserId() : null, Types.BIGINT);
+                ps.setObject(4, command.getFromWalletId() != 0 ? command.getFromWalletId() : null, Types.BIGINT);
+                ps.setObject(5, command.getToWalletId() != 0 ? command.getToWalletId() : null, Types.BIGINT);
+                ps.setBigDecimal(6, Coins.ofMinor(command.getAmount()).toBigDecimal());
+                ps.setString(7, command.getType().name());
+                ps.setString(8, command.getCategory() != null ? command.getCategory().name() : null);
+                ps.setString(9, command.getDescription());
+                ps.setString(10, command.getReferenceId());
+                ps.setString(11, command.getStatus().name());
+                ps.setTimestamp(12, new Timestamp(command.getCreatedAtMillis()));
+            });
+            ledgerService.recordBatch(postings);
+            // After the inserts: a hold may be in this same batch
+            if (!settledHolds.isEmpty()) {
+                jdbcTemplate.batchUpdate(SETTLE_HOLD_SQL, settledHolds);
+            }
+
+            // Lock in id order like the other multi-wallet writers, then one set-based update
+            Long[] walletIds = deltas.keySet().toArray(new Long[0]);
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(LOCK_WALLETS_BY_ID_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", walletIds));
+                return ps;
+            }, rs -> {
+            });
+            BigDecimal[][] columns = new BigDecimal[4][walletIds.length];
+            for (int i = 0; i < walletIds.length; i++) {
+                long[] delta = deltas.get(walletIds[i]);
+                for (int c = 0; c < 4; c++) {
+                    columns[c][i] = Coins.ofMinor(delta[c]).toBigDecimal();
+                }
+            }
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(APPLY_DELTAS_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", walletIds));
+                for (int c = 0; c < 4; c++) {
+                    ps.setArray(c + 2, con.createArrayOf("numeric", columns[c]));
+                }
+                return ps;
+            });
+
+            if (!notifications.isEmpty()) {
+                outboxService.enqueueNotifications(notifications);
+            }
+            jdbcTemplate.update(SAVE_CHECKPOINT_SQL, engineId, lastSequence);
+
+            walletBalanceCache.invalidateOnCompletion(List.copyOf(userIds));
+            leaderboardService.refreshOnCommit(userIds);
+        });
+
+        flushedSequence = lastSequence;
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        flushes.incrementAndGet();
+        flushedCommands.addAndGet(commands.size());
+    }
+
+    private static List<Long> walletIdsOf(Command command) {
+        List<Long> ids = new ArrayList<>(2);
+        if (command.getFromWalletId() != 0) {
+            ids.add(command.getFromWalletId());
+        }
+        if (command.getToWalletId() != 0) {
+            ids.add(command.getToWalletId());
+        }
+        return ids;
+    }
+
+    /**
+     * One wallet command. Amounts are in minor units; wallet and user ids are
+     * 0 when absent. Everything but the snapshots, hold row and future is journaled.
+     */
+    @Data
+    @NoArgsConstructor
+    public static class Command {
+        private long sequence;
+        private long transactionId;
+        private long createdAtMillis;
+        private long amount;
+        private long fromWalletId;
+        private long fromUserId;
+        private long toWalletId;
+        private long toUserId;
+        private CoinTransaction.TransactionType type;
+        private CoinTransaction.TransactionStatus status;
+        private CoinTransaction.TransactionCategory category;
+        private String description;
+        private String referenceId;
+        private Notification.NotificationType notificationType;
+        private String notificationTitle;
+        private String notificationMessage;
+        // The escrow hold a release or refund settles; 0 otherwise
+        private long holdTransactionId;
+
+        // The hold row as read when the settlement was submitted
+        @ToString.Exclude
+        private HoldSnapshot hold;
+        // Load/refresh control commands carry wallet snapshots instead
+        @ToString.Exclude
+        private List<AccountSnapshot> snapshots;
+        private boolean refresh;
+        @ToString.Exclude
+        private CompletableFuture<Void> done;
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class AccountSnapshot {
+        private long walletId;
+        private long userId;
+        private long balance;
+        private long pending;
+        private long earned;
+        private long spent;
+        private long checkpoint;
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class HoldSnapshot {
+        private boolean escrowed;
+        private long checkpoint;
+    }
+
+    private static class Hold {
+        boolean settled;
+        long lastSequence;
+
+        Hold(long lastSequence) {
+            this.lastSequence = lastSequence;
+        }
+    }
+
+    // In-memory wallet balances in minor units
+    private static class Account {
+        long balance;
+        long pending;
+        long earned;
+        long spent;
+        long lastSequence;
+
+        Account(AccountSnapshot snapshot) {
+            reset(snapshot);
+        }
+
+        void reset(AccountSnapshot snapshot) {
+            balance = snapshot.getBalance();
+            pending = snapshot.getPending();
+            earned = snapshot.getEarned();
+            spent = snapshot.getSpent();
+        }
+
+        // Same rule as Wallet#getAvailableBalance
+        long available() {
+            return balance - Math.abs(pending);
+        }
+    }
+
+    /**
+     * The engine is stopped, its ring is full, or it did not answer in time;
+     * the caller may retry later
+     */
+    public static class UnavailableException extends RuntimeException {
+        UnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private static class InsufficientBalanceException extends RuntimeException {
+        InsufficientBalanceException(String message) {
+            super(message);
+        }
+    }
+
+    private static class StaleHoldException extends RuntimeException {
+        StaleHoldException() {
+            super("Escrow hold was read before the ledger engine forgot it");
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of {@link LedgerEngine} commands.
+ *
+ * Records are appended to segment files named journal-&lt;first sequence&gt;.log
+ * and made durable together with one fsync per group ({@link #sync()}).
+ * Each record is length-prefixed and CRC-checked, so a torn tail left by a
+ * crash is detected on {@link #replay} and cut off. Segments whose records
+ * are all at or below the flushed checkpoint are deleted by
+ * {@link #releaseThrough}.
+ *
+ * Not thread-safe: only the engine's writer thread appends and syncs.
+ */
+@Slf4j
+class LedgerJournal implements AutoCloseable {
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_BYTES = 4;
+    private static final int CRC_BYTES = 8;
+
+    private final Path directory;
+    private final long segmentBytes;
+    // First sequence of each segment -> file
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private FileChannel channel;
+    private long channelSize;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    LedgerJournal(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(LedgerJournal::isSegment)
+                    .forEach(file -> segments.put(firstSequence(file), file));
+        }
+    }
+
+    /**
+     * Read every intact record after the checkpoint, oldest first. A record
+     * that fails its length or CRC check ends the journal: it and anything
+     * after it are truncated away.
+     */
+    void replay(long afterSequence, Consumer<LedgerEngine.Command> consumer) throws IOException {
+        List<Path> files = new ArrayList<>(segments.values());
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            while (in.remaining() >= HEADER_BYTES) {
+                int start = in.position();
+                int length = in.getInt();
+                if (length <= 0 || in.remaining() < length + CRC_BYTES) {
+                    in.position(start);
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.get(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if (crc.getValue() != in.getLong()) {
+                    in.position(start);
+                    break;
+                }
+                LedgerEngine.Command command = decode(ByteBuffer.wrap(record));
+                if (command.getSequence() > afterSequence) {
+                    consumer.accept(command);
+                }
+            }
+            if (in.hasRemaining()) {
+                log.warn("Truncating torn ledger journal tail: {} bytes of {} dropped", in.remaining(), file);
+                truncate(file, in.position());
+                // Nothing after a torn record can be trusted
+                for (Path later : files.subList(i + 1, files.size())) {
+                    Files.deleteIfExists(later);
+                    segments.values().remove(later);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Buffer a record; it is durable only after the next {@link #sync()}
+     */
+    void append(LedgerEngine.Command command) throws IOException {
+        if (channel == null || channelSize >= segmentBytes) {
+            roll(command.getSequence());
+        }
+        byte[] record = encode(command);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ensureCapacity(HEADER_BYTES + record.length + CRC_BYTES);
+        buffer.putInt(record.length).put(record).putLong(crc.getValue());
+    }
+
+    /**
+     * Write buffered records and fsync them as one group
+     */
+    void sync() throws IOException {
+        if (channel == null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channelSize += channel.write(buffer);
+        }
+        buffer.clear();
+        channel.force(false);
+    }
+
+    /**
+     * Delete closed segments holding only records at or below the sequence
+     */
+    void releaseThrough(long sequence) throws IOException {
+        while (segments.size() > 1) {
+            Long first = segments.firstKey();
+            Long next = segments.higherKey(first);
+            if (next - 1 > sequence) {
+                return;
+            }
+            Files.deleteIfExists(segments.remove(first));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void roll(long firstSequence) throws IOException {
+        if (channel != null) {
+            sync();
+            channel.close();
+        }
+        Path file = directory.resolve(PREFIX + String.format("%020d", firstSequence) + SUFFIX);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelSize = channel.size();
+        segments.put(firstSequence, file);
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (buffer.position() > 0 && buffer.capacity() >= bytes) {
+            // Push what is buffered out to make room; still synced as one group
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channelSize += channel.write(buffer);
+            }
+            buffer.clear();
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            out.truncate(size);
+            out.force(true);
+        }
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    private static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    static byte[] encode(LedgerEngine.Command command) {
+        byte[] type = command.getType().name().getBytes(StandardCharsets.UTF_8);
+        byte[] status = command.getStatus().name().getBytes(StandardCharsets.UTF_8);
+        byte[] category = bytes(command.getCategory() != null ? command.getCategory().name() : null);
+        byte[] description = bytes(command.getDescription());
+        byte[] reference = bytes(command.getReferenceId());
+        byte[] notification = bytes(command.getNotificationTitle());
+        byte[] notificationMessage = bytes(command.getNotificationMessage());
+        byte[] notificationType = bytes(command.getNotificationType() != null ? command.getNotificationType().name() : null);
+
+        ByteBuffer out = ByteBuffer.allocate(9 * 8 + 2 * 4 + 4 * 6
+                + type.length + status.length + len(category) + len(description) + len(reference)
+                + len(notification) + len(notificationMessage) + len(notificationType));
+        out.putLong(command.getSequence());
+        out.putLong(command.getTransactionId());
+        out.putLong(command.getCreatedAtMillis());
+        out.putLong(command.getAmount());
+        out.putLong(command.getFromWalletId());
+        out.putLong(command.getFromUserId());
+        out.putLong(command.getToWalletId());
+        out.putLong(command.getToUserId());
+        out.putInt(type.length).put(type);
+        out.putInt(status.length).put(status);
+        putNullable(out, category);
+        putNullable(out, description);
+        putNullable(out, reference);
+        putNullable(out, notificationType);
+        putNullable(out, notification);
+        putNullable(out, notificationMessage);
+        // Appended last so records written before it existed still decode
+        out.putLong(command.getHoldTransactionId());
+        return out.array();
+    }
+
+    static LedgerEngine.Command decode(ByteBuffer in) {
+        LedgerEngine.Command command = new LedgerEngine.Command();
+        command.setSequence(in.getLong());
+        command.setTransactionId(in.getLong());
+        command.setCreatedAtMillis(in.getLong());
+        command.setAmount(in.getLong());
+        command.setFromWalletId(in.getLong());
+        command.setFromUserId(in.getLong());
+        command.setToWalletId(in.getLong());
+        command.setToUserId(in.getLong());
+        command.setType(CoinTransaction.TransactionType.valueOf(getString(in)));
+        command.setStatus(CoinTransaction.TransactionStatus.valueOf(getString(in)));
+        String category = getNullable(in);
+        command.setCategory(category != null ? CoinTransaction.TransactionCategory.valueOf(category) : null);
+        command.setDescription(getNullable(in));
+        command.setReferenceId(getNullable(in));
+        String notificationType = getNullable(in);
+        command.setNotificationType(notificationType != null ? Notification.NotificationType.valueOf(notificationType) : null);
+        command.setNotificationTitle(getNullable(in));
+        command.setNotificationMessage(getNullable(in));
+        if (in.remaining() >= 8) {
+            command.setHoldTransactionId(in.getLong());
+        }
+        return command;
+    }
+
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int len(byte[] value) {
+        return value != null ? value.length : 0;
+    }
+
+    // Length -1 marks null
+    private static void putNullable(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(value.length).put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] value = new byte[in.getInt()];
+        in.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static String getNullable(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
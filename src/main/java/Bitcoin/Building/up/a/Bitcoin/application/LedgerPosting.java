@@ -0,0 +1,57 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One leg of a double-entry ledger entry. Postings are append-only: every
+ * coin transaction writes a debit (negative amount) and a credit (positive
+ * amount) that sum to zero, and nothing ever updates or deletes them.
+ */
+@Entity
+@Table(name = "ledger_postings")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LedgerPosting {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "transaction_id", nullable = false)
+    private Long transactionId;
+
+    /** Owning wallet; null for the system ISSUANCE / REDEMPTION accounts */
+    @Column(name = "wallet_id")
+    private Long walletId;
+
+    @Column(nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private Account account;
+
+    @Column(name = "transaction_type", nullable = false, length = 50)
+    @Enumerated(EnumType.STRING)
+    private CoinTransaction.TransactionType transactionType;
+
+    /** Signed amount: positive credits the account, negative debits it */
+    @Column(nullable = false, precision = 15, scale = 2)
+    private BigDecimal amount;
+
+    @Column(name = "created_at", nullable = false)
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    /**
+     * Ledger accounts
+     */
+    public enum Account {
+        AVAILABLE,   // wallet balance
+        PENDING,     // wallet coins held in escrow
+        ISSUANCE,    // system: coins minted into circulation (earnings, top-ups)
+        REDEMPTION   // system: coins spent out of circulation
+    }
+}
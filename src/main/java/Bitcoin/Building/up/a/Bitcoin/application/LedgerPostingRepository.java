@@ -0,0 +1,37 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Repository
+public interface LedgerPostingRepository extends JpaRepository<LedgerPosting, Long> {
+
+    // All legs of one coin transaction
+    List<LedgerPosting> findByTransactionId(Long transactionId);
+
+    // Wallet balances from postings not in a snapshot (index range scan on wallet_id, xact_id).
+    // Earned and spent follow wallets.total_earned/total_spent: every credit of the balance but
+    // a refund is earned, every debit of it is spent
+    @Query(value = "SELECT " +
+            "COALESCE(SUM(CASE WHEN account = 'AVAILABLE' THEN amount ELSE 0 END), 0) AS available, " +
+            "COALESCE(SUM(CASE WHEN account = 'PENDING' THEN amount ELSE 0 END), 0) AS pending, " +
+            "COALESCE(SUM(CASE WHEN account = 'AVAILABLE' AND amount > 0 AND transaction_type <> 'REFUND' THEN amount ELSE 0 END), 0) AS earned, " +
+            "COALESCE(-SUM(CASE WHEN account = 'AVAILABLE' AND amount < 0 THEN amount ELSE 0 END), 0) AS spent " +
+            "FROM ledger_postings WHERE wallet_id = :walletId AND xact_id >= :fromXact", nativeQuery = true)
+    LedgerTotals sumSince(@Param("walletId") Long walletId, @Param("fromXact") Long fromXact);
+
+    /**
+     * Aggregated ledger view of a wallet
+     */
+    interface LedgerTotals {
+        BigDecimal getAvailable();
+        BigDecimal getPending();
+        BigDecimal getEarned();
+        BigDecimal getSpent();
+    }
+}
@@ -0,0 +1,200 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Double-entry ledger behind the coin wallets.
+ *
+ * Each {@link CoinTransaction} is recorded as balanced postings, and wallet
+ * balances are read as the latest {@link WalletBalanceSnapshot} plus the
+ * postings made since it. A scheduled checkpoint keeps the tail short, so
+ * reads cost the same whatever the length of a wallet's history.
+ *
+ * "Since" is by the database transaction that wrote a posting, not by the
+ * posting id: ids are taken when a row is inserted, so a long transaction
+ * can commit a posting below ids that were already folded. The checkpoint
+ * only folds transactions that had ended when it ran (see
+ * {@link WalletBalanceSnapshotRepository#checkpoint}).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class LedgerService {
+
+    private final LedgerPostingRepository postingRepository;
+    private final WalletBalanceSnapshotRepository snapshotRepository;
+    private final WalletRepository walletRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${wallet.bulk.batch-size:1000}")
+    private int batchSize;
+
+    private static final String INSERT_POSTING_SQL =
+            "INSERT INTO ledger_postings (transaction_id, wallet_id, account, transaction_type, amount, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Write the balanced postings for a saved transaction
+     */
+    public List<LedgerPosting> record(CoinTransaction transaction) {
+        Long fromWalletId = transaction.getFromWallet() != null ? transaction.getFromWallet().getId() : null;
+        Long toWalletId = transaction.getToWallet() != null ? transaction.getToWallet().getId() : null;
+        return postingRepository.saveAll(postingsFor(transaction.getId(), transaction.getType(),
+                fromWalletId, toWalletId, transaction.getAmount(), LocalDateTime.now()));
+    }
+
+    /**
+     * The balanced legs of one transaction, for callers writing through {@link #recordBatch}
+     */
+    public static List<LedgerPosting> postingsFor(Long transactionId, CoinTransaction.TransactionType type,
+                                                  Long fromWalletId, Long toWalletId, BigDecimal amount,
+                                                  LocalDateTime createdAt) {
+        return switch (type) {
+            case EARN, TOP_UP -> List.of(
+                    leg(transactionId, type, null, LedgerPosting.Account.ISSUANCE, amount.negate(), createdAt),
+                    leg(transactionId, type, toWalletId, LedgerPosting.Account.AVAILABLE, amount, createdAt));
+            case SPEND -> List.of(
+                    leg(transactionId, type, fromWalletId, LedgerPosting.Account.AVAILABLE, amount.negate(), createdAt),
+                    leg(transactionId, type, null, LedgerPosting.Account.REDEMPTION, amount, createdAt));
+            case TRANSFER -> List.of(
+                    leg(transactionId, type, fromWalletId, LedgerPosting.Account.AVAILABLE, amount.negate(), createdAt),
+                    leg(transactionId, type, toWalletId, LedgerPosting.Account.AVAILABLE, amount, createdAt));
+            case ESCROW_HOLD -> List.of(
+                    leg(transactionId, type, fromWalletId, LedgerPosting.Account.AVAILABLE, amount.negate(), createdAt),
+                    leg(transactionId, type, fromWalletId, LedgerPosting.Account.PENDING, amount, createdAt));
+            case ESCROW_RELEASE -> List.of(
+                    leg(transactionId, type, fromWalletId, LedgerPosting.Account.PENDING, amount.negate(), createdAt),
+                    leg(transactionId, type, toWalletId, LedgerPosting.Account.AVAILABLE, amount, createdAt));
+            case REFUND -> List.of(
+                    leg(transactionId, type, toWalletId, LedgerPosting.Account.PENDING, amount.negate(), createdAt),
+                    leg(transactionId, type, toWalletId, LedgerPosting.Account.AVAILABLE, amount, createdAt));
+        };
+    }
+
+    /**
+     * Write prebuilt postings with JDBC batches (bulk wallet operations).
+     * Callers are responsible for passing balanced legs.
+     */
+    public void recordBatch(List<LedgerPosting> postings) {
+        jdbcTemplate.batchUpdate(INSERT_POSTING_SQL, postings, batchSize, (ps, posting) -> {
+            ps.setLong(1, posting.getTransactionId());
+            ps.setObject(2, posting.getWalletId(), Types.BIGINT);
+            ps.setString(3, posting.getAccount().name());
+            ps.setString(4, posting.getTransactionType().name());
+            ps.setBigDecimal(5, posting.getAmount());
+            ps.setTimestamp(6, Timestamp.valueOf(posting.getCreatedAt()));
+        });
+    }
+
+    /**
+     * Ledger balances of a wallet: snapshot plus postings since it
+     */
+    @Transactional(readOnly = true)
+    public LedgerBalance getBalance(Long walletId) {
+        WalletBalanceSnapshot snapshot = snapshotRepository.findById(walletId)
+                .orElseGet(() -> WalletBalanceSnapshot.builder().walletId(walletId).xactHorizon(0L).build());
+        LedgerPostingRepository.LedgerTotals delta = postingRepository.sumSince(walletId, snapshot.getXactHorizon());
+
+        return new LedgerBalance(
+                snapshot.getAvailable().add(delta.getAvailable()),
+                snapshot.getPending().add(delta.getPending()),
+                snapshot.getEarned().add(delta.getEarned()),
+                snapshot.getSpent().add(delta.getSpent()));
+    }
+
+    /**
+     * Ledger balances for a user's wallet
+     */
+    @Transactional(readOnly = true)
+    public LedgerBalance getBalanceForUser(Long userId) {
+        Wallet wallet = walletRepository.findByUserId(userId)
+                .orElseThrow(() -> new RuntimeException("Wallet not found for user: " + userId));
+        return getBalance(wallet.getId());
+    }
+
+    /**
+     * Compare the wallet row against the ledger
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Object> reconcile(Long userId) {
+        Wallet wallet = walletRepository.findByUserId(userId)
+                .orElseThrow(() -> new RuntimeException("Wallet not found for user: " + userId));
+        LedgerBalance ledger = getBalance(wallet.getId());
+        Coins walletBalance = Coins.of(walletRepository.findEffectiveBalance(wallet.getId()));
+
+        boolean balanceMatches = ledger.getAvailable().compareTo(walletBalance.toBigDecimal()) == 0;
+        boolean pendingMatches = ledger.getPending().compareTo(wallet.getPendingBalance().toBigDecimal()) == 0;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("walletId", wallet.getId());
+        result.put("walletBalance", walletBalance);
+        result.put("ledgerBalance", ledger.getAvailable());
+        result.put("walletPending", wallet.getPendingBalance());
+        result.put("ledgerPending", ledger.getPending());
+        result.put("consistent", balanceMatches && pendingMatches);
+
+        if (!balanceMatches || !pendingMatches) {
+            log.warn("Ledger drift on wallet {}: balance {} vs {}, pending {} vs {}", wallet.getId(),
+                    walletBalance, ledger.getAvailable(), wallet.getPendingBalance(), ledger.getPending());
+        }
+        return result;
+    }
+
+    /**
+     * Fold postings of finished transactions into the per-wallet snapshots
+     */
+    @Scheduled(fixedDelayString = "${ledger.snapshot.interval-ms:300000}")
+    public void checkpoint() {
+        try {
+            Long fromXact = snapshotRepository.findCheckpointWatermark();
+            int wallets = snapshotRepository.checkpoint(fromXact);
+            if (wallets > 0) {
+                log.info("Ledger checkpoint folded postings of transactions from {} into {} wallet snapshots",
+                        fromXact, wallets);
+            }
+        } catch (Exception e) {
+            log.error("Ledger checkpoint failed", e);
+        }
+    }
+
+    private static LedgerPosting leg(Long transactionId, CoinTransaction.TransactionType type, Long walletId,
+                                     LedgerPosting.Account account, BigDecimal amount, LocalDateTime createdAt) {
+        return LedgerPosting.builder()
+                .transactionId(transactionId)
+                .walletId(walletId)
+                .account(account)
+                .transactionType(type)
+                .amount(amount)
+                .createdAt(createdAt)
+                .build();
+    }
+
+    /**
+     * Ledger view of a wallet
+     */
+    @Data
+    @AllArgsConstructor
+    public static class LedgerBalance {
+        private BigDecimal available;
+        private BigDecimal pending;
+        private BigDecimal earned;
+        private BigDecimal spent;
+    }
+}
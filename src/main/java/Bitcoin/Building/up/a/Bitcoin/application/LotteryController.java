@@ -1,16 +1,16 @@
 package Bitcoin.Building.up.a.Bitcoin.application;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 @Slf4j
 @RestController
@@ -21,70 +21,44 @@ public class LotteryController {
 
     private final PhotoRepository photoRepository;
     private final LotteryPrizeRepository lotteryPrizeRepository;
-    private final LotteryDrawRepository lotteryDrawRepository;
-    // private final NotificationService notificationService; // keep commented if not compiling
-
-    private final Random random = new Random();
+    private final LotteryDrawService lotteryDrawService;
 
     @PostMapping("/spin")
     @Operation(
             summary = "Run lottery spin",
-            description = "Pick a random active prize and a winner from photos that are currently IN_DRAW"
+            description = "Draw a winner for every active prize unit from photos that are currently IN_DRAW"
     )
     public ResponseEntity<?> spinLottery() {
         try {
-            // 1) Eligible photos: must be in the current draw
-            List<Photo> eligiblePhotos = photoRepository.findByStatus(PhotoStatus.IN_DRAW);
-            if (eligiblePhotos == null || eligiblePhotos.isEmpty()) {
-                return ResponseEntity.ok(Map.of(
-                        "success", false,
-                        "message", "No eligible photos for lottery"
-                ));
-            }
-
-            // 2) Active prizes
-            List<LotteryPrize> activePrizes =
-                    lotteryPrizeRepository.findByIsActiveTrueOrderByDisplayOrderAsc();
-            if (activePrizes == null || activePrizes.isEmpty()) {
-                return ResponseEntity.ok(Map.of(
+            LotteryDrawService.DrawRun run = lotteryDrawService.runDraw();
+            if (!run.isPaidOut()) {
+                // The winners stand; the run stays PAYOUT_FAILED until paid through /runs/{runId}/payout
+                return ResponseEntity.internalServerError().body(Map.of(
                         "success", false,
-                        "message", "No prizes configured for lottery"
+                        "message", run.getPayoutError(),
+                        "runId", run.getRunId(),
+                        "winners", run.getWinners(),
+                        "payoutStatus", "PAYOUT_FAILED"
                 ));
             }
-
-            // 3) Pick a prize (simple random)
-            LotteryPrize selectedPrize = activePrizes.get(random.nextInt(activePrizes.size()));
-
-            // 4) Pick a winning photo
-            Collections.shuffle(eligiblePhotos, random);
-            Photo winnerPhoto = eligiblePhotos.get(0);
-
-            // 5) Persist the draw (your LotteryDraw stores winner as a User)
-            LotteryDraw draw = new LotteryDraw();
-            draw.setPrize(selectedPrize);
-            draw.setWinner(winnerPhoto.getUser());
-            lotteryDrawRepository.save(draw);
-
-            // 6) Mark the winning photo
-            winnerPhoto.setIsWinner(true);                // winner flag = true
-            winnerPhoto.setStatus(PhotoStatus.DRAW_ENDED); // move out of current draw (optional but recommended)
-            photoRepository.save(winnerPhoto);
-
-            // 7) Optionally notify the winner (uncomment if your service compiles)
-            /*
-            try {
-                notificationService.notifyWinner(winnerPhoto.getUser(), selectedPrize, winnerPhoto);
-            } catch (Exception ignore) {
-                log.warn("Failed to notify winner (non-fatal): {}", ignore.getMessage());
-            }
-            */
+            LotteryDrawService.Winner first = run.getWinners().get(0);
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
                     "message", "Lottery spin completed",
-                    "winnerPhotoId", winnerPhoto.getId(),
-                    "winnerUserId", winnerPhoto.getUser() != null ? winnerPhoto.getUser().getId() : null,
-                    "prizeId", selectedPrize.getId()
+                    "runId", run.getRunId(),
+                    "totalParticipants", run.getTotalParticipants(),
+                    "winners", run.getWinners(),
+                    "winnerPhotoId", first.getPhotoId(),
+                    "winnerUserId", first.getUserId(),
+                    "prizeId", first.getPrizeId(),
+                    "coinsPaidTo", run.getCoinsPaidTo()
+            ));
+        } catch (IllegalStateException ex) {
+            // Nothing to draw: no entries or no prizes
+            return ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "message", ex.getMessage()
             ));
         } catch (Exception ex) {
             log.error("Error running lottery spin", ex);
@@ -95,6 +69,49 @@ public class LotteryController {
         }
     }
 
+    @PostMapping("/runs/{runId}/payout")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            summary = "Retry a lottery payout",
+            description = "Pay the winner and participation coins of a run whose payout failed (admin only)"
+    )
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> retryPayout(@PathVariable Long runId) {
+        try {
+            int paid = lotteryDrawService.retryPayout(runId);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", String.format("Paid lottery run %d in %d transactions", runId, paid),
+                    "runId", runId,
+                    "coinsPaidTo", paid
+            ));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.status(404).body(Map.of(
+                    "success", false,
+                    "message", ex.getMessage()
+            ));
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(409).body(Map.of(
+                    "success", false,
+                    "message", ex.getMessage()
+            ));
+        } catch (LotteryDrawService.PayoutFailedException ex) {
+            // Still PAYOUT_FAILED, so it can be retried again
+            return ResponseEntity.internalServerError().body(Map.of(
+                    "success", false,
+                    "message", ex.getMessage(),
+                    "runId", runId,
+                    "payoutStatus", "PAYOUT_FAILED"
+            ));
+        } catch (Exception ex) {
+            log.error("Error retrying payout of lottery run {}", runId, ex);
+            return ResponseEntity.internalServerError().body(Map.of(
+                    "success", false,
+                    "message", "Error retrying payout: " + ex.getMessage()
+            ));
+        }
+    }
+
     @GetMapping("/eligible")
     @Operation(summary = "List eligible photos (IN_DRAW)")
     public ResponseEntity<?> listEligible() {
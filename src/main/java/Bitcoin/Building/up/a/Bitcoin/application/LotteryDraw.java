@@ -30,6 +30,10 @@ public class LotteryDraw {
     @JoinColumn(name = "prize_id")
     private LotteryPrize prize;
 
+    /** Id of the first draw row of the same run */
+    @Column(name = "run_id")
+    private Long runId;
+
     @Column(name = "draw_date", nullable = false)
     @Builder.Default
     private LocalDateTime drawDate = LocalDateTime.now();
@@ -0,0 +1,177 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Picks lottery winners among IN_DRAW photos without loading the candidates.
+ *
+ * Each round draws a batch of random ids in [MIN(id), MAX(id)] of the
+ * current draw and keeps those that are IN_DRAW photos, in draw order, until
+ * k distinct winners are found. That is rejection sampling, so every entry
+ * has the same chance whatever the id gaps; a round is one indexed lookup of
+ * at least probe-batch ids (partial index from V24), so the cost depends on
+ * k and on how densely the id range is filled, not on the number of entries.
+ *
+ * If the range is so sparse that lottery.draw.max-rounds pass without
+ * enough hits, each remaining winner is the entry at a uniformly random
+ * rank among those not yet picked. That fallback is just as fair but walks
+ * the index up to the rank, so it is linear in the number of entries per
+ * winner; it is logged when used.
+ *
+ * Randomness is a SecureRandom, or a seeded Random when lottery.draw.seed is
+ * set (reproducible draws for tests and audits).
+ */
+@Slf4j
+@Component
+public class LotteryDrawEngine {
+
+    private static final int MAX_PROBE_IDS = 10_000;
+
+    private static final String BOUNDS_SQL =
+            "SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM photos WHERE status = 'IN_DRAW'";
+
+    private static final String PROBE_SQL =
+            "SELECT id FROM photos WHERE status = 'IN_DRAW' AND id = ANY(?)";
+
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM photos WHERE status = 'IN_DRAW'";
+
+    private static final String AT_RANK_SQL =
+            "SELECT id FROM photos WHERE status = 'IN_DRAW' AND id <> ALL(?) ORDER BY id OFFSET ? LIMIT 1";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Random random;
+    private final int probeBatch;
+    private final int maxRounds;
+
+    public LotteryDrawEngine(JdbcTemplate jdbcTemplate,
+                             @Value("${lottery.draw.seed:}") String seed,
+                             @Value("${lottery.draw.probe-batch:64}") int probeBatch,
+                             @Value("${lottery.draw.max-rounds:32}") int maxRounds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.random = seed == null || seed.isBlank() ? new SecureRandom() : new Random(Long.parseLong(seed.trim()));
+        this.probeBatch = Math.max(1, probeBatch);
+        this.maxRounds = Math.max(1, maxRounds);
+    }
+
+    /**
+     * Draw up to k distinct winning photo ids from the current draw
+     *
+     * @return fewer than k ids only if the draw has fewer than k entries
+     */
+    public List<Long> drawWinners(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Number of winners must be positive");
+        }
+        Long[] bounds = jdbcTemplate.queryForObject(BOUNDS_SQL, (rs, rowNum) -> new Long[]{
+                (Long) rs.getObject("min_id"), (Long) rs.getObject("max_id")});
+        if (bounds == null || bounds[0] == null) {
+            return List.of();
+        }
+        return sample(new DatabaseCandidates(), bounds[0], bounds[1], k, random, probeBatch, maxRounds);
+    }
+
+    Random random() {
+        return random;
+    }
+
+    /**
+     * Candidate lookups the sampler needs, so it can run against any id set
+     */
+    interface Candidates {
+
+        /** The given ids that are entries of the draw, in any order */
+        Set<Long> present(long[] ids);
+
+        /** Number of entries in the draw */
+        long count();
+
+        /** The entry at the given rank (0-based, id order) among those not excluded, or null */
+        Long atRank(long rank, Set<Long> excluded);
+    }
+
+    static List<Long> sample(Candidates candidates, long minId, long maxId, int k,
+                             Random random, int probeBatch, int maxRounds) {
+        long span = maxId - minId + 1;
+        Set<Long> picked = new LinkedHashSet<>();
+
+        for (int round = 0; round < maxRounds && picked.size() < k; round++) {
+            // Large draws probe more ids per round, so rounds stay few for any k
+            int size = (int) Math.min(Math.max(probeBatch, 2L * (k - picked.size())), MAX_PROBE_IDS);
+            long[] probe = new long[size];
+            for (int i = 0; i < size; i++) {
+                probe[i] = minId + random.nextLong(span);
+            }
+            Set<Long> present = candidates.present(probe);
+            // Accept in draw order, so the result is a uniform sample without replacement
+            for (int i = 0; i < size && picked.size() < k; i++) {
+                if (present.contains(probe[i])) {
+                    picked.add(probe[i]);
+                }
+            }
+        }
+
+        if (picked.size() < k) {
+            log.warn("Lottery draw fell back to rank picks for {} of {} winners (id range {}..{})",
+                    k - picked.size(), k, minId, maxId);
+            long remaining = candidates.count() - picked.size();
+            while (picked.size() < k && remaining > 0) {
+                Long id = candidates.atRank(random.nextLong(remaining), picked);
+                if (id == null) {
+                    break; // entries left the draw meanwhile
+                }
+                picked.add(id);
+                remaining--;
+            }
+        }
+        return new ArrayList<>(picked);
+    }
+
+    private class DatabaseCandidates implements Candidates {
+
+        @Override
+        public Set<Long> present(long[] ids) {
+            Set<Long> present = new HashSet<>();
+            Long[] boxed = new Long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                boxed[i] = ids[i];
+            }
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(PROBE_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", boxed));
+                return ps;
+            }, rs -> {
+                present.add(rs.getLong("id"));
+            });
+            return present;
+        }
+
+        @Override
+        public long count() {
+            Long count = jdbcTemplate.queryForObject(COUNT_SQL, Long.class);
+            return count != null ? count : 0;
+        }
+
+        @Override
+        public Long atRank(long rank, Set<Long> excluded) {
+            List<Long> next = jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(AT_RANK_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", excluded.toArray()));
+                ps.setLong(2, rank);
+                return ps;
+            }, (rs, rowNum) -> rs.getLong("id"));
+            return next.isEmpty() ? null : next.get(0);
+        }
+    }
+}
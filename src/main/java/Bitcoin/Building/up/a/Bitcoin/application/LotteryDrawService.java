@@ -0,0 +1,432 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs a lottery draw that hands out every active prize in one pass.
+ *
+ * Each active prize contributes its quantity of units. The run draws
+ * min(units, entries) distinct winning photos through {@link LotteryDrawEngine}
+ * and gives each winner a prize unit drawn by weight, without replacement,
+ * from an {@link AliasTable}. With at least as many entries as units every
+ * unit is handed out; weights decide which prizes go out when there are
+ * fewer. The alias table is cached and rebuilt only when the active prizes,
+ * their weights or quantities change.
+ *
+ * The run is written as one batch of lottery_draws rows sharing a run_id,
+ * together with the winning photos and the run's payouts (lottery_payouts),
+ * in one transaction; winner and participation coins are paid in one bulk
+ * award after it commits. A payout that fails leaves the run PAYOUT_FAILED
+ * and is paid later by {@link #retryPayout}; award references are fixed per
+ * run, so nobody is paid twice. Losing photos stay in the draw, so each is
+ * marked with the run that paid its participation (photos.participation_run_id)
+ * and later runs pay only entries that arrived since.
+ */
+@Slf4j
+@Service
+public class LotteryDrawService {
+
+    private static final String NEXT_DRAW_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('lottery_draws', 'id')) FROM generate_series(1, ?)";
+
+    // Locks the winning photos; one taken by a concurrent run is no longer IN_DRAW and drops out
+    private static final String LOCK_WINNING_PHOTOS_SQL =
+            "SELECT id, user_id FROM photos WHERE id = ANY(?) AND status = 'IN_DRAW' FOR UPDATE";
+
+    private static final String CLEAR_CURRENT_WINNERS_SQL =
+            "UPDATE lottery_draws SET is_current_winner = false WHERE is_current_winner = true";
+
+    private static final String INSERT_DRAW_SQL =
+            "INSERT INTO lottery_draws (id, run_id, winner_user_id, winning_photo_id, prize_id, draw_date, " +
+            "total_participants, is_current_winner, winner_coins_awarded, participant_coins_awarded, created_at, " +
+            "payout_status) VALUES (?, ?, ?, ?, ?, ?, ?, true, ?, ?, ?, 'PENDING')";
+
+    private static final String MARK_WINNING_PHOTOS_SQL =
+            "UPDATE photos SET is_winner = true, status = 'DRAW_ENDED', lottery_date = CURRENT_DATE WHERE id = ANY(?)";
+
+    private static final String INSERT_PAYOUT_SQL =
+            "INSERT INTO lottery_payouts (run_id, reference_id, user_id, amount, category, description) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+
+    // Entries of this draw cycle: photos in the draw that no earlier run paid participation for.
+    // Winning photos have left the draw by now. A concurrent run's marks are seen after its commit,
+    // so an entry is paid by one run only.
+    private static final String INSERT_PARTICIPANT_PAYOUTS_SQL =
+            "WITH entries AS (SELECT id FROM photos WHERE status = 'IN_DRAW' AND participation_run_id IS NULL " +
+            "AND user_id <> ALL(?) ORDER BY id FOR UPDATE), " +
+            "paid AS (UPDATE photos p SET participation_run_id = ? FROM entries e WHERE p.id = e.id " +
+            "RETURNING p.user_id) " +
+            "INSERT INTO lottery_payouts (run_id, reference_id, user_id, amount, category, description) " +
+            "SELECT DISTINCT ?, 'DRAW-' || ? || '-' || user_id, user_id, ?, 'LOTTERY_PARTICIPATION', " +
+            "'Lottery participation' FROM paid";
+
+    private static final String RUN_PAYOUT_STATUS_SQL =
+            "SELECT payout_status FROM lottery_draws WHERE run_id = ? LIMIT 1";
+
+    // Serializes payouts of one run
+    private static final String LOCK_RUN_SQL =
+            "SELECT payout_status FROM lottery_draws WHERE run_id = ? FOR UPDATE";
+
+    private static final String SELECT_PAYOUTS_SQL =
+            "SELECT user_id, amount, category, description, reference_id FROM lottery_payouts WHERE run_id = ? " +
+            "ORDER BY reference_id";
+
+    private static final String MARK_PAYOUT_SQL =
+            "UPDATE lottery_draws SET payout_status = ?, payout_error = ? WHERE run_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PhotoRepository photoRepository;
+    private final LotteryPrizeRepository lotteryPrizeRepository;
+    private final LotteryDrawEngine lotteryDrawEngine;
+    private final WalletService walletService;
+    private final LotteryFeedService lotteryFeedService;
+    private final CurrentWinnerService currentWinnerService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${lottery.winner.coins:100}")
+    private int winnerCoins;
+
+    @Value("${lottery.participant.coins:20}")
+    private int participantCoins;
+
+    @Value("${lottery.draw.batch-size:500}")
+    private int batchSize;
+
+    private volatile PrizeTable prizeTable;
+
+    public LotteryDrawService(JdbcTemplate jdbcTemplate,
+                              PhotoRepository photoRepository,
+                              LotteryPrizeRepository lotteryPrizeRepository,
+                              LotteryDrawEngine lotteryDrawEngine,
+                              WalletService walletService,
+                              LotteryFeedService lotteryFeedService,
+                              CurrentWinnerService currentWinnerService,
+                              PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.photoRepository = photoRepository;
+        this.lotteryPrizeRepository = lotteryPrizeRepository;
+        this.lotteryDrawEngine = lotteryDrawEngine;
+        this.walletService = walletService;
+        this.lotteryFeedService = lotteryFeedService;
+        this.currentWinnerService = currentWinnerService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Draw winners for every active prize
+     *
+     * @throws IllegalStateException if no prize is configured or nobody is in the draw
+     */
+    public DrawRun runDraw() {
+        PrizeTable prizes = prizeTable(lotteryPrizeRepository.findByIsActiveTrueOrderByDisplayOrderAsc());
+        if (prizes == null) {
+            throw new IllegalStateException("No prizes configured for lottery");
+        }
+        long entries = photoRepository.countByStatus(PhotoStatus.IN_DRAW);
+        if (entries == 0) {
+            throw new IllegalStateException("No eligible photos for lottery");
+        }
+
+        List<Long> photoIds = lotteryDrawEngine.drawWinners((int) Math.min(prizes.units, entries));
+        int[] assigned = assignPrizes(prizes.table, prizes.weights, prizes.quantities, photoIds.size(),
+                lotteryDrawEngine.random());
+
+        DrawRun run = transactionTemplate.execute(status -> record(prizes, photoIds, assigned, (int) entries));
+        if (run == null || run.getWinners().isEmpty()) {
+            throw new IllegalStateException("No eligible photos for lottery");
+        }
+        try {
+            run.setCoinsPaidTo(payOut(run.getRunId()));
+        } catch (PayoutFailedException e) {
+            // The draw itself stands; the run is left PAYOUT_FAILED for retryPayout
+            run.setPayoutError(e.getMessage());
+        }
+        log.info("Lottery run {} drew {} winners among {} entries", run.getRunId(), run.getWinners().size(), entries);
+        return run;
+    }
+
+    // Runs inside a transaction: lock the winning photos, write the draw rows, end the photos
+    private DrawRun record(PrizeTable prizes, List<Long> photoIds, int[] assigned, int entries) {
+        Map<Long, Long> owners = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LOCK_WINNING_PHOTOS_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", photoIds.toArray()));
+            return ps;
+        }, rs -> {
+            owners.put(rs.getLong("id"), rs.getLong("user_id"));
+        });
+        if (owners.isEmpty()) {
+            return null;
+        }
+
+        List<Long> drawIds = jdbcTemplate.queryForList(NEXT_DRAW_IDS_SQL, Long.class, owners.size());
+        Long runId = drawIds.get(0);
+        List<Winner> winners = new ArrayList<>(owners.size());
+        for (int i = 0; i < photoIds.size(); i++) {
+            Long userId = owners.get(photoIds.get(i));
+            if (userId != null) {
+                LotteryPrize prize = prizes.prizes.get(assigned[i]);
+                winners.add(new Winner(drawIds.get(winners.size()), prize.getId(), prize.getName(),
+                        photoIds.get(i), userId));
+            }
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(CLEAR_CURRENT_WINNERS_SQL);
+        jdbcTemplate.batchUpdate(INSERT_DRAW_SQL, winners, batchSize, (ps, winner) -> {
+            ps.setLong(1, winner.getDrawId());
+            ps.setLong(2, runId);
+            ps.setLong(3, winner.getUserId());
+            ps.setLong(4, winner.getPhotoId());
+            ps.setLong(5, winner.getPrizeId());
+            ps.setTimestamp(6, now);
+            ps.setInt(7, entries);
+            ps.setInt(8, winnerCoins);
+            ps.setInt(9, participantCoins);
+            ps.setTimestamp(10, now);
+        });
+        Long[] wonPhotos = winners.stream().map(Winner::getPhotoId).toArray(Long[]::new);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(MARK_WINNING_PHOTOS_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", wonPhotos));
+            return ps;
+        });
+        recordPayouts(runId, winners);
+        lotteryFeedService.refreshOnCommit(List.of(wonPhotos));
+        currentWinnerService.refreshOnCommit();
+        return new DrawRun(runId, entries, winners, 0, null);
+    }
+
+    // Part of the run's transaction, so a retry pays exactly the participants of the draw, and
+    // an entry is marked paid only together with its payout row
+    private void recordPayouts(Long runId, List<Winner> winners) {
+        if (winnerCoins > 0) {
+            jdbcTemplate.batchUpdate(INSERT_PAYOUT_SQL, winners, batchSize, (ps, winner) -> {
+                ps.setLong(1, runId);
+                ps.setString(2, "DRAW-" + winner.getDrawId() + "-WIN-" + winner.getUserId());
+                ps.setLong(3, winner.getUserId());
+                ps.setBigDecimal(4, BigDecimal.valueOf(winnerCoins));
+                ps.setString(5, CoinTransaction.TransactionCategory.LOTTERY_WIN.name());
+                ps.setString(6, "Lottery win: " + winner.getPrizeName());
+            });
+        }
+        if (participantCoins > 0) {
+            Long[] winnerIds = winners.stream().map(Winner::getUserId).distinct().toArray(Long[]::new);
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(INSERT_PARTICIPANT_PAYOUTS_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", winnerIds));
+                ps.setLong(2, runId);
+                ps.setLong(3, runId);
+                ps.setLong(4, runId);
+                ps.setBigDecimal(5, BigDecimal.valueOf(participantCoins));
+                return ps;
+            });
+        }
+    }
+
+    /**
+     * Pay a run whose payout failed (or never ran, e.g. the node stopped
+     * right after the draw). Awards already made for the run are skipped.
+     *
+     * @return number of coin transactions written; 0 if the run was already paid
+     * @throws IllegalArgumentException if there is no such run
+     * @throws IllegalStateException if the run predates recorded payouts
+     * @throws PayoutFailedException if the payout failed again
+     */
+    public int retryPayout(Long runId) {
+        List<String> statuses = jdbcTemplate.queryForList(RUN_PAYOUT_STATUS_SQL, String.class, runId);
+        if (statuses.isEmpty()) {
+            throw new IllegalArgumentException("Lottery run not found: " + runId);
+        }
+        if (statuses.get(0) == null) {
+            throw new IllegalStateException("Lottery run " + runId + " was drawn before payouts were recorded");
+        }
+        int paid = payOut(runId);
+        log.info("Lottery run {} payout retried: {} coin transactions", runId, paid);
+        return paid;
+    }
+
+    private int payOut(Long runId) {
+        try {
+            Integer paid = transactionTemplate.execute(status -> {
+                List<String> statuses = jdbcTemplate.queryForList(LOCK_RUN_SQL, String.class, runId);
+                if (statuses.isEmpty() || "PAID".equals(statuses.get(0))) {
+                    return 0;
+                }
+                List<WalletService.Award> awards = jdbcTemplate.query(SELECT_PAYOUTS_SQL,
+                        (rs, rowNum) -> new WalletService.Award(rs.getLong("user_id"), rs.getBigDecimal("amount"),
+                                CoinTransaction.TransactionCategory.valueOf(rs.getString("category")),
+                                rs.getString("description"), rs.getString("reference_id")),
+                        runId);
+                int written = walletService.awardCoinsBulk(awards);
+                jdbcTemplate.update(MARK_PAYOUT_SQL, "PAID", null, runId);
+                return written;
+            });
+            return paid != null ? paid : 0;
+        } catch (Exception e) {
+            log.error("Lottery payout failed for run {}: {}", runId, e.getMessage(), e);
+            String error = e.getMessage() != null && e.getMessage().length() > 1000
+                    ? e.getMessage().substring(0, 1000) : e.getMessage();
+            try {
+                jdbcTemplate.update(MARK_PAYOUT_SQL, "PAYOUT_FAILED", error, runId);
+            } catch (Exception markFailure) {
+                // Still PENDING, which retryPayout accepts as well
+                log.error("Could not mark lottery run {} PAYOUT_FAILED: {}", runId, markFailure.getMessage());
+            }
+            throw new PayoutFailedException(runId, error);
+        }
+    }
+
+    private PrizeTable prizeTable(List<LotteryPrize> active) {
+        List<LotteryPrize> drawn = new ArrayList<>();
+        StringBuilder fingerprint = new StringBuilder();
+        for (LotteryPrize prize : active) {
+            int quantity = prize.getQuantity() != null ? prize.getQuantity() : 1;
+            if (quantity > 0) {
+                drawn.add(prize);
+                fingerprint.append(prize.getId()).append(':').append(quantity).append(':')
+                        .append(prize.getWeight()).append(';');
+            }
+        }
+        if (drawn.isEmpty()) {
+            return null;
+        }
+
+        PrizeTable cached = prizeTable;
+        if (cached != null && cached.fingerprint.contentEquals(fingerprint)) {
+            // Same prize set: keep the table, pick up renamed prizes
+            return new PrizeTable(cached.fingerprint, drawn, cached.weights, cached.quantities, cached.units, cached.table);
+        }
+
+        double[] weights = new double[drawn.size()];
+        int[] quantities = new int[drawn.size()];
+        long units = 0;
+        for (int i = 0; i < drawn.size(); i++) {
+            LotteryPrize prize = drawn.get(i);
+            weights[i] = prize.getWeight() != null && prize.getWeight() > 0 ? prize.getWeight() : 1;
+            quantities[i] = prize.getQuantity() != null ? prize.getQuantity() : 1;
+            units += quantities[i];
+        }
+        PrizeTable rebuilt = new PrizeTable(fingerprint.toString(), drawn, weights, quantities, units,
+                AliasTable.of(weights));
+        prizeTable = rebuilt;
+        log.debug("Rebuilt lottery prize alias table for {} prizes ({} units)", drawn.size(), units);
+        return rebuilt;
+    }
+
+    /**
+     * Draw a prize index for each of the slots, by weight and without
+     * replacement of prize units. Draws of exhausted prizes are rejected; once
+     * exhausted prizes hold half of the table's weight the table is rebuilt
+     * over the rest, so a slot costs at most two draws on average.
+     */
+    static int[] assignPrizes(AliasTable table, double[] weights, int[] quantities, int slots, Random random) {
+        int[] remaining = quantities.clone();
+        int[] columns = new int[weights.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+        double tableWeight = 0;
+        for (double weight : weights) {
+            tableWeight += weight;
+        }
+        double liveWeight = tableWeight;
+
+        int[] assigned = new int[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            int prize;
+            do {
+                prize = columns[table.sample(random)];
+            } while (remaining[prize] == 0);
+            assigned[slot] = prize;
+
+            if (--remaining[prize] == 0) {
+                liveWeight -= weights[prize];
+                if (slot + 1 < slots && liveWeight < tableWeight / 2) {
+                    int live = 0;
+                    for (int count : remaining) {
+                        if (count > 0) {
+                            live++;
+                        }
+                    }
+                    columns = new int[live];
+                    double[] liveWeights = new double[live];
+                    for (int i = 0, j = 0; i < remaining.length; i++) {
+                        if (remaining[i] > 0) {
+                            columns[j] = i;
+                            liveWeights[j++] = weights[i];
+                        }
+                    }
+                    table = AliasTable.of(liveWeights);
+                    tableWeight = liveWeight;
+                }
+            }
+        }
+        return assigned;
+    }
+
+    private record PrizeTable(String fingerprint, List<LotteryPrize> prizes, double[] weights, int[] quantities,
+                              long units, AliasTable table) {
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Winner {
+        private Long drawId;
+        private Long prizeId;
+        private String prizeName;
+        private Long photoId;
+        private Long userId;
+    }
+
+    /**
+     * Outcome of one draw run; all its draw rows share the run id
+     */
+    @Data
+    @AllArgsConstructor
+    public static class DrawRun {
+        private Long runId;
+        private int totalParticipants;
+        private List<Winner> winners;
+        private int coinsPaidTo;
+        // Set when the draw stands but its payout failed (the run is PAYOUT_FAILED)
+        private String payoutError;
+
+        public boolean isPaidOut() {
+            return payoutError == null;
+        }
+    }
+
+    /**
+     * A run's payout failed; the run is left PAYOUT_FAILED for {@link #retryPayout}
+     */
+    public static class PayoutFailedException extends RuntimeException {
+        private final Long runId;
+
+        PayoutFailedException(Long runId, String message) {
+            super("Lottery payout failed for run " + runId + ": " + message);
+            this.runId = runId;
+        }
+
+        public Long getRunId() {
+            return runId;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The public lottery feed (IN_DRAW photos plus winners) kept as one
+ * pre-encoded JSON body with a strong ETag, so serving it costs no query and
+ * no serialization.
+ *
+ * Each feed photo is encoded once and kept in feed order. Code that submits,
+ * deletes or draws photos calls {@link #refreshOnCommit}; a single updater
+ * thread re-reads just those photos, replaces their entries and publishes a
+ * new body. The feed is rebuilt in full at startup and every
+ * lottery.feed.rebuild-interval-ms, which also picks up other nodes' changes.
+ */
+@Slf4j
+@Service
+public class LotteryFeedService {
+
+    // Newest draw first, then newest upload; photos never drawn sort last
+    private static final Comparator<FeedKey> FEED_ORDER = Comparator
+            .comparing(FeedKey::lotteryDate, Comparator.nullsFirst(Comparator.<LocalDate>naturalOrder()))
+            .thenComparing(FeedKey::uploadDate, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+            .thenComparingLong(FeedKey::id)
+            .reversed();
+
+    private static final byte[] PREFIX = "{\"success\":true,\"photos\":[".getBytes(StandardCharsets.UTF_8);
+
+    private final PhotoRepository photoRepository;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService updater;
+
+    // Touched by the updater thread only
+    private final TreeMap<FeedKey, byte[]> entries = new TreeMap<>(FEED_ORDER);
+    private final Map<Long, FeedKey> keys = new HashMap<>();
+
+    private volatile Snapshot snapshot;
+
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    public LotteryFeedService(PhotoRepository photoRepository, ObjectMapper objectMapper) {
+        this.photoRepository = photoRepository;
+        this.objectMapper = objectMapper;
+        this.updater = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lottery-feed-updater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updater.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        updater.execute(this::rebuild);
+    }
+
+    @Scheduled(initialDelayString = "${lottery.feed.rebuild-interval-ms:300000}",
+            fixedDelayString = "${lottery.feed.rebuild-interval-ms:300000}")
+    public void scheduledRebuild() {
+        updater.execute(this::rebuild);
+    }
+
+    /**
+     * The current feed
+     *
+     * @throws IllegalStateException while the initial load is still running
+     */
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("Lottery feed is still loading");
+        }
+        return current;
+    }
+
+    /**
+     * Re-read these photos (added, changed or deleted) once the current
+     * transaction commits (right away if there is none)
+     */
+    public void refreshOnCommit(Collection<Long> photoIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            markDirty(photoIds);
+            return;
+        }
+        List<Long> ids = List.copyOf(photoIds);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                markDirty(ids);
+            }
+        });
+    }
+
+    private void markDirty(Collection<Long> photoIds) {
+        dirty.addAll(photoIds);
+        if (drainScheduled.compareAndSet(false, true)) {
+            updater.execute(this::drain);
+        }
+    }
+
+    // Runs on the updater thread only
+    private void rebuild() {
+        long started = System.currentTimeMillis();
+        try {
+            // Anything marked before this read is covered by it
+            dirty.clear();
+            List<Photo> photos = photoRepository.findFeedPhotosWithUser(PhotoStatus.IN_DRAW);
+            entries.clear();
+            keys.clear();
+            for (Photo photo : photos) {
+                put(photo);
+            }
+            publish();
+            log.info("Lottery feed rebuilt with {} photos in {} ms", photos.size(), System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.error("Lottery feed rebuild failed", e);
+        }
+    }
+
+    // Runs on the updater thread only
+    private void drain() {
+        drainScheduled.set(false);
+        Long[] photoIds = dirty.toArray(new Long[0]);
+        if (photoIds.length == 0) {
+            return;
+        }
+        dirty.removeAll(List.of(photoIds));
+
+        Set<Long> found = new HashSet<>();
+        try {
+            for (Photo photo : photoRepository.findByIdInWithUser(List.of(photoIds))) {
+                found.add(photo.getId());
+                remove(photo.getId());
+                if (isInFeed(photo)) {
+                    put(photo);
+                }
+            }
+        } catch (Exception e) {
+            // The next rebuild picks these up
+            log.warn("Failed to refresh {} lottery feed photos", photoIds.length, e);
+            return;
+        }
+        for (Long photoId : photoIds) {
+            if (!found.contains(photoId)) {
+                remove(photoId); // deleted
+            }
+        }
+        if (snapshot != null) {
+            publish();
+        }
+    }
+
+    private static boolean isInFeed(Photo photo) {
+        return photo.getStatus() == PhotoStatus.IN_DRAW || Boolean.TRUE.equals(photo.getIsWinner());
+    }
+
+    private void put(Photo photo) throws JsonProcessingException {
+        FeedKey key = new FeedKey(photo.getLotteryDate(), photo.getUploadDate(), photo.getId());
+        entries.put(key, objectMapper.writeValueAsBytes(PhotoUploadController.photoToMap(photo)));
+        keys.put(photo.getId(), key);
+    }
+
+    private void remove(Long photoId) {
+        FeedKey key = keys.remove(photoId);
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    // Same body the endpoint used to build per request: {"success":true,"photos":[...],"count":n}
+    private void publish() {
+        int size = PREFIX.length + 32;
+        for (byte[] entry : entries.values()) {
+            size += entry.length + 1;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size);
+        body.writeBytes(PREFIX);
+        boolean first = true;
+        for (byte[] entry : entries.values()) {
+            if (!first) {
+                body.write(',');
+            }
+            body.writeBytes(entry);
+            first = false;
+        }
+        body.writeBytes(("],\"count\":" + entries.size() + "}").getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = body.toByteArray();
+        snapshot = new Snapshot(bytes, etag(bytes), entries.size());
+    }
+
+    // Content hash, so every node serves the same ETag for the same feed
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private record FeedKey(LocalDate lotteryDate, LocalDateTime uploadDate, long id) {
+    }
+
+    /**
+     * One published feed body; never modified after it is published
+     */
+    @Getter
+    public static class Snapshot {
+        private final byte[] body;
+        private final String etag;
+        private final int count;
+
+        Snapshot(byte[] body, String etag, int count) {
+            this.body = body;
+            this.etag = etag;
+            this.count = count;
+        }
+
+        /**
+         * Whether an If-None-Match header names this snapshot (weak comparison, as the header requires)
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String candidate = tag.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -38,6 +38,16 @@ public class LotteryPrize {
     @Builder.Default
     private Integer displayOrder = 0;
 
+    /** Units handed out per draw run (0 = not drawn) */
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer quantity = 1;
+
+    /** Relative chance of this prize when a run has fewer entries than prize units */
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer weight = 1;
+
     @Column(name = "created_at")
     @Builder.Default
     private LocalDateTime createdAt = LocalDateTime.now();
@@ -111,6 +111,7 @@ public class MarketplaceOrder {
         DELIVERED,      // Item delivered to buyer
         COMPLETED,      // Transaction completed successfully
         CANCELLED,      // Order cancelled
+        EXPIRED,        // Not shipped before the escrow hold expired; refunded
         DISPUTED        // Order in dispute
     }
 
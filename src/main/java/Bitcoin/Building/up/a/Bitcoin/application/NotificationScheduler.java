@@ -7,21 +7,31 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import Bitcoin.Building.up.a.Bitcoin.application.PhotoStatus;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.List;
+
+/**
+ * Lottery countdowns, the automatic draw and daily housekeeping.
+ *
+ * Every node runs the schedules, but only the {@link SchedulerLease} leader
+ * acts, and each occurrence (a countdown for a cycle, a cycle's draw, a
+ * day's reminder) is claimed as a persisted job key first. Broadcasts and
+ * draws therefore happen once per cluster, however many instances run.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class NotificationScheduler {
 
+    // Countdown broadcasts, in minutes before the draw
+    private static final int[] COUNTDOWN_MINUTES = {60, 30, 10, 5, 1};
+
     private final NotificationService notificationService;
     private final PhotoRepository photoRepository;
-
-    // Track sent notifications to avoid duplicates
-    private final Set<String> sentNotifications = ConcurrentHashMap.newKeySet();
+    private final LotteryDrawService lotteryDrawService;
+    private final SchedulerLease schedulerLease;
 
     @Value("${lottery.draw.interval.hours:24}")
     private int lotteryIntervalHours;
@@ -29,144 +39,122 @@ public class NotificationScheduler {
     @Value("${lottery.start.time:2025-01-01T00:00:00}")
     private String lotteryStartTime;
 
+    // A draw missed by longer than this (e.g. the whole cluster was down) is skipped, not run late
+    @Value("${lottery.draw.catch-up-minutes:60}")
+    private int catchUpMinutes;
+
+    @Value("${scheduler.job-runs.retention-days:30}")
+    private int jobRunRetentionDays;
+
     /**
-     * Check if countdown notifications should be sent
+     * Check if countdown notifications should be sent or the draw is due
      */
     @Scheduled(fixedRate = 60000) // Check every minute
     public void checkCountdownNotifications() {
+        if (!schedulerLease.isLeader()) {
+            return;
+        }
         try {
             LocalDateTime now = LocalDateTime.now();
-            LocalDateTime nextDrawTime = calculateNextDrawTime(now);
+            LocalDateTime startTime = LocalDateTime.parse(lotteryStartTime);
+            long cycle = ChronoUnit.HOURS.between(startTime, now) / lotteryIntervalHours;
+            LocalDateTime drawTime = startTime.plusHours(cycle * lotteryIntervalHours);
+            LocalDateTime nextDrawTime = drawTime.plusHours(lotteryIntervalHours);
 
-            if (nextDrawTime == null) {
-                return;
+            // The draw that opened this cycle
+            if (cycle > 0 && ChronoUnit.MINUTES.between(drawTime, now) <= catchUpMinutes) {
+                performAutomaticLotteryDraw(cycle);
             }
 
+            // Smallest countdown step not yet passed, so a late tick still sends it
             long minutesUntilDraw = ChronoUnit.MINUTES.between(now, nextDrawTime);
-
-            // Send notifications at specific intervals
-            if (minutesUntilDraw == 60) {
-                sendCountdownNotification(60, "1-hour");
-            } else if (minutesUntilDraw == 30) {
-                sendCountdownNotification(30, "30-minute");
-            } else if (minutesUntilDraw == 10) {
-                sendCountdownNotification(10, "10-minute");
-            } else if (minutesUntilDraw == 5) {
-                sendCountdownNotification(5, "5-minute");
-            } else if (minutesUntilDraw == 1) {
-                sendCountdownNotification(1, "1-minute");
-            }
-
-            // Auto-spin lottery when time is up
-            if (minutesUntilDraw <= 0) {
-                performAutomaticLotteryDraw();
+            for (int i = COUNTDOWN_MINUTES.length - 1; i >= 0; i--) {
+                int minutes = COUNTDOWN_MINUTES[i];
+                if (minutesUntilDraw <= minutes) {
+                    sendCountdownNotification(minutes, cycle + 1);
+                    break;
+                }
             }
-
         } catch (Exception e) {
             log.error("Error in countdown notification scheduler", e);
         }
     }
 
-    private void sendCountdownNotification(int minutes, String timeKey) {
-        String notificationKey = timeKey + "-" + getCurrentDrawCycle();
-
-        if (sentNotifications.contains(notificationKey)) {
-            return; // Already sent this notification for this cycle
+    private void sendCountdownNotification(int minutes, long drawCycle) {
+        if (!schedulerLease.claim("countdown-" + minutes + "-" + drawCycle)) {
+            return; // Already sent for this draw
         }
-
         notificationService.notifyCountdown(minutes);
-        sentNotifications.add(notificationKey);
-
-        log.info("Sent {} countdown notification", timeKey);
+        log.info("Sent {}-minute countdown notification for draw {}", minutes, drawCycle);
     }
 
-    private void performAutomaticLotteryDraw() {
-        try {
-            String drawKey = "auto-draw-" + getCurrentDrawCycle();
-
-            if (sentNotifications.contains(drawKey)) {
-                return; // Already performed draw for this cycle
-            }
+    private void performAutomaticLotteryDraw(long cycle) {
+        String drawKey = "draw-" + cycle;
+        if (!schedulerLease.claim(drawKey)) {
+            return; // Already drawn for this cycle
+        }
 
-            // Check if there are submitted photos
+        try {
             long submittedCount = photoRepository.countByStatus(PhotoStatus.IN_DRAW);
-
-
             if (submittedCount == 0) {
                 log.info("No photos submitted for automatic lottery draw");
                 notificationService.broadcastNotification(
                         Notification.NotificationType.LOTTERY_RESULT,
                         "📸 No Winner This Round",
-                        "No photos were submitted for this lottery cycle. Next draw in 24 hours!",
+                        "No photos were submitted for this lottery cycle. Next draw in " + lotteryIntervalHours + " hours!",
                         null
                 );
-            } else {
-                // Perform automatic lottery spin
-                log.info("Performing automatic lottery draw with {} submitted photos", submittedCount);
-                // You would call your lottery spin logic here
-                // This could be extracted to a LotteryService
-                performLotteryDraw();
+                schedulerLease.finish(drawKey, true, "no entries");
+                return;
             }
 
-            sentNotifications.add(drawKey);
-
-            // Clean up old notifications to prevent memory leak
-            if (sentNotifications.size() > 1000) {
-                sentNotifications.clear();
+            log.info("Performing automatic lottery draw with {} submitted photos", submittedCount);
+            LotteryDrawService.DrawRun run = lotteryDrawService.runDraw();
+            if (run.isPaidOut()) {
+                schedulerLease.finish(drawKey, true, "run " + run.getRunId() + ", " + run.getWinners().size() + " winners");
+            } else {
+                // The draw stands; the run is PAYOUT_FAILED until paid via /api/lottery/runs/{runId}/payout
+                schedulerLease.finish(drawKey, false, run.getPayoutError());
             }
-
+            notifyWinners(run);
         } catch (Exception e) {
-            log.error("Error performing automatic lottery draw", e);
+            // Not retried: the key stays claimed, an admin can spin from /api/lottery/spin
+            log.error("Error performing automatic lottery draw {}", cycle, e);
+            schedulerLease.finish(drawKey, false, e.getMessage());
         }
     }
 
-    private void performLotteryDraw() {
-        // This is simplified - you'd want to extract this to a service
-        // and integrate with your existing lottery spin logic
-        log.info("🎰 Automatic lottery draw triggered by scheduler");
-        // Call your lottery service here
-    }
-
-    private LocalDateTime calculateNextDrawTime(LocalDateTime current) {
+    private void notifyWinners(LotteryDrawService.DrawRun run) {
         try {
-            // Parse start time and calculate next draw based on interval
-            LocalDateTime startTime = LocalDateTime.parse(lotteryStartTime);
-
-            // Calculate how many intervals have passed since start
-            long hoursSinceStart = ChronoUnit.HOURS.between(startTime, current);
-            long completedIntervals = hoursSinceStart / lotteryIntervalHours;
-
-            // Calculate next draw time
-            return startTime.plusHours((completedIntervals + 1) * lotteryIntervalHours);
-
+            List<Long> photoIds = run.getWinners().stream().map(LotteryDrawService.Winner::getPhotoId).toList();
+            for (Photo photo : photoRepository.findByIdInWithUser(photoIds)) {
+                notificationService.notifyLotteryWinner(photo.getUser(), photo);
+            }
+            notificationService.broadcastNotification(
+                    Notification.NotificationType.LOTTERY_RESULT,
+                    "📸 Lottery Draw Complete",
+                    String.format("This round's draw is done: %d winners. Next draw in %d hours!",
+                            run.getWinners().size(), lotteryIntervalHours),
+                    null
+            );
         } catch (Exception e) {
-            log.error("Error calculating next draw time", e);
-            return null;
+            log.warn("Failed to send notifications for lottery run {}: {}", run.getRunId(), e.getMessage());
         }
     }
 
-    private String getCurrentDrawCycle() {
-        // Generate a unique identifier for the current draw cycle
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime startTime = LocalDateTime.parse(lotteryStartTime);
-        long hoursSinceStart = ChronoUnit.HOURS.between(startTime, now);
-        long currentCycle = hoursSinceStart / lotteryIntervalHours;
-        return String.valueOf(currentCycle);
-    }
-
     /**
      * Clean up old notifications daily
      */
     @Scheduled(cron = "0 0 2 * * ?") // Run daily at 2 AM
     public void cleanupOldNotifications() {
+        if (!schedulerLease.isLeader() || !schedulerLease.claim("cleanup-" + LocalDate.now())) {
+            return;
+        }
         try {
             log.info("Starting daily notification cleanup...");
             notificationService.cleanupOldNotifications();
-
-            // Clear sent notifications tracking
-            sentNotifications.clear();
-
-            log.info("Daily notification cleanup completed");
+            int pruned = schedulerLease.prune(jobRunRetentionDays);
+            log.info("Daily notification cleanup completed ({} old scheduler job runs removed)", pruned);
         } catch (Exception e) {
             log.error("Error during notification cleanup", e);
         }
@@ -177,6 +165,9 @@ public class NotificationScheduler {
      */
     @Scheduled(cron = "0 0 10 * * ?") // Run daily at 10 AM
     public void sendDailyReminder() {
+        if (!schedulerLease.isLeader() || !schedulerLease.claim("reminder-" + LocalDate.now())) {
+            return;
+        }
         try {
             notificationService.broadcastNotification(
                     Notification.NotificationType.COUNTDOWN_1HOUR,
@@ -189,4 +180,4 @@ public class NotificationScheduler {
             log.error("Error sending daily reminder", e);
         }
     }
-}
\ No newline at end of file
+}
@@ -23,6 +23,7 @@ public class NotificationService {
     private final UserRepository userRepository;
     private final EmailService emailService;
     private final ObjectMapper objectMapper;
+    private final OutboxService outboxService;
 
     @Value("${app.frontend.url:http://localhost:3000}")
     private String frontendUrl;
@@ -85,6 +86,57 @@ public class NotificationService {
         return createAndSendNotification(userId, type, title, message, null, null, null, null);
     }
 
+    // Outbox delivery: save the notification in the relay's transaction and
+    // queue its email as a separate outbox event
+    @Transactional
+    public Notification deliverNotification(
+            Long userId,
+            Notification.NotificationType type,
+            String title,
+            String message) {
+
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("User not found: " + userId));
+
+        Notification notification = notificationRepository.save(Notification.builder()
+                .user(user)
+                .type(type)
+                .title(title)
+                .message(message)
+                .actionUrl(getDefaultActionUrl(type))
+                .priority(getDefaultPriority(type))
+                .build());
+        log.info("Notification delivered from outbox: {} for user {}", type, userId);
+
+        if (shouldSendEmail(type)) {
+            outboxService.enqueueEmail(userId, notification.getId());
+        }
+        return notification;
+    }
+
+    // Outbox delivery: send the email for a saved notification, failing so the relay retries
+    @Transactional
+    public void deliverEmail(Long notificationId) {
+        Notification notification = notificationRepository.findById(notificationId).orElse(null);
+        if (notification == null || Boolean.TRUE.equals(notification.getEmailSent())
+                || !notification.getUser().isEmailVerified()) {
+            return;
+        }
+
+        boolean sent = emailService.sendNotificationEmail(
+                notification.getUser(),
+                notification.getTitle(),
+                notification.getMessage(),
+                notification.getActionUrl()
+        ).join();
+        if (!sent) {
+            throw new RuntimeException("Email delivery failed for notification " + notificationId);
+        }
+
+        notification.setEmailSent(true);
+        notificationRepository.save(notification);
+    }
+
     // Send notification to all users (broadcast)
     @Async
     public void broadcastNotification(
@@ -31,7 +31,7 @@ public class OrderController {
     private final MarketplaceItemRepository marketplaceItemRepository;
     private final WalletService walletService;
     private final MarketplaceOrderRepository orderRepository;
-    private final NotificationService notificationService;
+    private final OutboxService outboxService;
 
     /**
      * Create marketplace order
@@ -73,10 +73,29 @@ public class OrderController {
 
             BigDecimal totalAmount = item.getPrice().multiply(BigDecimal.valueOf(quantity));
 
+            // Save the order first: its id is the escrow reference that
+            // cancel, complete and the expiry sweeper look the hold up by
+            MarketplaceOrder order = new MarketplaceOrder();
+            order.setOrderNumber("ORD-" + System.currentTimeMillis());
+            order.setBuyer(currentUser);
+            order.setSeller(item.getSeller());
+            order.setItem(item);
+            order.setQuantity(quantity);
+            order.setUnitPrice(item.getPrice());
+            order.setTotalAmount(totalAmount);
+            order.setEscrowAmount(totalAmount);
+            order.setStatus(MarketplaceOrder.OrderStatus.PENDING);
+            order.setPaymentStatus(MarketplaceOrder.PaymentStatus.PENDING);
+            order.setShippingAddress(request.getShippingAddress());
+            order.setNotes(request.getNotes());
+            order.setCreatedAt(LocalDateTime.now());
+            order.setUpdatedAt(LocalDateTime.now());
+            order = orderRepository.save(order);
+
             // Check wallet balance using wallet service
             try {
                 // Use escrow to hold the payment
-                String orderRef = "ORDER-" + System.currentTimeMillis();
+                String orderRef = "ORDER-" + order.getId();
                 walletService.holdInEscrow(
                         currentUser.getId(),
                         totalAmount,
@@ -84,21 +103,8 @@ public class OrderController {
                         "Purchase: " + item.getTitle()
                 );
 
-                // Create order entity
-                MarketplaceOrder order = new MarketplaceOrder();
-                order.setOrderNumber("ORD-" + System.currentTimeMillis());
-                order.setBuyer(currentUser);
-                order.setSeller(item.getSeller());
-                order.setItem(item);
-                order.setQuantity(quantity);
-                order.setUnitPrice(item.getPrice());
-                order.setTotalAmount(totalAmount);
-                order.setEscrowAmount(totalAmount);
                 order.setStatus(MarketplaceOrder.OrderStatus.CONFIRMED);
                 order.setPaymentStatus(MarketplaceOrder.PaymentStatus.ESCROWED);
-                order.setShippingAddress(request.getShippingAddress());
-                order.setNotes(request.getNotes());
-                order.setCreatedAt(LocalDateTime.now());
                 order.setUpdatedAt(LocalDateTime.now());
 
                 // Save order
@@ -124,6 +130,10 @@ public class OrderController {
                 ));
 
             } catch (RuntimeException e) {
+                order.setStatus(MarketplaceOrder.OrderStatus.CANCELLED);
+                order.setCancelledAt(LocalDateTime.now());
+                order.setCancellationReason("Payment failed: " + e.getMessage());
+                orderRepository.save(order);
                 return ResponseEntity.badRequest().body(Map.of(
                         "success", false,
                         "message", e.getMessage()
@@ -321,7 +331,8 @@ public class OrderController {
             log.info("Order completed successfully: {}", orderId);
 
             // Notify seller
-            notificationService.sendNotification(
+            outboxService.enqueueNotification(
+                    "ORDER-" + order.getId() + "-COMPLETED",
                     order.getSeller().getId(),
                     Notification.NotificationType.LOTTERY_WINNER,
                     "💰 Payment Released!",
@@ -385,7 +396,8 @@ public class OrderController {
             log.info("Order shipped: {}", orderId);
 
             // Notify buyer
-            notificationService.sendNotification(
+            outboxService.enqueueNotification(
+                    "ORDER-" + order.getId() + "-SHIPPED",
                     order.getBuyer().getId(),
                     Notification.NotificationType.SYSTEM_MAINTENANCE,
                     "📦 Order Shipped!",
@@ -0,0 +1,70 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * Side effect recorded in the same transaction as the business change that
+ * caused it, and delivered afterwards by {@link OutboxRelay}.
+ */
+@Entity
+@Table(name = "outbox_events")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "event_type", nullable = false, length = 30)
+    @Enumerated(EnumType.STRING)
+    private EventType eventType;
+
+    /** Producer-chosen key; a second event with the same key is dropped */
+    @Column(name = "dedup_key", nullable = false, unique = true)
+    private String dedupKey;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload; // JSON
+
+    @Column(nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    @Builder.Default
+    private Status status = Status.PENDING;
+
+    @Column(nullable = false)
+    @Builder.Default
+    private Integer attempts = 0;
+
+    @Column(name = "available_at", nullable = false)
+    @Builder.Default
+    private LocalDateTime availableAt = LocalDateTime.now();
+
+    @Column(name = "created_at", nullable = false)
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    public enum EventType {
+        NOTIFICATION,   // in-app notification (may fan out to EMAIL)
+        EMAIL           // notification email for a saved notification
+    }
+
+    public enum Status {
+        PENDING,
+        SENT,
+        FAILED          // gave up after outbox.relay.max-attempts
+    }
+}
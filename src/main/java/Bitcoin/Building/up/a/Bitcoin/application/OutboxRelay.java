@@ -0,0 +1,163 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Drains the outbox in batches and hands events to the notification and
+ * email handlers.
+ *
+ * A batch is leased with one UPDATE ... FOR UPDATE SKIP LOCKED, so several
+ * nodes can relay side by side. Each event is then delivered in its own
+ * transaction that first flips it to SENT: the handler's database writes and
+ * the SENT mark commit together, and an event already delivered elsewhere
+ * is skipped. Anything that fails, or whose relay dies mid-lease, comes back
+ * once the lease or backoff runs out, so delivery is at-least-once (only the
+ * email send itself can repeat).
+ */
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NotificationService notificationService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${outbox.relay.batch-size:100}")
+    private int batchSize;
+
+    @Value("${outbox.relay.max-batches-per-run:50}")
+    private int maxBatchesPerRun;
+
+    @Value("${outbox.relay.lease-seconds:60}")
+    private int leaseSeconds;
+
+    @Value("${outbox.relay.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${outbox.retention-days:7}")
+    private int retentionDays;
+
+    private static final String LEASE_BATCH_SQL =
+            "UPDATE outbox_events SET available_at = NOW() + (? * INTERVAL '1 second'), attempts = attempts + 1 " +
+            "WHERE id IN (SELECT id FROM outbox_events WHERE status = 'PENDING' AND available_at <= NOW() " +
+            "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, event_type, user_id, payload, attempts";
+
+    private static final String MARK_SENT_SQL =
+            "UPDATE outbox_events SET status = 'SENT', sent_at = NOW(), last_error = NULL " +
+            "WHERE id = ? AND status = 'PENDING'";
+
+    // Quadratic backoff in seconds; FAILED once the attempts are used up
+    private static final String MARK_FAILED_SQL =
+            "UPDATE outbox_events SET last_error = ?, " +
+            "status = CASE WHEN attempts >= ? THEN 'FAILED' ELSE status END, " +
+            "available_at = NOW() + (attempts * attempts * INTERVAL '1 second') " +
+            "WHERE id = ? AND status = 'PENDING'";
+
+    private static final String PURGE_SENT_SQL =
+            "DELETE FROM outbox_events WHERE status = 'SENT' AND sent_at < NOW() - (? * INTERVAL '1 day')";
+
+    public OutboxRelay(JdbcTemplate jdbcTemplate,
+                       NotificationService notificationService,
+                       ObjectMapper objectMapper,
+                       PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.notificationService = notificationService;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Deliver due events until the outbox is empty or the per-run cap is hit
+     */
+    @Scheduled(fixedDelayString = "${outbox.relay.interval-ms:1000}")
+    public void drain() {
+        for (int round = 0; round < maxBatchesPerRun; round++) {
+            List<OutboxEvent> batch = leaseBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            int delivered = 0;
+            for (OutboxEvent event : batch) {
+                if (deliver(event)) {
+                    delivered++;
+                }
+            }
+            log.debug("Outbox relay delivered {}/{} events", delivered, batch.size());
+
+            if (batch.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    @Scheduled(cron = "0 30 3 * * *")
+    public void purgeSent() {
+        int purged = jdbcTemplate.update(PURGE_SENT_SQL, retentionDays);
+        log.info("Purged {} delivered outbox events older than {} days", purged, retentionDays);
+    }
+
+    private List<OutboxEvent> leaseBatch() {
+        List<OutboxEvent> batch = transactionTemplate.execute(status -> jdbcTemplate.query(LEASE_BATCH_SQL,
+                (rs, rowNum) -> OutboxEvent.builder()
+                        .id(rs.getLong("id"))
+                        .eventType(OutboxEvent.EventType.valueOf(rs.getString("event_type")))
+                        .userId(rs.getObject("user_id", Long.class))
+                        .payload(rs.getString("payload"))
+                        .attempts(rs.getInt("attempts"))
+                        .build(),
+                leaseSeconds, batchSize));
+        batch.sort(Comparator.comparing(OutboxEvent::getId));
+        return batch;
+    }
+
+    private boolean deliver(OutboxEvent event) {
+        try {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                if (jdbcTemplate.update(MARK_SENT_SQL, event.getId()) == 0) {
+                    return false; // delivered by another relay
+                }
+                dispatch(event);
+                return true;
+            }));
+        } catch (Exception e) {
+            log.warn("Outbox event {} ({}) failed on attempt {}: {}",
+                    event.getId(), event.getEventType(), event.getAttempts(), e.getMessage());
+            String error = e.getMessage() != null && e.getMessage().length() > 1000
+                    ? e.getMessage().substring(0, 1000) : e.getMessage();
+            jdbcTemplate.update(MARK_FAILED_SQL, error, maxAttempts, event.getId());
+            return false;
+        }
+    }
+
+    private void dispatch(OutboxEvent event) {
+        JsonNode payload;
+        try {
+            payload = objectMapper.readTree(event.getPayload());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Unreadable outbox payload for event " + event.getId(), e);
+        }
+        switch (event.getEventType()) {
+            case NOTIFICATION -> notificationService.deliverNotification(
+                    event.getUserId(),
+                    Notification.NotificationType.valueOf(payload.get("type").asText()),
+                    payload.get("title").asText(),
+                    payload.get("message").asText());
+            case EMAIL -> notificationService.deliverEmail(payload.get("notificationId").asLong());
+        }
+    }
+}
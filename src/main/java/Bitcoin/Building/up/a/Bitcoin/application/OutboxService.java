@@ -0,0 +1,96 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes side effects to the outbox inside the caller's transaction, so they
+ * are delivered only if that transaction commits. Delivery is done by
+ * {@link OutboxRelay}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class OutboxService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${wallet.bulk.batch-size:1000}")
+    private int batchSize;
+
+    private static final String INSERT_EVENT_SQL =
+            "INSERT INTO outbox_events (event_type, dedup_key, user_id, payload, status, attempts, available_at, created_at) " +
+            "VALUES (?, ?, ?, ?, 'PENDING', 0, NOW(), NOW()) ON CONFLICT (dedup_key) DO NOTHING";
+
+    /**
+     * Queue an in-app notification (and its email, if the type sends one)
+     */
+    public void enqueueNotification(String dedupKey, Long userId, Notification.NotificationType type,
+                                    String title, String message) {
+        enqueue(OutboxEvent.EventType.NOTIFICATION, dedupKey, userId,
+                Map.of("type", type.name(), "title", title, "message", message));
+    }
+
+    /**
+     * Queue many notifications with JDBC batches (bulk wallet operations)
+     */
+    public void enqueueNotifications(List<NotificationEvent> events) {
+        jdbcTemplate.batchUpdate(INSERT_EVENT_SQL, events, batchSize, (ps, event) -> {
+            ps.setString(1, OutboxEvent.EventType.NOTIFICATION.name());
+            ps.setString(2, event.getDedupKey());
+            ps.setLong(3, event.getUserId());
+            ps.setString(4, serialize(event.getDedupKey(), Map.of("type", event.getType().name(),
+                    "title", event.getTitle(), "message", event.getMessage())));
+        });
+    }
+
+    /**
+     * Queue the notification email for an already saved notification
+     */
+    public void enqueueEmail(Long userId, Long notificationId) {
+        enqueue(OutboxEvent.EventType.EMAIL, "EMAIL-" + notificationId, userId,
+                Map.of("notificationId", notificationId));
+    }
+
+    private void enqueue(OutboxEvent.EventType eventType, String dedupKey, Long userId, Map<String, Object> payload) {
+        int inserted = jdbcTemplate.update(INSERT_EVENT_SQL, eventType.name(), dedupKey, userId,
+                serialize(dedupKey, payload));
+        if (inserted == 0) {
+            log.debug("Outbox event {} already queued", dedupKey);
+        }
+    }
+
+    private String serialize(String dedupKey, Map<String, Object> payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize outbox payload for " + dedupKey, e);
+        }
+    }
+
+    /**
+     * One notification of a bulk enqueue
+     */
+    @Data
+    @AllArgsConstructor
+    public static class NotificationEvent {
+        private String dedupKey;
+        private Long userId;
+        private Notification.NotificationType type;
+        private String title;
+        private String message;
+    }
+}
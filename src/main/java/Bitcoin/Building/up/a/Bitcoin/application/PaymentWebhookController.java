@@ -0,0 +1,60 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Payment provider webhooks. Deliveries are authenticated by signature, not
+ * by JWT, and acknowledged as soon as they are stored; wallets are credited
+ * by {@link PaymentWebhookWorker}.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/payments/webhooks")
+@RequiredArgsConstructor
+@Tag(name = "Payments", description = "Payment provider webhooks")
+public class PaymentWebhookController {
+
+    private static final String SIGNATURE_HEADER = "X-Webhook-Signature";
+
+    private final PaymentWebhookService paymentWebhookService;
+
+    @PostMapping("/{provider}")
+    @Operation(summary = "Receive a payment webhook", description = "Signed delivery from a configured payment provider")
+    public ResponseEntity<?> receive(@PathVariable String provider,
+                                     @RequestHeader(value = SIGNATURE_HEADER, required = false) String signature,
+                                     @RequestBody String body) {
+        if (!paymentWebhookService.isKnownProvider(provider)) {
+            return ResponseEntity.status(404).body(Map.of(
+                    "success", false,
+                    "message", "Unknown payment provider"
+            ));
+        }
+        try {
+            boolean stored = paymentWebhookService.receive(provider, signature, body);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "duplicate", !stored
+            ));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            // Non-2xx makes the provider retry the delivery
+            log.error("Failed to store {} webhook", provider, e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Failed to store webhook"
+            ));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.regex.Pattern;
+
+/**
+ * Receives payment provider webhooks for wallet top-ups.
+ *
+ * A delivery is verified (HMAC signature with the provider's secret, see
+ * {@link PaymentWebhookSignature}), validated and stored with one INSERT,
+ * deduplicated on the provider's event id, and acknowledged. Nothing else
+ * happens on the request path, so bursts are absorbed by the table;
+ * {@link PaymentWebhookWorker} credits the stored events in batches.
+ *
+ * Providers are configured as payments.webhook.providers.&lt;name&gt;.secret.
+ */
+@Slf4j
+@Service
+public class PaymentWebhookService {
+
+    static final String PAYMENT_SUCCEEDED = "payment.succeeded";
+
+    private static final Pattern PROVIDER_NAME = Pattern.compile("[a-z0-9-]{1,50}");
+
+    private static final String INSERT_EVENT_SQL =
+            "INSERT INTO payment_webhook_events (provider, provider_event_id, event_type, payment_id, user_id, amount, " +
+            "payment_method, payload, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (provider, provider_event_id) DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+    private final long toleranceSeconds;
+
+    public PaymentWebhookService(JdbcTemplate jdbcTemplate,
+                                 ObjectMapper objectMapper,
+                                 Environment environment,
+                                 @Value("${payments.webhook.tolerance-seconds:300}") long toleranceSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.environment = environment;
+        this.toleranceSeconds = toleranceSeconds;
+    }
+
+    public boolean isKnownProvider(String provider) {
+        return secretFor(provider) != null;
+    }
+
+    /**
+     * Verify and store one delivery
+     *
+     * @return false if this event was received before (a provider retry)
+     * @throws IllegalArgumentException if the signature or payload is invalid
+     */
+    public boolean receive(String provider, String signature, String body) {
+        String secret = secretFor(provider);
+        if (secret == null) {
+            throw new IllegalArgumentException("Unknown payment provider: " + provider);
+        }
+        PaymentWebhookSignature.verify(secret, signature, body, Instant.now().getEpochSecond(), toleranceSeconds);
+        WebhookEvent event = parse(objectMapper, body);
+
+        // Only successful payments move money; other event types are kept for the record
+        String status = PAYMENT_SUCCEEDED.equals(event.getType()) ? "PENDING" : "IGNORED";
+        boolean stored = jdbcTemplate.update(INSERT_EVENT_SQL, provider, event.getEventId(), event.getType(),
+                event.getPaymentId(), event.getUserId(), event.getAmount(), event.getPaymentMethod(), body, status) == 1;
+        if (!stored) {
+            log.debug("Duplicate {} webhook {} acknowledged", provider, event.getEventId());
+        }
+        return stored;
+    }
+
+    private String secretFor(String provider) {
+        if (provider == null || !PROVIDER_NAME.matcher(provider).matches()) {
+            return null;
+        }
+        String secret = environment.getProperty("payments.webhook.providers." + provider + ".secret");
+        return secret == null || secret.isBlank() ? null : secret;
+    }
+
+    /**
+     * Provider-neutral payload:
+     * {"id": "...", "type": "payment.succeeded",
+     *  "data": {"paymentId": "...", "userId": 1, "amount": "25.00", "paymentMethod": "card"}}
+     */
+    static WebhookEvent parse(ObjectMapper objectMapper, String body) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed webhook payload");
+        }
+        if (root == null || !root.hasNonNull("id") || !root.hasNonNull("type")) {
+            throw new IllegalArgumentException("Webhook payload needs id and type");
+        }
+        WebhookEvent event = new WebhookEvent();
+        event.setEventId(root.get("id").asText());
+        event.setType(root.get("type").asText());
+        if (event.getEventId().isBlank() || event.getEventId().length() > 255 || event.getType().length() > 100) {
+            throw new IllegalArgumentException("Invalid webhook id or type");
+        }
+
+        JsonNode data = root.path("data");
+        if (data.hasNonNull("paymentId")) {
+            event.setPaymentId(data.get("paymentId").asText());
+        }
+        if (data.hasNonNull("paymentMethod")) {
+            event.setPaymentMethod(data.get("paymentMethod").asText());
+        }
+        // Column sizes of payment_webhook_events; rejected here rather than failing the insert with a 500
+        if (event.getPaymentId() != null && event.getPaymentId().length() > 255) {
+            throw new IllegalArgumentException("Invalid webhook paymentId");
+        }
+        if (event.getPaymentMethod() != null && event.getPaymentMethod().length() > 50) {
+            throw new IllegalArgumentException("Invalid webhook paymentMethod");
+        }
+        if (PAYMENT_SUCCEEDED.equals(event.getType())) {
+            if (!data.hasNonNull("userId") || !data.get("userId").canConvertToLong() || !data.hasNonNull("amount")) {
+                throw new IllegalArgumentException("Payment webhook needs data.userId and data.amount");
+            }
+            event.setUserId(data.get("userId").asLong());
+            try {
+                Coins amount = Coins.of(new BigDecimal(data.get("amount").asText()));
+                if (!amount.isPositive()) {
+                    throw new IllegalArgumentException("Payment amount must be positive");
+                }
+                event.setAmount(amount.toBigDecimal());
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new IllegalArgumentException("Invalid payment amount");
+            }
+        }
+        return event;
+    }
+
+    @Data
+    static class WebhookEvent {
+        private String eventId;
+        private String type;
+        private String paymentId;
+        private Long userId;
+        private BigDecimal amount;
+        private String paymentMethod;
+    }
+}
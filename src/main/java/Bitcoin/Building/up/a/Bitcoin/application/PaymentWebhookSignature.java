@@ -0,0 +1,69 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Webhook signatures in the "t=&lt;unix seconds&gt;,v1=&lt;hex&gt;" form: HMAC-SHA256
+ * with the provider's shared secret over "&lt;t&gt;.&lt;raw body&gt;". The timestamp
+ * bounds how long a captured delivery can be replayed.
+ */
+final class PaymentWebhookSignature {
+
+    private PaymentWebhookSignature() {
+    }
+
+    static String sign(String secret, long timestampSeconds, String body) {
+        return "t=" + timestampSeconds + ",v1=" + hmac(secret, timestampSeconds + "." + body);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the header is malformed, stale or does not match
+     */
+    static void verify(String secret, String header, String body, long nowSeconds, long toleranceSeconds) {
+        if (header == null || header.isBlank()) {
+            throw new IllegalArgumentException("Missing webhook signature");
+        }
+        Long timestamp = null;
+        String signature = null;
+        for (String part : header.split(",")) {
+            String[] pair = part.trim().split("=", 2);
+            if (pair.length != 2) {
+                continue;
+            }
+            if (pair[0].equals("t")) {
+                try {
+                    timestamp = Long.parseLong(pair[1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed webhook signature");
+                }
+            } else if (pair[0].equals("v1")) {
+                signature = pair[1];
+            }
+        }
+        if (timestamp == null || signature == null) {
+            throw new IllegalArgumentException("Malformed webhook signature");
+        }
+        if (Math.abs(nowSeconds - timestamp) > toleranceSeconds) {
+            throw new IllegalArgumentException("Webhook signature timestamp outside tolerance");
+        }
+        byte[] expected = hmac(secret, timestamp + "." + body).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("Invalid webhook signature");
+        }
+    }
+
+    private static String hmac(String secret, String message) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(message.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+}
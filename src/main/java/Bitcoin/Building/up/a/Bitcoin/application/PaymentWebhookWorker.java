@@ -0,0 +1,169 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Credits stored payment webhooks to wallets in batches.
+ *
+ * A batch is claimed with FOR UPDATE SKIP LOCKED and credited through
+ * {@link WalletService#topUpBulk} in the same transaction that marks the
+ * events, so an event is credited exactly once however many nodes run the
+ * worker. A batch that fails is retried one event per transaction, so a
+ * single bad event cannot hold back the rest; it is marked FAILED after
+ * payments.webhook.worker.max-attempts.
+ */
+@Slf4j
+@Component
+public class PaymentWebhookWorker {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletService walletService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${payments.webhook.worker.batch-size:500}")
+    private int batchSize;
+
+    @Value("${payments.webhook.worker.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    @Value("${payments.webhook.worker.max-attempts:5}")
+    private int maxAttempts;
+
+    private static final String PENDING_IDS_SQL =
+            "SELECT id FROM payment_webhook_events WHERE status = 'PENDING' ORDER BY id LIMIT ?";
+
+    private static final String CLAIM_SQL =
+            "SELECT id, provider, provider_event_id, payment_id, user_id, amount, payment_method " +
+            "FROM payment_webhook_events WHERE id = ANY(?) AND status = 'PENDING' ORDER BY id FOR UPDATE SKIP LOCKED";
+
+    private static final String KNOWN_USERS_SQL = "SELECT id FROM users WHERE id = ANY(?)";
+
+    private static final String MARK_SQL =
+            "UPDATE payment_webhook_events e SET status = d.status, transaction_id = d.transaction_id, " +
+            "attempts = e.attempts + 1, processed_at = NOW(), last_error = NULL " +
+            "FROM unnest(?::bigint[], ?::text[], ?::bigint[]) AS d(id, status, transaction_id) WHERE e.id = d.id";
+
+    private static final String MARK_FAILED_SQL =
+            "UPDATE payment_webhook_events SET attempts = attempts + 1, last_error = ?, " +
+            "status = CASE WHEN attempts + 1 >= ? THEN 'FAILED' ELSE status END " +
+            "WHERE id = ? AND status = 'PENDING'";
+
+    public PaymentWebhookWorker(JdbcTemplate jdbcTemplate,
+                                WalletService walletService,
+                                PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.walletService = walletService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Credit pending events until none are left or the per-run cap is hit
+     */
+    @Scheduled(fixedDelayString = "${payments.webhook.worker.interval-ms:200}")
+    public void drain() {
+        for (int round = 0; round < maxBatchesPerRun; round++) {
+            List<Long> ids = jdbcTemplate.queryForList(PENDING_IDS_SQL, Long.class, batchSize);
+            if (ids.isEmpty()) {
+                return;
+            }
+            try {
+                Integer credited = transactionTemplate.execute(status -> creditBatch(ids));
+                log.debug("Payment webhook worker processed {}/{} events", credited, ids.size());
+            } catch (Exception e) {
+                log.warn("Payment webhook batch of {} failed, retrying one by one: {}", ids.size(), e.getMessage());
+                ids.forEach(this::creditOne);
+            }
+            if (ids.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    private void creditOne(Long id) {
+        try {
+            transactionTemplate.execute(status -> creditBatch(List.of(id)));
+        } catch (Exception e) {
+            log.warn("Payment webhook event {} failed: {}", id, e.getMessage());
+            String error = e.getMessage() != null && e.getMessage().length() > 1000
+                    ? e.getMessage().substring(0, 1000) : e.getMessage();
+            jdbcTemplate.update(MARK_FAILED_SQL, error, maxAttempts, id);
+        }
+    }
+
+    // Runs inside a transaction: claim, credit, mark
+    private int creditBatch(List<Long> ids) {
+        List<Object[]> events = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(CLAIM_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        }, (rs, rowNum) -> new Object[]{
+                rs.getLong("id"), rs.getString("provider"), rs.getString("provider_event_id"),
+                rs.getString("payment_id"), rs.getLong("user_id"), rs.getBigDecimal("amount"),
+                rs.getString("payment_method")});
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        Long[] userIds = events.stream().map(event -> (Long) event[4]).distinct().toArray(Long[]::new);
+        Set<Long> knownUsers = new HashSet<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(KNOWN_USERS_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", userIds));
+            return ps;
+        }, rs -> {
+            knownUsers.add(rs.getLong("id"));
+        });
+
+        List<WalletService.Award> topUps = new ArrayList<>();
+        List<Integer> topUpEvents = new ArrayList<>();
+        Long[] eventIds = new Long[events.size()];
+        String[] statuses = new String[events.size()];
+        Long[] transactionIds = new Long[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            Object[] event = events.get(i);
+            eventIds[i] = (Long) event[0];
+            if (!knownUsers.contains((Long) event[4])) {
+                log.warn("Payment webhook event {} ({} {}) rejected: unknown user {}",
+                        event[0], event[1], event[2], event[4]);
+                statuses[i] = "REJECTED";
+                continue;
+            }
+            String provider = (String) event[1];
+            String paymentMethod = event[6] != null ? (String) event[6] : provider;
+            // One credit per provider payment, whichever of its events arrives first
+            String reference = provider + ":" + (event[3] != null ? event[3] : event[2]);
+            topUps.add(new WalletService.Award((Long) event[4], (BigDecimal) event[5],
+                    CoinTransaction.TransactionCategory.MANUAL_ADJUSTMENT, "Top-up via " + paymentMethod, reference));
+            topUpEvents.add(i);
+        }
+
+        List<Long> credited = walletService.topUpBulk(topUps);
+        for (int j = 0; j < topUpEvents.size(); j++) {
+            int i = topUpEvents.get(j);
+            transactionIds[i] = credited.get(j);
+            statuses[i] = credited.get(j) != null ? "CREDITED" : "DUPLICATE";
+        }
+
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(MARK_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", eventIds));
+            ps.setArray(2, con.createArrayOf("text", statuses));
+            ps.setArray(3, con.createArrayOf("bigint", transactionIds));
+            return ps;
+        });
+        return events.size();
+    }
+}
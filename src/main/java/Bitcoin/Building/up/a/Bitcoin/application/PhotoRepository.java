@@ -1,5 +1,6 @@
 package Bitcoin.Building.up.a.Bitcoin.application;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -19,6 +20,13 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     @Query("SELECT p FROM Photo p JOIN FETCH p.user WHERE p.status = :status")
     List<Photo> findByStatusWithUser(@Param("status") PhotoStatus status);
 
+    // Lottery feed: photos in the draw plus all winners
+    @Query("SELECT p FROM Photo p JOIN FETCH p.user WHERE p.status = :status OR p.isWinner = true")
+    List<Photo> findFeedPhotosWithUser(@Param("status") PhotoStatus status);
+
+    @Query("SELECT p FROM Photo p JOIN FETCH p.user WHERE p.id IN :ids")
+    List<Photo> findByIdInWithUser(@Param("ids") Collection<Long> ids);
+
     @Query("SELECT p FROM Photo p JOIN FETCH p.user WHERE p.user.id = :userId")
     List<Photo> findByUser_IdWithUser(@Param("userId") Long userId);
 
@@ -60,4 +68,9 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
 
     // If you store the lottery date, this gives the latest winner by draw time
     Optional<Photo> findFirstByIsWinnerTrueOrderByLotteryDateDesc();
+
+    // Current winner: latest draw, then latest upload (served by idx_photos_current_winner)
+    @Query("SELECT p FROM Photo p JOIN FETCH p.user WHERE p.isWinner = true " +
+           "ORDER BY p.lotteryDate DESC NULLS LAST, p.uploadDate DESC NULLS LAST, p.id DESC")
+    List<Photo> findLatestWinnersWithUser(Pageable pageable);
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -35,6 +38,9 @@ public class PhotoUploadController {
     private final UserRepository userRepository;
     private final NotificationService notificationService;
     private final WalletService walletService;
+    private final LotteryDrawEngine lotteryDrawEngine;
+    private final LotteryFeedService lotteryFeedService;
+    private final CurrentWinnerService currentWinnerService;
 
     private static final int SINGLE_PHOTO_LIMIT = 1;
     private static final int UPLOAD_REWARD_COINS = 25;
@@ -44,40 +50,21 @@ public class PhotoUploadController {
     // ---------------------------------------------------------------------
     @GetMapping("/lottery-feed")
     @Operation(summary = "Public: Get all photos visible in the lottery feed (IN_DRAW + current winners)")
-    public ResponseEntity<?> getLotteryFeed() {
+    public ResponseEntity<?> getLotteryFeed(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            // Get photos IN_DRAW with user data eagerly loaded
-            List<Photo> inDrawPhotos = photoRepository.findByStatusWithUser(PhotoStatus.IN_DRAW);
-
-            // Get all photos and filter for winners (since we need to check multiple conditions)
-            List<Photo> allPhotos = photoRepository.findAll();
-            List<Photo> winnerPhotos = allPhotos.stream()
-                    .filter(p -> Boolean.TRUE.equals(p.getIsWinner()))
-                    .collect(Collectors.toList());
-
-            // Combine both lists
-            List<Photo> visible = new ArrayList<>();
-            visible.addAll(inDrawPhotos);
-            visible.addAll(winnerPhotos);
-
-            // Remove duplicates and sort
-            visible = visible.stream()
-                    .distinct()
-                    .sorted(Comparator
-                            .comparing((Photo p) -> Optional.ofNullable(p.getLotteryDate()).orElse(LocalDate.MIN))
-                            .thenComparing((Photo p) -> Optional.ofNullable(p.getUploadDate()).orElse(LocalDateTime.MIN))
-                            .reversed())
-                    .collect(Collectors.toList());
-
-            List<Map<String, Object>> items = visible.stream()
-                    .map(this::photoToMap)
-                    .collect(Collectors.toList());
-
-            return ResponseEntity.ok(Map.of(
-                    "success", true,
-                    "photos", items,
-                    "count", items.size()
-            ));
+            // Pre-encoded body; clients revalidate with the ETag and get 304 while it is unchanged
+            LotteryFeedService.Snapshot feed = lotteryFeedService.current();
+            if (feed.matches(ifNoneMatch)) {
+                return ResponseEntity.status(NOT_MODIFIED).eTag(feed.getEtag()).cacheControl(CacheControl.noCache()).build();
+            }
+            return ResponseEntity.ok()
+                    .eTag(feed.getEtag())
+                    .cacheControl(CacheControl.noCache())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(feed.getBody());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(SERVICE_UNAVAILABLE).body(error(e.getMessage()));
         } catch (Exception e) {
             log.error("Failed to load lottery feed: {}", e.getMessage(), e);
             return ResponseEntity.status(INTERNAL_SERVER_ERROR).body(error("Failed to load lottery feed"));
@@ -91,17 +78,9 @@ public class PhotoUploadController {
     @Operation(summary = "Public: Get the current (most recent) winner")
     public ResponseEntity<?> getCurrentWinnerPublic() {
         try {
-            Optional<Photo> winner = photoRepository.findAll().stream()
-                    .filter(p -> Boolean.TRUE.equals(p.getIsWinner()))
-                    .sorted(Comparator
-                            .comparing((Photo p) -> Optional.ofNullable(p.getLotteryDate()).orElse(LocalDate.MIN))
-                            .thenComparing((Photo p) -> Optional.ofNullable(p.getUploadDate()).orElse(LocalDateTime.MIN))
-                            .reversed())
-                    .findFirst();
-
             Map<String, Object> body = new LinkedHashMap<>();
             body.put("success", true);
-            body.put("winner", winner.map(this::photoToMap).orElse(null));
+            body.put("winner", currentWinnerService.getCurrentWinner());
             return ResponseEntity.ok(body);
         } catch (Exception e) {
             log.error("Failed to load current winner: {}", e.getMessage(), e);
@@ -119,19 +98,22 @@ public class PhotoUploadController {
         try {
             getCurrentUser(); // ensure authenticated
 
-            List<Photo> candidates = photoRepository.findAll().stream()
-                    .filter(p -> p.getStatus() == PhotoStatus.IN_DRAW)
-                    .collect(Collectors.toList());
-
-            if (candidates.isEmpty()) {
-                return ResponseEntity.ok(Map.of("success", true, "message", "No photos in draw", "winner", null));
+            List<Long> winnerIds = lotteryDrawEngine.drawWinners(1);
+            Photo winner = winnerIds.isEmpty() ? null : photoRepository.findById(winnerIds.get(0)).orElse(null);
+            if (winner == null) {
+                Map<String, Object> body = new LinkedHashMap<>();
+                body.put("success", true);
+                body.put("message", "No photos in draw");
+                body.put("winner", null);
+                return ResponseEntity.ok(body);
             }
 
-            Photo winner = candidates.get(new Random().nextInt(candidates.size()));
             winner.setIsWinner(true);
             winner.setLotteryDate(LocalDate.now());
 
             Photo savedWinner = photoRepository.save(winner);
+            lotteryFeedService.refreshOnCommit(List.of(savedWinner.getId()));
+            currentWinnerService.refreshOnCommit();
 
             // Best-effort notification
             try {
@@ -216,7 +198,7 @@ public class PhotoUploadController {
                     .sorted(Comparator
                             .comparing((Photo p) -> Optional.ofNullable(p.getUploadDate()).orElse(LocalDateTime.MIN))
                             .reversed())
-                    .map(this::photoToMap)
+                    .map(PhotoUploadController::photoToMap)
                     .collect(Collectors.toList());
 
             return ResponseEntity.ok(Map.of(
@@ -280,6 +262,7 @@ public class PhotoUploadController {
                     .build();
 
             Photo saved = photoRepository.save(photo);
+            lotteryFeedService.refreshOnCommit(List.of(saved.getId()));
 
             // IMPROVED: Handle wallet operations with try-catch
             boolean coinsAwarded = false;
@@ -304,6 +287,7 @@ public class PhotoUploadController {
                 // Could optionally update the photo's coinsEarned to 0 to reflect this
                 saved.setCoinsEarned(0);
                 photoRepository.save(saved);
+                lotteryFeedService.refreshOnCommit(List.of(saved.getId()));
             }
 
             // IMPROVED: Handle notification with try-catch
@@ -406,6 +390,10 @@ public class PhotoUploadController {
 
             // Delete from database
             photoRepository.delete(photo);
+            lotteryFeedService.refreshOnCommit(List.of(photoId));
+            if (Boolean.TRUE.equals(photo.getIsWinner())) {
+                currentWinnerService.refreshOnCommit();
+            }
 
             // Build response with detailed status
             Map<String, Object> resp = new LinkedHashMap<>();
@@ -491,6 +479,7 @@ public class PhotoUploadController {
 
             photo.setDescription(clean);
             Photo saved = photoRepository.save(photo);
+            lotteryFeedService.refreshOnCommit(List.of(saved.getId()));
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
@@ -541,7 +530,7 @@ public class PhotoUploadController {
         return filename.replaceAll("[^a-zA-Z0-9.\\-_]", "_");
     }
 
-    private Map<String, Object> photoToMap(Photo photo) {
+    static Map<String, Object> photoToMap(Photo photo) {
         Map<String, Object> m = new LinkedHashMap<>();
         m.put("id", photo.getId());
         m.put("s3Url", photo.getS3Url());
@@ -0,0 +1,158 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import java.util.SplittableRandom;
+
+/**
+ * Order-statistic treap of (score, id) pairs, highest score first and lower
+ * id first on ties. Every node keeps its subtree size, so inserts, removals,
+ * rank and "n-th entry" lookups are all O(log n) expected.
+ *
+ * Not thread-safe; {@link LeaderboardService} guards it with a lock.
+ */
+class RankedIndex {
+
+    static final class Node {
+        final long score;
+        final long id;
+        private final int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(long score, long id, int priority) {
+            this.score = score;
+            this.id = id;
+            this.priority = priority;
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+
+    int size() {
+        return size(root);
+    }
+
+    void insert(long score, long id) {
+        Node[] parts = split(root, score, id);
+        root = merge(merge(parts[0], new Node(score, id, random.nextInt())), parts[1]);
+    }
+
+    /**
+     * @return false if the pair was not in the index
+     */
+    boolean remove(long score, long id) {
+        int before = size(root);
+        root = remove(root, score, id);
+        return size(root) < before;
+    }
+
+    /**
+     * Number of entries ordered before (score, id)
+     */
+    int countBefore(long score, long id) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (compare(node.score, node.id, score, id) < 0) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of entries with a strictly higher score
+     */
+    int countHigher(long score) {
+        return countBefore(score, Long.MIN_VALUE);
+    }
+
+    /**
+     * Entry at a 0-based position in ranking order
+     */
+    Node get(int index) {
+        if (index < 0 || index >= size(root)) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for size " + size(root));
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // Higher score sorts first, then lower id
+    private static int compare(long scoreA, long idA, long scoreB, long idB) {
+        if (scoreA != scoreB) {
+            return scoreA > scoreB ? -1 : 1;
+        }
+        return Long.compare(idA, idB);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        return node;
+    }
+
+    // [entries before (score, id), entries at or after it]
+    private static Node[] split(Node node, long score, long id) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        if (compare(node.score, node.id, score, id) < 0) {
+            Node[] parts = split(node.right, score, id);
+            node.right = parts[0];
+            return new Node[]{update(node), parts[1]};
+        }
+        Node[] parts = split(node.left, score, id);
+        node.left = parts[1];
+        return new Node[]{parts[0], update(node)};
+    }
+
+    // Every entry of a sorts before every entry of b
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        }
+        b.left = merge(a, b.left);
+        return update(b);
+    }
+
+    private static Node remove(Node node, long score, long id) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(score, id, node.score, node.id);
+        if (cmp == 0) {
+            return merge(node.left, node.right);
+        }
+        if (cmp < 0) {
+            node.left = remove(node.left, score, id);
+        } else {
+            node.right = remove(node.right, score, id);
+        }
+        return update(node);
+    }
+}
@@ -0,0 +1,42 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A wallet column that does not match the sum of its coin transactions
+ */
+@Entity
+@Table(name = "reconciliation_discrepancies")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReconciliationDiscrepancy {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "run_id", nullable = false)
+    private Long runId;
+
+    @Column(name = "wallet_id", nullable = false)
+    private Long walletId;
+
+    /** balance, pending_balance, total_earned, total_spent, or wallet (row missing) */
+    @Column(name = "field_name", nullable = false, length = 30)
+    private String fieldName;
+
+    @Column(precision = 15, scale = 2)
+    private BigDecimal expected;
+
+    @Column(precision = 15, scale = 2)
+    private BigDecimal actual;
+
+    @Column(name = "created_at", nullable = false)
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
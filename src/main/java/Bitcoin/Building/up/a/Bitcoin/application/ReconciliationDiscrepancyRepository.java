@@ -0,0 +1,12 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ReconciliationDiscrepancyRepository extends JpaRepository<ReconciliationDiscrepancy, Long> {
+
+    Page<ReconciliationDiscrepancy> findByRunIdOrderByWalletIdAscIdAsc(Long runId, Pageable pageable);
+}
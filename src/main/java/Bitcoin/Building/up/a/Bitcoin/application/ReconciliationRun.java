@@ -0,0 +1,63 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+/**
+ * One pass of the wallet-vs-transactions reconciliation job
+ */
+@Entity
+@Table(name = "reconciliation_runs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReconciliationRun {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "run_trigger", nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private Trigger trigger;
+
+    @Column(nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    @Builder.Default
+    private Status status = Status.RUNNING;
+
+    @Column(name = "wallets_checked", nullable = false)
+    @Builder.Default
+    private Long walletsChecked = 0L;
+
+    @Column(name = "transactions_scanned", nullable = false)
+    @Builder.Default
+    private Long transactionsScanned = 0L;
+
+    @Column(name = "discrepancy_count", nullable = false)
+    @Builder.Default
+    private Long discrepancyCount = 0L;
+
+    @Column(name = "error_message", length = 1000)
+    private String errorMessage;
+
+    @Column(name = "started_at", nullable = false)
+    @Builder.Default
+    private LocalDateTime startedAt = LocalDateTime.now();
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    public enum Trigger {
+        SCHEDULED,
+        MANUAL
+    }
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+}
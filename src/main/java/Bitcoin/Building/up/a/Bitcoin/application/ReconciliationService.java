@@ -0,0 +1,369 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks every wallet row against the coin transactions that moved it.
+ *
+ * Wallet ids are split into fixed ranges that run in parallel on a bounded
+ * pool. For each range, one read-only REPEATABLE READ transaction opens two
+ * server-side cursors over the same snapshot: the wallets in id order and
+ * the transaction legs (one row per wallet side of a transaction) in wallet
+ * id order. The two are merged like a sort-merge join, so memory stays
+ * constant however many transactions there are, and plain MVCC reads take
+ * no locks on live traffic. Mismatches are written to
+ * reconciliation_discrepancies under the run.
+ */
+@Slf4j
+@Service
+public class ReconciliationService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReconciliationRunRepository runRepository;
+    private final TransactionTemplate snapshotTemplate;
+    private final TransactionTemplate writeTemplate;
+    private final Executor coordinator;
+    private final ExecutorService workers;
+    private final int parallelism;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${reconciliation.range-size:10000}")
+    private long rangeSize;
+
+    @Value("${reconciliation.fetch-size:5000}")
+    private int fetchSize;
+
+    private static final String WALLET_ID_BOUNDS_SQL = "SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), -1) FROM wallets";
+
+    private static final String WALLETS_IN_RANGE_SQL =
+            "SELECT id, (balance * 100)::bigint AS balance, (pending_balance * 100)::bigint AS pending, " +
+            "(total_earned * 100)::bigint AS earned, (total_spent * 100)::bigint AS spent " +
+            "FROM wallet_balances WHERE id >= ? AND id < ? ORDER BY id";
+
+    // One row per wallet side of a transaction; FAILED transactions never touched a wallet.
+    // Archived months contribute their per-wallet leg totals (see CoinTransactionArchiveService).
+    private static final String LEGS_IN_RANGE_SQL =
+            "SELECT wallet_id, side, type, amount FROM (" +
+            "SELECT from_wallet_id AS wallet_id, 'FROM' AS side, type, (amount * 100)::bigint AS amount " +
+            "FROM coin_transactions WHERE from_wallet_id >= ? AND from_wallet_id < ? AND status <> 'FAILED' " +
+            "UNION ALL " +
+            "SELECT to_wallet_id AS wallet_id, 'TO' AS side, type, (amount * 100)::bigint AS amount " +
+            "FROM coin_transactions WHERE to_wallet_id >= ? AND to_wallet_id < ? AND status <> 'FAILED' " +
+            "UNION ALL " +
+            "SELECT wallet_id, side, type, (amount * 100)::bigint AS amount " +
+            "FROM coin_transaction_archived_legs WHERE wallet_id >= ? AND wallet_id < ?" +
+            ") legs ORDER BY wallet_id";
+
+    private static final String INSERT_DISCREPANCY_SQL =
+            "INSERT INTO reconciliation_discrepancies (run_id, wallet_id, field_name, expected, actual, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, NOW())";
+
+    public ReconciliationService(JdbcTemplate jdbcTemplate,
+                                 ReconciliationRunRepository runRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 @Qualifier("schedulerExecutor") Executor coordinator,
+                                 @Value("${reconciliation.parallelism:4}") int parallelism) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.runRepository = runRepository;
+        this.coordinator = coordinator;
+        this.parallelism = parallelism;
+
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setReadOnly(true);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "reconciliation-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    @Scheduled(cron = "${reconciliation.cron:0 0 4 * * *}")
+    public void scheduledRun() {
+        ReconciliationRun run = startRun(ReconciliationRun.Trigger.SCHEDULED);
+        if (run == null) {
+            log.info("Skipping scheduled reconciliation, a run is already in progress");
+            return;
+        }
+        execute(run);
+    }
+
+    /**
+     * Start a run in the background
+     *
+     * @throws IllegalStateException if a run is already in progress
+     */
+    public ReconciliationRun startManualRun() {
+        ReconciliationRun run = startRun(ReconciliationRun.Trigger.MANUAL);
+        if (run == null) {
+            throw new IllegalStateException("A reconciliation run is already in progress");
+        }
+        CompletableFuture.runAsync(() -> execute(run), coordinator);
+        return run;
+    }
+
+    private ReconciliationRun startRun(ReconciliationRun.Trigger trigger) {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            return runRepository.save(ReconciliationRun.builder().trigger(trigger).build());
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    private void execute(ReconciliationRun run) {
+        long started = System.currentTimeMillis();
+        try {
+            long[] bounds = jdbcTemplate.queryForObject(WALLET_ID_BOUNDS_SQL,
+                    (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)});
+            long minId = bounds[0];
+            long maxId = bounds[1];
+
+            // Keep at most two ranges per worker queued so the task backlog stays bounded too
+            ExecutorCompletionService<RangeResult> completion = new ExecutorCompletionService<>(workers);
+            long nextLow = minId;
+            int inFlight = 0;
+            RangeResult totals = new RangeResult();
+
+            while (nextLow <= maxId || inFlight > 0) {
+                while (nextLow <= maxId && inFlight < parallelism * 2) {
+                    long low = nextLow;
+                    long high = Math.min(low + rangeSize, maxId + 1);
+                    completion.submit(() -> reconcileRange(run.getId(), low, high));
+                    nextLow = high;
+                    inFlight++;
+                }
+                RangeResult result = completion.take().get();
+                inFlight--;
+                totals.add(result);
+            }
+
+            run.setWalletsChecked(totals.wallets);
+            run.setTransactionsScanned(totals.legs);
+            run.setDiscrepancyCount(totals.discrepancies);
+            run.setStatus(ReconciliationRun.Status.COMPLETED);
+            log.info("Reconciliation run {} checked {} wallets and {} transaction legs in {} ms: {} discrepancies",
+                    run.getId(), totals.wallets, totals.legs, System.currentTimeMillis() - started, totals.discrepancies);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failRun(run, e);
+        } catch (ExecutionException e) {
+            failRun(run, e.getCause());
+        } catch (RuntimeException e) {
+            failRun(run, e);
+        } finally {
+            run.setFinishedAt(LocalDateTime.now());
+            try {
+                runRepository.save(run);
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+    private void failRun(ReconciliationRun run, Throwable e) {
+        log.error("Reconciliation run {} failed: {}", run.getId(), e.getMessage(), e);
+        String message = e.getMessage() != null && e.getMessage().length() > 1000
+                ? e.getMessage().substring(0, 1000) : e.getMessage();
+        run.setStatus(ReconciliationRun.Status.FAILED);
+        run.setErrorMessage(message);
+    }
+
+    /**
+     * Merge one wallet id range [low, high) against its transaction legs
+     */
+    private RangeResult reconcileRange(Long runId, long low, long high) {
+        RangeResult result = snapshotTemplate.execute(status ->
+                jdbcTemplate.execute((ConnectionCallback<RangeResult>) con -> {
+                    try (PreparedStatement walletStatement = con.prepareStatement(WALLETS_IN_RANGE_SQL);
+                         PreparedStatement legStatement = con.prepareStatement(LEGS_IN_RANGE_SQL)) {
+                        walletStatement.setFetchSize(fetchSize);
+                        walletStatement.setLong(1, low);
+                        walletStatement.setLong(2, high);
+                        legStatement.setFetchSize(fetchSize);
+                        legStatement.setLong(1, low);
+                        legStatement.setLong(2, high);
+                        legStatement.setLong(3, low);
+                        legStatement.setLong(4, high);
+                        legStatement.setLong(5, low);
+                        legStatement.setLong(6, high);
+
+                        try (ResultSet wallets = walletStatement.executeQuery();
+                             ResultSet legs = legStatement.executeQuery()) {
+                            return merge(runId, wallets, legs);
+                        }
+                    }
+                }));
+
+        if (!result.found.isEmpty()) {
+            writeTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_DISCREPANCY_SQL,
+                    result.found, result.found.size(), (ps, d) -> {
+                        ps.setLong(1, d.getRunId());
+                        ps.setLong(2, d.getWalletId());
+                        ps.setString(3, d.getFieldName());
+                        ps.setBigDecimal(4, d.getExpected());
+                        ps.setBigDecimal(5, d.getActual());
+                    }));
+            result.found = List.of();
+        }
+        return result;
+    }
+
+    private RangeResult merge(Long runId, ResultSet wallets, ResultSet legs) throws SQLException {
+        RangeResult result = new RangeResult();
+        boolean hasLeg = legs.next();
+
+        while (wallets.next()) {
+            long walletId = wallets.getLong("id");
+            Totals expected = new Totals();
+
+            // Legs below this wallet id belong to wallets that no longer exist
+            while (hasLeg && legs.getLong("wallet_id") < walletId) {
+                result.legs++;
+                hasLeg = skipOrphans(runId, legs, result);
+            }
+            while (hasLeg && legs.getLong("wallet_id") == walletId) {
+                expected.apply(legs.getString("side"), legs.getString("type"), legs.getLong("amount"));
+                result.legs++;
+                hasLeg = legs.next();
+            }
+
+            result.wallets++;
+            compare(runId, walletId, "balance", expected.balance, wallets.getLong("balance"), result);
+            compare(runId, walletId, "pending_balance", expected.pending, wallets.getLong("pending"), result);
+            compare(runId, walletId, "total_earned", expected.earned, wallets.getLong("earned"), result);
+            compare(runId, walletId, "total_spent", expected.spent, wallets.getLong("spent"), result);
+        }
+
+        while (hasLeg) {
+            result.legs++;
+            hasLeg = skipOrphans(runId, legs, result);
+        }
+        return result;
+    }
+
+    // Report a missing wallet once, then skip the rest of its legs
+    private boolean skipOrphans(Long runId, ResultSet legs, RangeResult result) throws SQLException {
+        long orphanId = legs.getLong("wallet_id");
+        record(runId, orphanId, "wallet", null, null, result);
+        boolean hasLeg = legs.next();
+        while (hasLeg && legs.getLong("wallet_id") == orphanId) {
+            result.legs++;
+            hasLeg = legs.next();
+        }
+        return hasLeg;
+    }
+
+    private void compare(Long runId, long walletId, String field, long expected, long actual, RangeResult result) {
+        if (expected != actual) {
+            record(runId, walletId, field, BigDecimal.valueOf(expected, Coins.SCALE),
+                    BigDecimal.valueOf(actual, Coins.SCALE), result);
+        }
+    }
+
+    private void record(Long runId, long walletId, String field, BigDecimal expected, BigDecimal actual,
+                        RangeResult result) {
+        result.discrepancies++;
+        result.found.add(ReconciliationDiscrepancy.builder()
+                .runId(runId)
+                .walletId(walletId)
+                .fieldName(field)
+                .expected(expected)
+                .actual(actual)
+                .build());
+    }
+
+    /**
+     * Expected wallet columns in minor units, built from the same rules
+     * WalletService applies when it writes each transaction type
+     */
+    private static final class Totals {
+        long balance;
+        long pending;
+        long earned;
+        long spent;
+
+        void apply(String side, String type, long amount) {
+            boolean from = "FROM".equals(side);
+            switch (CoinTransaction.TransactionType.valueOf(type)) {
+                case EARN, TOP_UP -> credit(amount);
+                case SPEND -> debit(amount);
+                case TRANSFER -> {
+                    if (from) debit(amount); else credit(amount);
+                }
+                case ESCROW_HOLD -> {
+                    debit(amount);
+                    pending = Math.addExact(pending, amount);
+                }
+                case ESCROW_RELEASE -> {
+                    if (from) pending = Math.subtractExact(pending, amount); else credit(amount);
+                }
+                case REFUND -> {
+                    pending = Math.subtractExact(pending, amount);
+                    balance = Math.addExact(balance, amount);
+                }
+            }
+        }
+
+        private void credit(long amount) {
+            balance = Math.addExact(balance, amount);
+            earned = Math.addExact(earned, amount);
+        }
+
+        private void debit(long amount) {
+            balance = Math.subtractExact(balance, amount);
+            spent = Math.addExact(spent, amount);
+        }
+    }
+
+    private static final class RangeResult {
+        long wallets;
+        long legs;
+        long discrepancies;
+        List<ReconciliationDiscrepancy> found = new ArrayList<>();
+
+        void add(RangeResult other) {
+            wallets += other.wallets;
+            legs += other.legs;
+            discrepancies += other.discrepancies;
+        }
+    }
+}
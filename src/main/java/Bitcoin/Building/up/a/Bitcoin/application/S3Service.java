@@ -7,12 +7,16 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
@@ -321,6 +325,54 @@ public class S3Service {
         }
     }
 
+    /**
+     * Upload a local archive file (transaction archives) under the given key
+     */
+    public void uploadArchive(String key, Path file) throws IOException {
+        validateConfiguration();
+        S3Client s3Client = createS3Client();
+        try {
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName.trim())
+                    .key(key)
+                    .contentType("application/gzip")
+                    .build();
+            s3Client.putObject(putObjectRequest, RequestBody.fromFile(file));
+            log.info("📤 Uploaded archive to S3: {}", key);
+        } catch (S3Exception e) {
+            throw new IOException("S3 archive upload failed: " + mapS3Error(e), e);
+        } finally {
+            s3Client.close();
+        }
+    }
+
+    /**
+     * Stream an archive object; the client is closed with the stream
+     */
+    public InputStream openArchive(String key) throws IOException {
+        validateConfiguration();
+        S3Client s3Client = createS3Client();
+        try {
+            ResponseInputStream<GetObjectResponse> object = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucketName.trim())
+                    .key(key)
+                    .build());
+            return new FilterInputStream(object) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        s3Client.close();
+                    }
+                }
+            };
+        } catch (S3Exception e) {
+            s3Client.close();
+            throw new IOException("S3 archive download failed: " + mapS3Error(e), e);
+        }
+    }
+
     /**
      * 🛠️ NEW: Delete file from S3 (for cleanup if needed)
      */
@@ -0,0 +1,151 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Leader election for scheduled jobs through a lease row in Postgres.
+ *
+ * Every node tries to take or renew the lease every
+ * scheduler.lease.renew-interval-ms; only the holder of an unexpired lease
+ * is the leader, and the lease token goes up each time it changes hands.
+ * Jobs call {@link #claim} before acting: the job key is inserted only if
+ * it is new and the caller's token is still the live one, so a node that
+ * lost the lease (a long pause, a partition) cannot act on a stale belief,
+ * and nothing runs twice for the same key on any number of nodes.
+ */
+@Slf4j
+@Component
+public class SchedulerLease {
+
+    static final String LEASE_NAME = "lottery-scheduler";
+
+    // Take a free or expired lease, or renew our own; returns the token we hold
+    private static final String ACQUIRE_SQL =
+            "INSERT INTO scheduler_leases (name, holder, token, expires_at, acquired_at) " +
+            "VALUES (?, ?, 1, NOW() + ? * INTERVAL '1 millisecond', NOW()) " +
+            "ON CONFLICT (name) DO UPDATE SET " +
+            "token = CASE WHEN scheduler_leases.holder = EXCLUDED.holder THEN scheduler_leases.token " +
+            "ELSE scheduler_leases.token + 1 END, " +
+            "acquired_at = CASE WHEN scheduler_leases.holder = EXCLUDED.holder THEN scheduler_leases.acquired_at " +
+            "ELSE NOW() END, " +
+            "holder = EXCLUDED.holder, expires_at = EXCLUDED.expires_at " +
+            "WHERE scheduler_leases.holder = EXCLUDED.holder OR scheduler_leases.expires_at < NOW() " +
+            "RETURNING token";
+
+    private static final String RELEASE_SQL =
+            "UPDATE scheduler_leases SET expires_at = NOW() WHERE name = ? AND holder = ? AND token = ?";
+
+    // The fence: the insert only happens while our token holds an unexpired lease
+    private static final String CLAIM_SQL =
+            "INSERT INTO scheduler_job_runs (job_key, holder, lease_token) " +
+            "SELECT ?, holder, token FROM scheduler_leases " +
+            "WHERE name = ? AND holder = ? AND token = ? AND expires_at > NOW() " +
+            "ON CONFLICT (job_key) DO NOTHING";
+
+    private static final String FINISH_SQL =
+            "UPDATE scheduler_job_runs SET status = ?, detail = ?, finished_at = NOW() WHERE job_key = ? AND holder = ?";
+
+    private static final String PRUNE_SQL =
+            "DELETE FROM scheduler_job_runs WHERE started_at < NOW() - ? * INTERVAL '1 day'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String holder;
+    private final long ttlMillis;
+
+    private volatile Long token;
+
+    public SchedulerLease(JdbcTemplate jdbcTemplate,
+                          @Value("${scheduler.node-id:}") String nodeId,
+                          @Value("${scheduler.lease.ttl-ms:30000}") long ttlMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.holder = nodeId == null || nodeId.isBlank() ? defaultNodeId() : nodeId.trim();
+        this.ttlMillis = ttlMillis;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Take or renew the lease
+     */
+    @Scheduled(fixedDelayString = "${scheduler.lease.renew-interval-ms:10000}")
+    public void renew() {
+        Long previous = token;
+        try {
+            List<Long> held = jdbcTemplate.queryForList(ACQUIRE_SQL, Long.class, LEASE_NAME, holder, ttlMillis);
+            token = held.isEmpty() ? null : held.get(0);
+        } catch (Exception e) {
+            // Cannot tell whether we still hold it, so stop acting as leader
+            token = null;
+            log.warn("Scheduler lease renewal failed: {}", e.getMessage());
+        }
+        if (previous == null && token != null) {
+            log.info("Node {} is now the scheduler leader (token {})", holder, token);
+        } else if (previous != null && token == null) {
+            log.info("Node {} lost the scheduler lease", holder);
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        Long held = token;
+        token = null;
+        if (held != null) {
+            try {
+                // Let another node take over without waiting for the lease to expire
+                jdbcTemplate.update(RELEASE_SQL, LEASE_NAME, holder, held);
+            } catch (Exception e) {
+                log.warn("Failed to release the scheduler lease: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean isLeader() {
+        return token != null;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    /**
+     * Claim one occurrence of a job
+     *
+     * @return true if this node should run it: the key was new and our lease is live
+     */
+    public boolean claim(String jobKey) {
+        Long held = token;
+        if (held == null) {
+            return false;
+        }
+        return jdbcTemplate.update(CLAIM_SQL, jobKey, LEASE_NAME, holder, held) == 1;
+    }
+
+    public void finish(String jobKey, boolean succeeded, String detail) {
+        String trimmed = detail != null && detail.length() > 1000 ? detail.substring(0, 1000) : detail;
+        jdbcTemplate.update(FINISH_SQL, succeeded ? "DONE" : "FAILED", trimmed, jobKey, holder);
+    }
+
+    /**
+     * Delete job runs older than the given number of days
+     */
+    public int prune(int days) {
+        return jdbcTemplate.update(PRUNE_SQL, days);
+    }
+}
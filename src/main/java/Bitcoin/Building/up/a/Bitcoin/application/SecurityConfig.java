@@ -98,6 +98,7 @@ public class SecurityConfig {
                                 "/api/photos/lottery",          // public: view lottery summary (your choice)
                                 "/api/photos/current-winner",   // public: current winner (your choice)
                                 "/api/marketplace/public/**",
+                                "/api/payments/webhooks/**",    // signed by the provider, see PaymentWebhookService
                                 "/api/debug/**",                // remove in production
                                 "/api/users/create-test-user",  // remove in production
                                 "/actuator/health",
@@ -0,0 +1,325 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams coin transactions as CSV or NDJSON.
+ *
+ * Rows come from a JDBC cursor (fetch size export.fetch-size inside a
+ * read-only transaction, which is what makes the Postgres driver stream
+ * instead of buffering the whole result) and are written column by column
+ * to the response, with no entities or maps in between. Heap use is one
+ * fetch batch plus the output buffer, whatever the export size.
+ */
+@Slf4j
+@Service
+public class TransactionExportService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTemplate;
+
+    @Value("${export.fetch-size:2000}")
+    private int fetchSize;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] COLUMNS = {
+            "id", "created_at", "type", "category", "status", "amount",
+            "from_user_id", "to_user_id", "description", "reference_id"
+    };
+
+    private static final String SELECT_COLUMNS =
+            "SELECT id, to_char(created_at, 'YYYY-MM-DD\"T\"HH24:MI:SS.US') AS created_at, type, category, status, " +
+            "amount::text AS amount, from_user_id, to_user_id, description, reference_id FROM coin_transactions ";
+
+    // Two indexed branches (see V13) instead of an OR across from/to user
+    private static final String USER_EXPORT_SQL =
+            SELECT_COLUMNS + "WHERE from_user_id = ? AND created_at >= ? AND created_at < ? " +
+            "UNION ALL " +
+            SELECT_COLUMNS + "WHERE to_user_id = ? AND (from_user_id IS NULL OR from_user_id <> ?) " +
+            "AND created_at >= ? AND created_at < ? " +
+            "ORDER BY created_at, id";
+
+    private static final String ALL_EXPORT_SQL =
+            SELECT_COLUMNS + "WHERE created_at >= ? AND created_at < ? ORDER BY id";
+
+    private static final Timestamp MIN_TIME = Timestamp.valueOf("1970-01-01 00:00:00");
+    private static final Timestamp MAX_TIME = Timestamp.valueOf("9999-12-31 00:00:00");
+
+    public enum Format {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format parse(String value) {
+            try {
+                return Format.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported export format: " + value);
+            }
+        }
+    }
+
+    public TransactionExportService(JdbcTemplate jdbcTemplate,
+                                    ObjectMapper objectMapper,
+                                    PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.readOnlyTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTemplate.setReadOnly(true);
+    }
+
+    /**
+     * All transactions where the user is sender or recipient, oldest first
+     */
+    public StreamingResponseBody exportForUser(Long userId, Format format, boolean gzip,
+                                               LocalDateTime from, LocalDateTime to) {
+        Timestamp start = from != null ? Timestamp.valueOf(from) : MIN_TIME;
+        Timestamp end = to != null ? Timestamp.valueOf(to) : MAX_TIME;
+        return out -> stream(out, format, gzip, USER_EXPORT_SQL, ps -> {
+            ps.setLong(1, userId);
+            ps.setTimestamp(2, start);
+            ps.setTimestamp(3, end);
+            ps.setLong(4, userId);
+            ps.setLong(5, userId);
+            ps.setTimestamp(6, start);
+            ps.setTimestamp(7, end);
+        });
+    }
+
+    /**
+     * Every transaction in the system (admin / finance), in id order
+     */
+    public StreamingResponseBody exportAll(Format format, boolean gzip, LocalDateTime from, LocalDateTime to) {
+        Timestamp start = from != null ? Timestamp.valueOf(from) : MIN_TIME;
+        Timestamp end = to != null ? Timestamp.valueOf(to) : MAX_TIME;
+        return out -> stream(out, format, gzip, ALL_EXPORT_SQL, ps -> {
+            ps.setTimestamp(1, start);
+            ps.setTimestamp(2, end);
+        });
+    }
+
+    /**
+     * Wrap an export as a file download; gzip exports are served as .gz files
+     */
+    public static ResponseEntity<StreamingResponseBody> attachment(StreamingResponseBody body, Format format,
+                                                                   boolean gzip, String baseName) {
+        String filename = baseName + "." + format.getExtension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .contentType(MediaType.parseMediaType(gzip ? "application/gzip" : format.getContentType() + ";charset=UTF-8"))
+                .body(body);
+    }
+
+    private void stream(OutputStream out, Format format, boolean gzip, String sql, ParameterSetter parameters)
+            throws IOException {
+        long started = System.currentTimeMillis();
+        OutputStream target = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BUFFER_SIZE);
+        RowWriter rowWriter = format == Format.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer);
+
+        long[] rows = {0};
+        try {
+            rowWriter.writeHeader();
+            readOnlyTemplate.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                parameters.set(ps);
+                return ps;
+            }, rs -> {
+                try {
+                    rowWriter.writeRow(rs);
+                    rows[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            rowWriter.finish();
+            writer.flush();
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+        } catch (UncheckedIOException e) {
+            // Usually the client went away; the cursor is already closed by now
+            log.warn("Transaction export aborted after {} rows: {}", rows[0], e.getCause().getMessage());
+            throw e.getCause();
+        }
+        log.info("Exported {} transactions as {} in {} ms", rows[0], format, System.currentTimeMillis() - started);
+    }
+
+    @FunctionalInterface
+    private interface ParameterSetter {
+        void set(PreparedStatement ps) throws SQLException;
+    }
+
+    private interface RowWriter {
+        void writeHeader() throws IOException;
+
+        void writeRow(ResultSet rs) throws SQLException, IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        CsvRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void writeHeader() throws IOException {
+            writer.write(String.join(",", COLUMNS));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void writeRow(ResultSet rs) throws SQLException, IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeField(rs.getString(i + 1));
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        // RFC 4180 quoting; free text starting with a formula character (or a
+        // tab or CR, which spreadsheets skip before one) is prefixed with ' so
+        // spreadsheets do not evaluate it
+        private void writeField(String value) throws IOException {
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            char first = value.charAt(0);
+            boolean formula = first == '=' || first == '+' || first == '-' || first == '@'
+                    || first == '\t' || first == '\r';
+            boolean quote = formula;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            if (formula && (first == '\t' || first == '\r' || !isNumber(value))) {
+                writer.write('\'');
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+
+        private static boolean isNumber(String value) {
+            for (int i = 1; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c < '0' || c > '9') && c != '.') {
+                    return false;
+                }
+            }
+            return value.length() > 1;
+        }
+    }
+
+    private final class NdjsonRowWriter implements RowWriter {
+        private final Writer writer;
+        private final JsonGenerator generator;
+
+        NdjsonRowWriter(Writer writer) throws IOException {
+            this.writer = writer;
+            this.generator = objectMapper.getFactory().createGenerator(writer);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void writeHeader() {
+        }
+
+        @Override
+        public void writeRow(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", rs.getLong(1));
+            generator.writeStringField("createdAt", rs.getString(2));
+            generator.writeStringField("type", rs.getString(3));
+            generator.writeStringField("category", rs.getString(4));
+            generator.writeStringField("status", rs.getString(5));
+            generator.writeFieldName("amount");
+            generator.writeNumber(rs.getString(6));
+            writeNullableLong("fromUserId", rs, 7);
+            writeNullableLong("toUserId", rs, 8);
+            generator.writeStringField("description", rs.getString(9));
+            generator.writeStringField("referenceId", rs.getString(10));
+            generator.writeEndObject();
+            generator.flush();
+            writer.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.close();
+        }
+
+        private void writeNullableLong(String field, ResultSet rs, int column) throws SQLException, IOException {
+            long value = rs.getLong(column);
+            if (rs.wasNull()) {
+                generator.writeNullField(field);
+            } else {
+                generator.writeNumberField(field, value);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ public class UserService {
     private final PhotoRepository photoRepository;
     private final S3Service s3Service;
     private final WalletService walletService;
+    private final LotteryFeedService lotteryFeedService;
 
     @Transactional
     public User registerUser(User user, MultipartFile image) throws Exception {
@@ -32,6 +33,9 @@ public class UserService {
             User savedUser = userRepository.save(user);
             log.info("User saved to database with ID: {}", savedUser.getId());
 
+            // Wallet (and welcome bonus) in the same transaction as the user
+            walletService.createWallet(savedUser);
+
             // 2) Upload image to S3
             String s3Url = s3Service.uploadFile(image);
             log.info("Photo uploaded to S3: {}", s3Url);
@@ -52,6 +56,7 @@ public class UserService {
 
             Photo savedPhoto = photoRepository.save(photo);
             log.info("Photo saved to database with ID: {}", savedPhoto.getId());
+            lotteryFeedService.refreshOnCommit(java.util.List.of(savedPhoto.getId()));
 
             // 4) Award coins (don’t fail whole flow if this part fails)
             try {
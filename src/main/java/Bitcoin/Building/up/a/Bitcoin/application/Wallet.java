@@ -2,7 +2,6 @@ package Bitcoin.Building.up.a.Bitcoin.application;
 
 import jakarta.persistence.*;
 import lombok.*;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 /**
@@ -27,20 +26,30 @@ public class Wallet {
     private User user;
 
     @Column(precision = 15, scale = 2)
+    @Convert(converter = CoinsConverter.class)
     @Builder.Default
-    private BigDecimal balance = BigDecimal.ZERO;
+    private Coins balance = Coins.ZERO;
 
     @Column(name = "pending_balance", precision = 15, scale = 2)
+    @Convert(converter = CoinsConverter.class)
     @Builder.Default
-    private BigDecimal pendingBalance = BigDecimal.ZERO;
+    private Coins pendingBalance = Coins.ZERO;
 
     @Column(name = "total_earned", precision = 15, scale = 2)
+    @Convert(converter = CoinsConverter.class)
     @Builder.Default
-    private BigDecimal totalEarned = BigDecimal.ZERO;
+    private Coins totalEarned = Coins.ZERO;
 
     @Column(name = "total_spent", precision = 15, scale = 2)
+    @Convert(converter = CoinsConverter.class)
     @Builder.Default
-    private BigDecimal totalSpent = BigDecimal.ZERO;
+    private Coins totalSpent = Coins.ZERO;
+
+    // Credit shards of a hot wallet (see WalletShardService); 0 = not sharded.
+    // Shards are not included in balance/totalEarned here - read wallet_balances.
+    @Column(name = "balance_shards", nullable = false)
+    @Builder.Default
+    private int balanceShards = 0;
 
     @Column(name = "created_at")
     @Builder.Default
@@ -58,9 +67,9 @@ public class Wallet {
     /**
      * Add coins to the wallet
      */
-    public void addCoins(BigDecimal amount) {
-        this.balance = this.balance.add(amount);
-        this.totalEarned = this.totalEarned.add(amount);
+    public void addCoins(Coins amount) {
+        this.balance = this.balance.plus(amount);
+        this.totalEarned = this.totalEarned.plus(amount);
         this.updatedAt = LocalDateTime.now();
     }
 
@@ -68,10 +77,10 @@ public class Wallet {
      * Deduct coins from the wallet
      * @return true if successful, false if insufficient balance
      */
-    public boolean deductCoins(BigDecimal amount) {
-        if (this.balance.compareTo(amount) >= 0) {
-            this.balance = this.balance.subtract(amount);
-            this.totalSpent = this.totalSpent.add(amount);
+    public boolean deductCoins(Coins amount) {
+        if (this.balance.isAtLeast(amount)) {
+            this.balance = this.balance.minus(amount);
+            this.totalSpent = this.totalSpent.plus(amount);
             this.updatedAt = LocalDateTime.now();
             return true;
         }
@@ -81,51 +90,58 @@ public class Wallet {
     /**
      * Check if wallet has sufficient balance
      */
-    public boolean hasSufficientBalance(BigDecimal amount) {
-        return this.balance.compareTo(amount) >= 0;
+    public boolean hasSufficientBalance(Coins amount) {
+        return this.balance.isAtLeast(amount);
+    }
+
+    /**
+     * Check if the available balance (total minus pending) covers the amount, without allocating
+     */
+    public boolean hasAvailable(Coins amount) {
+        return this.balance.minorUnits() - Math.abs(this.pendingBalance.minorUnits()) >= amount.minorUnits();
     }
 
     /**
      * Get available balance (total minus pending)
      */
-    public BigDecimal getAvailableBalance() {
-        return this.balance.subtract(this.pendingBalance.abs());
+    public Coins getAvailableBalance() {
+        return this.balance.minus(this.pendingBalance.abs());
     }
 
     /**
      * Add to balance (for earnings)
      */
-    public void addToBalance(BigDecimal amount) {
-        this.balance = this.balance.add(amount);
-        this.totalEarned = this.totalEarned.add(amount);
+    public void addToBalance(Coins amount) {
+        this.balance = this.balance.plus(amount);
+        this.totalEarned = this.totalEarned.plus(amount);
         this.updatedAt = LocalDateTime.now();
     }
 
     /**
      * Subtract from balance (for spending)
      */
-    public void subtractFromBalance(BigDecimal amount) {
-        this.balance = this.balance.subtract(amount);
-        this.totalSpent = this.totalSpent.add(amount);
+    public void subtractFromBalance(Coins amount) {
+        this.balance = this.balance.minus(amount);
+        this.totalSpent = this.totalSpent.plus(amount);
         this.updatedAt = LocalDateTime.now();
     }
 
     /**
      * Add to pending balance (for escrow)
      */
-    public void addToPending(BigDecimal amount) {
-        this.pendingBalance = this.pendingBalance.add(amount);
+    public void addToPending(Coins amount) {
+        this.pendingBalance = this.pendingBalance.plus(amount);
         this.updatedAt = LocalDateTime.now();
     }
 
     /**
      * Release from pending (escrow release or refund)
      */
-    public void releasePending(BigDecimal amount) {
-        this.pendingBalance = this.pendingBalance.subtract(amount.abs());
-        if (amount.compareTo(BigDecimal.ZERO) > 0) {
-            this.balance = this.balance.add(amount);
+    public void releasePending(Coins amount) {
+        this.pendingBalance = this.pendingBalance.minus(amount.abs());
+        if (amount.isPositive()) {
+            this.balance = this.balance.plus(amount);
         }
         this.updatedAt = LocalDateTime.now();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process LRU of wallet balance views keyed by user id.
+ *
+ * WalletService writes new balances through after commit (while it still
+ * holds the wallet stripe, so in-node writes land in order) and drops the
+ * entry on rollback. Read-populates only stick if no invalidation happened
+ * since the database read started, so a slow reader cannot put back a
+ * balance that a concurrent commit already replaced.
+ */
+@Slf4j
+@Component
+public class WalletBalanceCache {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final ObjectProvider<WalletCacheInvalidationBroadcaster> broadcasters;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<Long, Entry> entries;
+
+    public WalletBalanceCache(@Value("${wallet.cache.max-size:10000}") int maxSize,
+                              @Value("${wallet.cache.ttl-seconds:30}") long ttlSeconds,
+                              ObjectProvider<WalletCacheInvalidationBroadcaster> broadcasters) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.broadcasters = broadcasters;
+        this.entries = new LinkedHashMap<>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > WalletBalanceCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Cached view, or null on a miss or an expired entry
+     */
+    public WalletBalanceView get(Long userId) {
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && System.currentTimeMillis() - entry.cachedAt <= ttlMillis) {
+                hits.incrementAndGet();
+                return entry.view;
+            }
+            if (entry != null) {
+                entries.remove(userId);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Capture before reading from the database; pass to {@link #putIfFresh}
+     */
+    public long currentGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Populate after a read, unless something was invalidated meanwhile
+     */
+    public void putIfFresh(WalletBalanceView view, long generationSeen) {
+        synchronized (entries) {
+            if (generation.get() == generationSeen) {
+                entries.put(view.getUserId(), new Entry(view, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Publish a new balance once the current transaction commits; drop it on rollback
+     */
+    public void writeThrough(WalletBalanceView view) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            put(view);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                put(view);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    invalidate(view.getUserId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop entries once the current transaction completes (bulk updates)
+     */
+    public void invalidateOnCompletion(Collection<Long> userIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            userIds.forEach(this::invalidate);
+            return;
+        }
+        List<Long> ids = List.copyOf(userIds);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                ids.forEach(WalletBalanceCache.this::invalidate);
+            }
+        });
+    }
+
+    public void invalidate(Long userId) {
+        evictLocal(userId);
+        broadcasters.ifAvailable(b -> b.broadcast(userId));
+    }
+
+    /**
+     * Entry point for invalidations received from other nodes
+     */
+    public void onRemoteInvalidation(Long userId) {
+        evictLocal(userId);
+    }
+
+    public Map<String, Object> stats() {
+        synchronized (entries) {
+            return Map.of("size", entries.size(), "maxSize", maxSize, "hits", hits.get(), "misses", misses.get());
+        }
+    }
+
+    private void put(WalletBalanceView view) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.put(view.getUserId(), new Entry(view, System.currentTimeMillis()));
+        }
+        broadcasters.ifAvailable(b -> b.broadcast(view.getUserId()));
+    }
+
+    private void evictLocal(Long userId) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(userId);
+        }
+    }
+
+    private static final class Entry {
+        private final WalletBalanceView view;
+        private final long cachedAt;
+
+        private Entry(WalletBalanceView view, long cachedAt) {
+            this.view = view;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface WalletBalanceSnapshotRepository extends JpaRepository<WalletBalanceSnapshot, Long> {
+
+    // Every checkpoint folds all wallets, so postings of transactions below this are in a snapshot
+    @Query("SELECT COALESCE(MAX(s.xactHorizon), 0) FROM WalletBalanceSnapshot s")
+    Long findCheckpointWatermark();
+
+    // Fold postings of transactions in [fromXact, horizon) into the per-wallet snapshots in one
+    // statement. The horizon is the xmin of the statement's own snapshot: every transaction below
+    // it has ended, so its postings are all visible here and none can commit later.
+    @Modifying
+    @Query(value = "WITH h AS (SELECT CAST(CAST(pg_snapshot_xmin(pg_current_snapshot()) AS text) AS bigint) AS horizon) " +
+            "INSERT INTO wallet_balance_snapshots " +
+            "(wallet_id, xact_horizon, available, pending, earned, spent, updated_at) " +
+            "SELECT p.wallet_id, h.horizon, " +
+            "COALESCE(MAX(s.available), 0) + SUM(CASE WHEN p.account = 'AVAILABLE' THEN p.amount ELSE 0 END), " +
+            "COALESCE(MAX(s.pending), 0) + SUM(CASE WHEN p.account = 'PENDING' THEN p.amount ELSE 0 END), " +
+            "COALESCE(MAX(s.earned), 0) + SUM(CASE WHEN p.account = 'AVAILABLE' AND p.amount > 0 AND p.transaction_type <> 'REFUND' THEN p.amount ELSE 0 END), " +
+            "COALESCE(MAX(s.spent), 0) - SUM(CASE WHEN p.account = 'AVAILABLE' AND p.amount < 0 THEN p.amount ELSE 0 END), " +
+            "NOW() " +
+            "FROM ledger_postings p CROSS JOIN h " +
+            "LEFT JOIN wallet_balance_snapshots s ON s.wallet_id = p.wallet_id " +
+            "WHERE p.wallet_id IS NOT NULL AND p.xact_id >= :fromXact AND p.xact_id < h.horizon " +
+            "AND p.xact_id >= COALESCE(s.xact_horizon, 0) " +
+            "GROUP BY p.wallet_id, h.horizon " +
+            "ON CONFLICT (wallet_id) DO UPDATE SET xact_horizon = EXCLUDED.xact_horizon, " +
+            "available = EXCLUDED.available, pending = EXCLUDED.pending, earned = EXCLUDED.earned, " +
+            "spent = EXCLUDED.spent, updated_at = EXCLUDED.updated_at " +
+            "WHERE wallet_balance_snapshots.xact_horizon < EXCLUDED.xact_horizon", nativeQuery = true)
+    int checkpoint(@Param("fromXact") Long fromXact);
+}
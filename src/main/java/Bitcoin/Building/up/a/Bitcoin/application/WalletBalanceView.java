@@ -0,0 +1,34 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * Immutable read-only view of a wallet's balances, safe to share from the cache
+ */
+@Value
+public class WalletBalanceView {
+
+    Long walletId;
+    Long userId;
+    Coins balance;
+    Coins pendingBalance;
+    Coins totalEarned;
+    Coins totalSpent;
+    LocalDateTime createdAt;
+    LocalDateTime updatedAt;
+
+    public static WalletBalanceView of(Wallet wallet) {
+        return new WalletBalanceView(wallet.getId(), wallet.getUser().getId(), wallet.getBalance(),
+                wallet.getPendingBalance(), wallet.getTotalEarned(), wallet.getTotalSpent(),
+                wallet.getCreatedAt(), wallet.getUpdatedAt());
+    }
+
+    /**
+     * Same rule as {@link Wallet#getAvailableBalance()}
+     */
+    public Coins getAvailableBalance() {
+        return balance.minus(pendingBalance.abs());
+    }
+}
@@ -0,0 +1,14 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+/**
+ * Hook for propagating wallet cache invalidations to other nodes.
+ *
+ * Register a bean implementing this (e.g. backed by Postgres LISTEN/NOTIFY or
+ * a message broker) and have the receiving side call
+ * {@link WalletBalanceCache#onRemoteInvalidation(Long)}. Without one, other
+ * nodes fall back to the cache entry TTL.
+ */
+public interface WalletCacheInvalidationBroadcaster {
+
+    void broadcast(Long userId);
+}
@@ -6,13 +6,17 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.validation.Valid;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +30,15 @@ import java.util.stream.Collectors;
 public class WalletController {
 
     private final WalletService walletService;
+    private final LedgerService ledgerService;
     private final UserRepository userRepository;
+    private final IdempotencyService idempotencyService;
+    private final TransactionExportService transactionExportService;
+    private final LeaderboardService leaderboardService;
+    private final WalletStatementService walletStatementService;
+
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String REPLAYED_HEADER = "Idempotent-Replayed";
 
     /**
      * Get current user's wallet balance and details
@@ -37,10 +49,10 @@ public class WalletController {
     public ResponseEntity<?> getWalletBalance() {
         try {
             User currentUser = getCurrentUser();
-            Wallet wallet = walletService.getOrCreateWallet(currentUser.getId());
+            WalletBalanceView wallet = walletService.getBalanceView(currentUser.getId());
 
             Map<String, Object> walletData = new HashMap<>();
-            walletData.put("id", wallet.getId());
+            walletData.put("id", wallet.getWalletId());
             walletData.put("balance", wallet.getBalance());
             walletData.put("availableBalance", wallet.getAvailableBalance());
             walletData.put("pendingBalance", wallet.getPendingBalance());
@@ -64,45 +76,234 @@ public class WalletController {
     }
 
     /**
-     * Get transaction history
+     * Get ledger-derived balances and totals, checked against the wallet row
+     */
+    @GetMapping("/ledger")
+    @Operation(summary = "Get ledger summary", description = "Balances and earn/spend totals from the double-entry ledger")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> getLedgerSummary() {
+        try {
+            User currentUser = getCurrentUser();
+            LedgerService.LedgerBalance ledger = ledgerService.getBalanceForUser(currentUser.getId());
+
+            Map<String, Object> ledgerData = new HashMap<>();
+            ledgerData.put("balance", ledger.getAvailable());
+            ledgerData.put("pendingBalance", ledger.getPending());
+            ledgerData.put("totalEarnings", ledger.getEarned());
+            ledgerData.put("totalSpending", ledger.getSpent());
+            ledgerData.put("reconciliation", ledgerService.reconcile(currentUser.getId()));
+
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "ledger", ledgerData
+            ));
+
+        } catch (Exception e) {
+            log.error("Failed to get ledger summary", e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Failed to retrieve ledger summary"
+            ));
+        }
+    }
+
+    /**
+     * Get transaction history (keyset paginated; pass nextCursor back as cursor)
      */
     @GetMapping("/transactions")
-    @Operation(summary = "Get transaction history", description = "Retrieve user's transaction history")
+    @Operation(summary = "Get transaction history",
+            description = "Retrieve user's transaction history newest first. Pass the returned nextCursor to get the next page")
     @SecurityRequirement(name = "bearerAuth")
     public ResponseEntity<?> getTransactionHistory(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer page,
             @RequestParam(defaultValue = "20") int size) {
         try {
             User currentUser = getCurrentUser();
-            List<CoinTransaction> transactions = walletService.getTransactionHistory(currentUser.getId(), page, size);
+            int pageSize = Math.max(1, Math.min(size, 100));
+
+            // Legacy OFFSET paging, kept only for old clients that still send page > 0
+            if (page != null && page > 0 && cursor == null) {
+                List<CoinTransaction> transactions = walletService.getTransactionHistory(currentUser.getId(), page, pageSize);
+                return ResponseEntity.ok(Map.of(
+                        "success", true,
+                        "transactions", transactions.stream().map(this::createTransactionResponse).collect(Collectors.toList()),
+                        "page", page,
+                        "size", pageSize
+                ));
+            }
+
+            // Fetch one extra row to know whether another page exists
+            List<CoinTransaction> transactions = walletService.getTransactionHistory(
+                    currentUser.getId(), TransactionCursor.decode(cursor), pageSize + 1);
+            boolean hasMore = transactions.size() > pageSize;
+            if (hasMore) {
+                transactions = transactions.subList(0, pageSize);
+            }
 
             List<Map<String, Object>> transactionData = transactions.stream()
                     .map(this::createTransactionResponse)
                     .collect(Collectors.toList());
 
+            Map<String, Object> body = new HashMap<>();
+            body.put("success", true);
+            body.put("transactions", transactionData);
+            body.put("size", pageSize);
+            body.put("hasMore", hasMore);
+            body.put("nextCursor", hasMore ? TransactionCursor.after(transactions.get(pageSize - 1)).encode() : null);
+            return ResponseEntity.ok(body);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            log.error("Failed to get transaction history", e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Failed to retrieve transaction history"
+            ));
+        }
+    }
+
+    /**
+     * Monthly statements of the last N months, newest first
+     */
+    @GetMapping("/statements")
+    @Operation(summary = "Get monthly statements",
+            description = "Opening balance, coins in and out, and closing balance per month, newest first")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> getStatements(@RequestParam(defaultValue = "12") int months) {
+        try {
+            User currentUser = getCurrentUser();
             return ResponseEntity.ok(Map.of(
                     "success", true,
-                    "transactions", transactionData,
-                    "page", page,
-                    "size", size
+                    "statements", walletStatementService.getStatements(currentUser.getId(), months)
             ));
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
         } catch (Exception e) {
-            log.error("Failed to get transaction history", e);
+            log.error("Failed to get statements", e);
             return ResponseEntity.status(500).body(Map.of(
                     "success", false,
-                    "message", "Failed to retrieve transaction history"
+                    "message", "Failed to retrieve statements"
             ));
         }
     }
 
     /**
-     * Top up wallet with real money
+     * One month's statement with totals per category (month as YYYY-MM)
+     */
+    @GetMapping("/statements/{month}")
+    @Operation(summary = "Get a monthly statement", description = "One month's statement with totals per category")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> getStatement(@PathVariable String month) {
+        try {
+            User currentUser = getCurrentUser();
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "statement", walletStatementService.getStatement(currentUser.getId(), month)
+            ));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            log.error("Failed to get statement", e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Failed to retrieve statement"
+            ));
+        }
+    }
+
+    /**
+     * Transactions behind a statement, optionally for one category (keyset paginated)
+     */
+    @GetMapping("/statements/{month}/transactions")
+    @Operation(summary = "Get a statement's transactions",
+            description = "The month's transactions newest first, optionally for one category. Pass nextCursor back as cursor")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> getStatementTransactions(
+            @PathVariable String month,
+            @RequestParam(required = false) CoinTransaction.TransactionCategory category,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            User currentUser = getCurrentUser();
+            int pageSize = Math.max(1, Math.min(size, 100));
+
+            List<CoinTransaction> transactions = walletStatementService.getStatementTransactions(
+                    currentUser.getId(), month, category, TransactionCursor.decode(cursor), pageSize + 1);
+            boolean hasMore = transactions.size() > pageSize;
+            if (hasMore) {
+                transactions = transactions.subList(0, pageSize);
+            }
+
+            Map<String, Object> body = new HashMap<>();
+            body.put("success", true);
+            body.put("transactions", transactions.stream().map(this::createTransactionResponse).collect(Collectors.toList()));
+            body.put("size", pageSize);
+            body.put("hasMore", hasMore);
+            body.put("nextCursor", hasMore ? TransactionCursor.after(transactions.get(pageSize - 1)).encode() : null);
+            return ResponseEntity.ok(body);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            log.error("Failed to get statement transactions", e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Failed to retrieve statement transactions"
+            ));
+        }
+    }
+
+    /**
+     * Download the full transaction history as CSV or NDJSON, streamed from the database
+     */
+    @GetMapping("/transactions/export")
+    @Operation(summary = "Export transaction history",
+            description = "Stream all of the user's transactions (oldest first) as csv or ndjson, optionally gzip-compressed")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> exportTransactions(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            User currentUser = getCurrentUser();
+            TransactionExportService.Format exportFormat = TransactionExportService.Format.parse(format);
+            return TransactionExportService.attachment(
+                    transactionExportService.exportForUser(currentUser.getId(), exportFormat, gzip, from, to),
+                    exportFormat, gzip, "transactions-" + currentUser.getId());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * Top up wallet with real money. Idempotent per Idempotency-Key header,
+     * falling back to the payment transactionId.
      */
     @PostMapping("/top-up")
     @Operation(summary = "Top up wallet", description = "Add coins to wallet using real money")
     @SecurityRequirement(name = "bearerAuth")
-    public ResponseEntity<?> topUpWallet(@Valid @RequestBody TopUpRequest request) {
+    public ResponseEntity<?> topUpWallet(@Valid @RequestBody TopUpRequest request,
+                                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             User currentUser = getCurrentUser();
 
@@ -123,19 +324,32 @@ public class WalletController {
             // In real implementation, process payment with Stripe/PayPal here
             // For now, we'll simulate successful payment
 
-            CoinTransaction transaction = walletService.topUpWallet(
+            String key = idempotencyKey != null ? idempotencyKey : request.getTransactionId();
+            IdempotencyService.Outcome outcome = idempotencyService.execute(
+                    IdempotencyKey.Scope.TOP_UP,
                     currentUser.getId(),
-                    request.getAmount(),
-                    request.getPaymentMethod(),
-                    request.getTransactionId()
-            );
-
-            return ResponseEntity.ok(Map.of(
-                    "success", true,
-                    "message", "Top-up successful",
-                    "transaction", createTransactionResponse(transaction)
+                    key,
+                    request.getAmount().stripTrailingZeros().toPlainString() + "|" + request.getPaymentMethod(),
+                    () -> walletService.topUpWallet(
+                            currentUser.getId(),
+                            request.getAmount(),
+                            request.getPaymentMethod(),
+                            request.getTransactionId()
+                    ));
+
+            return ResponseEntity.ok()
+                    .header(REPLAYED_HEADER, String.valueOf(outcome.isReplayed()))
+                    .body(Map.of(
+                            "success", true,
+                            "message", "Top-up successful",
+                            "transaction", createTransactionResponse(outcome.getTransaction())
+                    ));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
             ));
-
         } catch (Exception e) {
             log.error("Top-up failed", e);
             return ResponseEntity.status(500).body(Map.of(
@@ -146,12 +360,14 @@ public class WalletController {
     }
 
     /**
-     * Transfer coins to another user
+     * Transfer coins to another user. Retries with the same Idempotency-Key
+     * header return the original transfer.
      */
     @PostMapping("/transfer")
     @Operation(summary = "Transfer coins", description = "Transfer coins to another user")
     @SecurityRequirement(name = "bearerAuth")
-    public ResponseEntity<?> transferCoins(@Valid @RequestBody TransferRequest request) {
+    public ResponseEntity<?> transferCoins(@Valid @RequestBody TransferRequest request,
+                                           @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             User currentUser = getCurrentUser();
 
@@ -173,19 +389,31 @@ public class WalletController {
                 ));
             }
 
-            CoinTransaction transaction = walletService.transferCoins(
+            IdempotencyService.Outcome outcome = idempotencyService.execute(
+                    IdempotencyKey.Scope.TRANSFER,
                     currentUser.getId(),
-                    recipient.getId(),
-                    request.getAmount(),
-                    request.getDescription()
-            );
-
-            return ResponseEntity.ok(Map.of(
-                    "success", true,
-                    "message", String.format("Transferred %s coins to %s", request.getAmount(), recipient.getName()),
-                    "transaction", createTransactionResponse(transaction)
+                    idempotencyKey,
+                    recipient.getId() + "|" + request.getAmount().stripTrailingZeros().toPlainString(),
+                    () -> walletService.transferCoins(
+                            currentUser.getId(),
+                            recipient.getId(),
+                            request.getAmount(),
+                            request.getDescription()
+                    ));
+
+            return ResponseEntity.ok()
+                    .header(REPLAYED_HEADER, String.valueOf(outcome.isReplayed()))
+                    .body(Map.of(
+                            "success", true,
+                            "message", String.format("Transferred %s coins to %s", request.getAmount(), recipient.getName()),
+                            "transaction", createTransactionResponse(outcome.getTransaction())
+                    ));
+
+        } catch (LedgerEngine.UnavailableException e) {
+            return ResponseEntity.status(503).body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
             ));
-
         } catch (RuntimeException e) {
             return ResponseEntity.badRequest().body(Map.of(
                     "success", false,
@@ -200,13 +428,78 @@ public class WalletController {
         }
     }
 
+    /**
+     * Pay many recipients in one call: the sender is debited once and every
+     * recipient is credited in the same transaction, or nobody is. A retry
+     * with the same Idempotency-Key header returns the first batch instead of
+     * paying twice.
+     */
+    @PostMapping("/transfer/batch")
+    @Operation(summary = "Batch transfer coins", description = "Transfer coins to many users at once, all or nothing")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> transferCoinsBatch(@Valid @RequestBody BatchTransferRequest request,
+                                                @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        try {
+            User currentUser = getCurrentUser();
+
+            // Resolve all recipients in one query
+            List<String> emails = request.getRecipients().stream()
+                    .map(r -> r.getToUserEmail().toLowerCase().trim())
+                    .collect(Collectors.toList());
+            Map<String, Long> userIdsByEmail = new HashMap<>();
+            userRepository.findByEmailIn(emails.stream().distinct().collect(Collectors.toList()))
+                    .forEach(user -> userIdsByEmail.put(user.getEmail().toLowerCase(), user.getId()));
+
+            List<WalletService.Payout> payouts = new ArrayList<>(emails.size());
+            for (int i = 0; i < emails.size(); i++) {
+                Long userId = userIdsByEmail.get(emails.get(i));
+                if (userId == null) {
+                    return ResponseEntity.badRequest().body(Map.of(
+                            "success", false,
+                            "message", "Recipient not found: " + request.getRecipients().get(i).getToUserEmail()
+                    ));
+                }
+                payouts.add(new WalletService.Payout(userId, request.getRecipients().get(i).getAmount()));
+            }
+
+            WalletService.BatchTransfer batch = walletService.transferBatch(
+                    currentUser.getId(), payouts, request.getDescription(), idempotencyKey);
+
+            return ResponseEntity.ok()
+                    .header(REPLAYED_HEADER, String.valueOf(batch.isReplayed()))
+                    .body(Map.of(
+                            "success", true,
+                            "message", String.format("Transferred %s coins to %d recipients", batch.getTotal(), batch.getRecipients()),
+                            "batch", batch
+                    ));
+
+        } catch (LedgerEngine.UnavailableException e) {
+            return ResponseEntity.status(503).body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            log.error("Batch transfer failed", e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Transfer failed"
+            ));
+        }
+    }
+
     /**
      * Award coins (for system/admin use)
      */
     @PostMapping("/award")
     @Operation(summary = "Award coins", description = "Award coins to a user (system/admin only)")
     @SecurityRequirement(name = "bearerAuth")
-    public ResponseEntity<?> awardCoins(@Valid @RequestBody AwardCoinsRequest request) {
+    public ResponseEntity<?> awardCoins(@Valid @RequestBody AwardCoinsRequest request,
+                                        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             User currentUser = getCurrentUser();
 
@@ -223,7 +516,8 @@ public class WalletController {
                     recipient.getId(),
                     request.getAmount(),
                     request.getCategory(),
-                    request.getDescription()
+                    request.getDescription(),
+                    idempotencyKey != null ? idempotencyKey : request.getReferenceId()
             );
 
             return ResponseEntity.ok(Map.of(
@@ -241,6 +535,42 @@ public class WalletController {
         }
     }
 
+    /**
+     * Award coins to many users in one call (admin only)
+     */
+    @PostMapping("/award/bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Bulk award coins", description = "Award coins to many users in one batched transaction (admin only)")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> awardCoinsBulk(@Valid @RequestBody BulkAwardRequest request) {
+        try {
+            List<WalletService.Award> awards = request.getAwards().stream()
+                    .map(a -> new WalletService.Award(a.getUserId(), a.getAmount(), a.getCategory(),
+                            a.getDescription(), a.getReferenceId()))
+                    .collect(Collectors.toList());
+
+            int awarded = walletService.awardCoinsBulk(awards);
+
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", String.format("Awarded coins in %d transactions", awarded),
+                    "awarded", awarded
+            ));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            log.error("Bulk award failed", e);
+            return ResponseEntity.status(500).body(Map.of(
+                    "success", false,
+                    "message", "Failed to award coins: " + e.getMessage()
+            ));
+        }
+    }
+
     /**
      * Get earning opportunities
      */
@@ -306,6 +636,73 @@ public class WalletController {
         }
     }
 
+    /**
+     * Leaderboard page by total earned or current balance
+     */
+    @GetMapping("/leaderboard")
+    @Operation(summary = "Get leaderboard", description = "Users ranked by total earned (earned) or current balance (balance)")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> getLeaderboard(
+            @RequestParam(defaultValue = "earned") String board,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            int pageSize = Math.max(1, Math.min(size, 100));
+            LeaderboardService.LeaderboardPage leaderboard = leaderboardService.getPage(
+                    LeaderboardService.Board.parse(board), Math.max(page, 0), pageSize);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "leaderboard", leaderboard
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * Current user's rank on a leaderboard
+     */
+    @GetMapping("/leaderboard/me")
+    @Operation(summary = "Get my rank", description = "Current user's rank by total earned (earned) or current balance (balance)")
+    @SecurityRequirement(name = "bearerAuth")
+    public ResponseEntity<?> getMyRank(@RequestParam(defaultValue = "earned") String board) {
+        try {
+            User currentUser = getCurrentUser();
+            LeaderboardService.Entry entry = leaderboardService.getRank(
+                    LeaderboardService.Board.parse(board), currentUser.getId());
+            if (entry == null) {
+                return ResponseEntity.status(404).body(Map.of(
+                        "success", false,
+                        "message", "No wallet found"
+                ));
+            }
+            entry.setFullName(currentUser.getFullName());
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "rank", entry,
+                    "total", leaderboardService.size()
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
     // Utility methods
     private User getCurrentUser() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -365,6 +762,26 @@ public class WalletController {
         private String description;
     }
 
+    @Data
+    public static class BatchTransferRequest {
+        @jakarta.validation.constraints.NotEmpty
+        @jakarta.validation.constraints.Size(max = 5000)
+        private List<@Valid BatchTransferEntry> recipients;
+
+        private String description;
+    }
+
+    @Data
+    public static class BatchTransferEntry {
+        @jakarta.validation.constraints.NotBlank
+        @jakarta.validation.constraints.Email
+        private String toUserEmail;
+
+        @jakarta.validation.constraints.NotNull
+        @jakarta.validation.constraints.DecimalMin("1.0")
+        private BigDecimal amount;
+    }
+
     @Data
     public static class AwardCoinsRequest {
         private Long userId; // If null, award to current user
@@ -378,5 +795,32 @@ public class WalletController {
 
         @jakarta.validation.constraints.NotBlank
         private String description;
+
+        private String referenceId; // Awarded at most once per user
+    }
+
+    @Data
+    public static class BulkAwardRequest {
+        @jakarta.validation.constraints.NotEmpty
+        @jakarta.validation.constraints.Size(max = 100000)
+        private List<@Valid BulkAwardEntry> awards;
+    }
+
+    @Data
+    public static class BulkAwardEntry {
+        @jakarta.validation.constraints.NotNull
+        private Long userId;
+
+        @jakarta.validation.constraints.NotNull
+        @jakarta.validation.constraints.DecimalMin("1.0")
+        private BigDecimal amount;
+
+        @jakarta.validation.constraints.NotNull
+        private CoinTransaction.TransactionCategory category;
+
+        @jakarta.validation.constraints.NotBlank
+        private String description;
+
+        private String referenceId;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped per-wallet locks used to serialize wallet mutations within one node.
+ *
+ * Locks are keyed by user id (one wallet per user) and are held until the
+ * surrounding transaction completes, so a second purchase on the same wallet
+ * waits here instead of piling up on the Postgres row lock while holding a
+ * pooled connection. Cross-node safety comes from the conditional UPDATEs in
+ * {@link WalletRepository}; these locks only reduce contention.
+ */
+@Slf4j
+@Component
+public class WalletLockManager {
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutMs;
+
+    public WalletLockManager(@Value("${wallet.lock.stripes:256}") int stripeCount,
+                             @Value("${wallet.lock.timeout-ms:5000}") long timeoutMs) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("wallet.lock.stripes must be positive");
+        }
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Lock the wallets of the given users until the current transaction completes.
+     * Stripes are always taken in ascending index order, so two transfers in
+     * opposite directions between the same pair of wallets cannot deadlock.
+     */
+    public void lockForTransaction(Long... userIds) {
+        int[] indexes = Arrays.stream(userIds)
+                .filter(Objects::nonNull)
+                .mapToInt(this::stripeFor)
+                .distinct()
+                .sorted()
+                .toArray();
+
+        int acquired = 0;
+        try {
+            for (int index : indexes) {
+                if (!stripes[index].tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new RuntimeException("Wallet is busy, please retry");
+                }
+                acquired++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for wallet lock", e);
+        } finally {
+            if (acquired < indexes.length) {
+                unlock(indexes, acquired);
+            }
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    unlock(indexes, indexes.length);
+                }
+            });
+        } else {
+            // No transaction to tie the locks to - nothing would ever release them
+            log.warn("Wallet lock requested outside a transaction for users {}", Arrays.toString(userIds));
+            unlock(indexes, indexes.length);
+        }
+    }
+
+    int stripeFor(Long userId) {
+        return Math.floorMod(Long.hashCode(userId) * 0x9E3779B9, stripes.length);
+    }
+
+    private void unlock(int[] indexes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package Bitcoin.Building.up.a.Bitcoin.application;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -34,29 +36,85 @@ public interface WalletRepository extends JpaRepository<Wallet, Long> {
     /**
      * Find wallets with balance greater than specified amount
      */
-    List<Wallet> findByBalanceGreaterThan(BigDecimal amount);
+    List<Wallet> findByBalanceGreaterThan(Coins amount);
 
     /**
-     * Find top earners
+     * Find top earners, one page at a time (prefer LeaderboardService, which
+     * ranks in memory)
      */
-    @Query("SELECT w FROM Wallet w ORDER BY w.totalEarned DESC")
-    List<Wallet> findTopEarners();
+    @Query("SELECT w FROM Wallet w ORDER BY w.totalEarned DESC, w.id")
+    List<Wallet> findTopEarners(Pageable pageable);
 
     /**
-     * Get total coins in circulation
+     * Balance including unfolded shard credits (see WalletShardService)
      */
-    @Query("SELECT SUM(w.balance) FROM Wallet w")
+    @Query(value = "SELECT balance FROM wallet_balances WHERE id = :walletId", nativeQuery = true)
+    BigDecimal findEffectiveBalance(@Param("walletId") Long walletId);
+
+    /**
+     * Get total coins in circulation (scans every wallet - dashboards use CoinEconomyRollupService)
+     */
+    @Query(value = "SELECT COALESCE(SUM(balance), 0) FROM wallet_balances", nativeQuery = true)
     BigDecimal getTotalCoinsInCirculation();
 
     /**
-     * Get average wallet balance
+     * Get average wallet balance (scans every wallet - dashboards use CoinEconomyRollupService)
      */
-    @Query("SELECT AVG(w.balance) FROM Wallet w")
+    @Query(value = "SELECT AVG(balance) FROM wallet_balances", nativeQuery = true)
     BigDecimal getAverageWalletBalance();
 
     /**
      * Find wallets with pending balance
      */
-    @Query("SELECT w FROM Wallet w WHERE w.pendingBalance > 0")
+    @Query(value = "SELECT * FROM wallets WHERE pending_balance > 0", nativeQuery = true)
     List<Wallet> findWalletsWithPendingBalance();
-}
\ No newline at end of file
+
+    // ---------------------------------------------------------------------
+    // Atomic balance updates. Each statement applies a delta in place instead
+    // of writing back a value read earlier, so concurrent mutations on the
+    // same wallet cannot overwrite each other. Debits only succeed while the
+    // available balance (balance - |pending|) covers the amount; callers must
+    // treat a return value of 0 as "insufficient balance".
+    // ---------------------------------------------------------------------
+
+    /**
+     * Credit coins (earnings, transfers in, escrow releases to the seller)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE wallets SET balance = balance + :amount, total_earned = total_earned + :amount, " +
+            "updated_at = NOW() WHERE id = :walletId", nativeQuery = true)
+    int credit(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+
+    /**
+     * Debit coins only if the available balance covers the amount
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE wallets SET balance = balance - :amount, total_spent = total_spent + :amount, " +
+            "updated_at = NOW() WHERE id = :walletId AND balance - ABS(pending_balance) >= :amount", nativeQuery = true)
+    int debitIfAvailable(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+
+    /**
+     * Move coins from the available balance into pending (escrow hold) if covered
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE wallets SET balance = balance - :amount, total_spent = total_spent + :amount, " +
+            "pending_balance = pending_balance + :amount, updated_at = NOW() " +
+            "WHERE id = :walletId AND balance - ABS(pending_balance) >= :amount", nativeQuery = true)
+    int holdIfAvailable(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+
+    /**
+     * Drop an escrow hold from pending without returning it (released to seller)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE wallets SET pending_balance = pending_balance - :amount, updated_at = NOW() " +
+            "WHERE id = :walletId", nativeQuery = true)
+    int clearPending(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+
+    /**
+     * Return an escrow hold from pending back to the balance (refund)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE wallets SET pending_balance = pending_balance - :amount, balance = balance + :amount, " +
+            "updated_at = NOW() WHERE id = :walletId", nativeQuery = true)
+    int returnPending(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+}
@@ -1,13 +1,40 @@
 package Bitcoin.Building.up.a.Bitcoin.application;
 
+import jakarta.persistence.EntityManager;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -17,38 +44,114 @@ public class WalletService {
 
     private final WalletRepository walletRepository;
     private final CoinTransactionRepository coinTransactionRepository;
-    private final UserRepository userRepository;
-    private final NotificationService notificationService;
+    private final OutboxService outboxService;
+    private final WalletLockManager walletLockManager;
+    private final LedgerService ledgerService;
+    private final EntityManager entityManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletBalanceCache walletBalanceCache;
+    private final IdempotencyService idempotencyService;
+    private final LeaderboardService leaderboardService;
+    private final WalletShardService walletShardService;
+    private final LedgerEngine ledgerEngine;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${wallet.bulk.batch-size:1000}")
+    private int bulkBatchSize;
+
+    @Value("${wallet.batch-transfer.max-recipients:5000}")
+    private int maxBatchRecipients;
+
+    private static final String SELECT_BALANCE_VIEW_SQL =
+            "SELECT id, user_id, balance, pending_balance, total_earned, total_spent, created_at, updated_at " +
+            "FROM wallet_balances WHERE user_id = ?";
+
+    // No row back if the wallet already exists or the user does not
+    private static final String INSERT_WALLET_SQL =
+            "INSERT INTO wallets (user_id, balance, pending_balance, total_earned, total_spent, created_at, updated_at) " +
+            "SELECT id, 0, 0, 0, 0, NOW(), NOW() FROM users WHERE id = ? " +
+            "ON CONFLICT (user_id) DO NOTHING RETURNING id";
+
+    private static final BigDecimal WELCOME_BONUS = BigDecimal.valueOf(100);
+    private static final String WELCOME_BONUS_REFERENCE_PREFIX = "WELCOME-";
+
+    private static final String LOCK_WALLETS_BY_USER_SQL =
+            "SELECT id, user_id FROM wallets WHERE user_id = ANY(?) ORDER BY id FOR UPDATE";
+
+    private static final String SELECT_WALLETS_BY_USER_SQL =
+            "SELECT id, user_id FROM wallets WHERE user_id = ANY(?)";
+
+    private static final String NEXT_TRANSACTION_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('coin_transactions', 'id')) FROM generate_series(1, ?)";
+
+    private static final String INSERT_CREDIT_SQL =
+            "INSERT INTO coin_transactions (id, to_user_id, to_wallet_id, amount, type, category, description, " +
+            "reference_id, status, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, 'COMPLETED', ?)";
+
+    // Open holds past the cutoff whose order (reference ORDER-<id>) was cancelled
+    // or never shipped; an order that shipped keeps its hold however old it is
+    private static final String EXPIRED_HOLDS_SQL =
+            "FROM coin_transactions t JOIN marketplace_orders o ON o.id = " +
+            "CASE WHEN t.reference_id ~ '^ORDER-[0-9]{1,18}$' THEN substring(t.reference_id FROM 7)::bigint END " +
+            "WHERE t.type = 'ESCROW_HOLD' AND t.status = 'ESCROWED' AND t.created_at < ? " +
+            "AND t.from_wallet_id IS NOT NULL AND o.status IN ('PENDING', 'CONFIRMED', 'CANCELLED') " +
+            "ORDER BY t.created_at LIMIT ? ";
+
+    // Claim expired holds the way refundEscrow does (ESCROWED -> CANCELLED); rows a
+    // concurrent release or refund holds are skipped, and that caller wins
+    private static final String CLAIM_EXPIRED_HOLDS_SQL =
+            "UPDATE coin_transactions t SET status = 'CANCELLED' FROM (" +
+            "SELECT t.id, t.created_at, o.id AS order_id " + EXPIRED_HOLDS_SQL + "FOR UPDATE OF t, o SKIP LOCKED" +
+            ") expired WHERE t.id = expired.id AND t.created_at = expired.created_at " +
+            "RETURNING t.id, t.from_user_id, t.from_wallet_id, t.amount, t.reference_id, expired.order_id";
+
+    // Engine mode: the engine settles the holds, the orders are locked here
+    private static final String SELECT_EXPIRED_HOLDS_SQL =
+            "SELECT t.id, o.id AS order_id " + EXPIRED_HOLDS_SQL + "FOR UPDATE OF o SKIP LOCKED";
+
+    private static final String EXPIRE_ORDERS_SQL =
+            "UPDATE marketplace_orders SET status = CASE WHEN status = 'CANCELLED' THEN status ELSE 'EXPIRED' END, " +
+            "payment_status = 'REFUNDED', cancelled_at = COALESCE(cancelled_at, NOW()), " +
+            "cancellation_reason = COALESCE(cancellation_reason, ?), updated_at = NOW() WHERE id = ANY(?)";
+
+    // Expired orders give their stock back, as a cancellation does
+    private static final String RESTOCK_EXPIRED_ORDERS_SQL =
+            "UPDATE marketplace_items i SET quantity = i.quantity + r.quantity, " +
+            "status = CASE WHEN i.status = 'SOLD' THEN 'ACTIVE' ELSE i.status END, updated_at = NOW() " +
+            "FROM (SELECT item_id, SUM(quantity) AS quantity FROM marketplace_orders " +
+            "WHERE id = ANY(?) AND status <> 'CANCELLED' GROUP BY item_id) r WHERE i.id = r.item_id";
+
+    private static final String LOCK_WALLETS_BY_ID_SQL =
+            "SELECT id FROM wallets WHERE id = ANY(?) ORDER BY id FOR UPDATE";
+
+    private static final String INSERT_TRANSFER_SQL =
+            "INSERT INTO coin_transactions (id, from_user_id, from_wallet_id, to_user_id, to_wallet_id, amount, type, " +
+            "category, description, reference_id, status, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, 'TRANSFER', 'MANUAL_ADJUSTMENT', ?, ?, 'COMPLETED', ?)";
+
+    private static final String SELECT_BATCH_SQL =
+            "SELECT COUNT(*) AS transactions, COUNT(DISTINCT to_user_id) AS recipients, " +
+            "COALESCE(SUM(amount), 0) AS total FROM coin_transactions " +
+            "WHERE reference_id = ? AND type = 'TRANSFER' AND from_user_id = ?";
+
+    private static final String INSERT_REFUND_SQL =
+            "INSERT INTO coin_transactions (id, to_user_id, to_wallet_id, amount, type, category, description, " +
+            "reference_id, status, created_at) VALUES (?, ?, ?, ?, 'REFUND', 'DISPUTE_RESOLUTION', ?, ?, 'COMPLETED', ?)";
+
+    private static final String BULK_RETURN_PENDING_SQL =
+            "UPDATE wallets w SET pending_balance = w.pending_balance - d.amount, balance = w.balance + d.amount, " +
+            "updated_at = NOW() FROM unnest(?::bigint[], ?::numeric[]) AS d(wallet_id, amount) WHERE w.id = d.wallet_id";
+
+    private static final String BULK_CREDIT_SQL =
+            "UPDATE wallets w SET balance = w.balance + d.amount, total_earned = w.total_earned + d.amount, " +
+            "updated_at = NOW() FROM unnest(?::bigint[], ?::numeric[]) AS d(wallet_id, amount) WHERE w.id = d.wallet_id";
 
     /**
-     * Create a new wallet for a user
+     * Create a new wallet for a user, with the welcome bonus. Called at
+     * registration; safe to call again or concurrently for the same user.
      */
     public Wallet createWallet(User user) {
-        Optional<Wallet> existingWallet = walletRepository.findByUserId(user.getId());
-        if (existingWallet.isPresent()) {
-            log.warn("Wallet already exists for user {}", user.getId());
-            return existingWallet.get();
-        }
-
-        Wallet wallet = Wallet.builder()
-                .user(user)
-                .balance(BigDecimal.ZERO)
-                .pendingBalance(BigDecimal.ZERO)
-                .totalEarned(BigDecimal.ZERO)
-                .totalSpent(BigDecimal.ZERO)
-                .createdAt(LocalDateTime.now())
-                .build();
-
-        Wallet savedWallet = walletRepository.save(wallet);
-        log.info("Created wallet for user {} with ID {}", user.getId(), savedWallet.getId());
-
-        // Give welcome bonus
-        awardCoins(user.getId(), BigDecimal.valueOf(100),
-                CoinTransaction.TransactionCategory.ACHIEVEMENT_UNLOCK,
-                "Welcome bonus!",
-                "WELCOME-" + user.getId());
-
-        return savedWallet;
+        return provisionWallet(user.getId());
     }
 
     /**
@@ -56,11 +159,72 @@ public class WalletService {
      */
     public Wallet getOrCreateWallet(Long userId) {
         return walletRepository.findByUserId(userId)
-                .orElseGet(() -> {
-                    User user = userRepository.findById(userId)
-                            .orElseThrow(() -> new RuntimeException("User not found: " + userId));
-                    return createWallet(user);
-                });
+                .orElseGet(() -> provisionWallet(userId));
+    }
+
+    // The unique user_id decides who creates the wallet: a concurrent insert
+    // waits for the first one to commit and then does nothing. Only the
+    // creator grants the welcome bonus, and its reference is an idempotency
+    // key besides.
+    private Wallet provisionWallet(Long userId) {
+        List<Long> created = jdbcTemplate.queryForList(INSERT_WALLET_SQL, Long.class, userId);
+        Wallet wallet = walletRepository.findByUserId(userId)
+                .orElseThrow(() -> new RuntimeException("User not found: " + userId));
+        if (created.isEmpty()) {
+            return wallet;
+        }
+        log.info("Created wallet for user {} with ID {}", userId, wallet.getId());
+
+        if (ledgerEngine.isEnabled()) {
+            // The engine cannot credit a wallet row that is not committed yet
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    grantWelcomeBonus(userId);
+                }
+            });
+            return wallet;
+        }
+
+        awardWelcomeBonus(userId);
+
+        // Balance was updated in SQL - reload so callers see the bonus
+        entityManager.refresh(wallet);
+        return wallet;
+    }
+
+    // Its reference is an idempotency key, so granting it twice is harmless
+    private void awardWelcomeBonus(Long userId) {
+        String reference = WELCOME_BONUS_REFERENCE_PREFIX + userId;
+        idempotencyService.execute(IdempotencyKey.Scope.AWARD, userId, reference,
+                awardFingerprint(WELCOME_BONUS, CoinTransaction.TransactionCategory.ACHIEVEMENT_UNLOCK),
+                () -> doAwardCoins(userId, WELCOME_BONUS, CoinTransaction.TransactionCategory.ACHIEVEMENT_UNLOCK,
+                        "Welcome bonus!", reference));
+    }
+
+    // Engine mode, after the wallet is committed: the creating transaction has
+    // ended, so the bonus gets one of its own
+    private void grantWelcomeBonus(Long userId) {
+        try {
+            requiresNew().executeWithoutResult(status -> awardWelcomeBonus(userId));
+        } catch (RuntimeException e) {
+            log.error("Welcome bonus for user {} was not granted: {}", userId, e.getMessage());
+        }
+    }
+
+    // The ledger engine reads wallets over its own connections, so a wallet
+    // it is to credit has to be committed first
+    private Wallet getOrCreateCommittedWallet(Long userId) {
+        return walletRepository.findByUserId(userId).orElseGet(() -> {
+            requiresNew().executeWithoutResult(status -> provisionWallet(userId));
+            return getWallet(userId);
+        });
+    }
+
+    private TransactionTemplate requiresNew() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
     }
 
     /**
@@ -72,16 +236,47 @@ public class WalletService {
     }
 
     /**
-     * ENHANCED: Award coins with reference tracking (for photo uploads)
+     * Balance view for read endpoints, served from the cache when possible
+     */
+    public WalletBalanceView getBalanceView(Long userId) {
+        WalletBalanceView cached = walletBalanceCache.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = walletBalanceCache.currentGeneration();
+        Wallet wallet = getOrCreateWallet(userId);
+        // The entity does not see unfolded shard credits of a hot wallet
+        WalletBalanceView view = wallet.getBalanceShards() > 0
+                ? jdbcTemplate.query(SELECT_BALANCE_VIEW_SQL, this::mapBalanceView, userId).get(0)
+                : WalletBalanceView.of(wallet);
+        walletBalanceCache.putIfFresh(view, generation);
+        return view;
+    }
+
+    /**
+     * ENHANCED: Award coins with reference tracking (for photo uploads).
+     * A referenceId is an idempotency key: awarding it twice to the same user
+     * returns the first transaction.
      */
     public CoinTransaction awardCoins(Long userId, BigDecimal amount,
                                       CoinTransaction.TransactionCategory category,
                                       String description, String referenceId) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
-        }
+        requirePositive(amount);
 
-        Wallet wallet = getOrCreateWallet(userId);
+        return idempotencyService.execute(IdempotencyKey.Scope.AWARD, userId, referenceId,
+                awardFingerprint(amount, category),
+                () -> doAwardCoins(userId, amount, category, description, referenceId)).getTransaction();
+    }
+
+    private CoinTransaction doAwardCoins(Long userId, BigDecimal amount,
+                                         CoinTransaction.TransactionCategory category,
+                                         String description, String referenceId) {
+        boolean viaEngine = ledgerEngine.isEnabled();
+        if (!viaEngine) {
+            walletLockManager.lockForTransaction(userId);
+        }
+        Wallet wallet = viaEngine ? getOrCreateCommittedWallet(userId) : getOrCreateWallet(userId);
         User user = wallet.getUser();
 
         // Create transaction record
@@ -95,26 +290,31 @@ public class WalletService {
                 .referenceId(referenceId)
                 .status(CoinTransaction.TransactionStatus.COMPLETED)
                 .build();
+        String message = String.format("You earned %s coins! %s", amount, description);
+
+        if (viaEngine) {
+            return ledgerEngine.execute(transaction, Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                    "Coins Earned!", message);
+        }
 
         CoinTransaction savedTransaction = coinTransactionRepository.save(transaction);
+        ledgerService.record(savedTransaction);
 
         // Update wallet balance
-        wallet.addToBalance(amount);
-        walletRepository.save(wallet);
+        creditWallet(wallet, amount);
+
+        writeThroughCache(userId);
 
         log.info("Awarded {} coins to user {} for {} (ref: {})", amount, userId, category, referenceId);
 
-        // Send notification
-        try {
-            notificationService.sendNotification(
-                    userId,
-                    Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
-                    "Coins Earned!",
-                    String.format("You earned %s coins! %s", amount, description)
-            );
-        } catch (Exception e) {
-            log.warn("Failed to send notification for coin award: {}", e.getMessage());
-        }
+        // Notify via the outbox, delivered only if this transaction commits
+        outboxService.enqueueNotification(
+                "TX-" + savedTransaction.getId() + "-" + userId,
+                userId,
+                Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                "Coins Earned!",
+                message
+        );
 
         return savedTransaction;
     }
@@ -127,19 +327,226 @@ public class WalletService {
         return awardCoins(userId, amount, category, description, null);
     }
 
+    /**
+     * Award coins to many users at once (lottery payouts, reward campaigns).
+     *
+     * Wallets are loaded and row-locked in one id-ordered query, transactions
+     * and ledger postings go out as JDBC batches with pre-allocated ids, and all
+     * balances move in a single set-based UPDATE. Credits cannot overdraw, so
+     * the in-process wallet stripes are not taken here. No per-user
+     * notification is sent; callers announce bulk payouts themselves.
+     * Awards whose referenceId was already used for that user are skipped.
+     *
+     * @return number of coin transactions written
+     */
+    public int awardCoinsBulk(List<Award> awards) {
+        return (int) creditBulk(CoinTransaction.TransactionType.EARN, IdempotencyKey.Scope.AWARD, awards).stream()
+                .filter(Objects::nonNull)
+                .count();
+    }
+
+    /**
+     * Credit many confirmed top-ups at once (payment webhooks), the same way
+     * as awardCoinsBulk, and notify each user through the outbox. A top-up
+     * whose referenceId (the provider payment) was already credited to that
+     * user is skipped.
+     *
+     * @return the transaction id of each top-up, in order; null where skipped
+     */
+    public List<Long> topUpBulk(List<Award> topUps) {
+        List<Long> transactionIds = creditBulk(CoinTransaction.TransactionType.TOP_UP, IdempotencyKey.Scope.TOP_UP, topUps);
+
+        List<OutboxService.NotificationEvent> events = new ArrayList<>();
+        for (int i = 0; i < topUps.size(); i++) {
+            Long transactionId = transactionIds.get(i);
+            if (transactionId != null) {
+                Long userId = topUps.get(i).getUserId();
+                events.add(new OutboxService.NotificationEvent(
+                        "TX-" + transactionId + "-" + userId,
+                        userId,
+                        Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                        "Top-up Successful!",
+                        String.format("Your wallet has been credited with %s coins", topUps.get(i).getAmount())));
+            }
+        }
+        if (!events.isEmpty()) {
+            outboxService.enqueueNotifications(events);
+        }
+        return transactionIds;
+    }
+
+    // Shared by the bulk credit paths: one id-ordered lock query, batched
+    // inserts, one set-based balance UPDATE
+    private List<Long> creditBulk(CoinTransaction.TransactionType type, IdempotencyKey.Scope scope, List<Award> awards) {
+        List<Long> credited = new ArrayList<>(Collections.nCopies(awards.size(), (Long) null));
+        if (awards.isEmpty()) {
+            return credited;
+        }
+        Coins[] amounts = new Coins[awards.size()];
+        for (int i = 0; i < awards.size(); i++) {
+            amounts[i] = requirePositive(awards.get(i).getAmount());
+        }
+
+        // The engine keeps the balances; its flush takes the row locks itself
+        boolean viaEngine = ledgerEngine.isEnabled();
+        Long[] userIds = awards.stream().map(Award::getUserId).distinct().toArray(Long[]::new);
+        Map<Long, Long> walletIdsByUser = walletIdsByUser(userIds, !viaEngine);
+        if (walletIdsByUser.size() < userIds.length) {
+            // Rare: first credit for a user without a wallet goes through normal provisioning
+            for (Long userId : userIds) {
+                if (!walletIdsByUser.containsKey(userId)) {
+                    if (viaEngine) {
+                        getOrCreateCommittedWallet(userId);
+                    } else {
+                        getOrCreateWallet(userId);
+                    }
+                }
+            }
+            entityManager.flush();
+            walletIdsByUser = walletIdsByUser(userIds, !viaEngine);
+        }
+
+        List<Long> transactionIds = jdbcTemplate.queryForList(NEXT_TRANSACTION_IDS_SQL, Long.class, awards.size());
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now());
+
+        // Claim all reference ids in one statement; taken ones are duplicates
+        List<IdempotencyService.BulkClaim> claims = new ArrayList<>();
+        for (int i = 0; i < awards.size(); i++) {
+            Award award = awards.get(i);
+            if (award.getReferenceId() != null && !award.getReferenceId().isBlank()) {
+                claims.add(new IdempotencyService.BulkClaim(award.getUserId(), award.getReferenceId(),
+                        awardFingerprint(award.getAmount(), award.getCategory()), transactionIds.get(i)));
+            }
+        }
+        Set<Long> claimed = idempotencyService.claimBulk(scope, claims);
+        if (viaEngine) {
+            return creditThroughEngine(type, scope, awards, walletIdsByUser, transactionIds, claims, claimed, credited);
+        }
+
+        List<Object[]> rows = new ArrayList<>(awards.size());
+        List<LedgerPosting> postings = new ArrayList<>(awards.size() * 2);
+        Map<Long, Coins> creditsByWallet = new LinkedHashMap<>();
+        for (int i = 0; i < awards.size(); i++) {
+            Award award = awards.get(i);
+            Long walletId = walletIdsByUser.get(award.getUserId());
+            Long transactionId = transactionIds.get(i);
+            if (award.getReferenceId() != null && !award.getReferenceId().isBlank() && !claimed.contains(transactionId)) {
+                continue;
+            }
+
+            rows.add(new Object[]{transactionId, award.getUserId(), walletId, award.getAmount(),
+                    award.getCategory() != null ? award.getCategory().name() : null,
+                    award.getDescription(), award.getReferenceId()});
+            postings.addAll(LedgerService.postingsFor(transactionId, type, null, walletId,
+                    award.getAmount(), createdAt.toLocalDateTime()));
+            creditsByWallet.merge(walletId, amounts[i], Coins::plus);
+            credited.set(i, transactionId);
+        }
+
+        if (rows.isEmpty()) {
+            return credited;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_CREDIT_SQL, rows, bulkBatchSize, (ps, row) -> {
+            ps.setLong(1, (Long) row[0]);
+            ps.setLong(2, (Long) row[1]);
+            ps.setLong(3, (Long) row[2]);
+            ps.setBigDecimal(4, (BigDecimal) row[3]);
+            ps.setString(5, type.name());
+            ps.setString(6, (String) row[4]);
+            ps.setString(7, (String) row[5]);
+            ps.setString(8, (String) row[6]);
+            ps.setTimestamp(9, createdAt);
+        });
+        ledgerService.recordBatch(postings);
+
+        Long[] walletIds = creditsByWallet.keySet().toArray(new Long[0]);
+        BigDecimal[] credits = creditsByWallet.values().stream().map(Coins::toBigDecimal).toArray(BigDecimal[]::new);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(BULK_CREDIT_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", walletIds));
+            ps.setArray(2, con.createArrayOf("numeric", credits));
+            return ps;
+        });
+
+        walletBalanceCache.invalidateOnCompletion(List.of(userIds));
+        leaderboardService.refreshOnCommit(List.of(userIds));
+
+        log.info("Bulk credited {} {} transactions across {} wallets", rows.size(), type, walletIds.length);
+        return credited;
+    }
+
+    // Engine mode: the engine writes the transactions, ledger legs and
+    // balances with its flush. Keys of credits it rejected are given back.
+    private List<Long> creditThroughEngine(CoinTransaction.TransactionType type, IdempotencyKey.Scope scope,
+                                           List<Award> awards, Map<Long, Long> walletIdsByUser,
+                                           List<Long> transactionIds, List<IdempotencyService.BulkClaim> claims,
+                                           Set<Long> claimed, List<Long> credited) {
+        List<LedgerEngine.Command> commands = new ArrayList<>(awards.size());
+        List<Integer> positions = new ArrayList<>(awards.size());
+        for (int i = 0; i < awards.size(); i++) {
+            Award award = awards.get(i);
+            Long transactionId = transactionIds.get(i);
+            if (award.getReferenceId() != null && !award.getReferenceId().isBlank() && !claimed.contains(transactionId)) {
+                continue;
+            }
+            commands.add(LedgerEngine.credit(transactionId, type, walletIdsByUser.get(award.getUserId()),
+                    award.getUserId(), award.getAmount(), award.getCategory(), award.getDescription(),
+                    award.getReferenceId()));
+            positions.add(i);
+        }
+        if (commands.isEmpty()) {
+            return credited;
+        }
+
+        boolean[] accepted = ledgerEngine.creditAll(commands);
+        Map<Long, IdempotencyService.BulkClaim> claimsByTransaction = new HashMap<>();
+        claims.forEach(claim -> claimsByTransaction.put(claim.getTransactionId(), claim));
+        List<IdempotencyService.BulkClaim> unused = new ArrayList<>();
+        int applied = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            long transactionId = commands.get(i).getTransactionId();
+            if (accepted[i]) {
+                credited.set(positions.get(i), transactionId);
+                applied++;
+            } else if (claimsByTransaction.containsKey(transactionId)) {
+                unused.add(claimsByTransaction.get(transactionId));
+            }
+        }
+        idempotencyService.releaseBulk(scope, unused);
+
+        log.info("Bulk credited {} {} transactions through the ledger engine ({} rejected)",
+                applied, type, commands.size() - applied);
+        return credited;
+    }
+
     /**
      * Spend coins (purchasing scenario)
      */
     public CoinTransaction spendCoins(Long userId, BigDecimal amount,
                                       CoinTransaction.TransactionCategory category,
                                       String description, String referenceId) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+        requirePositive(amount);
+
+        if (ledgerEngine.isEnabled()) {
+            Wallet wallet = getWallet(userId);
+            return ledgerEngine.execute(CoinTransaction.builder()
+                    .fromUser(wallet.getUser())
+                    .fromWallet(wallet)
+                    .amount(amount)
+                    .type(CoinTransaction.TransactionType.SPEND)
+                    .category(category)
+                    .description(description)
+                    .referenceId(referenceId)
+                    .status(CoinTransaction.TransactionStatus.COMPLETED)
+                    .build(), null, null, null);
         }
 
+        walletLockManager.lockForTransaction(userId);
         Wallet wallet = getWallet(userId);
 
-        if (wallet.getAvailableBalance().compareTo(amount) < 0) {
+        // Debit first: the conditional update is the real balance check
+        if (!debitIfAvailable(wallet, amount)) {
             throw new RuntimeException("Insufficient balance. Available: " +
                     wallet.getAvailableBalance() + ", Required: " + amount);
         }
@@ -159,10 +566,9 @@ public class WalletService {
                 .build();
 
         CoinTransaction savedTransaction = coinTransactionRepository.save(transaction);
+        ledgerService.record(savedTransaction);
 
-        // Update wallet balance
-        wallet.subtractFromBalance(amount);
-        walletRepository.save(wallet);
+        writeThroughCache(userId);
 
         log.info("User {} spent {} coins for {} (ref: {})", userId, amount, category, referenceId);
 
@@ -203,19 +609,41 @@ public class WalletService {
      * Transfer coins between users
      */
     public CoinTransaction transferCoins(Long fromUserId, Long toUserId, BigDecimal amount, String description) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
-        }
+        requirePositive(amount);
 
         if (fromUserId.equals(toUserId)) {
             throw new IllegalArgumentException("Cannot transfer to self");
         }
 
-        Wallet fromWallet = getWallet(fromUserId);
+        if (ledgerEngine.isEnabled()) {
+            Wallet toWallet = getOrCreateCommittedWallet(toUserId);
+            Wallet fromWallet = getWallet(fromUserId);
+            return ledgerEngine.execute(CoinTransaction.builder()
+                    .fromUser(fromWallet.getUser())
+                    .toUser(toWallet.getUser())
+                    .fromWallet(fromWallet)
+                    .toWallet(toWallet)
+                    .amount(amount)
+                    .type(CoinTransaction.TransactionType.TRANSFER)
+                    .category(CoinTransaction.TransactionCategory.MANUAL_ADJUSTMENT)
+                    .description(description != null ? description : "User-to-user transfer")
+                    .status(CoinTransaction.TransactionStatus.COMPLETED)
+                    .build(),
+                    Notification.NotificationType.ACHIEVEMENT_UNLOCKED, "Coins Received!",
+                    String.format("You received %s coins from %s", amount, fromWallet.getUser().getName()));
+        }
         Wallet toWallet = getOrCreateWallet(toUserId);
+        // Credits to a sharded wallet do not need its lock
+        walletLockManager.lockForTransaction(fromUserId, toWallet.getBalanceShards() > 0 ? null : toUserId);
+        Wallet fromWallet = getWallet(fromUserId);
 
-        if (fromWallet.getAvailableBalance().compareTo(amount) < 0) {
-            throw new RuntimeException("Insufficient balance for transfer");
+        // Touch rows in wallet id order so opposite transfers across nodes cannot deadlock
+        if (fromWallet.getId() < toWallet.getId()) {
+            debitForTransfer(fromWallet, amount);
+            creditWallet(toWallet, amount);
+        } else {
+            creditWallet(toWallet, amount);
+            debitForTransfer(fromWallet, amount);
         }
 
         // Create transaction record
@@ -232,42 +660,196 @@ public class WalletService {
                 .build();
 
         CoinTransaction savedTransaction = coinTransactionRepository.save(transaction);
+        ledgerService.record(savedTransaction);
 
-        // Update balances
-        fromWallet.subtractFromBalance(amount);
-        toWallet.addToBalance(amount);
-
-        walletRepository.save(fromWallet);
-        walletRepository.save(toWallet);
+        if (toWallet.getBalanceShards() > 0) {
+            writeThroughCache(fromUserId);
+            evictCache(toUserId);
+        } else {
+            writeThroughCache(fromUserId, toUserId);
+        }
 
         log.info("Transferred {} coins from user {} to user {}", amount, fromUserId, toUserId);
 
-        // Send notifications
-        try {
-            notificationService.sendNotification(
-                    toUserId,
-                    Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
-                    "Coins Received!",
-                    String.format("You received %s coins from %s", amount, fromWallet.getUser().getName())
-            );
-        } catch (Exception e) {
-            log.warn("Failed to send transfer notification: {}", e.getMessage());
-        }
+        // Notify recipient via the outbox
+        outboxService.enqueueNotification(
+                "TX-" + savedTransaction.getId() + "-" + toUserId,
+                toUserId,
+                Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                "Coins Received!",
+                String.format("You received %s coins from %s", amount, fromWallet.getUser().getName())
+        );
 
         return savedTransaction;
     }
 
+    /**
+     * Pay many recipients from one wallet, all or nothing: one balance check
+     * and debit for the total, batched transaction and ledger inserts, one
+     * set-based credit of the recipient wallets and one outbox insert with a
+     * notification per recipient.
+     *
+     * Like awardCoinsBulk, wallet rows are locked in id order in the
+     * database; only the sender's in-process stripe is taken. Recipients
+     * listed more than once get one transaction per entry.
+     *
+     * @param batchKey optional Idempotency-Key; a batch already made under it
+     *                 is returned again (replayed) instead of paying twice
+     */
+    public BatchTransfer transferBatch(Long fromUserId, List<Payout> payouts, String description, String batchKey) {
+        if (payouts.isEmpty()) {
+            throw new IllegalArgumentException("At least one recipient is required");
+        }
+        if (payouts.size() > maxBatchRecipients) {
+            throw new IllegalArgumentException("A batch transfer can pay at most " + maxBatchRecipients + " recipients");
+        }
+        if (batchKey != null && batchKey.length() > 255) {
+            throw new IllegalArgumentException("Idempotency key is too long");
+        }
+        if (ledgerEngine.isEnabled()) {
+            // The engine keeps the sender's balance in memory; a debit here would bypass it
+            throw new LedgerEngine.UnavailableException("Batch transfers are unavailable while the ledger engine is enabled");
+        }
+
+        Coins total = Coins.ZERO;
+        Coins[] amounts = new Coins[payouts.size()];
+        for (int i = 0; i < payouts.size(); i++) {
+            Payout payout = payouts.get(i);
+            if (fromUserId.equals(payout.getUserId())) {
+                throw new IllegalArgumentException("Cannot transfer to self");
+            }
+            amounts[i] = requirePositive(payout.getAmount());
+            total = total.plus(amounts[i]);
+        }
+
+        walletLockManager.lockForTransaction(fromUserId);
+        Wallet fromWallet = getWallet(fromUserId);
+
+        Long[] userIds = Stream.concat(Stream.of(fromUserId),
+                payouts.stream().map(Payout::getUserId)).distinct().toArray(Long[]::new);
+        Map<Long, Long> walletIdsByUser = walletIdsByUser(userIds, true);
+        if (walletIdsByUser.size() < userIds.length) {
+            for (Long userId : userIds) {
+                if (!walletIdsByUser.containsKey(userId)) {
+                    getOrCreateWallet(userId);
+                }
+            }
+            entityManager.flush();
+            walletIdsByUser = walletIdsByUser(userIds, true);
+        }
+
+        List<Long> transactionIds = jdbcTemplate.queryForList(NEXT_TRANSACTION_IDS_SQL, Long.class, payouts.size());
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now());
+        String reference = "BATCH-" + transactionIds.get(0);
+
+        if (batchKey != null && !batchKey.isBlank()) {
+            String fingerprint = batchFingerprint(payouts, amounts);
+            Set<Long> claimed = idempotencyService.claimBulk(IdempotencyKey.Scope.TRANSFER, List.of(
+                    new IdempotencyService.BulkClaim(fromUserId, batchKey, fingerprint, transactionIds.get(0))));
+            if (claimed.isEmpty()) {
+                // The key's first transaction names the batch it made
+                Long first = idempotencyService.findStored(IdempotencyKey.Scope.TRANSFER, fromUserId, batchKey, fingerprint);
+                return replayBatch(fromUserId, "BATCH-" + first);
+            }
+        }
+
+        // The single balance check: the whole batch or nothing
+        if (!debitIfAvailable(fromWallet, total.toBigDecimal())) {
+            throw new RuntimeException("Insufficient balance for transfer");
+        }
+
+        String rowDescription = description != null ? description : "Batch transfer";
+        List<Object[]> rows = new ArrayList<>(payouts.size());
+        List<LedgerPosting> postings = new ArrayList<>(payouts.size() * 2);
+        Map<Long, Coins> creditsByWallet = new LinkedHashMap<>();
+        Map<Long, Coins> receivedByUser = new LinkedHashMap<>();
+        Map<Long, Long> firstTransactionByUser = new HashMap<>();
+        for (int i = 0; i < payouts.size(); i++) {
+            Long toUserId = payouts.get(i).getUserId();
+            Long toWalletId = walletIdsByUser.get(toUserId);
+            Long transactionId = transactionIds.get(i);
+            BigDecimal amount = amounts[i].toBigDecimal();
+
+            rows.add(new Object[]{transactionId, toUserId, toWalletId, amount});
+            postings.addAll(LedgerService.postingsFor(transactionId, CoinTransaction.TransactionType.TRANSFER,
+                    fromWallet.getId(), toWalletId, amount, createdAt.toLocalDateTime()));
+            creditsByWallet.merge(toWalletId, amounts[i], Coins::plus);
+            receivedByUser.merge(toUserId, amounts[i], Coins::plus);
+            firstTransactionByUser.putIfAbsent(toUserId, transactionId);
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_TRANSFER_SQL, rows, bulkBatchSize, (ps, row) -> {
+            ps.setLong(1, (Long) row[0]);
+            ps.setLong(2, fromUserId);
+            ps.setLong(3, fromWallet.getId());
+            ps.setLong(4, (Long) row[1]);
+            ps.setLong(5, (Long) row[2]);
+            ps.setBigDecimal(6, (BigDecimal) row[3]);
+            ps.setString(7, rowDescription);
+            ps.setString(8, reference);
+            ps.setTimestamp(9, createdAt);
+        });
+        ledgerService.recordBatch(postings);
+
+        Long[] walletIds = creditsByWallet.keySet().toArray(new Long[0]);
+        BigDecimal[] credits = creditsByWallet.values().stream().map(Coins::toBigDecimal).toArray(BigDecimal[]::new);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(BULK_CREDIT_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", walletIds));
+            ps.setArray(2, con.createArrayOf("numeric", credits));
+            return ps;
+        });
+
+        // One notification per recipient, however many entries they had
+        String senderName = fromWallet.getUser().getName();
+        List<OutboxService.NotificationEvent> events = new ArrayList<>(receivedByUser.size());
+        receivedByUser.forEach((toUserId, received) -> events.add(new OutboxService.NotificationEvent(
+                "TX-" + firstTransactionByUser.get(toUserId) + "-" + toUserId,
+                toUserId,
+                Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                "Coins Received!",
+                String.format("You received %s coins from %s", received, senderName))));
+        outboxService.enqueueNotifications(events);
+
+        walletBalanceCache.invalidateOnCompletion(List.of(userIds));
+        leaderboardService.refreshOnCommit(List.of(userIds));
+
+        log.info("Batch transferred {} coins from user {} to {} recipients in {} transactions (ref: {})",
+                total, fromUserId, receivedByUser.size(), rows.size(), reference);
+        return new BatchTransfer(reference, rows.size(), receivedByUser.size(), total, false);
+    }
+
+    private BatchTransfer replayBatch(Long fromUserId, String reference) {
+        return jdbcTemplate.queryForObject(SELECT_BATCH_SQL, (rs, rowNum) -> new BatchTransfer(reference,
+                rs.getInt("transactions"), rs.getInt("recipients"), Coins.of(rs.getBigDecimal("total")), true),
+                reference, fromUserId);
+    }
+
     /**
      * Hold coins in escrow (for marketplace purchases)
      */
     public CoinTransaction holdInEscrow(Long userId, BigDecimal amount, String referenceId, String description) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
+        requirePositive(amount);
+
+        if (ledgerEngine.isEnabled()) {
+            Wallet wallet = getWallet(userId);
+            return ledgerEngine.execute(CoinTransaction.builder()
+                    .fromUser(wallet.getUser())
+                    .fromWallet(wallet)
+                    .amount(amount)
+                    .type(CoinTransaction.TransactionType.ESCROW_HOLD)
+                    .category(CoinTransaction.TransactionCategory.ESCROW_PAYMENT)
+                    .description(description)
+                    .referenceId(referenceId)
+                    .status(CoinTransaction.TransactionStatus.ESCROWED)
+                    .build(), null, null, null);
         }
 
+        walletLockManager.lockForTransaction(userId);
         Wallet wallet = getWallet(userId);
 
-        if (wallet.getAvailableBalance().compareTo(amount) < 0) {
+        // Move from available to pending
+        if (!holdIfAvailable(wallet, amount)) {
             throw new RuntimeException("Insufficient balance for escrow");
         }
 
@@ -286,11 +868,9 @@ public class WalletService {
                 .build();
 
         CoinTransaction savedTransaction = coinTransactionRepository.save(transaction);
+        ledgerService.record(savedTransaction);
 
-        // Move from available to pending
-        wallet.subtractFromBalance(amount);
-        wallet.addToPending(amount);
-        walletRepository.save(wallet);
+        writeThroughCache(userId);
 
         log.info("Held {} coins in escrow for user {} (ref: {})", amount, userId, referenceId);
 
@@ -301,15 +881,11 @@ public class WalletService {
      * Release escrowed coins to seller
      */
     public CoinTransaction releaseEscrow(String referenceId, Long sellerUserId, String description) {
-        // Find the escrow transaction - FIXED METHOD NAME
-        CoinTransaction escrowTransaction = coinTransactionRepository
-                .findEscrowTransactionByReferenceAndTypeAndStatus(referenceId,
-                        CoinTransaction.TransactionType.ESCROW_HOLD,
-                        CoinTransaction.TransactionStatus.ESCROWED)
-                .orElseThrow(() -> new RuntimeException("Escrow transaction not found: " + referenceId));
+        CoinTransaction escrowTransaction = findEscrowHold(referenceId);
+        boolean viaEngine = ledgerEngine.isEnabled();
 
         Wallet buyerWallet = escrowTransaction.getFromWallet();
-        Wallet sellerWallet = getOrCreateWallet(sellerUserId);
+        Wallet sellerWallet = viaEngine ? getOrCreateCommittedWallet(sellerUserId) : getOrCreateWallet(sellerUserId);
         BigDecimal amount = escrowTransaction.getAmount();
 
         // Create release transaction
@@ -325,33 +901,52 @@ public class WalletService {
                 .referenceId(referenceId)
                 .status(CoinTransaction.TransactionStatus.COMPLETED)
                 .build();
+        String message = String.format("You received %s coins for your sale!", amount);
 
-        CoinTransaction savedReleaseTransaction = coinTransactionRepository.save(releaseTransaction);
+        if (viaEngine) {
+            return ledgerEngine.settle(escrowTransaction.getId(), releaseTransaction,
+                    Notification.NotificationType.LOTTERY_WINNER, "Payment Received!", message);
+        }
 
-        // Update escrow transaction status
-        escrowTransaction.setStatus(CoinTransaction.TransactionStatus.COMPLETED);
-        coinTransactionRepository.save(escrowTransaction);
+        // A hot seller's wallet is sharded; its credits do not need the seller's lock
+        walletLockManager.lockForTransaction(buyerWallet.getUser().getId(),
+                sellerWallet.getBalanceShards() > 0 ? null : sellerUserId);
 
-        // Update wallets
-        buyerWallet.releasePending(amount.negate()); // Remove from pending
-        sellerWallet.addToBalance(amount); // Add to seller balance
+        // Claim the hold first so two concurrent releases cannot both pay out
+        if (coinTransactionRepository.transitionStatus(escrowTransaction.getId(),
+                CoinTransaction.TransactionStatus.ESCROWED, CoinTransaction.TransactionStatus.COMPLETED) == 0) {
+            throw new RuntimeException("Escrow transaction already settled: " + referenceId);
+        }
 
-        walletRepository.save(buyerWallet);
-        walletRepository.save(sellerWallet);
+        CoinTransaction savedReleaseTransaction = coinTransactionRepository.save(releaseTransaction);
+        ledgerService.record(savedReleaseTransaction);
+
+        // Update wallets in id order (remove from buyer pending, add to seller balance)
+        if (buyerWallet.getId() < sellerWallet.getId()) {
+            walletRepository.clearPending(buyerWallet.getId(), amount);
+            creditWallet(sellerWallet, amount);
+        } else {
+            creditWallet(sellerWallet, amount);
+            walletRepository.clearPending(buyerWallet.getId(), amount);
+        }
+
+        if (sellerWallet.getBalanceShards() > 0) {
+            writeThroughCache(buyerWallet.getUser().getId());
+            evictCache(sellerUserId);
+        } else {
+            writeThroughCache(buyerWallet.getUser().getId(), sellerUserId);
+        }
 
         log.info("Released {} coins from escrow to seller {} (ref: {})", amount, sellerUserId, referenceId);
 
-        // Notify seller
-        try {
-            notificationService.sendNotification(
-                    sellerUserId,
-                    Notification.NotificationType.LOTTERY_WINNER,
-                    "Payment Received!",
-                    String.format("You received %s coins for your sale!", amount)
-            );
-        } catch (Exception e) {
-            log.warn("Failed to send escrow release notification: {}", e.getMessage());
-        }
+        // Notify seller via the outbox
+        outboxService.enqueueNotification(
+                "TX-" + savedReleaseTransaction.getId() + "-" + sellerUserId,
+                sellerUserId,
+                Notification.NotificationType.LOTTERY_WINNER,
+                "Payment Received!",
+                message
+        );
 
         return savedReleaseTransaction;
     }
@@ -360,13 +955,11 @@ public class WalletService {
      * Refund escrowed coins to buyer
      */
     public CoinTransaction refundEscrow(String referenceId, String reason) {
-        // Find the escrow transaction - FIXED METHOD NAME
-        CoinTransaction escrowTransaction = coinTransactionRepository
-                .findEscrowTransactionByReferenceAndTypeAndStatus(referenceId,
-                        CoinTransaction.TransactionType.ESCROW_HOLD,
-                        CoinTransaction.TransactionStatus.ESCROWED)
-                .orElseThrow(() -> new RuntimeException("Escrow transaction not found: " + referenceId));
+        return refundHold(findEscrowHold(referenceId), reason);
+    }
 
+    private CoinTransaction refundHold(CoinTransaction escrowTransaction, String reason) {
+        String referenceId = escrowTransaction.getReferenceId();
         Wallet buyerWallet = escrowTransaction.getFromWallet();
         BigDecimal amount = escrowTransaction.getAmount();
 
@@ -381,33 +974,198 @@ public class WalletService {
                 .referenceId(referenceId)
                 .status(CoinTransaction.TransactionStatus.COMPLETED)
                 .build();
+        String message = String.format("Your %s coins have been refunded. Reason: %s", amount, reason);
 
-        CoinTransaction savedRefundTransaction = coinTransactionRepository.save(refundTransaction);
+        if (ledgerEngine.isEnabled()) {
+            return ledgerEngine.settle(escrowTransaction.getId(), refundTransaction,
+                    Notification.NotificationType.SYSTEM_MAINTENANCE, "Refund Processed", message);
+        }
 
-        // Update escrow transaction status
-        escrowTransaction.setStatus(CoinTransaction.TransactionStatus.CANCELLED);
-        coinTransactionRepository.save(escrowTransaction);
+        walletLockManager.lockForTransaction(buyerWallet.getUser().getId());
+
+        // Claim the hold first so a refund cannot race a release
+        if (coinTransactionRepository.transitionStatus(escrowTransaction.getId(),
+                CoinTransaction.TransactionStatus.ESCROWED, CoinTransaction.TransactionStatus.CANCELLED) == 0) {
+            throw new RuntimeException("Escrow transaction already settled: " + referenceId);
+        }
+
+        CoinTransaction savedRefundTransaction = coinTransactionRepository.save(refundTransaction);
+        ledgerService.record(savedRefundTransaction);
 
         // Release from pending back to available
-        buyerWallet.releasePending(amount);
-        walletRepository.save(buyerWallet);
+        walletRepository.returnPending(buyerWallet.getId(), amount);
+
+        writeThroughCache(buyerWallet.getUser().getId());
 
         log.info("Refunded {} coins from escrow to buyer {} (ref: {})",
                 amount, buyerWallet.getUser().getId(), referenceId);
 
-        // Notify buyer
-        try {
-            notificationService.sendNotification(
-                    buyerWallet.getUser().getId(),
+        // Notify buyer via the outbox
+        outboxService.enqueueNotification(
+                "TX-" + savedRefundTransaction.getId() + "-" + buyerWallet.getUser().getId(),
+                buyerWallet.getUser().getId(),
+                Notification.NotificationType.SYSTEM_MAINTENANCE,
+                "Refund Processed",
+                message
+        );
+
+        return savedRefundTransaction;
+    }
+
+    // With the ledger engine on, a hold it accepted may not be flushed yet
+    private CoinTransaction findEscrowHold(String referenceId) {
+        Optional<CoinTransaction> hold = findEscrowed(referenceId);
+        if (hold.isEmpty() && ledgerEngine.isEnabled()) {
+            ledgerEngine.awaitFlushed();
+            hold = findEscrowed(referenceId);
+        }
+        return hold.orElseThrow(() -> new RuntimeException("Escrow transaction not found: " + referenceId));
+    }
+
+    private Optional<CoinTransaction> findEscrowed(String referenceId) {
+        return coinTransactionRepository.findEscrowTransactionByReferenceAndTypeAndStatus(referenceId,
+                CoinTransaction.TransactionType.ESCROW_HOLD, CoinTransaction.TransactionStatus.ESCROWED);
+    }
+
+    /**
+     * Refund one batch of escrow holds older than the cutoff whose order was
+     * cancelled or never shipped, with the same effect as
+     * {@link #refundEscrow} on each: the hold is CANCELLED, a REFUND
+     * transaction and its ledger legs are written, and the coins move from
+     * pending back to balance. In the same transaction a still open order is
+     * marked EXPIRED and its stock is given back. Everything is set-based:
+     * one claim, one wallet lock query, JDBC batches and one wallet UPDATE
+     * per batch. Refunds only add to the available balance, so the
+     * in-process wallet stripes are not taken. With the ledger engine on,
+     * each hold is refunded through the engine instead.
+     */
+    public ExpiredHoldRefunds refundExpiredEscrowHolds(LocalDateTime cutoff, int limit, String reason) {
+        if (ledgerEngine.isEnabled()) {
+            return refundExpiredThroughEngine(cutoff, limit, reason);
+        }
+        List<Object[]> holds = jdbcTemplate.query(CLAIM_EXPIRED_HOLDS_SQL, (rs, rowNum) -> new Object[]{
+                rs.getLong("id"), rs.getLong("from_user_id"), rs.getLong("from_wallet_id"),
+                rs.getBigDecimal("amount"), rs.getString("reference_id"), rs.getLong("order_id")
+        }, Timestamp.valueOf(cutoff), limit);
+        if (holds.isEmpty()) {
+            return new ExpiredHoldRefunds(0, Coins.ZERO, 0);
+        }
+        expireOrders(holds.stream().map(hold -> (Long) hold[5]).toList(), reason);
+
+        Map<Long, Coins> refundsByWallet = new TreeMap<>();
+        Set<Long> userIds = new HashSet<>();
+        for (Object[] hold : holds) {
+            refundsByWallet.merge((Long) hold[2], Coins.of((BigDecimal) hold[3]), Coins::plus);
+            userIds.add((Long) hold[1]);
+        }
+        Long[] walletIds = refundsByWallet.keySet().toArray(new Long[0]);
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LOCK_WALLETS_BY_ID_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", walletIds));
+            return ps;
+        }, rs -> {
+        });
+
+        List<Long> refundIds = jdbcTemplate.queryForList(NEXT_TRANSACTION_IDS_SQL, Long.class, holds.size());
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now());
+        String description = "Refund: " + reason;
+
+        List<Object[]> refunds = new ArrayList<>(holds.size());
+        List<LedgerPosting> postings = new ArrayList<>(holds.size() * 2);
+        List<OutboxService.NotificationEvent> notifications = new ArrayList<>(holds.size());
+        Coins total = Coins.ZERO;
+        for (int i = 0; i < holds.size(); i++) {
+            Object[] hold = holds.get(i);
+            Long refundId = refundIds.get(i);
+            Long userId = (Long) hold[1];
+            Long walletId = (Long) hold[2];
+            BigDecimal amount = (BigDecimal) hold[3];
+
+            refunds.add(new Object[]{refundId, userId, walletId, amount, hold[4]});
+            postings.add(bulkLeg(refundId, CoinTransaction.TransactionType.REFUND, walletId,
+                    LedgerPosting.Account.PENDING, amount.negate(), createdAt));
+            postings.add(bulkLeg(refundId, CoinTransaction.TransactionType.REFUND, walletId,
+                    LedgerPosting.Account.AVAILABLE, amount, createdAt));
+            notifications.add(new OutboxService.NotificationEvent(
+                    "TX-" + refundId + "-" + userId,
+                    userId,
                     Notification.NotificationType.SYSTEM_MAINTENANCE,
                     "Refund Processed",
-                    String.format("Your %s coins have been refunded. Reason: %s", amount, reason)
-            );
-        } catch (Exception e) {
-            log.warn("Failed to send refund notification: {}", e.getMessage());
+                    String.format("Your %s coins have been refunded. Reason: %s", amount, reason)));
+            total = total.plus(Coins.of(amount));
         }
 
-        return savedRefundTransaction;
+        jdbcTemplate.batchUpdate(INSERT_REFUND_SQL, refunds, bulkBatchSize, (ps, refund) -> {
+            ps.setLong(1, (Long) refund[0]);
+            ps.setLong(2, (Long) refund[1]);
+            ps.setLong(3, (Long) refund[2]);
+            ps.setBigDecimal(4, (BigDecimal) refund[3]);
+            ps.setString(5, description);
+            ps.setString(6, (String) refund[4]);
+            ps.setTimestamp(7, createdAt);
+        });
+        ledgerService.recordBatch(postings);
+
+        BigDecimal[] amounts = refundsByWallet.values().stream().map(Coins::toBigDecimal).toArray(BigDecimal[]::new);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(BULK_RETURN_PENDING_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", walletIds));
+            ps.setArray(2, con.createArrayOf("numeric", amounts));
+            return ps;
+        });
+
+        outboxService.enqueueNotifications(notifications);
+        walletBalanceCache.invalidateOnCompletion(List.copyOf(userIds));
+        leaderboardService.refreshOnCommit(userIds);
+
+        return new ExpiredHoldRefunds(holds.size(), total, walletIds.length);
+    }
+
+    // The engine decides between a refund and a racing release; its flush
+    // marks the hold CANCELLED
+    private ExpiredHoldRefunds refundExpiredThroughEngine(LocalDateTime cutoff, int limit, String reason) {
+        Map<Long, Long> orderIdsByHold = new HashMap<>();
+        jdbcTemplate.query(SELECT_EXPIRED_HOLDS_SQL, rs -> {
+            orderIdsByHold.put(rs.getLong("id"), rs.getLong("order_id"));
+        }, Timestamp.valueOf(cutoff), limit);
+
+        int refunded = 0;
+        Coins total = Coins.ZERO;
+        Set<Long> walletIds = new HashSet<>();
+        List<Long> orderIds = new ArrayList<>();
+        for (CoinTransaction hold : coinTransactionRepository.findAllById(orderIdsByHold.keySet())) {
+            try {
+                refundHold(hold, reason);
+                refunded++;
+                total = total.plus(Coins.of(hold.getAmount()));
+                walletIds.add(hold.getFromWallet().getId());
+                orderIds.add(orderIdsByHold.get(hold.getId()));
+            } catch (RuntimeException e) {
+                log.warn("Expired escrow hold {} was not refunded: {}", hold.getId(), e.getMessage());
+            }
+        }
+        expireOrders(orderIds, reason);
+        // So the next batch does not pick the same holds again
+        ledgerEngine.awaitFlushed();
+        return new ExpiredHoldRefunds(refunded, total, walletIds.size());
+    }
+
+    private void expireOrders(List<Long> orderIds, String reason) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        Long[] ids = orderIds.toArray(new Long[0]);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(RESTOCK_EXPIRED_ORDERS_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", ids));
+            return ps;
+        });
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(EXPIRE_ORDERS_SQL);
+            ps.setString(1, reason);
+            ps.setArray(2, con.createArrayOf("bigint", ids));
+            return ps;
+        });
     }
 
     /**
@@ -424,15 +1182,24 @@ public class WalletService {
         return coinTransactionRepository.findUserTransactionsWithPagination(userId, page * size, size);
     }
 
+    /**
+     * Get one keyset page of transaction history, newest first
+     */
+    public List<CoinTransaction> getTransactionHistory(Long userId, TransactionCursor cursor, int limit) {
+        return coinTransactionRepository.findUserTransactionsBefore(userId, cursor.getCreatedAt(), cursor.getId(), limit);
+    }
+
     /**
      * Top up wallet with real money (placeholder for payment integration)
      */
     public CoinTransaction topUpWallet(Long userId, BigDecimal amount, String paymentMethod, String transactionId) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive");
-        }
+        requirePositive(amount);
 
-        Wallet wallet = getOrCreateWallet(userId);
+        boolean viaEngine = ledgerEngine.isEnabled();
+        if (!viaEngine) {
+            walletLockManager.lockForTransaction(userId);
+        }
+        Wallet wallet = viaEngine ? getOrCreateCommittedWallet(userId) : getOrCreateWallet(userId);
         User user = wallet.getUser();
 
         // In real implementation, verify payment with Stripe/PayPal here
@@ -447,27 +1214,195 @@ public class WalletService {
                 .referenceId(transactionId)
                 .status(CoinTransaction.TransactionStatus.COMPLETED)
                 .build();
+        String message = String.format("Your wallet has been credited with %s coins", amount);
+
+        if (viaEngine) {
+            return ledgerEngine.execute(transaction, Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                    "Top-up Successful!", message);
+        }
 
         CoinTransaction savedTransaction = coinTransactionRepository.save(transaction);
+        ledgerService.record(savedTransaction);
 
         // Update wallet
-        wallet.addToBalance(amount);
-        walletRepository.save(wallet);
+        creditWallet(wallet, amount);
+
+        writeThroughCache(userId);
 
         log.info("Topped up {} coins for user {} via {}", amount, userId, paymentMethod);
 
-        // Notify user
+        // Notify user via the outbox
+        outboxService.enqueueNotification(
+                "TX-" + savedTransaction.getId() + "-" + userId,
+                userId,
+                Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
+                "Top-up Successful!",
+                message
+        );
+
+        return savedTransaction;
+    }
+
+    private void debitForTransfer(Wallet fromWallet, BigDecimal amount) {
+        if (!debitIfAvailable(fromWallet, amount)) {
+            throw new RuntimeException("Insufficient balance for transfer");
+        }
+    }
+
+    private void creditWallet(Wallet wallet, BigDecimal amount) {
+        if (!walletShardService.credit(wallet, amount)) {
+            walletRepository.credit(wallet.getId(), amount);
+        }
+    }
+
+    // A sharded wallet's row may not cover the amount on its own; fold its
+    // shards in and try once more
+    private boolean debitIfAvailable(Wallet wallet, BigDecimal amount) {
+        if (walletRepository.debitIfAvailable(wallet.getId(), amount) == 1) {
+            return true;
+        }
+        return walletShardService.fold(wallet.getId()) && walletRepository.debitIfAvailable(wallet.getId(), amount) == 1;
+    }
+
+    private boolean holdIfAvailable(Wallet wallet, BigDecimal amount) {
+        if (walletRepository.holdIfAvailable(wallet.getId(), amount) == 1) {
+            return true;
+        }
+        return walletShardService.fold(wallet.getId()) && walletRepository.holdIfAvailable(wallet.getId(), amount) == 1;
+    }
+
+    // Amounts enter as BigDecimal from the API; reject non-positive and sub-cent values up front
+    private static Coins requirePositive(BigDecimal amount) {
+        Coins coins;
         try {
-            notificationService.sendNotification(
-                    userId,
-                    Notification.NotificationType.ACHIEVEMENT_UNLOCKED,
-                    "Top-up Successful!",
-                    String.format("Your wallet has been credited with %s coins", amount)
-            );
-        } catch (Exception e) {
-            log.warn("Failed to send top-up notification: {}", e.getMessage());
+            coins = Coins.of(amount);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (coins == null || !coins.isPositive()) {
+            throw new IllegalArgumentException("Amount must be positive");
         }
+        return coins;
+    }
 
-        return savedTransaction;
+    private static String awardFingerprint(BigDecimal amount, CoinTransaction.TransactionCategory category) {
+        return amount.stripTrailingZeros().toPlainString() + "|" + category;
+    }
+
+    // Every (recipient, amount) pair, sorted, so only the same batch in any order replays under a key;
+    // IdempotencyService stores its SHA-256
+    private static String batchFingerprint(List<Payout> payouts, Coins[] amounts) {
+        Integer[] order = new Integer[payouts.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer, Long>comparing(i -> payouts.get(i).getUserId())
+                .thenComparingLong(i -> amounts[i].minorUnits()));
+        StringBuilder fingerprint = new StringBuilder("BATCH");
+        for (int i : order) {
+            fingerprint.append('|').append(payouts.get(i).getUserId()).append(':')
+                    .append(amounts[i].toBigDecimal().stripTrailingZeros().toPlainString());
+        }
+        return fingerprint.toString();
+    }
+
+    // Re-read balances changed in SQL and publish them to the cache (and leaderboard) on commit
+    private void writeThroughCache(Long... userIds) {
+        for (Long userId : userIds) {
+            jdbcTemplate.query(SELECT_BALANCE_VIEW_SQL, this::mapBalanceView, userId)
+                    .forEach(walletBalanceCache::writeThrough);
+        }
+        leaderboardService.refreshOnCommit(List.of(userIds));
+    }
+
+    // For wallets whose stripe is not held (sharded recipients): a write-through
+    // could land after a newer one from another thread, so drop the entry instead
+    private void evictCache(Long... userIds) {
+        walletBalanceCache.invalidateOnCompletion(List.of(userIds));
+        leaderboardService.refreshOnCommit(List.of(userIds));
+    }
+
+    private WalletBalanceView mapBalanceView(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        return new WalletBalanceView(rs.getLong("id"), rs.getLong("user_id"), Coins.of(rs.getBigDecimal("balance")),
+                Coins.of(rs.getBigDecimal("pending_balance")), Coins.of(rs.getBigDecimal("total_earned")),
+                Coins.of(rs.getBigDecimal("total_spent")),
+                createdAt != null ? createdAt.toLocalDateTime() : null,
+                updatedAt != null ? updatedAt.toLocalDateTime() : null);
+    }
+
+    private Map<Long, Long> walletIdsByUser(Long[] userIds, boolean lock) {
+        Map<Long, Long> walletIdsByUser = new HashMap<>(userIds.length * 2);
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(lock ? LOCK_WALLETS_BY_USER_SQL : SELECT_WALLETS_BY_USER_SQL);
+            ps.setArray(1, con.createArrayOf("bigint", userIds));
+            return ps;
+        }, rs -> {
+            walletIdsByUser.put(rs.getLong("user_id"), rs.getLong("id"));
+        });
+        return walletIdsByUser;
+    }
+
+    private LedgerPosting bulkLeg(Long transactionId, CoinTransaction.TransactionType type, Long walletId,
+                                  LedgerPosting.Account account, BigDecimal amount, Timestamp createdAt) {
+        return LedgerPosting.builder()
+                .transactionId(transactionId)
+                .walletId(walletId)
+                .account(account)
+                .transactionType(type)
+                .amount(amount)
+                .createdAt(createdAt.toLocalDateTime())
+                .build();
+    }
+
+    /**
+     * One entry of a bulk credit (award or top-up)
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Award {
+        private Long userId;
+        private BigDecimal amount;
+        private CoinTransaction.TransactionCategory category;
+        private String description;
+        private String referenceId;
+    }
+
+    /**
+     * One recipient of a batch transfer
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Payout {
+        private Long userId;
+        private BigDecimal amount;
+    }
+
+    /**
+     * Outcome of a batch transfer; all its transactions share the reference
+     */
+    @Data
+    @AllArgsConstructor
+    public static class BatchTransfer {
+        private String referenceId;
+        private int transactions;
+        private int recipients;
+        private Coins total;
+        // True when an earlier batch with the same Idempotency-Key was returned
+        private boolean replayed;
+    }
+
+    /**
+     * Outcome of one expired-escrow refund batch
+     */
+    @Data
+    @AllArgsConstructor
+    public static class ExpiredHoldRefunds {
+        private int refunded;
+        private Coins amount;
+        private int wallets;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,159 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sharded balances for hot wallets (popular sellers receiving many escrow
+ * releases at once).
+ *
+ * A sharded wallet takes credits into one of N wallet_balance_shards rows
+ * picked at random instead of its wallets row, so concurrent credits only
+ * collide when they pick the same shard. The effective balance is the row
+ * plus its shards (the wallet_balances view). A debit the row alone cannot
+ * cover folds the shards in first; the scheduled consolidation folds them in
+ * the background so the row stays close to the real balance.
+ *
+ * Every path locks the wallets row before any shard: a credit takes it FOR
+ * SHARE, so credits still run side by side, and a fold takes it FOR NO KEY
+ * UPDATE (the lock its own UPDATE needs) and then the shards in shard order.
+ * A transaction that credits a shard and later folds the same wallet
+ * therefore cannot deadlock with a concurrent fold.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WalletShardService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletRepository walletRepository;
+
+    @Value("${wallet.shards.max:64}")
+    private int maxShards;
+
+    @Value("${wallet.shards.consolidate-batch-size:500}")
+    private int consolidateBatchSize;
+
+    private static final String CREDIT_SHARD_SQL =
+            "WITH w AS (SELECT id FROM wallets WHERE id = ? FOR SHARE) " +
+            "UPDATE wallet_balance_shards s SET balance = s.balance + ?, total_earned = s.total_earned + ?, " +
+            "updated_at = NOW() FROM w WHERE s.wallet_id = w.id AND s.shard = ?";
+
+    // Zero the shards and add what they held to the wallet row, in one statement.
+    // The shard locks sit above the join with w, so the wallet row is locked first;
+    // FOR UPDATE waits for in-flight credits and then sees their amounts.
+    private static final String FOLD_SQL =
+            "WITH w AS (SELECT id FROM wallets WHERE id = ? FOR NO KEY UPDATE), " +
+            "old AS (SELECT s.wallet_id, s.shard, s.balance, s.total_earned FROM wallet_balance_shards s " +
+            "JOIN w ON s.wallet_id = w.id WHERE s.balance <> 0 OR s.total_earned <> 0 " +
+            "ORDER BY s.shard FOR UPDATE OF s), " +
+            "drained AS (" +
+            "UPDATE wallet_balance_shards s SET balance = 0, total_earned = 0, updated_at = NOW() " +
+            "FROM old WHERE s.wallet_id = old.wallet_id AND s.shard = old.shard " +
+            "RETURNING old.balance, old.total_earned) " +
+            "UPDATE wallets SET balance = balance + d.balance, total_earned = total_earned + d.total_earned, " +
+            "updated_at = NOW() " +
+            "FROM (SELECT SUM(balance) AS balance, SUM(total_earned) AS total_earned, COUNT(*) AS shards FROM drained) d " +
+            "WHERE id = ? AND d.shards > 0";
+
+    private static final String UNFOLDED_WALLETS_SQL =
+            "SELECT DISTINCT wallet_id FROM wallet_balance_shards WHERE balance <> 0 OR total_earned <> 0 LIMIT ?";
+
+    private static final String SET_SHARD_COUNT_SQL = "UPDATE wallets SET balance_shards = ? WHERE id = ?";
+
+    private static final String CREATE_SHARDS_SQL =
+            "INSERT INTO wallet_balance_shards (wallet_id, shard) " +
+            "SELECT ?, g FROM generate_series(0, ? - 1) AS g ON CONFLICT (wallet_id, shard) DO NOTHING";
+
+    private static final String SHARDED_WALLETS_SQL =
+            "SELECT id, user_id, balance, balance_shards FROM wallet_balances WHERE balance_shards > 0 ORDER BY id";
+
+    /**
+     * Credit a random shard of a sharded wallet
+     *
+     * @return false if the wallet is not sharded; the caller credits the row
+     */
+    public boolean credit(Wallet wallet, BigDecimal amount) {
+        int shards = wallet.getBalanceShards();
+        if (shards <= 0) {
+            return false;
+        }
+        int shard = ThreadLocalRandom.current().nextInt(shards);
+        return jdbcTemplate.update(CREDIT_SHARD_SQL, wallet.getId(), amount, amount, shard) == 1;
+    }
+
+    /**
+     * Move one wallet's shard balances into its row
+     *
+     * @return true if anything was moved
+     */
+    public boolean fold(Long walletId) {
+        return jdbcTemplate.update(FOLD_SQL, walletId, walletId) > 0;
+    }
+
+    /**
+     * Fold shards of all wallets that have unfolded credits, one wallet per
+     * statement so no run holds more than one wallet's locks
+     */
+    @Scheduled(fixedDelayString = "${wallet.shards.consolidate-interval-ms:10000}")
+    public void consolidate() {
+        try {
+            List<Long> walletIds = jdbcTemplate.queryForList(UNFOLDED_WALLETS_SQL, Long.class, consolidateBatchSize);
+            int folded = 0;
+            for (Long walletId : walletIds) {
+                if (fold(walletId)) {
+                    folded++;
+                }
+            }
+            if (folded > 0) {
+                log.debug("Consolidated balance shards of {} wallets", folded);
+            }
+        } catch (Exception e) {
+            log.error("Balance shard consolidation failed", e);
+        }
+    }
+
+    /**
+     * Turn sharding on (shards > 0), resize it, or turn it off (0). Turning
+     * it off folds the shards straight away; a credit still in flight lands
+     * in its shard and is folded by the next consolidation.
+     */
+    @Transactional
+    public Map<String, Object> configure(Long userId, int shards) {
+        if (shards < 0 || shards > maxShards) {
+            throw new IllegalArgumentException("Shard count must be between 0 and " + maxShards);
+        }
+        Wallet wallet = walletRepository.findByUserId(userId)
+                .orElseThrow(() -> new IllegalArgumentException("Wallet not found for user: " + userId));
+
+        if (shards > 0) {
+            jdbcTemplate.update(CREATE_SHARDS_SQL, wallet.getId(), shards);
+        }
+        jdbcTemplate.update(SET_SHARD_COUNT_SQL, shards, wallet.getId());
+        if (shards == 0) {
+            fold(wallet.getId());
+        }
+        log.info("Wallet {} of user {} now has {} balance shards", wallet.getId(), userId, shards);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("walletId", wallet.getId());
+        result.put("userId", userId);
+        result.put("shards", shards);
+        return result;
+    }
+
+    public List<Map<String, Object>> getShardedWallets() {
+        return jdbcTemplate.queryForList(SHARDED_WALLETS_SQL);
+    }
+}
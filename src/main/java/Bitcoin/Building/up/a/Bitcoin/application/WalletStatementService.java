@@ -0,0 +1,369 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Monthly wallet statements (V22): opening balance, available balance in
+ * and out per transaction category, closing balance.
+ *
+ * Every committed coin transaction appends per-wallet deltas by trigger;
+ * {@link #fold()} moves them into wallet_statement_lines. Once a month has
+ * ended (plus statements.seal.grace-hours) and its deltas are folded,
+ * {@link #seal()} writes a statement with opening and closing balances for
+ * every wallet active in it, chained from the wallet's previous statement.
+ * Months after the last sealed one are computed from the lines and the
+ * unfolded deltas on read, so "this month" is exact and never scans the
+ * transaction history.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WalletStatementService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletRepository walletRepository;
+    private final CoinTransactionRepository coinTransactionRepository;
+
+    @Value("${statements.fold.batch-size:5000}")
+    private int foldBatchSize;
+
+    @Value("${statements.fold.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    @Value("${statements.seal.grace-hours:24}")
+    private int sealGraceHours;
+
+    @Value("${statements.max-months:36}")
+    private int maxMonths;
+
+    private static final String FOLD_SQL =
+            "WITH moved AS (" +
+            "DELETE FROM wallet_statement_deltas WHERE id IN (" +
+            "SELECT id FROM wallet_statement_deltas ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING wallet_id, month, category, tx_count, credits, debits), " +
+            "folded AS (" +
+            "INSERT INTO wallet_statement_lines AS l (wallet_id, month, category, tx_count, credits, debits) " +
+            "SELECT wallet_id, month, category, SUM(tx_count), SUM(credits), SUM(debits) FROM moved " +
+            "GROUP BY wallet_id, month, category " +
+            "ON CONFLICT (wallet_id, month, category) DO UPDATE SET " +
+            "tx_count = l.tx_count + EXCLUDED.tx_count, credits = l.credits + EXCLUDED.credits, " +
+            "debits = l.debits + EXCLUDED.debits " +
+            "RETURNING 1) " +
+            "SELECT COUNT(*) FROM moved";
+
+    private static final String LAST_SEALED_MONTH_SQL = "SELECT MAX(month) FROM wallet_statement_months";
+
+    private static final String FIRST_ACTIVE_MONTH_SQL = "SELECT MIN(month) FROM wallet_statement_lines";
+
+    private static final String UNFOLDED_THROUGH_SQL =
+            "SELECT EXISTS (SELECT 1 FROM wallet_statement_deltas WHERE month <= ?)";
+
+    // Balance of archived history per wallet, same legs as the trigger
+    private static final String ARCHIVED_BALANCE_EXPR =
+            "(SELECT COALESCE(SUM(CASE " +
+            "WHEN a.side = 'TO' AND a.type IN ('EARN', 'TOP_UP', 'TRANSFER', 'ESCROW_RELEASE', 'REFUND') THEN a.amount " +
+            "WHEN a.side = 'FROM' AND a.type IN ('SPEND', 'TRANSFER', 'ESCROW_HOLD') THEN -a.amount " +
+            "ELSE 0 END), 0) FROM coin_transaction_archived_legs a WHERE a.wallet_id = %s)";
+
+    // Statements for every wallet active in the month and the watermark, in one
+    // statement; opening is the wallet's previous closing (or its archived balance)
+    private static final String SEAL_SQL =
+            "WITH flows AS (" +
+            "SELECT wallet_id, SUM(tx_count) AS tx_count, SUM(credits) AS credits, SUM(debits) AS debits " +
+            "FROM wallet_statement_lines WHERE month = ? GROUP BY wallet_id), " +
+            "sealed AS (" +
+            "INSERT INTO wallet_statements (wallet_id, month, opening_balance, closing_balance, tx_count, credits, debits, sealed_at) " +
+            "SELECT f.wallet_id, ?, o.balance, o.balance + f.credits - f.debits, f.tx_count, f.credits, f.debits, NOW() " +
+            "FROM flows f JOIN wallets w ON w.id = f.wallet_id " +
+            "CROSS JOIN LATERAL (SELECT COALESCE(" +
+            "(SELECT s.closing_balance FROM wallet_statements s WHERE s.wallet_id = f.wallet_id AND s.month < ? " +
+            "ORDER BY s.month DESC LIMIT 1), " +
+            String.format(ARCHIVED_BALANCE_EXPR, "f.wallet_id") + ") AS balance) o " +
+            "ON CONFLICT (wallet_id, month) DO NOTHING RETURNING 1) " +
+            "INSERT INTO wallet_statement_months (month, wallets, sealed_at) " +
+            "SELECT ?, COUNT(*), NOW() FROM sealed ON CONFLICT (month) DO NOTHING";
+
+    private static final String STATEMENTS_SQL =
+            "SELECT month, opening_balance, closing_balance, tx_count, credits, debits " +
+            "FROM wallet_statements WHERE wallet_id = ? AND month >= ? AND month <= ? ORDER BY month";
+
+    private static final String BALANCE_BEFORE_SQL =
+            "SELECT COALESCE(" +
+            "(SELECT closing_balance FROM wallet_statements WHERE wallet_id = ? AND month < ? ORDER BY month DESC LIMIT 1), " +
+            String.format(ARCHIVED_BALANCE_EXPR, "?") + ")";
+
+    // Folded lines plus deltas not folded yet
+    private static final String OPEN_LINES_SQL =
+            "SELECT month, category, SUM(tx_count) AS tx_count, SUM(credits) AS credits, SUM(debits) AS debits FROM (" +
+            "SELECT month, category, tx_count, credits, debits FROM wallet_statement_lines WHERE wallet_id = ? AND month > ? " +
+            "UNION ALL " +
+            "SELECT month, category, tx_count, credits, debits FROM wallet_statement_deltas WHERE wallet_id = ? AND month > ?" +
+            ") l GROUP BY month, category ORDER BY month, category";
+
+    private static final String MONTH_LINES_SQL =
+            "SELECT category, SUM(tx_count) AS tx_count, SUM(credits) AS credits, SUM(debits) AS debits FROM (" +
+            "SELECT category, tx_count, credits, debits FROM wallet_statement_lines WHERE wallet_id = ? AND month = ? " +
+            "UNION ALL " +
+            "SELECT category, tx_count, credits, debits FROM wallet_statement_deltas WHERE wallet_id = ? AND month = ?" +
+            ") l GROUP BY category ORDER BY category";
+
+    /**
+     * Fold journalled deltas into the statement lines
+     */
+    @Scheduled(fixedDelayString = "${statements.fold.interval-ms:5000}")
+    public void fold() {
+        try {
+            long folded = 0;
+            for (int round = 0; round < maxBatchesPerRun; round++) {
+                Integer moved = jdbcTemplate.queryForObject(FOLD_SQL, Integer.class, foldBatchSize);
+                folded += moved == null ? 0 : moved;
+                if (moved == null || moved < foldBatchSize) {
+                    break;
+                }
+            }
+            if (folded > 0) {
+                log.debug("Folded {} wallet statement deltas", folded);
+            }
+        } catch (Exception e) {
+            log.error("Wallet statement fold failed", e);
+        }
+    }
+
+    /**
+     * Seal every ended month in order, stopping at the first one still in
+     * its grace period or with deltas not folded yet
+     */
+    @Scheduled(initialDelayString = "${statements.seal.initial-delay-ms:60000}",
+            fixedDelayString = "${statements.seal.interval-ms:3600000}")
+    public void seal() {
+        try {
+            LocalDate lastSealed = jdbcTemplate.queryForObject(LAST_SEALED_MONTH_SQL, LocalDate.class);
+            YearMonth month = lastSealed != null
+                    ? YearMonth.from(lastSealed).plusMonths(1)
+                    : firstActiveMonth();
+            LocalDateTime sealableBefore = LocalDateTime.now().minusHours(sealGraceHours);
+
+            while (month != null && !month.plusMonths(1).atDay(1).atStartOfDay().isAfter(sealableBefore)) {
+                Date start = Date.valueOf(month.atDay(1));
+                if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(UNFOLDED_THROUGH_SQL, Boolean.class, start))) {
+                    log.debug("Statements for {} wait for unfolded deltas", month);
+                    return;
+                }
+                jdbcTemplate.update(SEAL_SQL, start, start, start, start);
+                log.info("Sealed wallet statements for {}", month);
+                month = month.plusMonths(1);
+            }
+        } catch (Exception e) {
+            log.error("Wallet statement sealing failed", e);
+        }
+    }
+
+    /**
+     * Statements of the last N months, newest first. Months without activity
+     * are left out, except the current one.
+     */
+    public List<WalletStatement> getStatements(Long userId, int months) {
+        if (months < 1 || months > maxMonths) {
+            throw new IllegalArgumentException("months must be between 1 and " + maxMonths);
+        }
+        Long walletId = walletIdOf(userId);
+        YearMonth current = YearMonth.now();
+        YearMonth from = current.minusMonths(months - 1);
+        YearMonth lastSealed = lastSealedMonth();
+
+        TreeMap<YearMonth, WalletStatement> statements = new TreeMap<>(Comparator.reverseOrder());
+        if (lastSealed != null && !lastSealed.isBefore(from)) {
+            jdbcTemplate.query(STATEMENTS_SQL, rs -> {
+                YearMonth month = YearMonth.from(rs.getDate("month").toLocalDate());
+                statements.put(month, new WalletStatement(month.toString(), true,
+                        Coins.of(rs.getBigDecimal("opening_balance")), Coins.of(rs.getBigDecimal("closing_balance")),
+                        Coins.of(rs.getBigDecimal("credits")), Coins.of(rs.getBigDecimal("debits")),
+                        rs.getLong("tx_count"), null));
+            }, walletId, Date.valueOf(from.atDay(1)), Date.valueOf(lastSealed.atDay(1)));
+        }
+
+        TreeMap<YearMonth, WalletStatement> open = openStatements(walletId, lastSealed);
+        open.forEach((month, statement) -> {
+            if (!month.isBefore(from) && !month.isAfter(current)) {
+                statement.setCategories(null);
+                statements.put(month, statement);
+            }
+        });
+        if (!statements.containsKey(current)) {
+            Coins balance = !open.isEmpty()
+                    ? open.lastEntry().getValue().getClosingBalance()
+                    : balanceBefore(walletId, lastSealed != null ? lastSealed.plusMonths(1) : current);
+            statements.put(current, quiet(current, balance, false));
+        }
+        return new ArrayList<>(statements.values());
+    }
+
+    /**
+     * One month's statement with its totals per category
+     */
+    public WalletStatement getStatement(Long userId, String monthValue) {
+        YearMonth month = parseMonth(monthValue);
+        if (month.isAfter(YearMonth.now())) {
+            throw new IllegalArgumentException("No statement for a future month");
+        }
+        Long walletId = walletIdOf(userId);
+        YearMonth lastSealed = lastSealedMonth();
+
+        if (lastSealed != null && !month.isAfter(lastSealed)) {
+            Date start = Date.valueOf(month.atDay(1));
+            List<WalletStatement> sealed = jdbcTemplate.query(STATEMENTS_SQL, (rs, rowNum) -> new WalletStatement(
+                    month.toString(), true,
+                    Coins.of(rs.getBigDecimal("opening_balance")), Coins.of(rs.getBigDecimal("closing_balance")),
+                    Coins.of(rs.getBigDecimal("credits")), Coins.of(rs.getBigDecimal("debits")),
+                    rs.getLong("tx_count"), null), walletId, start, start);
+            WalletStatement statement = sealed.isEmpty()
+                    ? quiet(month, balanceBefore(walletId, month), true)
+                    : sealed.get(0);
+            statement.setCategories(monthLines(walletId, start));
+            return statement;
+        }
+
+        TreeMap<YearMonth, WalletStatement> open = openStatements(walletId, lastSealed);
+        WalletStatement statement = open.get(month);
+        if (statement == null) {
+            // Quiet month: the balance is whatever the last active month before it closed at
+            Map.Entry<YearMonth, WalletStatement> previous = open.lowerEntry(month);
+            Coins balance = previous != null
+                    ? previous.getValue().getClosingBalance()
+                    : balanceBefore(walletId, lastSealed != null ? lastSealed.plusMonths(1) : month);
+            statement = quiet(month, balance, false);
+            statement.setCategories(List.of());
+        }
+        return statement;
+    }
+
+    /**
+     * The month's transactions of a user, newest first, optionally for one
+     * category; only the month's partition is read
+     */
+    public List<CoinTransaction> getStatementTransactions(Long userId, String monthValue,
+                                                          CoinTransaction.TransactionCategory category,
+                                                          TransactionCursor cursor, int limit) {
+        YearMonth month = parseMonth(monthValue);
+        return coinTransactionRepository.findUserTransactionsInRangeBefore(userId,
+                month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay(),
+                category != null ? category.name() : null, cursor.getCreatedAt(), cursor.getId(), limit);
+    }
+
+    // Months after the last sealed one, chained from the last sealed balance
+    private TreeMap<YearMonth, WalletStatement> openStatements(Long walletId, YearMonth lastSealed) {
+        Date after = Date.valueOf(lastSealed != null ? lastSealed.atDay(1) : LocalDate.of(1970, 1, 1));
+        TreeMap<YearMonth, List<CategoryTotal>> lines = new TreeMap<>();
+        jdbcTemplate.query(OPEN_LINES_SQL, rs -> {
+            YearMonth month = YearMonth.from(rs.getDate("month").toLocalDate());
+            lines.computeIfAbsent(month, m -> new ArrayList<>()).add(categoryTotal(rs.getString("category"),
+                    rs.getLong("tx_count"), rs.getBigDecimal("credits"), rs.getBigDecimal("debits")));
+        }, walletId, after, walletId, after);
+
+        TreeMap<YearMonth, WalletStatement> statements = new TreeMap<>();
+        if (lines.isEmpty()) {
+            return statements;
+        }
+        Coins balance = balanceBefore(walletId, lastSealed != null ? lastSealed.plusMonths(1) : lines.firstKey());
+        for (Map.Entry<YearMonth, List<CategoryTotal>> entry : lines.entrySet()) {
+            Coins credits = Coins.ZERO;
+            Coins debits = Coins.ZERO;
+            long transactions = 0;
+            for (CategoryTotal total : entry.getValue()) {
+                credits = credits.plus(total.getCredits());
+                debits = debits.plus(total.getDebits());
+                transactions += total.getTransactions();
+            }
+            Coins closing = balance.plus(credits).minus(debits);
+            statements.put(entry.getKey(), new WalletStatement(entry.getKey().toString(), false,
+                    balance, closing, credits, debits, transactions, entry.getValue()));
+            balance = closing;
+        }
+        return statements;
+    }
+
+    private List<CategoryTotal> monthLines(Long walletId, Date start) {
+        return jdbcTemplate.query(MONTH_LINES_SQL, (rs, rowNum) -> categoryTotal(rs.getString("category"),
+                rs.getLong("tx_count"), rs.getBigDecimal("credits"), rs.getBigDecimal("debits")),
+                walletId, start, walletId, start);
+    }
+
+    private Coins balanceBefore(Long walletId, YearMonth month) {
+        BigDecimal balance = jdbcTemplate.queryForObject(BALANCE_BEFORE_SQL, BigDecimal.class,
+                walletId, Date.valueOf(month.atDay(1)), walletId);
+        return balance != null ? Coins.of(balance) : Coins.ZERO;
+    }
+
+    private YearMonth lastSealedMonth() {
+        LocalDate month = jdbcTemplate.queryForObject(LAST_SEALED_MONTH_SQL, LocalDate.class);
+        return month != null ? YearMonth.from(month) : null;
+    }
+
+    private YearMonth firstActiveMonth() {
+        LocalDate month = jdbcTemplate.queryForObject(FIRST_ACTIVE_MONTH_SQL, LocalDate.class);
+        return month != null ? YearMonth.from(month) : null;
+    }
+
+    private Long walletIdOf(Long userId) {
+        return walletRepository.findByUserId(userId)
+                .orElseThrow(() -> new IllegalArgumentException("Wallet not found for user: " + userId))
+                .getId();
+    }
+
+    private static WalletStatement quiet(YearMonth month, Coins balance, boolean sealed) {
+        return new WalletStatement(month.toString(), sealed, balance, balance, Coins.ZERO, Coins.ZERO, 0, null);
+    }
+
+    private static CategoryTotal categoryTotal(String category, long transactions, BigDecimal credits, BigDecimal debits) {
+        return new CategoryTotal(category, transactions, Coins.of(credits), Coins.of(debits));
+    }
+
+    private static YearMonth parseMonth(String value) {
+        try {
+            return YearMonth.parse(value);
+        } catch (DateTimeParseException | NullPointerException e) {
+            throw new IllegalArgumentException("Invalid month: " + value + " (use YYYY-MM)");
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class WalletStatement {
+        private String month;
+        private boolean sealed;
+        private Coins openingBalance;
+        private Coins closingBalance;
+        private Coins credits;
+        private Coins debits;
+        private long transactions;
+        private List<CategoryTotal> categories;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class CategoryTotal {
+        private String category;
+        private long transactions;
+        private Coins credits;
+        private Coins debits;
+    }
+}
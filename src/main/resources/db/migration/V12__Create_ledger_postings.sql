@@ -0,0 +1,82 @@
+-- ================================================================
+-- DOUBLE-ENTRY LEDGER
+-- Version: V12
+-- Description: Append-only postings per coin transaction plus
+--              per-wallet balance snapshots
+-- ================================================================
+
+-- Every coin transaction produces one debit (negative) and one credit
+-- (positive) posting; the legs of a transaction always sum to zero.
+-- Accounts: AVAILABLE / PENDING belong to a wallet, ISSUANCE / REDEMPTION
+-- are the system side for coins entering and leaving circulation.
+CREATE TABLE IF NOT EXISTS ledger_postings (
+    id BIGSERIAL PRIMARY KEY,
+    transaction_id BIGINT NOT NULL REFERENCES coin_transactions(id) ON DELETE RESTRICT,
+    wallet_id BIGINT REFERENCES wallets(id) ON DELETE RESTRICT,
+    account VARCHAR(20) NOT NULL,
+    transaction_type VARCHAR(50) NOT NULL,
+    amount DECIMAL(15,2) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    CHECK (amount <> 0),
+    CHECK (account IN ('AVAILABLE', 'PENDING', 'ISSUANCE', 'REDEMPTION')),
+    CHECK ((wallet_id IS NULL) = (account IN ('ISSUANCE', 'REDEMPTION')))
+);
+
+-- Latest checkpoint per wallet; balances = snapshot + postings after last_posting_id
+CREATE TABLE IF NOT EXISTS wallet_balance_snapshots (
+    wallet_id BIGINT PRIMARY KEY REFERENCES wallets(id) ON DELETE CASCADE,
+    last_posting_id BIGINT NOT NULL,
+    available DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    pending DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    earned DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    spent DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    updated_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX IF NOT EXISTS idx_ledger_postings_wallet ON ledger_postings(wallet_id, id);
+CREATE INDEX IF NOT EXISTS idx_ledger_postings_transaction ON ledger_postings(transaction_id);
+
+-- Backfill postings for existing history (debit legs, then credit legs)
+INSERT INTO ledger_postings (transaction_id, wallet_id, account, transaction_type, amount, created_at)
+SELECT t.id,
+       CASE
+           WHEN t.type IN ('EARN', 'TOP_UP') THEN NULL
+           WHEN t.type = 'REFUND' THEN t.to_wallet_id
+           ELSE t.from_wallet_id
+       END,
+       CASE
+           WHEN t.type IN ('EARN', 'TOP_UP') THEN 'ISSUANCE'
+           WHEN t.type IN ('ESCROW_RELEASE', 'REFUND') THEN 'PENDING'
+           ELSE 'AVAILABLE'
+       END,
+       t.type,
+       -t.amount,
+       COALESCE(t.created_at, NOW())
+FROM coin_transactions t
+WHERE COALESCE(t.status, 'COMPLETED') <> 'FAILED'
+  AND (t.type IN ('EARN', 'TOP_UP')
+       OR (t.type = 'REFUND' AND t.to_wallet_id IS NOT NULL)
+       OR (t.type NOT IN ('EARN', 'TOP_UP', 'REFUND') AND t.from_wallet_id IS NOT NULL))
+ORDER BY t.id;
+
+INSERT INTO ledger_postings (transaction_id, wallet_id, account, transaction_type, amount, created_at)
+SELECT t.id,
+       CASE
+           WHEN t.type = 'SPEND' THEN NULL
+           WHEN t.type = 'ESCROW_HOLD' THEN t.from_wallet_id
+           ELSE t.to_wallet_id
+       END,
+       CASE
+           WHEN t.type = 'SPEND' THEN 'REDEMPTION'
+           WHEN t.type = 'ESCROW_HOLD' THEN 'PENDING'
+           ELSE 'AVAILABLE'
+       END,
+       t.type,
+       t.amount,
+       COALESCE(t.created_at, NOW())
+FROM coin_transactions t
+WHERE COALESCE(t.status, 'COMPLETED') <> 'FAILED'
+  AND (t.type = 'SPEND'
+       OR (t.type = 'ESCROW_HOLD' AND t.from_wallet_id IS NOT NULL)
+       OR (t.type NOT IN ('SPEND', 'ESCROW_HOLD') AND t.to_wallet_id IS NOT NULL))
+ORDER BY t.id;
@@ -0,0 +1,12 @@
+-- ================================================================
+-- TRANSACTION HISTORY KEYSET INDEXES
+-- Version: V13
+-- Description: Per-side composite indexes so each branch of the
+--              history UNION ALL is an ordered index range scan
+-- ================================================================
+
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_from_user_keyset
+    ON coin_transactions(from_user_id, created_at DESC, id DESC);
+
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_to_user_keyset
+    ON coin_transactions(to_user_id, created_at DESC, id DESC);
@@ -0,0 +1,31 @@
+-- ================================================================
+-- IDEMPOTENCY KEYS
+-- Version: V14
+-- Description: Stored results for retried transfers, top-ups and
+--              awards, unique per scope, user and key
+-- ================================================================
+
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    id BIGSERIAL PRIMARY KEY,
+    scope VARCHAR(20) NOT NULL,
+    user_id BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    idempotency_key VARCHAR(255) NOT NULL,
+    request_hash VARCHAR(64),
+    -- No FK: bulk awards claim keys before their pre-numbered rows are inserted
+    transaction_id BIGINT,
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    CHECK (scope IN ('TRANSFER', 'TOP_UP', 'AWARD'))
+);
+
+-- The claim (INSERT ... ON CONFLICT DO NOTHING) relies on this index
+CREATE UNIQUE INDEX IF NOT EXISTS uk_idempotency_keys_scope_user_key
+    ON idempotency_keys(scope, user_id, idempotency_key);
+
+-- Existing referenced awards and top-ups count as already used keys
+INSERT INTO idempotency_keys (scope, user_id, idempotency_key, transaction_id, created_at)
+SELECT DISTINCT ON (type, to_user_id, reference_id)
+       CASE WHEN type = 'EARN' THEN 'AWARD' ELSE 'TOP_UP' END, to_user_id, reference_id, id, created_at
+FROM coin_transactions
+WHERE type IN ('EARN', 'TOP_UP') AND reference_id IS NOT NULL AND to_user_id IS NOT NULL
+ORDER BY type, to_user_id, reference_id, id
+ON CONFLICT DO NOTHING;
@@ -0,0 +1,28 @@
+-- ================================================================
+-- TRANSACTIONAL OUTBOX
+-- Version: V15
+-- Description: Side effects written with the business transaction
+--              and drained by the background relay
+-- ================================================================
+
+CREATE TABLE IF NOT EXISTS outbox_events (
+    id BIGSERIAL PRIMARY KEY,
+    event_type VARCHAR(30) NOT NULL,
+    dedup_key VARCHAR(255) NOT NULL,
+    user_id BIGINT,
+    payload TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    available_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    sent_at TIMESTAMP,
+    last_error VARCHAR(1000),
+    CHECK (status IN ('PENDING', 'SENT', 'FAILED'))
+);
+
+-- Producers insert with ON CONFLICT (dedup_key) DO NOTHING
+CREATE UNIQUE INDEX IF NOT EXISTS uk_outbox_events_dedup_key ON outbox_events(dedup_key);
+
+-- Relay scan: only pending rows, oldest first
+CREATE INDEX IF NOT EXISTS idx_outbox_events_pending
+    ON outbox_events(available_at, id) WHERE status = 'PENDING';
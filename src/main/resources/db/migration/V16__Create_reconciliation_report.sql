@@ -0,0 +1,39 @@
+-- ================================================================
+-- LEDGER RECONCILIATION
+-- Version: V16
+-- Description: Run/discrepancy report tables and per-wallet indexes
+--              for streaming coin_transactions by wallet id range
+-- ================================================================
+
+CREATE TABLE IF NOT EXISTS reconciliation_runs (
+    id BIGSERIAL PRIMARY KEY,
+    run_trigger VARCHAR(20) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    wallets_checked BIGINT NOT NULL DEFAULT 0,
+    transactions_scanned BIGINT NOT NULL DEFAULT 0,
+    discrepancy_count BIGINT NOT NULL DEFAULT 0,
+    error_message VARCHAR(1000),
+    started_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    finished_at TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS reconciliation_discrepancies (
+    id BIGSERIAL PRIMARY KEY,
+    run_id BIGINT NOT NULL REFERENCES reconciliation_runs(id) ON DELETE CASCADE,
+    wallet_id BIGINT NOT NULL,
+    field_name VARCHAR(30) NOT NULL,
+    expected DECIMAL(15,2),
+    actual DECIMAL(15,2),
+    created_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX IF NOT EXISTS idx_reconciliation_discrepancies_run
+    ON reconciliation_discrepancies(run_id, wallet_id);
+
+-- Each side of the leg UNION ALL is an ordered index scan, so Postgres can
+-- merge them without sorting a whole wallet range
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_from_wallet
+    ON coin_transactions(from_wallet_id) INCLUDE (type, status, amount);
+
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_to_wallet
+    ON coin_transactions(to_wallet_id) INCLUDE (type, status, amount);
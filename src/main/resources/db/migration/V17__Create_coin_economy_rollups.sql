@@ -0,0 +1,109 @@
+-- ================================================================
+-- COIN ECONOMY ROLLUPS
+-- Version: V17
+-- Description: Hourly and daily coin_transactions aggregates per
+--              type / category / status, kept current by a delta
+--              journal written at commit and folded in the background
+-- ================================================================
+
+-- Rows are counted in the bucket of the transaction's created_at under
+-- its current status; a status change moves the row between statuses.
+-- Missing category is stored as 'NONE', missing status as 'COMPLETED'.
+CREATE TABLE IF NOT EXISTS coin_tx_rollups_hourly (
+    bucket_start TIMESTAMP NOT NULL,
+    type VARCHAR(50) NOT NULL,
+    category VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    tx_count BIGINT NOT NULL DEFAULT 0,
+    amount_sum DECIMAL(20,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (bucket_start, type, category, status)
+);
+
+CREATE TABLE IF NOT EXISTS coin_tx_rollups_daily (
+    bucket_start TIMESTAMP NOT NULL,
+    type VARCHAR(50) NOT NULL,
+    category VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    tx_count BIGINT NOT NULL DEFAULT 0,
+    amount_sum DECIMAL(20,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (bucket_start, type, category, status)
+);
+
+-- Append-only journal of signed changes, one row per bucket touched by a
+-- statement. Writers only ever insert here, so concurrent transactions never
+-- contend on a shared rollup row; CoinEconomyRollupService folds and deletes.
+CREATE TABLE IF NOT EXISTS coin_tx_rollup_deltas (
+    id BIGSERIAL PRIMARY KEY,
+    bucket_hour TIMESTAMP NOT NULL,
+    type VARCHAR(50) NOT NULL,
+    category VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    tx_count BIGINT NOT NULL,
+    amount_sum DECIMAL(20,2) NOT NULL
+);
+
+-- Statement-level with transition tables: a multi-row insert writes one
+-- delta per bucket, not one per row
+CREATE OR REPLACE FUNCTION coin_tx_rollup_on_insert()
+RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO coin_tx_rollup_deltas (bucket_hour, type, category, status, tx_count, amount_sum)
+    SELECT date_trunc('hour', COALESCE(n.created_at, NOW())), n.type,
+           COALESCE(n.category, 'NONE'), COALESCE(n.status, 'COMPLETED'), COUNT(*), SUM(n.amount)
+    FROM new_rows n
+    GROUP BY 1, 2, 3, 4;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Old rows count negative, new rows positive; buckets that net out
+-- (updates that do not touch type, category, status or amount) are dropped
+CREATE OR REPLACE FUNCTION coin_tx_rollup_on_update()
+RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO coin_tx_rollup_deltas (bucket_hour, type, category, status, tx_count, amount_sum)
+    SELECT bucket_hour, type, category, status, SUM(tx_count), SUM(amount_sum)
+    FROM (
+        SELECT date_trunc('hour', COALESCE(o.created_at, NOW())) AS bucket_hour, o.type,
+               COALESCE(o.category, 'NONE') AS category, COALESCE(o.status, 'COMPLETED') AS status,
+               -1 AS tx_count, -o.amount AS amount_sum
+        FROM old_rows o
+        UNION ALL
+        SELECT date_trunc('hour', COALESCE(n.created_at, NOW())), n.type,
+               COALESCE(n.category, 'NONE'), COALESCE(n.status, 'COMPLETED'),
+               1, n.amount
+        FROM new_rows n
+    ) changes
+    GROUP BY bucket_hour, type, category, status
+    HAVING SUM(tx_count) <> 0 OR SUM(amount_sum) <> 0;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- No DELETE trigger: archiving old transactions must not rewrite history
+DROP TRIGGER IF EXISTS coin_tx_rollup_insert ON coin_transactions;
+DROP TRIGGER IF EXISTS coin_tx_rollup_update ON coin_transactions;
+
+CREATE TRIGGER coin_tx_rollup_insert
+    AFTER INSERT ON coin_transactions
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION coin_tx_rollup_on_insert();
+
+CREATE TRIGGER coin_tx_rollup_update
+    AFTER UPDATE ON coin_transactions
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION coin_tx_rollup_on_update();
+
+-- Backfill from existing history (same transaction as the triggers, so no gap)
+INSERT INTO coin_tx_rollups_hourly (bucket_start, type, category, status, tx_count, amount_sum)
+SELECT date_trunc('hour', COALESCE(created_at, NOW())), type,
+       COALESCE(category, 'NONE'), COALESCE(status, 'COMPLETED'), COUNT(*), SUM(amount)
+FROM coin_transactions
+GROUP BY 1, 2, 3, 4;
+
+INSERT INTO coin_tx_rollups_daily (bucket_start, type, category, status, tx_count, amount_sum)
+SELECT date_trunc('day', bucket_start), type, category, status, SUM(tx_count), SUM(amount_sum)
+FROM coin_tx_rollups_hourly
+GROUP BY 1, 2, 3, 4;
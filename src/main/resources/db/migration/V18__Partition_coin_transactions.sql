@@ -0,0 +1,150 @@
+-- ================================================================
+-- PARTITIONED COIN TRANSACTIONS
+-- Version: V18
+-- Description: Rebuild coin_transactions as a monthly range-partitioned
+--              table on created_at, plus bookkeeping for partitions
+--              detached and archived by CoinTransactionArchiveService
+-- ================================================================
+
+-- Archived transactions leave the table, so postings can no longer point
+-- at it with a foreign key (a partitioned table also cannot back a unique
+-- constraint on id alone)
+ALTER TABLE ledger_postings DROP CONSTRAINT IF EXISTS ledger_postings_transaction_id_fkey;
+
+ALTER TABLE coin_transactions RENAME TO coin_transactions_unpartitioned;
+
+-- Same columns as before; created_at becomes NOT NULL as the partition key
+-- and is part of the primary key, as Postgres requires
+CREATE TABLE coin_transactions (
+    id BIGINT NOT NULL DEFAULT nextval('coin_transactions_id_seq'),
+    from_user_id BIGINT REFERENCES users(id) ON DELETE SET NULL,
+    to_user_id BIGINT REFERENCES users(id) ON DELETE SET NULL,
+    from_wallet_id BIGINT REFERENCES wallets(id) ON DELETE SET NULL,
+    to_wallet_id BIGINT REFERENCES wallets(id) ON DELETE SET NULL,
+    amount DECIMAL(15,2) NOT NULL,
+    type VARCHAR(50) NOT NULL,
+    category VARCHAR(100),
+    description TEXT,
+    reference_id VARCHAR(255),
+    status VARCHAR(20) DEFAULT 'COMPLETED',
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    CHECK (amount > 0)
+) PARTITION BY RANGE (created_at);
+
+-- Move the id sequence over before the old table (its owner) is dropped;
+-- WalletService still finds it through pg_get_serial_sequence
+ALTER SEQUENCE coin_transactions_id_seq OWNED BY coin_transactions.id;
+
+-- Monthly partition coin_transactions_YYYY_MM; no-op if it already exists
+CREATE OR REPLACE FUNCTION ensure_coin_transactions_partition(p_month DATE)
+RETURNS TEXT AS $$
+DECLARE
+    start_at DATE := date_trunc('month', p_month)::date;
+    partition_name TEXT := 'coin_transactions_' || to_char(date_trunc('month', p_month), 'YYYY_MM');
+BEGIN
+    IF to_regclass(partition_name) IS NULL THEN
+        EXECUTE format('CREATE TABLE %I PARTITION OF coin_transactions FOR VALUES FROM (%L) TO (%L)',
+                       partition_name, start_at, (start_at + INTERVAL '1 month')::date);
+    END IF;
+    RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+-- created_at is nullable in V2. A row without one takes the timestamp of its
+-- nearest id-ordered neighbour (ids follow insertion order), so it lands in
+-- the month it was made instead of the month of the migration; NOW() only
+-- if the table has no timestamps at all
+UPDATE coin_transactions_unpartitioned t
+SET created_at = COALESCE(
+        (SELECT p.created_at FROM coin_transactions_unpartitioned p
+         WHERE p.id < t.id AND p.created_at IS NOT NULL ORDER BY p.id DESC LIMIT 1),
+        (SELECT n.created_at FROM coin_transactions_unpartitioned n
+         WHERE n.id > t.id AND n.created_at IS NOT NULL ORDER BY n.id LIMIT 1),
+        NOW())
+WHERE t.created_at IS NULL;
+
+-- Partitions from the oldest transaction up to three months ahead; the
+-- default partition only catches rows outside them (it should stay empty)
+DO $$
+DECLARE
+    next_month DATE;
+BEGIN
+    next_month := COALESCE((SELECT date_trunc('month', MIN(created_at))::date FROM coin_transactions_unpartitioned),
+                      date_trunc('month', NOW())::date);
+    WHILE next_month <= (date_trunc('month', NOW()) + INTERVAL '3 months')::date LOOP
+        PERFORM ensure_coin_transactions_partition(next_month);
+        next_month := (next_month + INTERVAL '1 month')::date;
+    END LOOP;
+END $$;
+
+CREATE TABLE IF NOT EXISTS coin_transactions_default PARTITION OF coin_transactions DEFAULT;
+
+-- Copy before the rollup triggers exist, so history is not counted twice
+INSERT INTO coin_transactions (id, from_user_id, to_user_id, from_wallet_id, to_wallet_id, amount, type,
+                               category, description, reference_id, status, created_at)
+SELECT id, from_user_id, to_user_id, from_wallet_id, to_wallet_id, amount, type,
+       category, description, reference_id, status, created_at
+FROM coin_transactions_unpartitioned;
+
+DROP TABLE coin_transactions_unpartitioned;
+
+ALTER TABLE coin_transactions ADD PRIMARY KEY (id, created_at);
+
+-- Indexes from V2 / V8 / V13 / V16, now per partition. The single-column
+-- from/to user indexes are left out: the keyset indexes cover them.
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_type ON coin_transactions(type);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_status ON coin_transactions(status);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_created_at ON coin_transactions(created_at DESC);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_reference ON coin_transactions(reference_id);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_from_user_keyset
+    ON coin_transactions(from_user_id, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_to_user_keyset
+    ON coin_transactions(to_user_id, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_from_wallet
+    ON coin_transactions(from_wallet_id) INCLUDE (type, status, amount);
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_to_wallet
+    ON coin_transactions(to_wallet_id) INCLUDE (type, status, amount);
+
+-- Rollup triggers from V17 went with the old table
+CREATE TRIGGER coin_tx_rollup_insert
+    AFTER INSERT ON coin_transactions
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION coin_tx_rollup_on_insert();
+
+CREATE TRIGGER coin_tx_rollup_update
+    AFTER UPDATE ON coin_transactions
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION coin_tx_rollup_on_update();
+
+-- One row per detached partition. DETACHED: out of the table, archive file
+-- not written yet; ARCHIVED: file written and the partition dropped.
+CREATE TABLE IF NOT EXISTS coin_transaction_archives (
+    id BIGSERIAL PRIMARY KEY,
+    partition_name VARCHAR(63) NOT NULL UNIQUE,
+    range_start TIMESTAMP NOT NULL,
+    range_end TIMESTAMP NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    storage VARCHAR(10) NOT NULL,
+    location VARCHAR(1000),
+    row_count BIGINT,
+    size_bytes BIGINT,
+    sha256 VARCHAR(64),
+    detached_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    archived_at TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_coin_transaction_archives_range
+    ON coin_transaction_archives(range_start, range_end);
+
+-- Per-wallet leg totals of archived transactions, folded in when a partition
+-- is detached, so ledger reconciliation still sees the full history
+CREATE TABLE IF NOT EXISTS coin_transaction_archived_legs (
+    wallet_id BIGINT NOT NULL,
+    side VARCHAR(4) NOT NULL,
+    type VARCHAR(50) NOT NULL,
+    amount DECIMAL(20,2) NOT NULL,
+    tx_count BIGINT NOT NULL,
+    PRIMARY KEY (wallet_id, side, type)
+);
@@ -0,0 +1,9 @@
+-- ================================================================
+-- ESCROW EXPIRY INDEX
+-- Version: V19
+-- Description: (type, status, created_at) index so the escrow expiry
+--              sweeper reads the oldest open holds as an index range
+-- ================================================================
+
+CREATE INDEX IF NOT EXISTS idx_coin_transactions_type_status_created
+    ON coin_transactions(type, status, created_at);
@@ -0,0 +1,42 @@
+-- ================================================================
+-- SHARDED HOT-WALLET BALANCES
+-- Version: V20
+-- Description: Opt-in credit shards for wallets that receive many
+--              concurrent credits, and a wallet_balances view that
+--              adds them back onto the wallet row
+-- ================================================================
+
+-- 0 = not sharded; otherwise credits go to a random one of this many shards
+ALTER TABLE wallets ADD COLUMN IF NOT EXISTS balance_shards INT NOT NULL DEFAULT 0;
+
+-- Credits not yet folded into the wallet row. Only ever grows between folds
+-- (credits add, WalletShardService.consolidate() and debits zero it out), so
+-- rows of a wallet that is no longer sharded are simply drained by the next fold.
+CREATE TABLE IF NOT EXISTS wallet_balance_shards (
+    wallet_id BIGINT NOT NULL REFERENCES wallets(id) ON DELETE CASCADE,
+    shard INT NOT NULL,
+    balance DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    total_earned DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    updated_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (wallet_id, shard)
+);
+
+CREATE INDEX IF NOT EXISTS idx_wallet_balance_shards_unfolded
+    ON wallet_balance_shards(wallet_id) WHERE balance <> 0 OR total_earned <> 0;
+
+-- Effective balances; read paths use this instead of wallets
+CREATE OR REPLACE VIEW wallet_balances AS
+SELECT w.id, w.user_id,
+       w.balance + COALESCE(s.balance, 0) AS balance,
+       w.pending_balance,
+       w.total_earned + COALESCE(s.total_earned, 0) AS total_earned,
+       w.total_spent,
+       w.balance_shards,
+       w.created_at,
+       w.updated_at
+FROM wallets w
+LEFT JOIN LATERAL (
+    SELECT SUM(balance) AS balance, SUM(total_earned) AS total_earned
+    FROM wallet_balance_shards
+    WHERE wallet_id = w.id
+) s ON TRUE;
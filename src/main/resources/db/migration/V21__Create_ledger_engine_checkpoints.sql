@@ -0,0 +1,14 @@
+-- ================================================================
+-- LEDGER ENGINE CHECKPOINTS
+-- Version: V21
+-- Description: Last journal sequence each in-memory ledger engine
+--              has flushed to wallets / coin_transactions
+-- ================================================================
+
+-- Updated in the same transaction as the flushed rows, so after a crash
+-- the engine replays exactly the journal records above last_sequence
+CREATE TABLE IF NOT EXISTS ledger_engine_checkpoints (
+    engine_id VARCHAR(100) PRIMARY KEY,
+    last_sequence BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
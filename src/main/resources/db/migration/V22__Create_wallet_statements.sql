@@ -0,0 +1,112 @@
+-- ================================================================
+-- MONTHLY WALLET STATEMENTS
+-- Version: V22
+-- Description: Per-wallet monthly totals of available balance in and
+--              out per category, kept current by a delta journal, and
+--              sealed statements with opening / closing balances for
+--              months that have ended
+-- ================================================================
+
+-- Available balance moved per wallet, month and category, using the same
+-- legs as the ledger: EARN, TOP_UP, TRANSFER in, ESCROW_RELEASE and REFUND
+-- credit the to-wallet; SPEND, TRANSFER out and ESCROW_HOLD debit the
+-- from-wallet. Missing category is stored as 'NONE'.
+CREATE TABLE IF NOT EXISTS wallet_statement_lines (
+    wallet_id BIGINT NOT NULL,
+    month DATE NOT NULL,
+    category VARCHAR(100) NOT NULL,
+    tx_count BIGINT NOT NULL DEFAULT 0,
+    credits DECIMAL(20,2) NOT NULL DEFAULT 0.00,
+    debits DECIMAL(20,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (wallet_id, month, category)
+);
+
+-- Append-only journal written by trigger in the writer's transaction;
+-- WalletStatementService folds it into wallet_statement_lines
+CREATE TABLE IF NOT EXISTS wallet_statement_deltas (
+    id BIGSERIAL PRIMARY KEY,
+    wallet_id BIGINT NOT NULL,
+    month DATE NOT NULL,
+    category VARCHAR(100) NOT NULL,
+    tx_count BIGINT NOT NULL,
+    credits DECIMAL(20,2) NOT NULL,
+    debits DECIMAL(20,2) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_wallet_statement_deltas_wallet ON wallet_statement_deltas(wallet_id, month);
+
+-- Sealed statements, one per wallet with activity in the month. A wallet
+-- with no statement for a month had no activity: its balance is the
+-- closing balance of its latest earlier statement.
+CREATE TABLE IF NOT EXISTS wallet_statements (
+    wallet_id BIGINT NOT NULL REFERENCES wallets(id) ON DELETE CASCADE,
+    month DATE NOT NULL,
+    opening_balance DECIMAL(20,2) NOT NULL,
+    closing_balance DECIMAL(20,2) NOT NULL,
+    tx_count BIGINT NOT NULL,
+    credits DECIMAL(20,2) NOT NULL,
+    debits DECIMAL(20,2) NOT NULL,
+    sealed_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (wallet_id, month)
+);
+
+-- Months are sealed in order; the latest row is the sealing watermark
+CREATE TABLE IF NOT EXISTS wallet_statement_months (
+    month DATE PRIMARY KEY,
+    wallets INT NOT NULL,
+    sealed_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+CREATE OR REPLACE FUNCTION wallet_statement_on_insert()
+RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO wallet_statement_deltas (wallet_id, month, category, tx_count, credits, debits)
+    SELECT wallet_id, month, category, COUNT(*), SUM(credit), SUM(debit)
+    FROM (
+        SELECT n.to_wallet_id AS wallet_id, date_trunc('month', COALESCE(n.created_at, NOW()))::date AS month,
+               COALESCE(n.category, 'NONE') AS category, n.amount AS credit, 0 AS debit
+        FROM new_rows n
+        WHERE n.to_wallet_id IS NOT NULL AND COALESCE(n.status, 'COMPLETED') <> 'FAILED'
+          AND n.type IN ('EARN', 'TOP_UP', 'TRANSFER', 'ESCROW_RELEASE', 'REFUND')
+        UNION ALL
+        SELECT n.from_wallet_id, date_trunc('month', COALESCE(n.created_at, NOW()))::date,
+               COALESCE(n.category, 'NONE'), 0, n.amount
+        FROM new_rows n
+        WHERE n.from_wallet_id IS NOT NULL AND COALESCE(n.status, 'COMPLETED') <> 'FAILED'
+          AND n.type IN ('SPEND', 'TRANSFER', 'ESCROW_HOLD')
+    ) legs
+    GROUP BY wallet_id, month, category;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Insert only: balance changes are always new transactions, and archiving
+-- old partitions must not rewrite statements
+DROP TRIGGER IF EXISTS wallet_statement_insert ON coin_transactions;
+
+CREATE TRIGGER wallet_statement_insert
+    AFTER INSERT ON coin_transactions
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION wallet_statement_on_insert();
+
+-- Backfill from the live history (same transaction as the trigger, so no
+-- gap); archived months are covered by coin_transaction_archived_legs,
+-- which seeds the opening balance of each wallet's first statement.
+-- Past months are sealed by WalletStatementService on its first run.
+INSERT INTO wallet_statement_lines (wallet_id, month, category, tx_count, credits, debits)
+SELECT wallet_id, month, category, COUNT(*), SUM(credit), SUM(debit)
+FROM (
+    SELECT to_wallet_id AS wallet_id, date_trunc('month', COALESCE(created_at, NOW()))::date AS month,
+           COALESCE(category, 'NONE') AS category, amount AS credit, 0 AS debit
+    FROM coin_transactions
+    WHERE to_wallet_id IS NOT NULL AND COALESCE(status, 'COMPLETED') <> 'FAILED'
+      AND type IN ('EARN', 'TOP_UP', 'TRANSFER', 'ESCROW_RELEASE', 'REFUND')
+    UNION ALL
+    SELECT from_wallet_id, date_trunc('month', COALESCE(created_at, NOW()))::date,
+           COALESCE(category, 'NONE'), 0, amount
+    FROM coin_transactions
+    WHERE from_wallet_id IS NOT NULL AND COALESCE(status, 'COMPLETED') <> 'FAILED'
+      AND type IN ('SPEND', 'TRANSFER', 'ESCROW_HOLD')
+) legs
+GROUP BY wallet_id, month, category;
@@ -0,0 +1,37 @@
+-- ================================================================
+-- PAYMENT WEBHOOK INBOX
+-- Version: V23
+-- Description: Verified payment provider webhooks, stored on receipt
+--              and credited to wallets in batches by the worker
+-- ================================================================
+
+-- PENDING: waiting for the worker; CREDITED: top-up written (transaction_id);
+-- DUPLICATE: the payment was already credited under another event;
+-- IGNORED: event type that moves no money; REJECTED: unknown user;
+-- FAILED: gave up after payments.webhook.worker.max-attempts
+CREATE TABLE IF NOT EXISTS payment_webhook_events (
+    id BIGSERIAL PRIMARY KEY,
+    provider VARCHAR(50) NOT NULL,
+    provider_event_id VARCHAR(255) NOT NULL,
+    event_type VARCHAR(100) NOT NULL,
+    payment_id VARCHAR(255),
+    user_id BIGINT,
+    amount DECIMAL(15,2),
+    payment_method VARCHAR(50),
+    payload TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    transaction_id BIGINT,
+    last_error VARCHAR(1000),
+    received_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    processed_at TIMESTAMP,
+    CHECK (status IN ('PENDING', 'CREDITED', 'DUPLICATE', 'IGNORED', 'REJECTED', 'FAILED'))
+);
+
+-- Providers retry deliveries; the receiver inserts with ON CONFLICT DO NOTHING
+CREATE UNIQUE INDEX IF NOT EXISTS uk_payment_webhook_events_provider_event
+    ON payment_webhook_events(provider, provider_event_id);
+
+-- Worker scan: only pending rows, oldest first
+CREATE INDEX IF NOT EXISTS idx_payment_webhook_events_pending
+    ON payment_webhook_events(id) WHERE status = 'PENDING';
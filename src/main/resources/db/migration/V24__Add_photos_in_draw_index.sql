@@ -0,0 +1,10 @@
+-- ================================================================
+-- PHOTOS IN-DRAW INDEX
+-- Version: V24
+-- Description: Partial id index over the current draw, so the lottery
+--              draw engine reads the id range and probes random ids
+--              without scanning finished entries
+-- ================================================================
+
+CREATE INDEX IF NOT EXISTS idx_photos_in_draw
+    ON photos(id) WHERE status = 'IN_DRAW';
@@ -0,0 +1,24 @@
+-- ================================================================
+-- LOTTERY PRIZE WEIGHTS AND MULTI-PRIZE DRAWS
+-- Version: V25
+-- Description: Per-prize quantity and weight, so one draw run hands
+--              out every active prize; draw rows of a run share run_id
+-- ================================================================
+
+-- quantity: units of the prize handed out per run (0 = not drawn)
+-- weight: relative chance of the prize when a run has fewer entries than units
+ALTER TABLE lottery_prizes
+    ADD COLUMN IF NOT EXISTS quantity INTEGER NOT NULL DEFAULT 1,
+    ADD COLUMN IF NOT EXISTS weight INTEGER NOT NULL DEFAULT 1;
+
+ALTER TABLE lottery_prizes
+    ADD CONSTRAINT chk_lottery_prizes_quantity CHECK (quantity >= 0),
+    ADD CONSTRAINT chk_lottery_prizes_weight CHECK (weight > 0);
+
+-- run_id is the id of the run's first draw row
+ALTER TABLE lottery_draws
+    ADD COLUMN IF NOT EXISTS run_id BIGINT;
+
+UPDATE lottery_draws SET run_id = id WHERE run_id IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_lottery_draws_run ON lottery_draws(run_id);
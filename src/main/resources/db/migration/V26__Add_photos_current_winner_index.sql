@@ -0,0 +1,10 @@
+-- ================================================================
+-- PHOTOS CURRENT WINNER INDEX
+-- Version: V26
+-- Description: Partial index over winning photos in current-winner
+--              order, so the lookup reads one index entry
+-- ================================================================
+
+CREATE INDEX IF NOT EXISTS idx_photos_current_winner
+    ON photos(lottery_date DESC NULLS LAST, upload_date DESC NULLS LAST, id DESC)
+    WHERE is_winner = true;
@@ -0,0 +1,31 @@
+-- ================================================================
+-- SCHEDULER LEADER LEASE AND JOB RUNS
+-- Version: V27
+-- Description: One node at a time holds the scheduler lease; scheduled
+--              jobs claim a persisted key, fenced by the lease token,
+--              before they broadcast or draw
+-- ================================================================
+
+-- token goes up every time the lease changes hands (fencing token)
+CREATE TABLE IF NOT EXISTS scheduler_leases (
+    name VARCHAR(100) PRIMARY KEY,
+    holder VARCHAR(255) NOT NULL,
+    token BIGINT NOT NULL,
+    expires_at TIMESTAMP NOT NULL,
+    acquired_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+-- One row per job occurrence (e.g. countdown-60-412, draw-412); the key is
+-- only claimed while the claimer's token is the live one
+CREATE TABLE IF NOT EXISTS scheduler_job_runs (
+    job_key VARCHAR(255) PRIMARY KEY,
+    holder VARCHAR(255) NOT NULL,
+    lease_token BIGINT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'RUNNING',
+    detail VARCHAR(1000),
+    started_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    finished_at TIMESTAMP,
+    CHECK (status IN ('RUNNING', 'DONE', 'FAILED'))
+);
+
+CREATE INDEX IF NOT EXISTS idx_scheduler_job_runs_started ON scheduler_job_runs(started_at);
@@ -0,0 +1,30 @@
+-- ================================================================
+-- DROP DEFAULT COIN TRANSACTIONS PARTITION
+-- Version: V28
+-- Description: DETACH PARTITION ... CONCURRENTLY (used by
+--              CoinTransactionArchiveService) is not allowed while the
+--              table has a default partition. Rows that reached it move
+--              to their monthly partitions; inserts outside the created
+--              months now fail instead of landing there.
+-- ================================================================
+
+ALTER TABLE coin_transactions DETACH PARTITION coin_transactions_default;
+
+DO $$
+DECLARE
+    month DATE;
+BEGIN
+    FOR month IN SELECT DISTINCT date_trunc('month', created_at)::date FROM coin_transactions_default LOOP
+        PERFORM ensure_coin_transactions_partition(month);
+    END LOOP;
+END $$;
+
+-- These rows were counted in the rollups when they were first inserted
+ALTER TABLE coin_transactions DISABLE TRIGGER coin_tx_rollup_insert;
+
+INSERT INTO coin_transactions
+SELECT * FROM coin_transactions_default;
+
+ALTER TABLE coin_transactions ENABLE TRIGGER coin_tx_rollup_insert;
+
+DROP TABLE coin_transactions_default;
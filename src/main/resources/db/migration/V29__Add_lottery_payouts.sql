@@ -0,0 +1,32 @@
+-- ================================================================
+-- LOTTERY RUN PAYOUTS
+-- Version: V29
+-- Description: The coins a draw run pays, written with the run, and
+--              the run's payout status, so a failed payout can be
+--              retried for the same winners and participants
+-- ================================================================
+
+-- PENDING: drawn, payout not committed yet; PAID; PAYOUT_FAILED: waiting
+-- for a retry (POST /api/lottery/runs/{runId}/payout). NULL on runs drawn
+-- before V29, which were paid inline.
+ALTER TABLE lottery_draws
+    ADD COLUMN IF NOT EXISTS payout_status VARCHAR(20),
+    ADD COLUMN IF NOT EXISTS payout_error VARCHAR(1000);
+
+ALTER TABLE lottery_draws
+    ADD CONSTRAINT chk_lottery_draws_payout_status
+        CHECK (payout_status IN ('PENDING', 'PAID', 'PAYOUT_FAILED'));
+
+CREATE INDEX IF NOT EXISTS idx_lottery_draws_payout_failed
+    ON lottery_draws(run_id) WHERE payout_status = 'PAYOUT_FAILED';
+
+-- reference_id is the award's idempotency reference, so a retry never pays twice
+CREATE TABLE IF NOT EXISTS lottery_payouts (
+    run_id BIGINT NOT NULL,
+    reference_id VARCHAR(255) NOT NULL,
+    user_id BIGINT NOT NULL REFERENCES users(id),
+    amount DECIMAL(15,2) NOT NULL,
+    category VARCHAR(50) NOT NULL,
+    description VARCHAR(255) NOT NULL,
+    PRIMARY KEY (run_id, reference_id)
+);
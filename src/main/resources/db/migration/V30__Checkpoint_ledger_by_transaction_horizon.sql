@@ -0,0 +1,28 @@
+-- ================================================================
+-- LEDGER CHECKPOINT BY TRANSACTION HORIZON
+-- Version: V30
+-- Description: Snapshots cover postings by the id of the database
+--              transaction that wrote them instead of by posting id,
+--              so a posting committed after a higher id was folded is
+--              not skipped; snapshots are rebuilt with earned/spent
+--              counted like wallets.total_earned/total_spent
+-- ================================================================
+
+-- Writing transaction of each posting; existing postings count as long finished
+ALTER TABLE ledger_postings
+    ADD COLUMN IF NOT EXISTS xact_id BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE ledger_postings
+    ALTER COLUMN xact_id SET DEFAULT (pg_current_xact_id()::text::bigint);
+
+DROP INDEX IF EXISTS idx_ledger_postings_wallet;
+CREATE INDEX IF NOT EXISTS idx_ledger_postings_wallet_xact ON ledger_postings(wallet_id, xact_id);
+CREATE INDEX IF NOT EXISTS idx_ledger_postings_xact ON ledger_postings(xact_id);
+
+-- A snapshot covers every posting of the wallet with xact_id < xact_horizon.
+-- The old ones are dropped; the next checkpoint folds the full history again.
+DELETE FROM wallet_balance_snapshots;
+
+ALTER TABLE wallet_balance_snapshots
+    DROP COLUMN IF EXISTS last_posting_id,
+    ADD COLUMN IF NOT EXISTS xact_horizon BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,29 @@
+-- ================================================================
+-- LOTTERY PARTICIPATION PAID ONCE PER ENTRY
+-- Version: V31
+-- Description: The draw run that paid a photo's participation coins,
+--              so a losing photo that stays IN_DRAW is not paid again
+--              by every later run
+-- ================================================================
+
+ALTER TABLE photos
+    ADD COLUMN IF NOT EXISTS participation_run_id BIGINT;
+
+-- Entries still owed participation coins by the next run
+CREATE INDEX IF NOT EXISTS idx_photos_participation_unpaid
+    ON photos(user_id) WHERE status = 'IN_DRAW' AND participation_run_id IS NULL;
+
+-- Photos enter the draw on upload, so those uploaded before the latest run
+-- were paid by it
+UPDATE photos p
+SET participation_run_id = latest.run_id
+FROM (
+    SELECT run_id, draw_date
+    FROM lottery_draws
+    WHERE run_id IS NOT NULL
+    ORDER BY draw_date DESC, run_id DESC
+    LIMIT 1
+) latest
+WHERE p.status = 'IN_DRAW'
+  AND p.participation_run_id IS NULL
+  AND p.upload_date < latest.draw_date;
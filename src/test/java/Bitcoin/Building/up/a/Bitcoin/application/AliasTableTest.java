@@ -0,0 +1,72 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AliasTableTest {
+
+    @Test
+    void samplesInProportionToWeights() {
+        double[] weights = {1, 0, 5, 2, 12};
+        AliasTable table = AliasTable.of(weights);
+        Random random = new Random(42);
+
+        int draws = 400_000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < draws; i++) {
+            counts[table.sample(random)]++;
+        }
+        assertEquals(0, counts[1]);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 20, counts[i] / (double) draws, 0.005);
+        }
+    }
+
+    @Test
+    void rejectsUnusableWeights() {
+        assertThrows(IllegalArgumentException.class, () -> AliasTable.of(new double[0]));
+        assertThrows(IllegalArgumentException.class, () -> AliasTable.of(new double[]{0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> AliasTable.of(new double[]{1, -1}));
+    }
+
+    @Test
+    void assignsEveryPrizeUnitExactlyOnce() {
+        // 500 prizes with 1-3 units each and skewed weights
+        Random random = new Random(7);
+        double[] weights = new double[500];
+        int[] quantities = new int[500];
+        int units = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i < 5 ? 1_000 : 1 + random.nextInt(10);
+            quantities[i] = 1 + random.nextInt(3);
+            units += quantities[i];
+        }
+
+        int[] assigned = LotteryDrawService.assignPrizes(AliasTable.of(weights), weights, quantities, units, random);
+
+        int[] handedOut = new int[weights.length];
+        for (int prize : assigned) {
+            handedOut[prize]++;
+        }
+        assertArrayEquals(quantities, handedOut);
+    }
+
+    @Test
+    void heavierPrizesGoOutFirstWhenEntriesAreScarce() {
+        double[] weights = {90, 10};
+        int[] quantities = {1, 1};
+        Random random = new Random(3);
+
+        int heavyFirst = 0;
+        for (int i = 0; i < 10_000; i++) {
+            int[] assigned = LotteryDrawService.assignPrizes(AliasTable.of(weights), weights, quantities, 1, random);
+            if (assigned[0] == 0) {
+                heavyFirst++;
+            }
+        }
+        assertEquals(9_000, heavyFirst, 200);
+    }
+}
@@ -0,0 +1,115 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exactness and overflow checks for {@link Coins}, plus a side-by-side run of
+ * the wallet balance arithmetic on BigDecimal and on Coins that compares
+ * per-thread allocation read from the HotSpot ThreadMXBean.
+ */
+class CoinsTest {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int OPS = 2_000_000;
+
+    @Test
+    void convertsExactlyToAndFromDecimalColumns() {
+        assertEquals(1250, Coins.of(new BigDecimal("12.5")).minorUnits());
+        assertEquals(new BigDecimal("12.50"), Coins.ofMinor(1250).toBigDecimal());
+        assertEquals("0.05", Coins.ofMinor(5).toString());
+        assertEquals("-3.10", Coins.ofMinor(-310).toString());
+        assertSame(Coins.ofCoins(25), Coins.of(new BigDecimal("25.00")));
+        assertThrows(ArithmeticException.class, () -> Coins.of(new BigDecimal("0.001")));
+
+        CoinsConverter converter = new CoinsConverter();
+        Coins amount = Coins.ofMinor(123456789);
+        assertEquals(amount, converter.convertToEntityAttribute(converter.convertToDatabaseColumn(amount)));
+        assertNull(converter.convertToEntityAttribute(null));
+    }
+
+    @Test
+    void arithmeticIsOverflowChecked() {
+        Coins max = Coins.ofMinor(Long.MAX_VALUE);
+        assertThrows(ArithmeticException.class, () -> max.plus(Coins.ofMinor(1)));
+        assertThrows(ArithmeticException.class, () -> Coins.ofMinor(Long.MIN_VALUE).negate());
+        assertThrows(ArithmeticException.class, () -> Coins.ofCoins(Long.MAX_VALUE / 10));
+        assertEquals(Coins.ofMinor(-50), Coins.ofMinor(50).minus(Coins.ofMinor(100)));
+    }
+
+    @Test
+    void walletBalanceMathMatchesBigDecimal() {
+        Wallet wallet = Wallet.builder().build();
+        wallet.addToBalance(Coins.ofCoins(100));
+        wallet.addToPending(Coins.of(new BigDecimal("-30.25")));
+        assertEquals(new BigDecimal("69.75"), wallet.getAvailableBalance().toBigDecimal());
+        assertTrue(wallet.hasAvailable(Coins.of(new BigDecimal("69.75"))));
+        assertFalse(wallet.hasAvailable(Coins.of(new BigDecimal("69.76"))));
+    }
+
+    @Test
+    void coinsPathAllocatesNoMoreThanBigDecimalPath() {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            assertEquals(runBigDecimal(OPS / 10), runCoins(OPS / 10).toBigDecimal());
+        }
+
+        long bigDecimalBytes = allocatedBytes();
+        BigDecimal bigDecimalResult = runBigDecimal(OPS);
+        bigDecimalBytes = allocatedBytes() - bigDecimalBytes;
+
+        long coinsBytes = allocatedBytes();
+        Coins coinsResult = runCoins(OPS);
+        coinsBytes = allocatedBytes() - coinsBytes;
+
+        assertEquals(bigDecimalResult, coinsResult.toBigDecimal());
+        if (allocatedBytes() >= 0) {
+            assertTrue(coinsBytes <= bigDecimalBytes, "Coins path allocated more than BigDecimal path");
+        }
+    }
+
+    // Same loop as the old wallet helpers: credit, hold, available-balance check, debit
+    private static BigDecimal runBigDecimal(int ops) {
+        BigDecimal balance = BigDecimal.ZERO.setScale(2);
+        BigDecimal pending = BigDecimal.ZERO.setScale(2);
+        BigDecimal credit = new BigDecimal("25.00");
+        BigDecimal hold = new BigDecimal("-10.50");
+        BigDecimal debit = new BigDecimal("12.25");
+        for (int i = 0; i < ops; i++) {
+            balance = balance.add(credit);
+            pending = pending.add(hold);
+            if (balance.subtract(pending.abs()).compareTo(debit) >= 0) {
+                balance = balance.subtract(debit);
+            }
+            pending = pending.subtract(hold);
+        }
+        return balance;
+    }
+
+    private static Coins runCoins(int ops) {
+        Wallet wallet = Wallet.builder().build();
+        Coins credit = Coins.ofCoins(25);
+        Coins hold = Coins.of(new BigDecimal("-10.50"));
+        Coins debit = Coins.of(new BigDecimal("12.25"));
+        for (int i = 0; i < ops; i++) {
+            wallet.setBalance(wallet.getBalance().plus(credit));
+            wallet.setPendingBalance(wallet.getPendingBalance().plus(hold));
+            if (wallet.hasAvailable(debit)) {
+                wallet.setBalance(wallet.getBalance().minus(debit));
+            }
+            wallet.setPendingBalance(wallet.getPendingBalance().minus(hold));
+        }
+        return wallet.getBalance();
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,100 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link CurrentWinnerService} against a slow stand-in repository that
+ * counts its queries
+ */
+class CurrentWinnerServiceTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicReference<Photo> winner = new AtomicReference<>();
+
+    private final PhotoRepository repository = (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[]{PhotoRepository.class}, (proxy, method, args) -> {
+                if (!method.getName().equals("findLatestWinnersWithUser")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                queries.incrementAndGet();
+                Thread.sleep(50);
+                Photo photo = winner.get();
+                return photo == null ? List.of() : List.of(photo);
+            });
+
+    @Test
+    void coalescesConcurrentMissesIntoOneQuery() throws Exception {
+        winner.set(photo(1L));
+        CurrentWinnerService service = new CurrentWinnerService(repository, 60_000);
+
+        int callers = 32;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<String, Object>>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return service.getCurrentWinner();
+            }));
+        }
+        start.countDown();
+        for (Future<Map<String, Object>> result : results) {
+            assertEquals(1L, result.get(5, TimeUnit.SECONDS).get("id"));
+        }
+        pool.shutdown();
+
+        assertEquals(1, queries.get());
+        service.getCurrentWinner();
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    void drawRefreshSwapsInTheNewWinner() {
+        CurrentWinnerService service = new CurrentWinnerService(repository, 60_000);
+        assertNull(service.getCurrentWinner());
+
+        winner.set(photo(7L));
+        service.refreshOnCommit(); // no transaction: refreshes right away
+        assertEquals(2, queries.get());
+
+        assertEquals(7L, service.getCurrentWinner().get("id"));
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    void expiredEntryIsLookedUpAgain() throws Exception {
+        winner.set(photo(3L));
+        CurrentWinnerService service = new CurrentWinnerService(repository, 0);
+
+        service.getCurrentWinner();
+        Thread.sleep(2);
+        service.getCurrentWinner();
+        assertEquals(2, queries.get());
+    }
+
+    private static Photo photo(Long id) {
+        return Photo.builder()
+                .id(id)
+                .s3Url("https://example.com/" + id + ".jpg")
+                .size(1L)
+                .isWinner(true)
+                .lotteryDate(LocalDate.now())
+                .user(User.builder().id(id).fullName("Winner " + id).build())
+                .build();
+    }
+}
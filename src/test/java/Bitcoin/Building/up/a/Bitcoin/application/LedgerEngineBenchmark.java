@@ -0,0 +1,152 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Transfer throughput of the {@link LedgerEngine} against the row-locking
+ * database path. Run with the benchmark profile against a disposable
+ * database (see pom.xml); it creates users and wallets and leaves them.
+ *
+ * The same workload, THREADS callers each making TRANSFERS random transfers
+ * between WALLETS funded wallets, goes once through the database path and
+ * once through the engine on a temporary journal. Both runs must conserve
+ * the coins and leave no wallet negative.
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(properties = {"wallet.engine.enabled=false", "spring.jpa.show-sql=false"})
+@EnabledIfSystemProperty(named = "spring.datasource.url", matches = ".+")
+class LedgerEngineBenchmark {
+
+    private static final int WALLETS = 200;
+    private static final int THREADS = 16;
+    private static final int TRANSFERS = 500;
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+    // Every new wallet gets the welcome bonus
+    private static final BigDecimal FUNDING = BigDecimal.valueOf(100);
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private LedgerEngine ledgerEngine;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void engineVersusDatabaseTransfers() throws Exception {
+        List<Long> databaseUsers = createFundedUsers("db");
+        // Funded through the database before the engine starts
+        List<Long> engineUsers = createFundedUsers("engine");
+
+        double database = transfersPerSecond(databaseUsers);
+        assertConserved(databaseUsers);
+
+        ReflectionTestUtils.setField(ledgerEngine, "enabled", true);
+        ReflectionTestUtils.setField(ledgerEngine, "engineId", "benchmark-" + UUID.randomUUID());
+        ReflectionTestUtils.setField(ledgerEngine, "journalDir", journalDir.toString());
+        ledgerEngine.start();
+        double accepted;
+        double flushed;
+        try {
+            long started = System.nanoTime();
+            accepted = transfersPerSecond(engineUsers);
+            ledgerEngine.awaitFlushed();
+            flushed = THREADS * TRANSFERS / ((System.nanoTime() - started) / 1e9);
+        } finally {
+            ledgerEngine.stop();
+            ReflectionTestUtils.setField(ledgerEngine, "enabled", false);
+        }
+        assertConserved(engineUsers);
+
+        log.info("{} transfers over {} wallets from {} threads: database {} ops/s, engine {} ops/s "
+                        + "({} ops/s until flushed)", THREADS * TRANSFERS, WALLETS, THREADS,
+                Math.round(database), Math.round(accepted), Math.round(flushed));
+    }
+
+    private List<Long> createFundedUsers(String run) {
+        String prefix = "benchmark-" + run + "-" + UUID.randomUUID();
+        List<User> users = new ArrayList<>(WALLETS);
+        for (int i = 0; i < WALLETS; i++) {
+            users.add(User.builder().email(prefix + "-" + i + "@example.com").fullName("Benchmark " + i).build());
+        }
+        List<Long> userIds = new ArrayList<>(WALLETS);
+        for (User user : userRepository.saveAll(users)) {
+            walletService.createWallet(user);
+            userIds.add(user.getId());
+        }
+        return userIds;
+    }
+
+    // Completed transfers per second; the odd one refused for balance is not counted
+    private double transfersPerSecond(List<Long> userIds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS; i++) {
+                    int from = random.nextInt(userIds.size());
+                    int to = (from + 1 + random.nextInt(userIds.size() - 1)) % userIds.size();
+                    try {
+                        walletService.transferCoins(userIds.get(from), userIds.get(to), AMOUNT, "Benchmark");
+                        completed.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        assertTrue(e.getMessage().startsWith("Insufficient balance"), e.getMessage());
+                    }
+                }
+                return null;
+            }));
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        pool.shutdown();
+        return completed.get() / seconds;
+    }
+
+    private void assertConserved(List<Long> userIds) {
+        String ids = userIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        Map<String, Object> totals = jdbcTemplate.queryForMap(
+                "SELECT SUM(balance) AS total, MIN(balance) AS lowest FROM wallets WHERE user_id IN (" + ids + ")");
+        assertEquals(0, FUNDING.multiply(BigDecimal.valueOf(WALLETS)).compareTo((BigDecimal) totals.get("total")));
+        assertTrue(((BigDecimal) totals.get("lowest")).signum() >= 0);
+    }
+}
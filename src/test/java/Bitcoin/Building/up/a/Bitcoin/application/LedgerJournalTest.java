@@ -0,0 +1,133 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trip, record format, crash recovery and segment release of {@link LedgerJournal}.
+ */
+class LedgerJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysRecordsAfterCheckpoint() throws IOException {
+        try (LedgerJournal journal = new LedgerJournal(directory, 1 << 20)) {
+            for (long seq = 1; seq <= 100; seq++) {
+                journal.append(command(seq));
+            }
+            journal.sync();
+        }
+
+        List<LedgerEngine.Command> replayed = new ArrayList<>();
+        new LedgerJournal(directory, 1 << 20).replay(40, replayed::add);
+
+        assertEquals(60, replayed.size());
+        LedgerEngine.Command first = replayed.get(0);
+        assertEquals(41, first.getSequence());
+        assertEquals(1041, first.getTransactionId());
+        assertEquals(4100, first.getAmount());
+        assertEquals(CoinTransaction.TransactionType.TRANSFER, first.getType());
+        assertEquals("transfer 41", first.getDescription());
+        assertNull(first.getReferenceId());
+        assertEquals(Notification.NotificationType.ACHIEVEMENT_UNLOCKED, first.getNotificationType());
+    }
+
+    @Test
+    void truncatesTornTail() throws IOException {
+        try (LedgerJournal journal = new LedgerJournal(directory, 1 << 20)) {
+            for (long seq = 1; seq <= 10; seq++) {
+                journal.append(command(seq));
+            }
+            journal.sync();
+        }
+        Path segment = segments().get(0);
+        long intact = Files.size(segment);
+        // A crash half way through writing the next record
+        try (FileChannel out = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            out.write(ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 42, 42, 42}));
+        }
+
+        List<LedgerEngine.Command> replayed = new ArrayList<>();
+        new LedgerJournal(directory, 1 << 20).replay(0, replayed::add);
+
+        assertEquals(10, replayed.size());
+        assertEquals(intact, Files.size(segment));
+    }
+
+    @Test
+    void releasesSegmentsBelowCheckpoint() throws IOException {
+        try (LedgerJournal journal = new LedgerJournal(directory, 512)) {
+            for (long seq = 1; seq <= 200; seq++) {
+                journal.append(command(seq));
+                journal.sync();
+            }
+            int before = segments().size();
+            assertTrue(before > 2);
+
+            journal.releaseThrough(150);
+            assertTrue(segments().size() < before);
+
+            List<LedgerEngine.Command> replayed = new ArrayList<>();
+            journal.replay(150, replayed::add);
+            assertEquals(50, replayed.size());
+            assertEquals(151, replayed.get(0).getSequence());
+        }
+    }
+
+    @Test
+    void settlementKeepsItsHoldAndOldRecordsStillDecode() {
+        LedgerEngine.Command release = command(7);
+        release.setType(CoinTransaction.TransactionType.ESCROW_RELEASE);
+        release.setHoldTransactionId(999);
+        assertEquals(999, LedgerJournal.decode(ByteBuffer.wrap(LedgerJournal.encode(release))).getHoldTransactionId());
+
+        // A record from before the hold id was added ends right after the strings
+        byte[] current = LedgerJournal.encode(command(8));
+        byte[] old = new byte[current.length - 8];
+        System.arraycopy(current, 0, old, 0, old.length);
+        LedgerEngine.Command decoded = LedgerJournal.decode(ByteBuffer.wrap(old));
+        assertEquals(8, decoded.getSequence());
+        assertEquals("You received 8 coins", decoded.getNotificationMessage());
+        assertEquals(0, decoded.getHoldTransactionId());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static LedgerEngine.Command command(long seq) {
+        LedgerEngine.Command command = new LedgerEngine.Command();
+        command.setSequence(seq);
+        command.setTransactionId(1000 + seq);
+        command.setCreatedAtMillis(1_700_000_000_000L + seq);
+        command.setAmount(seq * 100);
+        command.setFromWalletId(1);
+        command.setFromUserId(11);
+        command.setToWalletId(2);
+        command.setToUserId(12);
+        command.setType(CoinTransaction.TransactionType.TRANSFER);
+        command.setStatus(CoinTransaction.TransactionStatus.COMPLETED);
+        command.setCategory(CoinTransaction.TransactionCategory.MANUAL_ADJUSTMENT);
+        command.setDescription("transfer " + seq);
+        command.setNotificationType(Notification.NotificationType.ACHIEVEMENT_UNLOCKED);
+        command.setNotificationTitle("Coins Received!");
+        command.setNotificationMessage("You received " + seq + " coins");
+        return command;
+    }
+}
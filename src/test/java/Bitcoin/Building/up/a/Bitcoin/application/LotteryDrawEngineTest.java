@@ -0,0 +1,131 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the {@link LotteryDrawEngine} sampler against in-memory id sets with
+ * gaps, standing in for the IN_DRAW index
+ */
+class LotteryDrawEngineTest {
+
+    @Test
+    void drawsDistinctEntriesWithFlatProbeCount() {
+        for (int entries : new int[]{10_000, 1_000_000}) {
+            IdSet ids = IdSet.withGaps(entries, 0.3, 5);
+            List<Long> winners = LotteryDrawEngine.sample(ids, ids.ids.first(), ids.ids.last(), 500,
+                    new Random(1), 64, 32);
+
+            assertEquals(500, winners.size());
+            assertEquals(500, new HashSet<>(winners).size());
+            assertTrue(ids.ids.containsAll(winners));
+            assertTrue(ids.probes < 100, "probe rounds should not grow with the entry count");
+        }
+    }
+
+    @Test
+    void entriesAfterLargeGapsAreNotFavoured() {
+        IdSet ids = afterLargeGap();
+        Random random = new Random(3);
+        int afterGap = 0;
+        int draws = 20_000;
+        for (int i = 0; i < draws; i++) {
+            if (LotteryDrawEngine.sample(ids, 1, 10_000, 1, random, 64, 1_000).get(0) == 10_000L) {
+                afterGap++;
+            }
+        }
+        // Uniform over 12 entries: about 1/12 of the draws
+        assertEquals(draws / 12.0, afterGap, draws * 0.02);
+    }
+
+    @Test
+    void fallbackDoesNotFavourEntriesAfterLargeGapsEither() {
+        IdSet ids = afterLargeGap();
+        Random random = new Random(4);
+        int afterGap = 0;
+        int draws = 20_000;
+        for (int i = 0; i < draws; i++) {
+            // One single-id probe: almost every draw ends in the fallback
+            if (LotteryDrawEngine.sample(ids, 1, 10_000, 1, random, 1, 1).get(0) == 10_000L) {
+                afterGap++;
+            }
+        }
+        assertEquals(draws / 12.0, afterGap, draws * 0.02);
+    }
+
+    @Test
+    void fallsBackToRankPicksAndStopsWhenDrawIsExhausted() {
+        IdSet ids = new IdSet(new TreeSet<>(Set.of(5L, 900_000L, 1_000_000L)));
+        List<Long> winners = LotteryDrawEngine.sample(ids, 5, 1_000_000, 10, new Random(9), 4, 2);
+
+        assertEquals(Set.of(5L, 900_000L, 1_000_000L), new HashSet<>(winners));
+    }
+
+    // One entry right after a huge gap, the rest packed together
+    private static IdSet afterLargeGap() {
+        TreeSet<Long> packed = new TreeSet<>();
+        packed.add(1L);
+        for (long id = 1_000; id < 1_010; id++) {
+            packed.add(id);
+        }
+        packed.add(10_000L);
+        return new IdSet(packed);
+    }
+
+    private static class IdSet implements LotteryDrawEngine.Candidates {
+        private final TreeSet<Long> ids;
+        private int probes;
+
+        IdSet(TreeSet<Long> ids) {
+            this.ids = ids;
+        }
+
+        // Ids 1.., where each id is skipped with the given probability (finished or deleted entries)
+        static IdSet withGaps(int entries, double gapShare, long seed) {
+            Random random = new Random(seed);
+            TreeSet<Long> ids = new TreeSet<>();
+            long id = 0;
+            while (ids.size() < entries) {
+                id++;
+                if (random.nextDouble() >= gapShare) {
+                    ids.add(id);
+                }
+            }
+            return new IdSet(ids);
+        }
+
+        @Override
+        public Set<Long> present(long[] probe) {
+            probes++;
+            Set<Long> present = new HashSet<>();
+            for (long id : probe) {
+                if (ids.contains(id)) {
+                    present.add(id);
+                }
+            }
+            return present;
+        }
+
+        @Override
+        public long count() {
+            return ids.size();
+        }
+
+        @Override
+        public Long atRank(long rank, Set<Long> excluded) {
+            for (Long id : ids) {
+                if (!excluded.contains(id) && rank-- == 0) {
+                    return id;
+                }
+            }
+            return null;
+        }
+    }
+}
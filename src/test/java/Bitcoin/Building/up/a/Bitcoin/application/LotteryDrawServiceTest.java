@@ -0,0 +1,308 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link LotteryDrawService} runs against in-memory photos, draws and
+ * payouts tables and a stand-in {@link WalletService#awardCoinsBulk}
+ */
+class LotteryDrawServiceTest {
+
+    private final Map<Long, Map<String, Object>> photos = new TreeMap<>();
+    private final Map<Long, String> runStatuses = new HashMap<>();
+    private final List<Map<String, Object>> payouts = new ArrayList<>();
+    private final List<List<WalletService.Award>> awarded = new ArrayList<>();
+    private final List<Long> drawnPhotos = new ArrayList<>();
+    private long nextDrawId = 100;
+
+    private LotteryDrawService service;
+
+    @BeforeEach
+    void setUp() {
+        PhotoRepository photoRepository = mock(PhotoRepository.class);
+        when(photoRepository.countByStatus(PhotoStatus.IN_DRAW)).thenAnswer(invocation -> photos.values().stream()
+                .filter(photo -> "IN_DRAW".equals(photo.get("status"))).count());
+
+        LotteryPrizeRepository prizeRepository = mock(LotteryPrizeRepository.class);
+        when(prizeRepository.findByIsActiveTrueOrderByDisplayOrderAsc())
+                .thenReturn(List.of(LotteryPrize.builder().id(1L).name("Camera").quantity(1).weight(1).build()));
+
+        // Each run draws the next photo queued by the test
+        LotteryDrawEngine engine = mock(LotteryDrawEngine.class);
+        when(engine.drawWinners(anyInt())).thenAnswer(invocation -> List.of(drawnPhotos.remove(0)));
+        when(engine.random()).thenReturn(new Random(7));
+
+        WalletService walletService = mock(WalletService.class);
+        when(walletService.awardCoinsBulk(anyList())).thenAnswer(invocation -> {
+            List<WalletService.Award> awards = invocation.getArgument(0);
+            awarded.add(awards);
+            return awards.size();
+        });
+
+        service = new LotteryDrawService(new DrawTables(), photoRepository, prizeRepository, engine, walletService,
+                mock(LotteryFeedService.class), mock(CurrentWinnerService.class),
+                mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(service, "winnerCoins", 100);
+        ReflectionTestUtils.setField(service, "participantCoins", 20);
+        ReflectionTestUtils.setField(service, "batchSize", 500);
+    }
+
+    @Test
+    void losersStillInTheDrawAreNotPaidAgainByTheNextRun() {
+        for (long id = 1; id <= 4; id++) {
+            photo(id, id);
+        }
+        drawnPhotos.add(1L);
+        LotteryDrawService.DrawRun first = service.runDraw();
+
+        assertTrue(first.isPaidOut());
+        assertEquals(Map.of(1L, "LOTTERY_WIN", 2L, "LOTTERY_PARTICIPATION", 3L, "LOTTERY_PARTICIPATION",
+                4L, "LOTTERY_PARTICIPATION"), paidCategories(awarded.get(0)));
+
+        // Users 3 and 4 stay in the draw; user 5 enters after the first run
+        photo(5L, 5L);
+        drawnPhotos.add(2L);
+        LotteryDrawService.DrawRun second = service.runDraw();
+
+        assertTrue(second.isPaidOut());
+        assertEquals(Map.of(2L, "LOTTERY_WIN", 5L, "LOTTERY_PARTICIPATION"), paidCategories(awarded.get(1)));
+        assertEquals(first.getRunId(), photos.get(3L).get("participation_run_id"));
+        assertEquals(second.getRunId(), photos.get(5L).get("participation_run_id"));
+        assertEquals("PAID", runStatuses.get(second.getRunId()));
+    }
+
+    @Test
+    void retryPaysTheRunsOwnParticipantsOnly() {
+        for (long id = 1; id <= 3; id++) {
+            photo(id, id);
+        }
+        drawnPhotos.add(1L);
+        Long firstRun = service.runDraw().getRunId();
+        photo(4L, 4L);
+        drawnPhotos.add(2L);
+        Long secondRun = service.runDraw().getRunId();
+
+        // Replayed from lottery_payouts as recorded with the run
+        runStatuses.put(secondRun, "PAYOUT_FAILED");
+        assertEquals(2, service.retryPayout(secondRun));
+        assertEquals(Map.of(2L, "LOTTERY_WIN", 4L, "LOTTERY_PARTICIPATION"), paidCategories(awarded.get(2)));
+        assertEquals(0, service.retryPayout(firstRun));
+    }
+
+    private void photo(long id, long userId) {
+        Map<String, Object> photo = new HashMap<>();
+        photo.put("id", id);
+        photo.put("user_id", userId);
+        photo.put("status", "IN_DRAW");
+        photo.put("participation_run_id", null);
+        photos.put(id, photo);
+    }
+
+    private static Map<Long, String> paidCategories(List<WalletService.Award> awards) {
+        Map<Long, String> categories = new HashMap<>();
+        for (WalletService.Award award : awards) {
+            assertNull(categories.put(award.getUserId(), award.getCategory().name()), "user paid twice in one run");
+        }
+        return categories;
+    }
+
+    /**
+     * The service's statements, told apart by their SQL, against the maps
+     */
+    private class DrawTables extends JdbcTemplate {
+
+        // Draw ids, then run statuses
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            if (sql.contains("nextval")) {
+                List<Long> ids = new ArrayList<>();
+                for (int i = 0; i < (Integer) args[0]; i++) {
+                    ids.add(nextDrawId++);
+                }
+                return (List<T>) ids;
+            }
+            Long runId = (Long) args[0];
+            return (List<T>) (runStatuses.containsKey(runId) ? Arrays.asList(runStatuses.get(runId)) : List.of());
+        }
+
+        // Lock the winning photos
+        @Override
+        public void query(PreparedStatementCreator creator, RowCallbackHandler handler) {
+            for (Object photoId : (Object[]) bind(creator).params.get(1)) {
+                Map<String, Object> photo = photos.get((Long) photoId);
+                if (photo != null && "IN_DRAW".equals(photo.get("status"))) {
+                    try {
+                        handler.processRow(resultSet(photo));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+
+        // Clear the current winners
+        @Override
+        public int update(String sql) {
+            return 0;
+        }
+
+        // Draw rows and winner payouts
+        @Override
+        public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                       ParameterizedPreparedStatementSetter<T> setter) {
+            for (T item : batchArgs) {
+                Map<Integer, Object> params = new HashMap<>();
+                try {
+                    setter.setValues(recorder(params), item);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (sql.startsWith("INSERT INTO lottery_draws")) {
+                    runStatuses.putIfAbsent((Long) params.get(2), "PENDING");
+                } else {
+                    payout((Long) params.get(1), (String) params.get(2), (Long) params.get(3),
+                            (BigDecimal) params.get(4), (String) params.get(5), (String) params.get(6));
+                }
+            }
+            return new int[][]{};
+        }
+
+        // End the winning photos; pay the entries no earlier run paid
+        @Override
+        public int update(PreparedStatementCreator creator) {
+            Prepared statement = bind(creator);
+            if (statement.sql.startsWith("UPDATE photos")) {
+                for (Object photoId : (Object[]) statement.params.get(1)) {
+                    photos.get((Long) photoId).put("status", "DRAW_ENDED");
+                }
+                return 1;
+            }
+            List<Object> winnerIds = Arrays.asList((Object[]) statement.params.get(1));
+            Long runId = (Long) statement.params.get(2);
+            TreeSet<Long> paidUsers = new TreeSet<>();
+            for (Map<String, Object> photo : photos.values()) {
+                if ("IN_DRAW".equals(photo.get("status")) && photo.get("participation_run_id") == null
+                        && !winnerIds.contains(photo.get("user_id"))) {
+                    photo.put("participation_run_id", runId);
+                    paidUsers.add((Long) photo.get("user_id"));
+                }
+            }
+            for (Long userId : paidUsers) {
+                payout((Long) statement.params.get(3), "DRAW-" + statement.params.get(4) + "-" + userId, userId,
+                        (BigDecimal) statement.params.get(5), "LOTTERY_PARTICIPATION", "Lottery participation");
+            }
+            return paidUsers.size();
+        }
+
+        // The run's payouts
+        @Override
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            List<T> rows = new ArrayList<>();
+            for (Map<String, Object> payout : payouts.stream().filter(payout -> payout.get("run_id").equals(args[0]))
+                    .sorted(Comparator.comparing(payout -> (String) payout.get("reference_id"))).toList()) {
+                try {
+                    rows.add(rowMapper.mapRow(resultSet(payout), rows.size()));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return rows;
+        }
+
+        // Mark the run's payout
+        @Override
+        public int update(String sql, Object... args) {
+            runStatuses.put((Long) args[2], (String) args[0]);
+            return 1;
+        }
+
+        private void payout(Long runId, String referenceId, Long userId, BigDecimal amount, String category,
+                            String description) {
+            Map<String, Object> payout = new HashMap<>();
+            payout.put("run_id", runId);
+            payout.put("reference_id", referenceId);
+            payout.put("user_id", userId);
+            payout.put("amount", amount);
+            payout.put("category", category);
+            payout.put("description", description);
+            payouts.add(payout);
+        }
+    }
+
+    private record Prepared(String sql, Map<Integer, Object> params) {
+    }
+
+    // The SQL the creator prepares and the values it binds, arrays unwrapped
+    private static Prepared bind(PreparedStatementCreator creator) {
+        Map<Integer, Object> params = new HashMap<>();
+        String[] sql = new String[1];
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        sql[0] = (String) args[0];
+                        return recorder(params);
+                    }
+                    if (method.getName().equals("createArrayOf")) {
+                        Object[] elements = (Object[]) args[1];
+                        return Proxy.newProxyInstance(java.sql.Array.class.getClassLoader(),
+                                new Class<?>[]{java.sql.Array.class}, (array, arrayMethod, arrayArgs) -> elements);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        try {
+            creator.createPreparedStatement(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Prepared(sql[0], params);
+    }
+
+    private static PreparedStatement recorder(Map<Integer, Object> params) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("set") && args != null && args.length == 2) {
+                        params.put((Integer) args[0], args[1] instanceof java.sql.Array array
+                                ? array.getArray() : args[1]);
+                    }
+                    return null;
+                });
+    }
+
+    private static ResultSet resultSet(Map<String, Object> row) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> row.get((String) args[0]));
+    }
+}
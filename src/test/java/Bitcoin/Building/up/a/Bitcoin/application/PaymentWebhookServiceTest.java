@@ -0,0 +1,139 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replays a burst from a local stand-in provider (retries, tampered and
+ * stale deliveries included) through {@link PaymentWebhookService}, with the
+ * events table replaced by an in-memory insert-if-absent.
+ */
+class PaymentWebhookServiceTest {
+
+    private static final String SECRET = "whsec_test";
+
+    private final Set<String> stored = ConcurrentHashMap.newKeySet();
+    private PaymentWebhookService service;
+
+    @BeforeEach
+    void setUp() {
+        // Same contract as INSERT ... ON CONFLICT (provider, provider_event_id) DO NOTHING
+        JdbcTemplate table = new JdbcTemplate() {
+            @Override
+            public int update(String sql, Object... args) {
+                return stored.add(args[0] + ":" + args[1]) ? 1 : 0;
+            }
+        };
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("payments.webhook.providers.standin.secret", SECRET);
+        service = new PaymentWebhookService(table, new ObjectMapper(), environment, 300);
+    }
+
+    @Test
+    void storesEachEventOnceUnderBurstWithRetries() {
+        StandInProvider provider = new StandInProvider(SECRET, 7);
+        List<Delivery> deliveries = provider.burst(5_000, 0.2);
+
+        int acknowledged = 0;
+        int duplicates = 0;
+        for (Delivery delivery : deliveries) {
+            if (!service.receive("standin", delivery.signature, delivery.body)) {
+                duplicates++;
+            }
+            acknowledged++;
+        }
+
+        assertEquals(deliveries.size(), acknowledged);
+        assertEquals(5_000, stored.size());
+        assertEquals(deliveries.size() - 5_000, duplicates);
+    }
+
+    @Test
+    void rejectsTamperedStaleAndUnsignedDeliveries() {
+        StandInProvider provider = new StandInProvider(SECRET, 11);
+        Delivery delivery = provider.burst(1, 0).get(0);
+
+        String tampered = delivery.body.replace("\"amount\":\"", "\"amount\":\"9");
+        assertThrows(IllegalArgumentException.class, () -> service.receive("standin", delivery.signature, tampered));
+
+        long stale = Instant.now().getEpochSecond() - 3_600;
+        String staleSignature = PaymentWebhookSignature.sign(SECRET, stale, delivery.body);
+        assertThrows(IllegalArgumentException.class, () -> service.receive("standin", staleSignature, delivery.body));
+
+        assertThrows(IllegalArgumentException.class, () -> service.receive("standin", null, delivery.body));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.receive("standin", PaymentWebhookSignature.sign("other", Instant.now().getEpochSecond(),
+                        delivery.body), delivery.body));
+        assertTrue(stored.isEmpty());
+        assertFalse(service.isKnownProvider("unknown"));
+    }
+
+    @Test
+    void rejectsInvalidPaymentPayloads() {
+        ObjectMapper mapper = new ObjectMapper();
+        assertThrows(IllegalArgumentException.class, () -> PaymentWebhookService.parse(mapper, "not json"));
+        assertThrows(IllegalArgumentException.class, () -> PaymentWebhookService.parse(mapper,
+                "{\"id\":\"evt_1\",\"type\":\"payment.succeeded\",\"data\":{\"userId\":1,\"amount\":\"0\"}}"));
+        assertThrows(IllegalArgumentException.class, () -> PaymentWebhookService.parse(mapper,
+                "{\"id\":\"evt_1\",\"type\":\"payment.succeeded\",\"data\":{\"userId\":1,\"amount\":\"1.001\"}}"));
+        assertThrows(IllegalArgumentException.class, () -> PaymentWebhookService.parse(mapper,
+                "{\"id\":\"evt_1\",\"type\":\"payment.succeeded\",\"data\":{\"amount\":\"5\"}}"));
+        assertThrows(IllegalArgumentException.class, () -> PaymentWebhookService.parse(mapper,
+                "{\"id\":\"evt_1\",\"type\":\"payment.succeeded\",\"data\":{\"userId\":1,\"amount\":\"5\","
+                        + "\"paymentMethod\":\"" + "m".repeat(51) + "\"}}"));
+        assertThrows(IllegalArgumentException.class, () -> PaymentWebhookService.parse(mapper,
+                "{\"id\":\"evt_1\",\"type\":\"charge.refunded\",\"data\":{\"paymentId\":\""
+                        + "p".repeat(256) + "\"}}"));
+
+        PaymentWebhookService.WebhookEvent refund = PaymentWebhookService.parse(mapper,
+                "{\"id\":\"evt_2\",\"type\":\"charge.refunded\",\"data\":{}}");
+        assertEquals("charge.refunded", refund.getType());
+        assertNull(refund.getAmount());
+    }
+
+    private record Delivery(String signature, String body) {
+    }
+
+    /**
+     * Signs payloads the way a provider would and re-sends a share of them,
+     * shuffled, as a provider retrying unacknowledged deliveries does
+     */
+    private static class StandInProvider {
+        private final String secret;
+        private final Random random;
+
+        StandInProvider(String secret, long seed) {
+            this.secret = secret;
+            this.random = new Random(seed);
+        }
+
+        List<Delivery> burst(int events, double retryShare) {
+            List<Delivery> deliveries = new ArrayList<>();
+            for (int i = 0; i < events; i++) {
+                String body = String.format("{\"id\":\"evt_%d\",\"type\":\"payment.succeeded\",\"data\":"
+                                + "{\"paymentId\":\"pi_%d\",\"userId\":%d,\"amount\":\"%d.%02d\",\"paymentMethod\":\"card\"}}",
+                        i, i, 1 + random.nextInt(1_000), 1 + random.nextInt(500), random.nextInt(100));
+                Delivery delivery = new Delivery(PaymentWebhookSignature.sign(secret, Instant.now().getEpochSecond(), body), body);
+                deliveries.add(delivery);
+                if (random.nextDouble() < retryShare) {
+                    deliveries.add(delivery);
+                }
+            }
+            Collections.shuffle(deliveries, random);
+            return deliveries;
+        }
+    }
+}
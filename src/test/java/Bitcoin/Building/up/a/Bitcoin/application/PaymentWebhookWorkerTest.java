@@ -0,0 +1,232 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link PaymentWebhookWorker} against an in-memory events table and a
+ * stand-in {@link WalletService#topUpBulk}
+ */
+class PaymentWebhookWorkerTest {
+
+    private static final Set<Long> KNOWN_USERS = Set.of(1L, 2L, 3L);
+
+    private final Map<Long, Map<String, Object>> events = new TreeMap<>();
+    private final Map<String, Long> credited = new HashMap<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final WalletService walletService = mock(WalletService.class);
+    private PaymentWebhookWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        // Credits once per reference, like the idempotency keys; a batch with user 3 in it always fails
+        when(walletService.topUpBulk(anyList())).thenAnswer(invocation -> {
+            List<WalletService.Award> topUps = invocation.getArgument(0);
+            batchSizes.add(topUps.size());
+            if (topUps.stream().anyMatch(topUp -> topUp.getUserId() == 3L)) {
+                throw new IllegalStateException("Wallet 3 is unavailable");
+            }
+            List<Long> transactionIds = new ArrayList<>();
+            for (WalletService.Award topUp : topUps) {
+                transactionIds.add(credited.containsKey(topUp.getReferenceId())
+                        ? null : credited.computeIfAbsent(topUp.getReferenceId(), key -> 100L + credited.size()));
+            }
+            return transactionIds;
+        });
+        worker = new PaymentWebhookWorker(new EventsTable(), walletService, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(worker, "batchSize", 10);
+        ReflectionTestUtils.setField(worker, "maxBatchesPerRun", 20);
+        ReflectionTestUtils.setField(worker, "maxAttempts", 3);
+    }
+
+    @Test
+    void creditsEachPaymentOnceAndRejectsUnknownUsers() {
+        event(1L, "evt_1", "pi_1", 1L);
+        event(2L, "evt_2", "pi_2", 2L);
+        event(3L, "evt_3", "pi_1", 1L); // second event for the same payment
+        event(4L, "evt_4", "pi_4", 99L);
+
+        worker.drain();
+
+        assertEquals("CREDITED", events.get(1L).get("status"));
+        assertEquals("CREDITED", events.get(2L).get("status"));
+        assertEquals("DUPLICATE", events.get(3L).get("status"));
+        assertNull(events.get(3L).get("transaction_id"));
+        assertEquals("REJECTED", events.get(4L).get("status"));
+        assertEquals(List.of(3), batchSizes);
+        assertEquals(Set.of("standin:pi_1", "standin:pi_2"), credited.keySet());
+    }
+
+    @Test
+    void failingEventIsRetriedAloneUntilMarkedFailed() {
+        for (long id = 1; id <= 25; id++) {
+            event(id, "evt_" + id, "pi_" + id, id == 12 ? 3L : 1L);
+        }
+
+        // Fails in the batch of 11-20 and again in the last, short batch
+        worker.drain();
+        assertEquals("PENDING", events.get(12L).get("status"));
+        assertEquals(2, events.get(12L).get("attempts"));
+        assertEquals("Wallet 3 is unavailable", events.get(12L).get("last_error"));
+        assertEquals(24, credited.size());
+
+        worker.drain();
+        assertEquals("FAILED", events.get(12L).get("status"));
+        assertEquals(3, events.get(12L).get("attempts"));
+        events.forEach((id, event) -> {
+            if (id != 12L) {
+                assertEquals("CREDITED", event.get("status"), "event " + id);
+            }
+        });
+    }
+
+    private void event(long id, String eventId, String paymentId, long userId) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", id);
+        event.put("provider", "standin");
+        event.put("provider_event_id", eventId);
+        event.put("payment_id", paymentId);
+        event.put("user_id", userId);
+        event.put("amount", new BigDecimal("25.00"));
+        event.put("payment_method", "card");
+        event.put("status", "PENDING");
+        event.put("attempts", 0);
+        events.put(id, event);
+    }
+
+    /**
+     * The worker's statements, in the order it issues them, against the map
+     */
+    private class EventsTable extends JdbcTemplate {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            int limit = (Integer) args[0];
+            return (List<T>) events.values().stream().filter(event -> "PENDING".equals(event.get("status")))
+                    .map(event -> event.get("id")).limit(limit).toList();
+        }
+
+        // Claim
+        @Override
+        public <T> List<T> query(PreparedStatementCreator creator, RowMapper<T> rowMapper) {
+            List<Object> ids = Arrays.asList(bind(creator)[0]);
+            List<T> rows = new ArrayList<>();
+            for (Map<String, Object> event : events.values()) {
+                if (ids.contains(event.get("id")) && "PENDING".equals(event.get("status"))) {
+                    try {
+                        rows.add(rowMapper.mapRow(resultSet(event), rows.size()));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return rows;
+        }
+
+        // Known users
+        @Override
+        public void query(PreparedStatementCreator creator, RowCallbackHandler handler) {
+            for (Object userId : bind(creator)[0]) {
+                if (KNOWN_USERS.contains(userId)) {
+                    try {
+                        handler.processRow(resultSet(Map.of("id", userId)));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+
+        // Mark the batch
+        @Override
+        public int update(PreparedStatementCreator creator) {
+            Object[][] params = bind(creator);
+            for (int i = 0; i < params[0].length; i++) {
+                Map<String, Object> event = events.get((Long) params[0][i]);
+                event.put("status", params[1][i]);
+                event.put("transaction_id", params[2][i]);
+                event.put("attempts", (Integer) event.get("attempts") + 1);
+                event.put("last_error", null);
+            }
+            return params[0].length;
+        }
+
+        // Mark one event failed
+        @Override
+        public int update(String sql, Object... args) {
+            Map<String, Object> event = events.get((Long) args[2]);
+            if (!"PENDING".equals(event.get("status"))) {
+                return 0;
+            }
+            int attempts = (Integer) event.get("attempts") + 1;
+            event.put("attempts", attempts);
+            event.put("last_error", args[0]);
+            if (attempts >= (Integer) args[1]) {
+                event.put("status", "FAILED");
+            }
+            return 1;
+        }
+    }
+
+    // The arrays the creator binds, by parameter index
+    private static Object[][] bind(PreparedStatementCreator creator) {
+        Object[][] params = new Object[3][];
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setArray")) {
+                        params[(Integer) args[0] - 1] = (Object[]) ((java.sql.Array) args[1]).getArray();
+                    }
+                    return null;
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        return statement;
+                    }
+                    if (method.getName().equals("createArrayOf")) {
+                        Object[] elements = (Object[]) args[1];
+                        return Proxy.newProxyInstance(java.sql.Array.class.getClassLoader(),
+                                new Class<?>[]{java.sql.Array.class}, (array, arrayMethod, arrayArgs) -> elements);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        try {
+            creator.createPreparedStatement(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return params;
+    }
+
+    private static ResultSet resultSet(Map<String, Object> row) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> row.get((String) args[0]));
+    }
+}
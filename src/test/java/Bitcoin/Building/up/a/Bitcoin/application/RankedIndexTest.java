@@ -0,0 +1,55 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks {@link RankedIndex} against a plain sorted list through a random
+ * mix of inserts, score changes and removals.
+ */
+class RankedIndexTest {
+
+    @Test
+    void matchesSortedListUnderRandomUpdates() {
+        Random random = new Random(42);
+        RankedIndex index = new RankedIndex();
+        Map<Long, Long> scores = new HashMap<>();
+
+        for (int op = 0; op < 20_000; op++) {
+            long id = random.nextInt(500);
+            Long previous = scores.remove(id);
+            if (previous != null) {
+                assertTrue(index.remove(previous, id));
+            }
+            if (random.nextInt(4) != 0) {
+                long score = random.nextInt(50); // plenty of ties
+                index.insert(score, id);
+                scores.put(id, score);
+            }
+        }
+
+        List<long[]> expected = new ArrayList<>();
+        scores.forEach((id, score) -> expected.add(new long[]{score, id}));
+        expected.sort(Comparator.<long[]>comparingLong(e -> -e[0]).thenComparingLong(e -> e[1]));
+
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            RankedIndex.Node node = index.get(i);
+            assertEquals(expected.get(i)[0], node.score);
+            assertEquals(expected.get(i)[1], node.id);
+            assertEquals(i, index.countBefore(node.score, node.id));
+
+            long higher = expected.stream().filter(e -> e[0] > node.score).count();
+            assertEquals(higher, index.countHigher(node.score));
+        }
+        assertFalse(index.remove(1_000, 1));
+    }
+}
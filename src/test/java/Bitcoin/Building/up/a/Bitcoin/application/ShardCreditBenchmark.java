@@ -0,0 +1,112 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Credit throughput into one hot wallet with and without balance shards.
+ * Run with the benchmark profile against a disposable database (see
+ * pom.xml); it creates users and wallets and leaves them.
+ *
+ * THREADS buyers, each on its own thread, make TRANSFERS transfers to one
+ * seller: once with the seller unsharded (every credit updates its wallets
+ * row) and once with SHARDS shards. Transfers to a sharded wallet skip the
+ * recipient's lock stripe, so only the database rows are contended. Both
+ * runs must leave the seller with exactly what was sent.
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(properties = {"wallet.engine.enabled=false", "spring.jpa.show-sql=false"})
+@EnabledIfSystemProperty(named = "spring.datasource.url", matches = ".+")
+class ShardCreditBenchmark {
+
+    private static final int THREADS = 32;
+    private static final int TRANSFERS = 300;
+    private static final int SHARDS = 16;
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    // Every new wallet gets the welcome bonus
+    private static final BigDecimal FUNDING = BigDecimal.valueOf(100);
+
+    private static final String EFFECTIVE_BALANCE_SQL = "SELECT balance FROM wallet_balances WHERE user_id = ?";
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletShardService walletShardService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void shardedVersusUnshardedCredits() throws Exception {
+        double unsharded = creditsPerSecond(0);
+        double sharded = creditsPerSecond(SHARDS);
+
+        log.info("{} concurrent credits into one wallet from {} threads: unsharded {} ops/s, {} shards {} ops/s ({}x)",
+                THREADS * TRANSFERS, THREADS, Math.round(unsharded), SHARDS, Math.round(sharded),
+                String.format("%.2f", sharded / unsharded));
+    }
+
+    private double creditsPerSecond(int shards) throws Exception {
+        String prefix = "benchmark-shards-" + shards + "-" + UUID.randomUUID();
+        Long sellerId = createUser(prefix + "-seller");
+        List<Long> buyerIds = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            buyerIds.add(createUser(prefix + "-buyer-" + i));
+        }
+        if (shards > 0) {
+            walletShardService.configure(sellerId, shards);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (Long buyerId : buyerIds) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS; i++) {
+                    walletService.transferCoins(buyerId, sellerId, AMOUNT, "Benchmark");
+                }
+                return null;
+            }));
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        pool.shutdown();
+
+        BigDecimal expected = FUNDING.add(AMOUNT.multiply(BigDecimal.valueOf((long) THREADS * TRANSFERS)));
+        BigDecimal received = jdbcTemplate.queryForObject(EFFECTIVE_BALANCE_SQL, BigDecimal.class, sellerId);
+        assertEquals(0, expected.compareTo(received), "seller balance with " + shards + " shards");
+        return THREADS * TRANSFERS / seconds;
+    }
+
+    private Long createUser(String name) {
+        User user = userRepository.save(User.builder().email(name + "@example.com").fullName(name).build());
+        walletService.createWallet(user);
+        return user.getId();
+    }
+}
@@ -0,0 +1,180 @@
+package Bitcoin.Building.up.a.Bitcoin.application;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Contention tests for {@link WalletLockManager}: many threads run transfers
+ * between a handful of wallets using plain (non-atomic) read-modify-write on the
+ * balances, exactly like the old entity-based code. With the locks held for the
+ * "transaction" no update may be lost and no wallet may go negative. The same
+ * must hold for concurrent debits through {@link WalletService#spendCoins}.
+ */
+class WalletLockManagerTest {
+
+    private static final int THREADS = 16;
+    private static final int OPS_PER_THREAD = 20_000;
+    private static final int WALLETS = 8;
+    private static final long INITIAL_BALANCE = 1_000;
+
+    @Test
+    void concurrentTransfersLoseNoUpdates() throws Exception {
+        // Fewer stripes than wallets so unrelated wallets also share locks
+        WalletLockManager lockManager = new WalletLockManager(4, 5_000);
+        long[] balances = new long[WALLETS];
+        java.util.Arrays.fill(balances, INITIAL_BALANCE);
+        AtomicLong completed = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    int from = random.nextInt(WALLETS);
+                    int to = (from + 1 + random.nextInt(WALLETS - 1)) % WALLETS;
+                    long amount = 1 + random.nextInt(50);
+
+                    runInTransaction(() -> {
+                        lockManager.lockForTransaction((long) from, (long) to);
+                        long available = balances[from];
+                        if (available < amount) {
+                            rejected.incrementAndGet();
+                            return;
+                        }
+                        balances[from] = available - amount;
+                        balances[to] = balances[to] + amount;
+                        completed.incrementAndGet();
+                    });
+                }
+                return null;
+            });
+        }
+
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(2, TimeUnit.MINUTES), "transfers deadlocked or timed out");
+
+        long total = 0;
+        for (long balance : balances) {
+            assertTrue(balance >= 0, "wallet overdrawn");
+            total += balance;
+        }
+        assertEquals(INITIAL_BALANCE * WALLETS, total, "coins were created or lost");
+        assertEquals((long) THREADS * OPS_PER_THREAD, completed.get() + rejected.get());
+    }
+
+    @Test
+    void concurrentDebitsThroughWalletServiceNeverOverdraw() throws Exception {
+        // The wallet row: debitIfAvailable behaves like its conditional UPDATE
+        long initialCents = 10_000;
+        long amountCents = 700;
+        AtomicLong balanceCents = new AtomicLong(initialCents);
+        AtomicLong saved = new AtomicLong();
+        Wallet wallet = Wallet.builder().id(1L).user(User.builder().id(1L).build()).build();
+
+        WalletRepository walletRepository = mock(WalletRepository.class);
+        when(walletRepository.findByUserId(1L)).thenReturn(Optional.of(wallet));
+        when(walletRepository.debitIfAvailable(eq(1L), any())).thenAnswer(call -> {
+            long debit = ((BigDecimal) call.getArgument(1)).movePointRight(2).longValueExact();
+            long current;
+            do {
+                current = balanceCents.get();
+                if (current < debit) {
+                    return 0;
+                }
+            } while (!balanceCents.compareAndSet(current, current - debit));
+            return 1;
+        });
+        CoinTransactionRepository transactions = mock(CoinTransactionRepository.class);
+        when(transactions.save(any())).thenAnswer(call -> {
+            saved.incrementAndGet();
+            return call.getArgument(0);
+        });
+
+        WalletService walletService = new WalletService(walletRepository, transactions, mock(OutboxService.class),
+                new WalletLockManager(4, 5_000), mock(LedgerService.class), mock(EntityManager.class),
+                mock(JdbcTemplate.class), mock(WalletBalanceCache.class), mock(IdempotencyService.class),
+                mock(LeaderboardService.class), mock(WalletShardService.class), mock(LedgerEngine.class),
+                mock(PlatformTransactionManager.class));
+
+        int attempts = THREADS * 10;
+        AtomicLong spent = new AtomicLong();
+        AtomicLong refused = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < attempts / THREADS; i++) {
+                    runInTransaction(() -> {
+                        try {
+                            walletService.spendCoins(1L, BigDecimal.valueOf(amountCents, 2),
+                                    CoinTransaction.TransactionCategory.MARKETPLACE_PURCHASE, "test", null);
+                            spent.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            assertTrue(e.getMessage().startsWith("Insufficient balance"), e.getMessage());
+                            refused.incrementAndGet();
+                        }
+                    });
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES), "debits deadlocked or timed out");
+
+        assertEquals(initialCents / amountCents, spent.get());
+        assertEquals(attempts - spent.get(), refused.get());
+        assertEquals(initialCents % amountCents, balanceCents.get());
+        // A refused debit writes no transaction
+        assertEquals(spent.get(), saved.get());
+    }
+
+    @Test
+    void locksAreReleasedWhenTransactionCompletes() {
+        WalletLockManager lockManager = new WalletLockManager(16, 100);
+
+        runInTransaction(() -> lockManager.lockForTransaction(1L, 2L));
+
+        // A different thread must be able to take the same wallets afterwards
+        Thread other = new Thread(() -> runInTransaction(() -> lockManager.lockForTransaction(2L, 1L)));
+        other.start();
+        assertDoesNotThrow(() -> other.join(1_000));
+        assertFalse(other.isAlive());
+    }
+
+    private static void runInTransaction(Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            work.run();
+        } finally {
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationManager.clearSynchronization();
+            synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        }
+    }
+}